@@ -0,0 +1,24 @@
+package com.jwoolston.android.uvc.capture;
+
+/**
+ * What a stream records to its {@link CaptureWriter}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public enum CaptureMode {
+
+    /**
+     * Nothing is recorded.
+     */
+    NONE,
+
+    /**
+     * Every well formed payload, header included, in bus order. Enough to replay the stream through frame assembly.
+     */
+    PAYLOADS,
+
+    /**
+     * Every frame delivered to the consumer.
+     */
+    FRAMES
+}
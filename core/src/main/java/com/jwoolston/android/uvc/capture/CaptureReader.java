@@ -0,0 +1,198 @@
+package com.jwoolston.android.uvc.capture;
+
+import android.support.annotation.NonNull;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads back a recording made by a {@link CaptureWriter}, one record at a time, across all of its segments. Like
+ * {@link com.jwoolston.android.uvc.payload.PayloadHeader} this is a flyweight: after {@link #next()} the getters
+ * describe the current record, whose data is read in place from the memory mapped segment, and they are only valid
+ * until the next call.
+ * <p>
+ * A record which runs past the end of its segment, as left by a recording which was cut short, ends the segment.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CaptureReader implements Closeable {
+
+    private final File directory;
+
+    private MappedByteBuffer segment;
+    private int              segmentIndex = -1;
+    private boolean          finished;
+
+    private long timestamp;
+    private int  length;
+    private int  flags;
+    private int  dataOffset;
+
+    /**
+     * Constructor.
+     *
+     * @param directory The recording directory.
+     *
+     * @throws IOException Thrown if the directory holds no valid first segment.
+     */
+    public CaptureReader(@NonNull File directory) throws IOException {
+        this.directory = directory;
+        if (!openSegment(0)) {
+            throw new IOException("No capture segments in " + directory);
+        }
+    }
+
+    /**
+     * Advances to the next record.
+     *
+     * @return {@code true} if there is a record, {@code false} at the end of the recording.
+     *
+     * @throws IOException Thrown if a later segment exists but is not a valid segment.
+     */
+    public boolean next() throws IOException {
+        while (!finished) {
+            final MappedByteBuffer segment = this.segment;
+            if (segment.remaining() >= CaptureWriter.RECORD_HEADER_SIZE) {
+                final long recordTimestamp = segment.getLong();
+                final int recordLength = segment.getInt();
+                final int recordFlags = segment.getInt();
+                if ((recordFlags & CaptureWriter.KIND_MASK) != 0 && recordLength >= 0
+                    && recordLength <= segment.remaining()) {
+                    timestamp = recordTimestamp;
+                    length = recordLength;
+                    flags = recordFlags;
+                    dataOffset = segment.position();
+                    segment.position(dataOffset + recordLength);
+                    return true;
+                }
+            }
+            if (!openSegment(segmentIndex + 1)) {
+                finished = true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns to the first record of the recording.
+     *
+     * @throws IOException Thrown if the first segment can no longer be read.
+     */
+    public void rewind() throws IOException {
+        finished = false;
+        if (!openSegment(0)) {
+            throw new IOException("No capture segments in " + directory);
+        }
+    }
+
+    private boolean openSegment(int index) throws IOException {
+        final File file = CaptureWriter.getSegmentFile(directory, index);
+        if (!file.isFile()) {
+            return false;
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        final MappedByteBuffer mapped;
+        try {
+            mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+        } finally {
+            raf.close();
+        }
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (mapped.remaining() < CaptureWriter.SEGMENT_HEADER_SIZE || mapped.getInt(0) != CaptureWriter.MAGIC
+            || (0xFFFF & mapped.getShort(4)) != CaptureWriter.VERSION || mapped.getInt(8) != index) {
+            throw new IOException("Not a version " + CaptureWriter.VERSION + " capture segment: " + file);
+        }
+        mapped.position(CaptureWriter.SEGMENT_HEADER_SIZE);
+        segment = mapped;
+        segmentIndex = index;
+        return true;
+    }
+
+    /**
+     * When the current record's data arrived, on the {@link System#nanoTime()} clock of the recording device.
+     *
+     * @return The record timestamp in nanoseconds.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    public int getLength() {
+        return length;
+    }
+
+    public int getFlags() {
+        return flags;
+    }
+
+    /**
+     * The kind of the current record.
+     *
+     * @return {@link CaptureWriter#KIND_PAYLOAD} or {@link CaptureWriter#KIND_FRAME}.
+     */
+    public int getKind() {
+        return flags & CaptureWriter.KIND_MASK;
+    }
+
+    public boolean isDiscontinuity() {
+        return (flags & CaptureWriter.FLAG_DISCONTINUITY) != 0;
+    }
+
+    public int getSegmentIndex() {
+        return segmentIndex;
+    }
+
+    /**
+     * The segment the current record is read from. Its data starts at {@link #getDataOffset()}.
+     *
+     * @return The read-only mapped {@link ByteBuffer}.
+     */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return segment;
+    }
+
+    public int getDataOffset() {
+        return dataOffset;
+    }
+
+    /**
+     * Copies the current record's data into the destination at its current position.
+     *
+     * @param destination {@link ByteBuffer} with at least {@link #getLength()} bytes remaining.
+     */
+    public void copyDataTo(@NonNull ByteBuffer destination) {
+        final int position = segment.position();
+        final int limit = segment.limit();
+        segment.limit(dataOffset + length);
+        segment.position(dataOffset);
+        destination.put(segment);
+        segment.limit(limit);
+        segment.position(position);
+    }
+
+    /**
+     * Lets go of the current segment. The mapping itself is released once it is garbage collected.
+     */
+    @Override
+    public void close() {
+        segment = null;
+        finished = true;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureReader{" +
+               "directory=" + directory +
+               ", segment=" + segmentIndex +
+               ", timestamp=" + timestamp +
+               ", length=" + length +
+               ", flags=0x" + Integer.toHexString(flags) +
+               '}';
+    }
+}
@@ -0,0 +1,235 @@
+package com.jwoolston.android.uvc.capture;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.transport.EmulatedTransport;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link UsbTransport} which streams a payload recording made with {@link CaptureMode#PAYLOADS} in place of a device's
+ * video data. A recording holds no descriptors or control traffic, so those are passed to another transport, usually
+ * a {@link com.jwoolston.android.uvc.simulator.SimulatedTransport} describing the recorded camera, while every
+ * isochronous or bulk transfer is filled from the recording, whichever endpoint it was created for.
+ * <p>
+ * Isochronous transfers carry one recorded payload per packet. A transfer ends early, with empty packets, before a
+ * payload recorded after a discontinuity, and payloads larger than the packet stride are skipped. Bulk transfers
+ * carry consecutive payloads up to and including the first one shorter than the longest seen so far, as a bulk read
+ * ends on a short packet. Frame records are skipped.
+ * <p>
+ * When paced, each transfer completes when its last payload was recorded, relative to the first transfer; otherwise
+ * transfers complete as soon as they are submitted. Once the recording is exhausted transfers complete with
+ * {@link #LIBUSB_ERROR_NO_DEVICE}, as if the camera had been unplugged.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CaptureTransport extends EmulatedTransport {
+
+    private final UsbTransport  control;
+    private final CaptureReader reader;
+
+    private volatile boolean paced = true;
+
+    // Event thread only
+    private boolean held; // The reader is on a payload record which has not been replayed yet
+    private boolean finished;
+    private int     longestPayload;
+    private long    firstTimestamp;
+    private long    wallStart;
+
+    private volatile long replayedCount;
+    private volatile long skippedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param control   The {@link UsbTransport} descriptors, control transfers and alternate settings are passed to. It
+     *                  is closed along with this transport.
+     * @param recording The recording directory.
+     *
+     * @throws IOException Thrown if the recording cannot be opened.
+     */
+    public CaptureTransport(@NonNull UsbTransport control, @NonNull File recording) throws IOException {
+        super("UVC-Capture-Events");
+        this.control = control;
+        reader = new CaptureReader(recording);
+    }
+
+    /**
+     * Sets whether transfers complete at the time their payloads were recorded or as soon as they are submitted.
+     *
+     * @param paced {@code true} to keep the recorded timing. Defaults to {@code true}.
+     */
+    public void setPaced(boolean paced) {
+        this.paced = paced;
+    }
+
+    public boolean isPaced() {
+        return paced;
+    }
+
+    /**
+     * The number of payload records streamed so far.
+     *
+     * @return The replayed payload count.
+     */
+    public long getReplayedCount() {
+        return replayedCount;
+    }
+
+    /**
+     * The number of records which could not be streamed: frame records, and payloads too large for a packet.
+     *
+     * @return The skipped record count.
+     */
+    public long getSkippedCount() {
+        return skippedCount;
+    }
+
+    @NonNull
+    @Override
+    public byte[] getRawDescriptors() {
+        return control.getRawDescriptors();
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, @Nullable byte[] buffer,
+                               @IntRange(from = 0, to = 0xFFFF) int length, @IntRange(from = 0) int timeout) {
+        return control.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+    }
+
+    @Override
+    public boolean selectAlternateSetting(int interfaceNumber, int alternateSetting) {
+        return control.selectAlternateSetting(interfaceNumber, alternateSetting);
+    }
+
+    @Override
+    public int clearHalt(int endpointAddress) {
+        return control.clearHalt(endpointAddress);
+    }
+
+    @Override
+    protected int fillIsochronousTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int packetStride,
+                                          @NonNull int[] packetLengths, @NonNull int[] packetStatuses, int packetCount)
+            throws InterruptedException {
+        int count = 0;
+        try {
+            while (count < packetCount && nextPayload()) {
+                if (count > 0 && reader.isDiscontinuity()) {
+                    break;
+                }
+                if (reader.getLength() > packetStride) {
+                    ++skippedCount;
+                    held = false;
+                    continue;
+                }
+                buffer.clear();
+                buffer.position(count * packetStride);
+                packetLengths[count++] = replay(buffer);
+            }
+        } catch (IOException e) {
+            finished = true;
+        }
+        if (count == 0 && finished) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        for (int i = count; i < packetCount; ++i) {
+            packetLengths[i] = 0;
+        }
+        buffer.clear();
+        return 0;
+    }
+
+    @Override
+    protected int fillBulkTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int timeout)
+            throws InterruptedException {
+        final int start = buffer.position();
+        try {
+            while (nextPayload() && reader.getLength() <= buffer.remaining()) {
+                if (buffer.position() > start && reader.isDiscontinuity()) {
+                    break;
+                }
+                final int length = replay(buffer);
+                if (length < longestPayload) {
+                    break;
+                }
+                longestPayload = length;
+            }
+        } catch (IOException e) {
+            finished = true;
+        }
+        final int received = buffer.position() - start;
+        if (received == 0 && finished) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        return received;
+    }
+
+    /**
+     * Moves the reader to the next payload record, unless it is still on one which has not been replayed.
+     *
+     * @return {@code false} once the recording is exhausted.
+     */
+    private boolean nextPayload() throws IOException {
+        while (!held && !finished) {
+            if (!reader.next()) {
+                finished = true;
+            } else if (reader.getKind() == CaptureWriter.KIND_PAYLOAD) {
+                held = true;
+            } else {
+                ++skippedCount;
+            }
+        }
+        return held;
+    }
+
+    /**
+     * Copies the held payload into the buffer at its position, once its recorded time has come if paced.
+     */
+    private int replay(@NonNull ByteBuffer buffer) throws InterruptedException {
+        final long timestamp = reader.getTimestamp();
+        if (wallStart == 0) {
+            wallStart = System.nanoTime();
+            firstTimestamp = timestamp;
+        }
+        if (paced) {
+            awaitTime(wallStart + timestamp - firstTimestamp);
+        }
+        final int length = reader.getLength();
+        reader.copyDataTo(buffer);
+        held = false;
+        ++replayedCount;
+        return length;
+    }
+
+    private static void awaitTime(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        // The reader may still be in use on the event thread; its mapping is released once it is garbage collected
+        super.close();
+        control.close();
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureTransport{" +
+               "reader=" + reader +
+               ", paced=" + paced +
+               ", replayed=" + replayedCount +
+               ", skipped=" + skippedCount +
+               '}';
+    }
+}
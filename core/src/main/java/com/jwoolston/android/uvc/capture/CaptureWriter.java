@@ -0,0 +1,278 @@
+package com.jwoolston.android.uvc.capture;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.payload.PayloadHeader;
+import com.jwoolston.android.uvc.util.Logger;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Locale;
+
+/**
+ * Append-only recorder of raw payloads or assembled frames into memory mapped segment files. Each segment is created
+ * at its full size and mapped up front, so appending a record is a header write and a single copy straight from the
+ * transfer or frame buffer into the page cache; nothing is allocated and no system call is made until the segment is
+ * full, at which point the next one is started.
+ * <p>
+ * A recording is a directory of segments named by {@link #getSegmentFile(File, int)}. All values are little endian.
+ * <br>
+ * Segment header ({@link #SEGMENT_HEADER_SIZE} bytes):<br>
+ * - <b>magic</b> (4 bytes, {@link #MAGIC})<br>
+ * - <b>version</b> (2 bytes, {@link #VERSION})<br>
+ * - <b>reserved</b> (2 bytes)<br>
+ * - <b>index</b> (4 bytes, the segment number)<br>
+ * - <b>reserved</b> (4 bytes)<br>
+ * Record header ({@link #RECORD_HEADER_SIZE} bytes), followed by the record data:<br>
+ * - <b>timestamp</b> (8 bytes, when the data arrived, on the {@link System#nanoTime()} clock)<br>
+ * - <b>length</b> (4 bytes, of the data which follows)<br>
+ * - <b>flags</b> (4 bytes, a KIND_ value combined with FLAG_ values)<br>
+ * A record header with no kind, whether written when the segment was closed or left zero by a recording which was
+ * cut short, ends the segment.
+ * <p>
+ * Payload records hold the payload header and data as they arrived. Frame records hold the frame data only.
+ * <p>
+ * Records which do not fit in an empty segment, and every record after a segment could not be created, are dropped and
+ * counted. Appending is expected from a single thread at a time.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CaptureWriter implements Closeable {
+
+    public static final int MAGIC   = 0x52435655; // "UVCR"
+    public static final int VERSION = 1;
+
+    public static final int SEGMENT_HEADER_SIZE = 16;
+    public static final int RECORD_HEADER_SIZE  = 16;
+
+    public static final long DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    public static final int KIND_MASK    = 0x0F;
+    public static final int KIND_PAYLOAD = 0x01;
+    public static final int KIND_FRAME   = 0x02;
+
+    /**
+     * Payloads were lost before this one.
+     */
+    public static final int FLAG_DISCONTINUITY = 0x10;
+
+    /**
+     * The frame is a still image.
+     */
+    public static final int FLAG_STILL_IMAGE = 0x20;
+
+    private final File directory;
+    private final long segmentSize;
+
+    private MappedByteBuffer segment;
+    private int              segmentIndex = -1;
+    private boolean          failed;
+    private boolean          closed;
+
+    private long recordCount;
+    private long byteCount;
+    private long droppedRecordCount;
+
+    /**
+     * Constructor. The directory is created if needed and the first segment is created and mapped.
+     *
+     * @param directory   The directory to write the segments to. It should be empty.
+     * @param segmentSize The size of each segment file in bytes, headers included.
+     *
+     * @throws IOException Thrown if the directory or the first segment could not be created.
+     */
+    public CaptureWriter(@NonNull File directory, @IntRange(from = SEGMENT_HEADER_SIZE + 2 * RECORD_HEADER_SIZE)
+            long segmentSize) throws IOException {
+        if (segmentSize < SEGMENT_HEADER_SIZE + 2 * RECORD_HEADER_SIZE || segmentSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create capture directory " + directory);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        nextSegment();
+    }
+
+    /**
+     * The file a segment of a recording is stored in.
+     *
+     * @param directory The recording directory.
+     * @param index     The segment number, from 0.
+     *
+     * @return The segment {@link File}.
+     */
+    @NonNull
+    public static File getSegmentFile(@NonNull File directory, int index) {
+        return new File(directory, String.format(Locale.US, "%05d.seg", index));
+    }
+
+    /**
+     * Appends a payload, header included, as a {@link #KIND_PAYLOAD} record.
+     *
+     * @param header        {@link PayloadHeader} view of the payload.
+     * @param timestamp     When the packet carrying the payload was on the bus.
+     * @param discontinuity Whether payloads were lost before this one.
+     *
+     * @return {@code true} if the record was written.
+     */
+    public boolean appendPayload(@NonNull PayloadHeader header, long timestamp, boolean discontinuity) {
+        final int offset = header.getPayloadOffset() - header.getHeaderLength();
+        final int length = header.getHeaderLength() + header.getPayloadLength();
+        return append(header.getBuffer(), offset, length, timestamp,
+                      KIND_PAYLOAD | (discontinuity ? FLAG_DISCONTINUITY : 0));
+    }
+
+    /**
+     * Appends the data of a frame as a {@link #KIND_FRAME} record, stamped with when it was received.
+     *
+     * @param frame The {@link Frame} to record. It is not released.
+     *
+     * @return {@code true} if the record was written.
+     */
+    public boolean appendFrame(@NonNull Frame frame) {
+        return append(frame.getBuffer(), 0, frame.getSize(), frame.getReceivedTime(),
+                      KIND_FRAME | (frame.isStillImage() ? FLAG_STILL_IMAGE : 0));
+    }
+
+    /**
+     * Appends a record. The source buffer's position and limit are restored afterwards.
+     *
+     * @param source    The {@link ByteBuffer} holding the data.
+     * @param offset    The absolute offset of the data in the source.
+     * @param length    The number of bytes to record.
+     * @param timestamp The record timestamp.
+     * @param flags     A KIND_ value combined with FLAG_ values.
+     *
+     * @return {@code true} if the record was written, {@code false} if it was dropped.
+     */
+    public synchronized boolean append(@NonNull ByteBuffer source, int offset, int length, long timestamp,
+                                       int flags) {
+        if ((flags & KIND_MASK) == 0) {
+            throw new IllegalArgumentException("Record flags have no kind: " + flags);
+        }
+        // Room is always left for the end of segment marker
+        final long needed = RECORD_HEADER_SIZE + (long) length + RECORD_HEADER_SIZE;
+        if (closed || failed || needed > segmentSize - SEGMENT_HEADER_SIZE) {
+            ++droppedRecordCount;
+            return false;
+        }
+        if (needed > segment.remaining() && !nextSegment()) {
+            ++droppedRecordCount;
+            return false;
+        }
+        final MappedByteBuffer segment = this.segment;
+        segment.putLong(timestamp).putInt(length).putInt(flags);
+        final int position = source.position();
+        final int limit = source.limit();
+        source.limit(offset + length);
+        source.position(offset);
+        segment.put(source);
+        source.limit(limit);
+        source.position(position);
+        ++recordCount;
+        byteCount += length;
+        return true;
+    }
+
+    private boolean nextSegment() {
+        endSegment();
+        final File file = getSegmentFile(directory, segmentIndex + 1);
+        try {
+            final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+            try {
+                raf.setLength(segmentSize);
+                segment = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, segmentSize);
+            } finally {
+                // The mapping stays valid once the file is closed
+                raf.close();
+            }
+        } catch (IOException e) {
+            Logger.e(e, "Unable to create capture segment %s, dropping further records.", file);
+            segment = null;
+            failed = true;
+            return false;
+        }
+        ++segmentIndex;
+        segment.order(ByteOrder.LITTLE_ENDIAN);
+        segment.putInt(MAGIC).putShort((short) VERSION).putShort((short) 0).putInt(segmentIndex).putInt(0);
+        return true;
+    }
+
+    private void endSegment() {
+        final MappedByteBuffer segment = this.segment;
+        if (segment == null) {
+            return;
+        }
+        segment.putLong(0).putInt(0).putInt(0);
+        segment.force();
+        this.segment = null;
+    }
+
+    /**
+     * Ends the current segment and flushes it to storage. Further records are dropped.
+     */
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        endSegment();
+        Logger.d("Closed capture %s: %d records, %d bytes in %d segments, %d dropped.", directory, recordCount,
+                 byteCount, segmentIndex + 1, droppedRecordCount);
+    }
+
+    @NonNull
+    public File getDirectory() {
+        return directory;
+    }
+
+    public long getSegmentSize() {
+        return segmentSize;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segmentIndex + 1;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /**
+     * The number of data bytes recorded, record headers excluded.
+     *
+     * @return The byte count.
+     */
+    public synchronized long getByteCount() {
+        return byteCount;
+    }
+
+    /**
+     * The number of records which were not written, because they were larger than a segment or a segment could not
+     * be created.
+     *
+     * @return The dropped record count.
+     */
+    public synchronized long getDroppedRecordCount() {
+        return droppedRecordCount;
+    }
+
+    @Override
+    public String toString() {
+        return "CaptureWriter{" +
+               "directory=" + directory +
+               ", segments=" + getSegmentCount() +
+               ", records=" + getRecordCount() +
+               ", bytes=" + getByteCount() +
+               ", dropped=" + getDroppedRecordCount() +
+               '}';
+    }
+}
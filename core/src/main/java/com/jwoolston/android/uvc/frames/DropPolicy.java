@@ -0,0 +1,27 @@
+package com.jwoolston.android.uvc.frames;
+
+/**
+ * What a {@link FrameQueue} does with a new frame when its consumer has fallen behind and the queue is full.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public enum DropPolicy {
+
+    /**
+     * Release the oldest queued frame to make room for the new one. The consumer always sees the most recent frames,
+     * which suits live preview.
+     */
+    DROP_OLDEST,
+
+    /**
+     * Release the new frame and keep the queue as it is. The consumer sees an uninterrupted run of older frames.
+     */
+    DROP_NEWEST,
+
+    /**
+     * Block the producer until the consumer makes room. Streaming queues are fed from the stream's processing thread,
+     * so blocking stalls frame assembly but never the USB event thread; payloads arriving meanwhile are dropped at the
+     * handoff. When the producer may not block the new frame is dropped instead, exactly as {@link #DROP_NEWEST}.
+     */
+    BLOCK
+}
@@ -0,0 +1,186 @@
+package com.jwoolston.android.uvc.frames;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A complete video frame backed by a pooled direct buffer. Frames are handed to consumers with ownership; once the
+ * consumer is done with the data it must call {@link #release()} so the buffer can be reused for a later frame. The
+ * frame must not be touched after it has been released.
+ * <p>
+ * Frames are reference counted so one buffer can be shared by several consumers without copying. Each
+ * {@link #retain()} must be matched by a {@link #release()}, and the buffer only returns to its pool when the last
+ * reference is released. Since a shared frame may be read by several threads at once, its data is only exposed
+ * through read-only views.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class Frame {
+
+    private final FrameBufferPool pool;
+    private final ByteBuffer      buffer;
+    private final AtomicInteger   references = new AtomicInteger();
+
+    private int     size;
+    private boolean hasPresentationTime;
+    private long    presentationTime;
+    private boolean stillImage;
+    private long    receivedTime;
+    private long    captureTime;
+
+    // Guarded by pool
+    boolean pooled;
+
+    Frame(@NonNull FrameBufferPool pool, int capacity) {
+        this.pool = pool;
+        buffer = ByteBuffer.allocateDirect(capacity);
+    }
+
+    /**
+     * The frame data, between position 0 and {@link #getSize()}. Each call returns a new view with its own position
+     * and limit over the same memory, so holders of a shared frame never disturb each other; no data is copied.
+     *
+     * @return A read-only {@link ByteBuffer} view of the frame data.
+     */
+    @NonNull
+    public ByteBuffer getBuffer() {
+        return buffer.asReadOnlyBuffer();
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    public int getCapacity() {
+        return buffer.capacity();
+    }
+
+    public boolean hasPresentationTime() {
+        return hasPresentationTime;
+    }
+
+    /**
+     * The frame PTS in native device clock units. Only valid if {@link #hasPresentationTime()}.
+     *
+     * @return The unsigned 32 bit PTS.
+     */
+    public long getPresentationTime() {
+        return presentationTime;
+    }
+
+    public boolean isStillImage() {
+        return stillImage;
+    }
+
+    /**
+     * When the transfer carrying the last payload of this frame was handed back by the USB stack, on the
+     * {@link System#nanoTime()} clock. Comparing it with the time a consumer picks the frame up gives the delay added
+     * by frame assembly and delivery.
+     *
+     * @return The receive time in nanoseconds.
+     */
+    public long getReceivedTime() {
+        return receivedTime;
+    }
+
+    /**
+     * When the device started capturing this frame, on the {@link System#nanoTime()} clock. This is the PTS mapped
+     * through the stream's {@link com.jwoolston.android.uvc.payload.ClockRecovery ClockRecovery}, so it is free of
+     * the jitter transfer batching adds to {@link #getReceivedTime()} and gives the true end to end latency. Only
+     * known once the device clock has been recovered, and only for devices which send both PTS and SCR.
+     *
+     * @return The capture time in nanoseconds, or 0 if it is not known.
+     */
+    public long getCaptureTime() {
+        return captureTime;
+    }
+
+    /**
+     * Adds a reference to this frame, for handing it to another consumer.
+     *
+     * @return This frame.
+     *
+     * @throws IllegalStateException Thrown if the frame has already been released.
+     */
+    @NonNull
+    public Frame retain() throws IllegalStateException {
+        while (true) {
+            final int count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame has already been released.");
+            }
+            if (references.compareAndSet(count, count + 1)) {
+                return this;
+            }
+        }
+    }
+
+    /**
+     * Drops a reference to this frame, returning it to its pool once no references remain.
+     *
+     * @throws IllegalStateException Thrown if the frame has already been released.
+     */
+    public void release() throws IllegalStateException {
+        while (true) {
+            final int count = references.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Frame has already been released.");
+            }
+            if (references.compareAndSet(count, count - 1)) {
+                if (count == 1) {
+                    pool.recycle(this);
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * The number of holders of this frame.
+     *
+     * @return The reference count, 0 once the frame is back in its pool.
+     */
+    public int getReferenceCount() {
+        return references.get();
+    }
+
+    /**
+     * Prepares the buffer to receive a new frame.
+     *
+     * @return The buffer to write the frame data to.
+     */
+    @NonNull
+    ByteBuffer begin() {
+        references.set(1);
+        buffer.clear();
+        size = 0;
+        hasPresentationTime = false;
+        presentationTime = 0;
+        stillImage = false;
+        receivedTime = 0;
+        captureTime = 0;
+        return buffer;
+    }
+
+    void finish(boolean hasPresentationTime, long presentationTime, boolean stillImage, long receivedTime,
+                long captureTime) {
+        size = buffer.position();
+        buffer.flip();
+        this.hasPresentationTime = hasPresentationTime;
+        this.presentationTime = presentationTime;
+        this.stillImage = stillImage;
+        this.receivedTime = receivedTime;
+        this.captureTime = captureTime;
+    }
+
+    @Override
+    public String toString() {
+        return "Frame{" +
+               "size=" + size +
+               ", hasPresentationTime=" + hasPresentationTime +
+               ", presentationTime=" + presentationTime +
+               ", stillImage=" + stillImage +
+               '}';
+    }
+}
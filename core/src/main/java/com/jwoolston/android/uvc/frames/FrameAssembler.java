@@ -0,0 +1,351 @@
+package com.jwoolston.android.uvc.frames;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.capture.CaptureWriter;
+import com.jwoolston.android.uvc.payload.ClockRecovery;
+import com.jwoolston.android.uvc.payload.PayloadHeader;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.util.Histogram;
+import java.nio.ByteBuffer;
+
+/**
+ * Reassembles video frames from a stream of payloads. A frame ends either at a payload with the End of Frame bit set
+ * or, for devices which do not use EOF, when the Frame ID bit toggles. Payload data is appended directly into a
+ * {@link Frame} taken from a {@link FrameBufferPool} sized from the committed dwMaxVideoFrameSize, and complete frames
+ * are handed to a {@link FrameListener} which takes ownership of them.
+ * <p>
+ * When a {@link ClockRecovery} is attached, the SCR of each payload is fed to it along with the time the payload was on
+ * the bus, and every frame with a PTS is stamped with its capture time on the host clock.
+ * <p>
+ * Frames which cannot be trusted are counted and dropped by rewinding the buffer, without ever reaching the listener:
+ * <br>
+ * - <b>Partial</b> frames, whose start was not observed (the first frame after {@link #reset()}), which would
+ * overflow the frame buffer, or which spanned a {@link #markDiscontinuity() discontinuity}.<br>
+ * - <b>Error</b> frames, where any payload had the ERR bit set.<br>
+ * - <b>Dropped</b> frames, for which the pool had no free buffer because consumers are holding on to every frame.
+ * <p>
+ * When a {@link CaptureWriter} is attached, either every payload as it arrives or every delivered frame is appended to
+ * it, according to the {@link CaptureMode}.
+ * <p>
+ * The time between delivered frames and its variation are recorded to {@link Histogram}s.
+ * <p>
+ * This class is not thread safe, it is expected to be driven from a single stream processing thread. The counters
+ * and histograms may be read from any thread.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §2.4.3.3</a>
+ */
+public class FrameAssembler implements PayloadParser.PayloadListener {
+
+    private static final int FRAME_ID_UNKNOWN = -1;
+
+    private final FrameBufferPool pool;
+    private final Histogram       frameInterval = new Histogram();
+    private final Histogram       frameJitter   = new Histogram();
+
+    private FrameListener listener;
+    private ClockRecovery clockRecovery;
+    private CaptureWriter captureWriter;
+    private CaptureMode   captureMode = CaptureMode.NONE;
+
+    private Frame      frame;
+    private ByteBuffer frameBuffer;
+
+    private int     frameId = FRAME_ID_UNKNOWN;
+    private boolean frameEnded;
+    private boolean discontinuity;
+    private boolean captureDiscontinuity;
+    private boolean framePartial;
+    private boolean frameError;
+    private boolean frameStill;
+    private boolean framePresentationTimeValid;
+    private long    framePresentationTime;
+    private long    transferTime;
+    private long    packetTime;
+    private long    lastFrameTime;
+    private long    lastFrameInterval;
+
+    private volatile long completeFrameCount;
+    private volatile long partialFrameCount;
+    private volatile long errorFrameCount;
+    private volatile long droppedFrameCount;
+
+    /**
+     * Constructor.
+     *
+     * @param pool {@link FrameBufferPool} sized for the committed dwMaxVideoFrameSize.
+     */
+    public FrameAssembler(@NonNull FrameBufferPool pool) {
+        this.pool = pool;
+        reset();
+    }
+
+    public void setFrameListener(@Nullable FrameListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Discards any frame in progress. The next frame is treated as partial since its start may already have been
+     * missed.
+     */
+    public void reset() {
+        frameId = FRAME_ID_UNKNOWN;
+        frameEnded = false;
+        discontinuity = false;
+        lastFrameTime = 0;
+        lastFrameInterval = 0;
+        startFrame(true);
+    }
+
+    /**
+     * Sets when the transfer carrying the payloads which follow was received, on the {@link System#nanoTime()} clock.
+     * Frames are stamped with the time of the transfer which completed them.
+     *
+     * @param nanos The transfer completion time.
+     */
+    public void setTransferTime(long nanos) {
+        transferTime = nanos;
+    }
+
+    /**
+     * Sets when the packet carrying the next payload was on the bus, on the {@link System#nanoTime()} clock. This is
+     * the transfer completion time less the packets which followed it, and is what SCR samples are paired with.
+     *
+     * @param nanos The estimated packet time.
+     */
+    public void setPacketTime(long nanos) {
+        packetTime = nanos;
+    }
+
+    /**
+     * Attaches the clock recovery used to stamp frames with their capture time.
+     *
+     * @param clockRecovery {@link ClockRecovery} for the device clock, or {@code null} to leave capture times unset.
+     */
+    public void setClockRecovery(@Nullable ClockRecovery clockRecovery) {
+        this.clockRecovery = clockRecovery;
+    }
+
+    @Nullable
+    public ClockRecovery getClockRecovery() {
+        return clockRecovery;
+    }
+
+    /**
+     * Attaches a recorder for the payloads or frames of the stream.
+     *
+     * @param writer The {@link CaptureWriter} to append to, or {@code null} to stop recording.
+     * @param mode   What to record, {@link CaptureMode#PAYLOADS} or {@link CaptureMode#FRAMES}.
+     */
+    public void setCaptureWriter(@Nullable CaptureWriter writer, @NonNull CaptureMode mode) {
+        captureWriter = writer;
+        captureMode = writer != null ? mode : CaptureMode.NONE;
+    }
+
+    /**
+     * Notes that payloads were lost between the last payload and the next one. Both the frame in progress and the frame
+     * the next payload belongs to may be missing data, so neither is delivered.
+     */
+    public void markDiscontinuity() {
+        discontinuity = true;
+        captureDiscontinuity = true;
+        framePartial = true;
+    }
+
+    @Override
+    public void onDiscontinuity() {
+        markDiscontinuity();
+    }
+
+    @Override
+    public void onPayload(@NonNull PayloadHeader header) {
+        if (captureMode == CaptureMode.PAYLOADS) {
+            captureWriter.appendPayload(header, packetTime, captureDiscontinuity);
+            captureDiscontinuity = false;
+        }
+        if (clockRecovery != null && header.hasSourceClock()) {
+            clockRecovery.addSample(header.getSourceTimeClock(), header.getSofCounter(), packetTime);
+        }
+        final int payloadFrameId = header.getFrameId();
+        if (payloadFrameId != frameId) {
+            if (frameId != FRAME_ID_UNKNOWN && !frameEnded) {
+                // FID toggled without an EOF, the previous frame is over
+                finishFrame();
+            }
+            if (frameId != FRAME_ID_UNKNOWN) {
+                startFrame(false);
+            }
+            frameId = payloadFrameId;
+            frameEnded = false;
+        } else if (frameEnded) {
+            // Trailing payloads of a frame which has already ended carry nothing useful
+            return;
+        }
+        if (discontinuity) {
+            framePartial = true;
+            discontinuity = false;
+        }
+
+        if (header.isError()) {
+            frameError = true;
+        }
+        if (header.isStillImage()) {
+            frameStill = true;
+        }
+        if (!framePresentationTimeValid && header.hasPresentationTime()) {
+            framePresentationTime = header.getPresentationTime();
+            framePresentationTimeValid = true;
+        }
+
+        final int length = header.getPayloadLength();
+        if (frameBuffer == null) {
+            // No buffer was available for this frame, nothing to copy into
+        } else if (length > frameBuffer.remaining()) {
+            framePartial = true;
+        } else if (length > 0 && !framePartial && !frameError) {
+            header.copyPayloadTo(frameBuffer);
+        }
+
+        if (header.isEndOfFrame()) {
+            finishFrame();
+            frameEnded = true;
+        }
+    }
+
+    public long getCompleteFrameCount() {
+        return completeFrameCount;
+    }
+
+    public long getPartialFrameCount() {
+        return partialFrameCount;
+    }
+
+    public long getErrorFrameCount() {
+        return errorFrameCount;
+    }
+
+    /**
+     * The number of otherwise good frames which were dropped because the pool had no free buffer.
+     *
+     * @return The dropped frame count.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * The time between consecutive delivered frames, by the receive time of the transfer which completed them.
+     *
+     * @return The frame interval {@link Histogram}, in nanoseconds.
+     */
+    @NonNull
+    public Histogram getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * The interarrival jitter of delivered frames: how much each frame interval differed from the one before it.
+     *
+     * @return The frame jitter {@link Histogram}, in nanoseconds.
+     */
+    @NonNull
+    public Histogram getFrameJitter() {
+        return frameJitter;
+    }
+
+    public int getMaxVideoFrameSize() {
+        return pool.getFrameSize();
+    }
+
+    /**
+     * Discards any frame in progress and returns its buffer to the pool. Called when streaming stops.
+     */
+    public void release() {
+        if (frame != null) {
+            frame.release();
+            frame = null;
+            frameBuffer = null;
+        }
+        frameId = FRAME_ID_UNKNOWN;
+        frameEnded = false;
+        discontinuity = false;
+    }
+
+    private void startFrame(boolean partial) {
+        if (frame == null) {
+            frame = pool.acquire();
+        }
+        frameBuffer = frame != null ? frame.begin() : null;
+        framePartial = partial;
+        frameError = false;
+        frameStill = false;
+        framePresentationTimeValid = false;
+        framePresentationTime = 0;
+    }
+
+    private void finishFrame() {
+        if (frameError) {
+            ++errorFrameCount;
+        } else if (framePartial) {
+            ++partialFrameCount;
+        } else if (frameBuffer == null) {
+            ++droppedFrameCount;
+        } else if (frameBuffer.position() == 0) {
+            ++partialFrameCount;
+        } else {
+            ++completeFrameCount;
+            recordArrival();
+            final Frame complete = frame;
+            frame = null;
+            frameBuffer = null;
+            complete.finish(framePresentationTimeValid, framePresentationTime, frameStill, transferTime,
+                            getCaptureTime());
+            if (captureMode == CaptureMode.FRAMES) {
+                captureWriter.appendFrame(complete);
+            }
+            if (listener != null) {
+                listener.onFrameAssembled(complete);
+            } else {
+                complete.release();
+            }
+        }
+        startFrame(false);
+    }
+
+    private void recordArrival() {
+        if (lastFrameTime != 0) {
+            final long interval = transferTime - lastFrameTime;
+            frameInterval.record(interval);
+            if (lastFrameInterval != 0) {
+                frameJitter.record(Math.abs(interval - lastFrameInterval));
+            }
+            lastFrameInterval = interval;
+        }
+        lastFrameTime = transferTime;
+    }
+
+    private long getCaptureTime() {
+        if (clockRecovery == null || !framePresentationTimeValid) {
+            return 0;
+        }
+        final long captureTime = clockRecovery.toHostTime(framePresentationTime);
+        return clockRecovery.isLocked() ? captureTime : 0;
+    }
+
+    /**
+     * Receiver of complete frames.
+     */
+    public interface FrameListener {
+
+        /**
+         * Called for each complete, error free frame. The listener takes ownership of the frame and must
+         * {@link Frame#release()} it when done, otherwise the pool will run dry and frames will be dropped.
+         *
+         * @param frame The complete {@link Frame}.
+         */
+        void onFrameAssembled(@NonNull Frame frame);
+    }
+}
@@ -0,0 +1,157 @@
+package com.jwoolston.android.uvc.frames;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * Pool of recyclable {@link Frame}s, all sized for the same committed dwMaxVideoFrameSize. Buffers are allocated
+ * lazily the first time they are needed and the pool never grows past its configured maximum; once every frame is out
+ * with a consumer {@link #acquire()} fails fast rather than allocating or blocking, so it is safe to call from the USB
+ * event thread. Released frames are reused most recently released first, which keeps the hottest buffer in cache.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FrameBufferPool {
+
+    public static final int DEFAULT_MAX_FRAMES = 4;
+
+    private final int frameSize;
+
+    private Frame[] free;
+    private int     freeCount;
+    private int     allocatedCount;
+    private int     maxFrames;
+    private long    exhaustedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param frameSize The size in bytes of each frame buffer, normally the committed dwMaxVideoFrameSize.
+     * @param maxFrames The maximum number of frame buffers this pool will allocate.
+     */
+    public FrameBufferPool(@IntRange(from = 1) int frameSize, @IntRange(from = 1) int maxFrames) {
+        if (frameSize < 1) {
+            throw new IllegalArgumentException("Invalid frame size: " + frameSize);
+        }
+        this.frameSize = frameSize;
+        setMaxFrames(maxFrames);
+    }
+
+    /**
+     * Takes a frame from the pool, allocating a new buffer if the pool is empty but below its maximum size.
+     *
+     * @return A cleared {@link Frame}, or {@code null} if every frame the pool may allocate is in use.
+     */
+    @Nullable
+    public synchronized Frame acquire() {
+        final Frame frame;
+        if (freeCount > 0) {
+            frame = free[--freeCount];
+            free[freeCount] = null;
+        } else if (allocatedCount < maxFrames) {
+            frame = new Frame(this, frameSize);
+            ++allocatedCount;
+        } else {
+            ++exhaustedCount;
+            return null;
+        }
+        frame.pooled = false;
+        return frame;
+    }
+
+    /**
+     * Sets the maximum number of frame buffers. If the pool currently holds more buffers than the new maximum, the
+     * excess buffers are dropped as they are released.
+     *
+     * @param maxFrames The new maximum, at least 1.
+     */
+    public synchronized void setMaxFrames(@IntRange(from = 1) int maxFrames) {
+        if (maxFrames < 1) {
+            throw new IllegalArgumentException("A pool must allow at least one frame: " + maxFrames);
+        }
+        final Frame[] resized = new Frame[maxFrames];
+        final int keep = Math.min(freeCount, maxFrames);
+        if (free != null) {
+            System.arraycopy(free, 0, resized, 0, keep);
+        }
+        allocatedCount -= freeCount - keep;
+        free = resized;
+        freeCount = keep;
+        this.maxFrames = maxFrames;
+    }
+
+    public synchronized int getMaxFrames() {
+        return maxFrames;
+    }
+
+    public int getFrameSize() {
+        return frameSize;
+    }
+
+    /**
+     * The number of frame buffers currently allocated by this pool, whether free or in use.
+     *
+     * @return The allocated buffer count.
+     */
+    public synchronized int getAllocatedCount() {
+        return allocatedCount;
+    }
+
+    /**
+     * The number of frame buffers currently waiting in the pool.
+     *
+     * @return The free buffer count.
+     */
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+
+    /**
+     * The number of times {@link #acquire()} failed because every buffer was in use.
+     *
+     * @return The exhaustion count.
+     */
+    public synchronized long getExhaustedCount() {
+        return exhaustedCount;
+    }
+
+    synchronized void recycle(@NonNull Frame frame) throws IllegalStateException {
+        if (frame.pooled) {
+            throw new IllegalStateException("Frame has already been released.");
+        }
+        frame.pooled = true;
+        if (freeCount < maxFrames && allocatedCount <= maxFrames) {
+            free[freeCount++] = frame;
+        } else {
+            // The pool was shrunk while this frame was out, let it be collected
+            --allocatedCount;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "FrameBufferPool{" +
+               "frameSize=" + frameSize +
+               ", maxFrames=" + getMaxFrames() +
+               ", allocated=" + getAllocatedCount() +
+               ", free=" + getFreeCount() +
+               '}';
+    }
+
+    /**
+     * Source of {@link FrameBufferPool}s for a committed frame size.
+     */
+    public interface Provider {
+
+        /**
+         * Retrieves the pool for frames of the given size, creating it if needed.
+         *
+         * @param frameSize The committed dwMaxVideoFrameSize in bytes.
+         *
+         * @return The {@link FrameBufferPool} for that size.
+         */
+        @NonNull
+        FrameBufferPool getFrameBufferPool(int frameSize);
+    }
+}
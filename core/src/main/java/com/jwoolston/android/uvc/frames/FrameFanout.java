@@ -0,0 +1,147 @@
+package com.jwoolston.android.uvc.frames;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Shares each complete frame among any number of subscribers without copying it. Every subscriber has a
+ * {@link FrameQueue} of its own capacity and {@link DropPolicy}; the frame is {@link Frame#retain()}ed once per
+ * subscriber and offered to each queue in turn, so its buffer returns to the pool only after the last subscriber has
+ * {@link Frame#release()}d it, or dropped it. Subscribers read the data through {@link Frame#getBuffer()}, which hands
+ * each of them an independent read-only view.
+ * <p>
+ * Frames are offered to the queues one after another on the delivering thread, so a subscriber with
+ * {@link DropPolicy#BLOCK} holds back every subscriber after it while its queue is full. A lagging subscriber with
+ * either drop policy only loses its own frames, although the frames it holds on to are not available to the
+ * assembler.
+ * <p>
+ * Besides queues, plain {@link FrameAssembler.FrameListener}s may be {@link #addListener(FrameAssembler.FrameListener)
+ * added}; each receives its own reference to every frame and must release it.
+ * <p>
+ * Subscribing and unsubscribing are safe from any thread, at any time.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FrameFanout implements FrameAssembler.FrameListener {
+
+    private final CopyOnWriteArrayList<FrameAssembler.FrameListener> subscribers = new CopyOnWriteArrayList<>();
+
+    // Drops of queues which have since been unsubscribed
+    private long retiredDroppedFrameCount;
+
+    @Override
+    public void onFrameAssembled(@NonNull Frame frame) {
+        try {
+            for (FrameAssembler.FrameListener subscriber : subscribers) {
+                subscriber.onFrameAssembled(frame.retain());
+            }
+        } finally {
+            // The assembler's reference
+            frame.release();
+        }
+    }
+
+    /**
+     * Adds a subscriber. Its queue receives every frame assembled from now on until it is
+     * {@link #unsubscribe(FrameQueue) unsubscribed}.
+     *
+     * @param capacity The maximum number of frames waiting for the subscriber.
+     * @param policy   The {@link DropPolicy} to apply when the subscriber's queue is full.
+     *
+     * @return The subscriber's {@link FrameQueue}. Frames taken from it must be {@link Frame#release()}d.
+     */
+    @NonNull
+    public FrameQueue subscribe(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        final FrameQueue queue = new FrameQueue(capacity, policy);
+        // Frames are delivered on the stream processing thread, which may wait for the consumer
+        queue.setProducerMayBlock(true);
+        subscribers.add(queue);
+        return queue;
+    }
+
+    /**
+     * Removes a subscriber and {@link FrameQueue#close() closes} its queue, releasing the frames still waiting in it.
+     * Frames the subscriber has already taken must still be released.
+     *
+     * @param queue The {@link FrameQueue} returned by {@link #subscribe(int, DropPolicy)}.
+     *
+     * @return {@code true} if the queue was subscribed.
+     */
+    public boolean unsubscribe(@NonNull FrameQueue queue) {
+        if (!subscribers.remove(queue)) {
+            return false;
+        }
+        queue.close();
+        synchronized (this) {
+            retiredDroppedFrameCount += queue.getDroppedFrameCount();
+        }
+        return true;
+    }
+
+    /**
+     * Adds a listener which receives its own reference to every frame assembled from now on, and must
+     * {@link Frame#release()} each one.
+     *
+     * @param listener The {@link FrameAssembler.FrameListener} to add.
+     */
+    public void addListener(@NonNull FrameAssembler.FrameListener listener) {
+        subscribers.add(listener);
+    }
+
+    /**
+     * Removes a listener added with {@link #addListener(FrameAssembler.FrameListener)}. A frame being delivered at
+     * the time may still reach it.
+     *
+     * @param listener The {@link FrameAssembler.FrameListener} to remove.
+     *
+     * @return {@code true} if the listener was added.
+     */
+    public boolean removeListener(@NonNull FrameAssembler.FrameListener listener) {
+        return subscribers.remove(listener);
+    }
+
+    /**
+     * Removes every subscriber and listener, closing the subscribers' queues.
+     */
+    public void unsubscribeAll() {
+        for (FrameAssembler.FrameListener subscriber : subscribers) {
+            if (subscriber instanceof FrameQueue) {
+                unsubscribe((FrameQueue) subscriber);
+            } else {
+                removeListener(subscriber);
+            }
+        }
+    }
+
+    public int getSubscriberCount() {
+        return subscribers.size();
+    }
+
+    /**
+     * The total number of frames lost to backpressure across all subscribers, past and present. A frame dropped by
+     * two subscribers counts twice.
+     *
+     * @return The dropped frame count.
+     */
+    public long getDroppedFrameCount() {
+        long total;
+        synchronized (this) {
+            total = retiredDroppedFrameCount;
+        }
+        for (FrameAssembler.FrameListener subscriber : subscribers) {
+            if (subscriber instanceof FrameQueue) {
+                total += ((FrameQueue) subscriber).getDroppedFrameCount();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameFanout{" +
+               "subscribers=" + subscribers +
+               ", dropped=" + getDroppedFrameCount() +
+               '}';
+    }
+}
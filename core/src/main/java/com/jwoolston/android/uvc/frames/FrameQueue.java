@@ -0,0 +1,354 @@
+package com.jwoolston.android.uvc.frames;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded queue of complete frames between the frame assembler and a consumer. When the consumer falls behind and the
+ * queue fills, the configured {@link DropPolicy} decides which frame is given up; every dropped frame is released back
+ * to its pool and counted, so lagging consumers can be identified from {@link #getDroppedFrameCount()}.
+ * <p>
+ * Frames taken from the queue are owned by the consumer and must be {@link Frame#release()}d.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FrameQueue implements FrameAssembler.FrameListener {
+
+    private final Frame[]    frames;
+    private final DropPolicy policy;
+
+    private final ReentrantLock lock     = new ReentrantLock();
+    private final Condition     notEmpty = lock.newCondition();
+    private final Condition     notFull  = lock.newCondition();
+
+    private int     head;
+    private int     count;
+    private boolean closed;
+
+    private volatile boolean producerMayBlock;
+
+    private long enqueuedCount;
+    private long droppedOldestCount;
+    private long droppedNewestCount;
+    private long blockedCount;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The maximum number of frames waiting for the consumer.
+     * @param policy   The {@link DropPolicy} to apply when the queue is full.
+     */
+    public FrameQueue(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Queue capacity must be at least 1: " + capacity);
+        }
+        frames = new Frame[capacity];
+        this.policy = policy;
+    }
+
+    /**
+     * Sets whether the thread delivering frames to this queue may be blocked. This is set by the streaming pipeline,
+     * which delivers frames on a processing thread of its own. A queue fed from a thread which must not block, such as
+     * the USB event thread, leaves it {@code false}, in which case {@link DropPolicy#BLOCK} behaves as {@link
+     * DropPolicy#DROP_NEWEST}.
+     *
+     * @param mayBlock {@code true} if the producer may block.
+     */
+    public void setProducerMayBlock(boolean mayBlock) {
+        producerMayBlock = mayBlock;
+    }
+
+    @Override
+    public void onFrameAssembled(@NonNull Frame frame) {
+        try {
+            offer(frame);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Adds a frame to the queue, applying the {@link DropPolicy} if it is full. The queue takes ownership of the frame
+     * whether or not it is kept. Frames offered to a closed queue are released immediately.
+     *
+     * @param frame The {@link Frame} to enqueue.
+     *
+     * @return {@code true} if the frame was enqueued, {@code false} if it was dropped.
+     *
+     * @throws InterruptedException Thrown if the producer was interrupted while blocked. The frame is released.
+     */
+    public boolean offer(@NonNull Frame frame) throws InterruptedException {
+        Frame dropped = null;
+        boolean enqueued = true;
+        lock.lock();
+        try {
+            if (closed) {
+                dropped = frame;
+                return false;
+            }
+            if (count == frames.length) {
+                switch (policy) {
+                    case DROP_OLDEST:
+                        dropped = dequeue();
+                        ++droppedOldestCount;
+                        break;
+                    case BLOCK:
+                        if (producerMayBlock) {
+                            ++blockedCount;
+                            try {
+                                while (count == frames.length && !closed) {
+                                    notFull.await();
+                                }
+                            } catch (InterruptedException e) {
+                                dropped = frame;
+                                ++droppedNewestCount;
+                                throw e;
+                            }
+                            if (closed) {
+                                dropped = frame;
+                                enqueued = false;
+                            }
+                        } else {
+                            // The producer must not block, so the frame is dropped as it would be by DROP_NEWEST
+                            dropped = frame;
+                            enqueued = false;
+                            ++droppedNewestCount;
+                        }
+                        break;
+                    case DROP_NEWEST:
+                    default:
+                        dropped = frame;
+                        enqueued = false;
+                        ++droppedNewestCount;
+                        break;
+                }
+            }
+            if (enqueued) {
+                frames[(head + count) % frames.length] = frame;
+                ++count;
+                ++enqueuedCount;
+                notEmpty.signal();
+            }
+        } finally {
+            lock.unlock();
+            if (dropped != null) {
+                dropped.release();
+            }
+        }
+        return enqueued;
+    }
+
+    /**
+     * Retrieves the oldest frame without waiting.
+     *
+     * @return The oldest {@link Frame}, or {@code null} if the queue is empty.
+     */
+    @Nullable
+    public Frame poll() {
+        lock.lock();
+        try {
+            return count == 0 ? null : dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the oldest frame, waiting up to the given time for one to arrive.
+     *
+     * @param timeout The maximum time to wait.
+     * @param unit    The {@link TimeUnit} of the timeout.
+     *
+     * @return The oldest {@link Frame}, or {@code null} if none arrived in time or the queue is closed and empty.
+     *
+     * @throws InterruptedException Thrown if interrupted while waiting.
+     */
+    @Nullable
+    public Frame poll(long timeout, @NonNull TimeUnit unit) throws InterruptedException {
+        long nanos = unit.toNanos(timeout);
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (nanos <= 0 || closed) {
+                    return null;
+                }
+                nanos = notEmpty.awaitNanos(nanos);
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Retrieves the oldest frame, waiting for one to arrive if necessary.
+     *
+     * @return The oldest {@link Frame}.
+     *
+     * @throws InterruptedException  Thrown if interrupted while waiting.
+     * @throws IllegalStateException Thrown if the queue is closed and empty, since no frame will ever arrive.
+     */
+    @NonNull
+    public Frame take() throws InterruptedException, IllegalStateException {
+        lock.lockInterruptibly();
+        try {
+            while (count == 0) {
+                if (closed) {
+                    throw new IllegalStateException("Frame queue is closed.");
+                }
+                notEmpty.await();
+            }
+            return dequeue();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Releases every queued frame.
+     */
+    public void clear() {
+        Frame frame;
+        while ((frame = poll()) != null) {
+            frame.release();
+        }
+    }
+
+    /**
+     * Stops accepting frames and releases every queued one. Later offers release their frame straight away, a
+     * producer blocked on a full queue gives up its frame and returns, and a consumer waiting in {@link #take()} is
+     * woken with an {@link IllegalStateException}.
+     */
+    public void close() {
+        lock.lock();
+        try {
+            closed = true;
+            notEmpty.signalAll();
+            notFull.signalAll();
+        } finally {
+            lock.unlock();
+        }
+        clear();
+    }
+
+    public boolean isClosed() {
+        lock.lock();
+        try {
+            return closed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int size() {
+        lock.lock();
+        try {
+            return count;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public int getCapacity() {
+        return frames.length;
+    }
+
+    @NonNull
+    public DropPolicy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The number of frames accepted into the queue.
+     *
+     * @return The enqueued frame count.
+     */
+    public long getEnqueuedCount() {
+        lock.lock();
+        try {
+            return enqueuedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of queued frames released to make room for newer ones.
+     *
+     * @return The count of frames dropped under {@link DropPolicy#DROP_OLDEST}.
+     */
+    public long getDroppedOldestCount() {
+        lock.lock();
+        try {
+            return droppedOldestCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of new frames released because the queue was full.
+     *
+     * @return The count of frames dropped under {@link DropPolicy#DROP_NEWEST}, or under {@link DropPolicy#BLOCK}
+     * when the producer could not block.
+     */
+    public long getDroppedNewestCount() {
+        lock.lock();
+        try {
+            return droppedNewestCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The total number of frames this consumer has lost to backpressure.
+     *
+     * @return The dropped frame count.
+     */
+    public long getDroppedFrameCount() {
+        lock.lock();
+        try {
+            return droppedOldestCount + droppedNewestCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * The number of times the producer had to wait for the consumer under {@link DropPolicy#BLOCK}.
+     *
+     * @return The blocked count.
+     */
+    public long getBlockedCount() {
+        lock.lock();
+        try {
+            return blockedCount;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private Frame dequeue() {
+        final Frame frame = frames[head];
+        frames[head] = null;
+        head = (head + 1) % frames.length;
+        --count;
+        notFull.signal();
+        return frame;
+    }
+
+    @Override
+    public String toString() {
+        return "FrameQueue{" +
+               "capacity=" + frames.length +
+               ", policy=" + policy +
+               ", size=" + size() +
+               ", dropped=" + getDroppedFrameCount() +
+               '}';
+    }
+}
@@ -1,11 +1,10 @@
 package com.jwoolston.android.uvc.interfaces;
 
-import com.jwoolston.android.libusb.UsbDeviceConnection;
 import com.jwoolston.android.uvc.interfaces.endpoints.Endpoint;
 import com.jwoolston.android.uvc.util.Hexdump;
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.ArrayList;
 import java.util.List;
-import timber.log.Timber;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -17,8 +16,7 @@ public class Descriptor {
 
     private static final int INDEX_DESCRIPTOR_TYPE = 1;
 
-    public static List<InterfaceAssociationDescriptor> parseDescriptors(UsbDeviceConnection connection,
-                                                                        byte[] rawDescriptor) {
+    public static List<InterfaceAssociationDescriptor> parseDescriptors(byte[] rawDescriptor) {
         int length;
         byte[] desc;
         Type type;
@@ -55,12 +53,12 @@ public class Descriptor {
                     }
                     state = State.STANDARD_INTERFACE;
                     endpointIndex = 1;
-                    uvcInterface = UvcInterface.parseDescriptor(connection, desc);
+                    uvcInterface = UvcInterface.parseDescriptor(desc);
                     if (iad != null && uvcInterface != null) {
                         final UvcInterface existing = iad.getInterface(uvcInterface.getInterfaceNumber());
                         if (existing != null) {
                             uvcInterface = existing;
-                            existing.parseAlternateFunction(connection, desc);
+                            existing.parseAlternateFunction(desc);
                         } else {
                             // We need to save the old one
                             iad.addInterface(uvcInterface);
@@ -88,7 +86,7 @@ public class Descriptor {
                                 "Tried parsing a STANDARD ENDPOINT at an invalid time: " + state);
                     }
                     state = State.STANDARD_ENDPOINT;
-                    aEndpoint = Endpoint.parseDescriptor(uvcInterface.getUsbInterface(), desc);
+                    aEndpoint = Endpoint.parseDescriptor(desc);
                     uvcInterface.addEndpoint(endpointIndex, aEndpoint);
                     ++endpointIndex;
                     break;
@@ -109,7 +107,7 @@ public class Descriptor {
                 case CONFIGURATION:
                     break;
                 default:
-                    Timber.d("Descriptor: %s", Hexdump.dumpHexString(desc));
+                    Logger.d("Descriptor: %s", Hexdump.dumpHexString(desc));
             }
             i += length;
         }
@@ -1,8 +1,7 @@
 package com.jwoolston.android.uvc.interfaces;
 
 import com.jwoolston.android.uvc.interfaces.Descriptor.Protocol;
-
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -25,7 +24,7 @@ public abstract class InterfaceAssociationDescriptor {
     private final int indexFunction;
 
     protected static InterfaceAssociationDescriptor parseIAD(byte[] descriptor) throws IllegalArgumentException {
-        Timber.d("Parsing Interface Association Descriptor.");
+        Logger.d("Parsing Interface Association Descriptor.");
         if (descriptor.length < LENGTH_DESCRIPTOR) {
             throw new IllegalArgumentException("The provided descriptor is not long enough. Have " + descriptor.length + " need " + LENGTH_DESCRIPTOR);
         }
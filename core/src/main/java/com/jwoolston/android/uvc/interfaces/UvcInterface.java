@@ -3,16 +3,11 @@ package com.jwoolston.android.uvc.interfaces;
 import static com.jwoolston.android.uvc.interfaces.Descriptor.VideoSubclass;
 
 import android.support.annotation.NonNull;
-import android.support.annotation.Nullable;
-import android.util.SparseArray;
-import com.jwoolston.android.libusb.LibusbError;
-import com.jwoolston.android.libusb.UsbDeviceConnection;
-import com.jwoolston.android.libusb.UsbInterface;
 import com.jwoolston.android.uvc.interfaces.Descriptor.Protocol;
 import com.jwoolston.android.uvc.interfaces.endpoints.Endpoint;
-import java.util.LinkedList;
-import java.util.List;
-import timber.log.Timber;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import com.jwoolston.android.uvc.util.IntMap;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -31,19 +26,12 @@ public abstract class UvcInterface {
     protected static final int bInterfaceProtocol = 7;
     protected static final int iInterface         = 8;
 
-    protected final SparseArray<UsbInterface> usbInterfaces;
-    protected final SparseArray<Endpoint[]>   endpoints;
+    protected final int                interfaceNumber;
+    protected final IntMap<Endpoint[]> endpoints;
 
     protected int currentSetting = 0;
 
-    protected static UsbInterface getUsbInterface(UsbDeviceConnection connection, byte[] descriptor) {
-        final int indexNumber = (0xFF & descriptor[bInterfaceNumber]);
-        final int alternateSetting = (0xFF & descriptor[bAlternateSetting]);
-        return connection.getDevice().getInterface(indexNumber + alternateSetting);
-    }
-
-    public static UvcInterface parseDescriptor(UsbDeviceConnection connection, byte[] descriptor) throws
-                                                                                                  IllegalArgumentException {
+    public static UvcInterface parseDescriptor(byte[] descriptor) throws IllegalArgumentException {
         // Check the length
         if (descriptor.length < LENGTH_STANDARD_DESCRIPTOR) {
             throw new IllegalArgumentException("Descriptor is not long enough to be a standard interface descriptor.");
@@ -57,11 +45,11 @@ public abstract class UvcInterface {
                     // accessable interface, so we
                     // treat them separately
                     case SC_VIDEOCONTROL:
-                        Timber.i("Creating control interface");
-                        return VideoControlInterface.parseVideoControlInterface(connection, descriptor);
+                        Logger.i("Creating control interface");
+                        return VideoControlInterface.parseVideoControlInterface(descriptor);
                     case SC_VIDEOSTREAMING:
-                        Timber.i("Creating streaming interface.");
-                        return VideoStreamingInterface.parseVideoStreamingInterface(connection, descriptor);
+                        Logger.i("Creating streaming interface.");
+                        return VideoStreamingInterface.parseVideoStreamingInterface(descriptor);
                     default:
                         throw new IllegalArgumentException(
                                 "The provided descriptor has an invalid video interface subclass.");
@@ -79,24 +67,41 @@ public abstract class UvcInterface {
         }
     }
 
-    protected UvcInterface(UsbInterface usbInterface, byte[] descriptor) {
-        usbInterfaces = new SparseArray<>();
-        endpoints = new SparseArray<>();
+    protected UvcInterface(byte[] descriptor) {
+        interfaceNumber = 0xFF & descriptor[bInterfaceNumber];
+        endpoints = new IntMap<>();
+        addAlternateSetting(descriptor);
+    }
+
+    /**
+     * Records the alternate setting described by a standard interface descriptor of this interface and makes it the
+     * current setting, so that the endpoint descriptors which follow it are added to it.
+     *
+     * @param descriptor The standard interface descriptor.
+     */
+    protected void addAlternateSetting(byte[] descriptor) {
         currentSetting = 0xFF & descriptor[bAlternateSetting];
-        usbInterfaces.put(currentSetting, usbInterface);
         final int endpointCount = (0xFF & descriptor[bNumEndpoints]);
         endpoints.put(currentSetting, new Endpoint[endpointCount]);
     }
 
-    public LibusbError selectAlternateSetting(@NonNull UsbDeviceConnection connection, int alternateSetting)
+    /**
+     * Selects one of the alternate settings of this interface on the device.
+     *
+     * @param transport        The {@link UsbTransport} of the device.
+     * @param alternateSetting The alternate setting number.
+     *
+     * @return {@code true} if the alternate setting was selected.
+     *
+     * @throws UnsupportedOperationException Thrown if this interface has no such alternate setting.
+     */
+    public boolean selectAlternateSetting(@NonNull UsbTransport transport, int alternateSetting)
             throws UnsupportedOperationException {
-        currentSetting = alternateSetting;
-        final UsbInterface usbInterface = getUsbInterface();
-        if (usbInterface == null) {
+        if (endpoints.get(alternateSetting) == null) {
             throw new UnsupportedOperationException("There is not alternate setting: " + alternateSetting);
         }
-        connection.claimInterface(usbInterface, true);
-        return connection.setInterface(usbInterface);
+        currentSetting = alternateSetting;
+        return transport.selectAlternateSetting(interfaceNumber, alternateSetting);
     }
 
     public void addEndpoint(int index, @NonNull Endpoint endpoint) {
@@ -112,30 +117,26 @@ public abstract class UvcInterface {
     }
 
     public int getInterfaceNumber() {
-        return usbInterfaces.get(currentSetting).getId();
+        return interfaceNumber;
     }
 
-    @Nullable
-    public UsbInterface getUsbInterface() {
-        return usbInterfaces.get(currentSetting);
+    public int getCurrentSetting() {
+        return currentSetting;
     }
 
-    public List<UsbInterface> getUsbInterfaceList() {
-        final LinkedList<UsbInterface> interfaces = new LinkedList<>();
-        for (int i = 0; i < usbInterfaces.size(); ++i) {
-            interfaces.add(usbInterfaces.get(usbInterfaces.keyAt(i)));
-        }
-        return interfaces;
+    public int getAlternateSettingCount() {
+        return endpoints.size();
     }
 
     public abstract void parseClassDescriptor(byte[] descriptor);
 
-    public abstract void parseAlternateFunction(@NonNull UsbDeviceConnection connection, byte[] descriptor);
+    public abstract void parseAlternateFunction(byte[] descriptor);
 
     @Override
     public String toString() {
         return "AInterface{" +
-               "usbInterface=" + usbInterfaces +
+               "interfaceNumber=" + interfaceNumber +
+               ", alternateSettings=" + endpoints.size() +
                '}';
     }
 }
@@ -1,14 +1,12 @@
 package com.jwoolston.android.uvc.interfaces;
 
-import com.jwoolston.android.libusb.UsbInterface;
-
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
 public abstract class VideoClassInterface extends UvcInterface {
 
-    VideoClassInterface(UsbInterface usbInterface, byte[] descriptor) {
-        super(usbInterface, descriptor);
+    VideoClassInterface(byte[] descriptor) {
+        super(descriptor);
     }
 
     public static enum VC_INF_SUBTYPE {
@@ -1,8 +1,6 @@
 package com.jwoolston.android.uvc.interfaces;
 
 import android.support.annotation.NonNull;
-import com.jwoolston.android.libusb.UsbDeviceConnection;
-import com.jwoolston.android.libusb.UsbInterface;
 import com.jwoolston.android.uvc.interfaces.terminals.CameraTerminal;
 import com.jwoolston.android.uvc.interfaces.terminals.VideoInputTerminal;
 import com.jwoolston.android.uvc.interfaces.terminals.VideoOutputTerminal;
@@ -12,10 +10,10 @@ import com.jwoolston.android.uvc.interfaces.units.VideoEncodingUnit;
 import com.jwoolston.android.uvc.interfaces.units.VideoProcessingUnit;
 import com.jwoolston.android.uvc.interfaces.units.VideoSelectorUnit;
 import com.jwoolston.android.uvc.interfaces.units.VideoUnit;
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import timber.log.Timber;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -40,23 +38,20 @@ public class VideoControlInterface extends VideoClassInterface {
     private List<VideoOutputTerminal> outputTerminals = new LinkedList<>();
     private List<VideoUnit> units = new LinkedList<>();
 
-    public static VideoControlInterface parseVideoControlInterface(UsbDeviceConnection connection, byte[] descriptor)
-            throws IllegalArgumentException {
-        Timber.d("Parsing Video Class Interface header.");
-
-        final UsbInterface usbInterface = UvcInterface.getUsbInterface(connection, descriptor);
-        return new VideoControlInterface(usbInterface, descriptor);
+    public static VideoControlInterface parseVideoControlInterface(byte[] descriptor) throws IllegalArgumentException {
+        Logger.d("Parsing Video Class Interface header.");
+        return new VideoControlInterface(descriptor);
     }
 
-    VideoControlInterface(UsbInterface usbInterface, byte[] descriptor) {
-        super(usbInterface, descriptor);
+    VideoControlInterface(byte[] descriptor) {
+        super(descriptor);
     }
 
     @Override
     public void parseClassDescriptor(byte[] descriptor) {
         if (isClassInterfaceHeader(descriptor)) {
             parseClassInterfaceHeader(descriptor);
-            Timber.d("%s", this);
+            Logger.d("%s", this);
         } else if (isTerminal(descriptor)) {
             parseTerminal(descriptor);
         } else if (isUnit(descriptor)) {
@@ -67,9 +62,9 @@ public class VideoControlInterface extends VideoClassInterface {
     }
 
     @Override
-    public void parseAlternateFunction(@NonNull UsbDeviceConnection device, byte[] descriptor) {
+    public void parseAlternateFunction(byte[] descriptor) {
         // Do nothing
-        Timber.d("parseAlternateFunction() called for VideoControlInterface.");
+        Logger.d("parseAlternateFunction() called for VideoControlInterface.");
     }
 
     @Override
@@ -78,7 +73,7 @@ public class VideoControlInterface extends VideoClassInterface {
                "\n\t\t\tuvc=" + uvc +
                "\n\t\t\tnumberStreamingInterfaces=" + numberStreamingInterfaces +
                "\n\t\t\tstreamingInterfaces=" + Arrays.toString(streamingInterfaces) +
-               "\n\t\t\tUSB Interface=" + getUsbInterface() +
+               "\n\t\t\tinterfaceNumber=" + getInterfaceNumber() +
                "\n\t\t\tEndpoints=" + Arrays.toString(getCurrentEndpoints()) +
                "\n\t\t\tinput terminals=" + inputTerminals +
                "\n\t\t\toutput terminals=" + outputTerminals);
@@ -94,6 +89,16 @@ public class VideoControlInterface extends VideoClassInterface {
         return numberStreamingInterfaces;
     }
 
+    /**
+     * The interface numbers of the video streaming interfaces in this function, from baInterfaceNr.
+     *
+     * @return A copy of the interface numbers, in descriptor order.
+     */
+    @NonNull
+    public int[] getStreamingInterfaces() {
+        return streamingInterfaces != null ? streamingInterfaces.clone() : new int[0];
+    }
+
     public int getUVCVersion() {
         return uvc;
     }
@@ -112,7 +117,7 @@ public class VideoControlInterface extends VideoClassInterface {
     }
 
     public void parseClassInterfaceHeader(byte[] descriptor) throws IllegalArgumentException {
-        Timber.d("Parsing Video Class Interface header.");
+        Logger.d("Parsing Video Class Interface header.");
         if (descriptor.length < VIDEO_CLASS_HEADER_LENGTH) {
             throw new IllegalArgumentException("The provided descriptor is not a valid Video Class Interface.");
         }
@@ -159,7 +164,7 @@ public class VideoControlInterface extends VideoClassInterface {
             units.add(encodingUnit);
         } else if (AVideoExtensionUnit.isVideoExtensionUnit(descriptor)) {
             // Parse as a video extension unit
-            Timber.d("Parsing video extension unit.");
+            Logger.d("Parsing video extension unit.");
             // TODO: Figure out how to handle extensions
         } else {
             throw new IllegalArgumentException("The provided descriptor is not a valid Video Unit");
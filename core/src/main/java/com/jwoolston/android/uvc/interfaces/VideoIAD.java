@@ -1,17 +1,14 @@
 package com.jwoolston.android.uvc.interfaces;
 
-import android.util.SparseArray;
-
 import com.jwoolston.android.uvc.interfaces.Descriptor.VideoSubclass;
-
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.IntMap;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
 public class VideoIAD extends InterfaceAssociationDescriptor {
 
-    private SparseArray<VideoClassInterface> interfaces;
+    private IntMap<VideoClassInterface> interfaces;
 
     VideoIAD(byte[] descriptor) throws IllegalArgumentException {
         super(descriptor);
@@ -20,7 +17,7 @@ public class VideoIAD extends InterfaceAssociationDescriptor {
             throw new IllegalArgumentException(
                     "The provided descriptor does not represent a Video Class Interface Association Descriptor.");
         }
-        interfaces = new SparseArray<>();
+        interfaces = new IntMap<>();
     }
 
     @Override
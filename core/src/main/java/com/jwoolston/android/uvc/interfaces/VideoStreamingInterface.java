@@ -1,10 +1,10 @@
 package com.jwoolston.android.uvc.interfaces;
 
-import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 
-import com.jwoolston.android.libusb.UsbDeviceConnection;
-import com.jwoolston.android.libusb.UsbInterface;
+import com.jwoolston.android.uvc.interfaces.endpoints.BulkEndpoint;
 import com.jwoolston.android.uvc.interfaces.endpoints.Endpoint;
+import com.jwoolston.android.uvc.interfaces.endpoints.IsochronousEndpoint;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
 import com.jwoolston.android.uvc.interfaces.streaming.MJPEGVideoFormat;
 import com.jwoolston.android.uvc.interfaces.streaming.MJPEGVideoFrame;
@@ -14,9 +14,9 @@ import com.jwoolston.android.uvc.interfaces.streaming.VideoColorMatchingDescript
 import com.jwoolston.android.uvc.interfaces.streaming.VideoStreamInputHeader;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoStreamOutputHeader;
 import com.jwoolston.android.uvc.util.Hexdump;
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.ArrayList;
 import java.util.List;
-import timber.log.Timber;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -37,15 +37,13 @@ public class VideoStreamingInterface extends VideoClassInterface {
 
     private VideoColorMatchingDescriptor colorMatchingDescriptor;
 
-    public static VideoStreamingInterface parseVideoStreamingInterface(UsbDeviceConnection connection,
-                                                                       byte[] descriptor) throws
-                                                                                          IllegalArgumentException {
-        final UsbInterface usbInterface = UvcInterface.getUsbInterface(connection, descriptor);
-        return new VideoStreamingInterface(usbInterface, descriptor);
+    public static VideoStreamingInterface parseVideoStreamingInterface(byte[] descriptor)
+            throws IllegalArgumentException {
+        return new VideoStreamingInterface(descriptor);
     }
 
-    VideoStreamingInterface(UsbInterface usbInterface, byte[] descriptor) {
-        super(usbInterface, descriptor);
+    VideoStreamingInterface(byte[] descriptor) {
+        super(descriptor);
         videoFormats = new ArrayList<>();
     }
 
@@ -53,6 +51,100 @@ public class VideoStreamingInterface extends VideoClassInterface {
         return videoFormats;
     }
 
+    /**
+     * Finds the alternate setting with the least isochronous bandwidth which can still carry the provided payload in
+     * a single service interval. Alternate settings without an isochronous endpoint, such as the zero bandwidth
+     * setting 0, are never selected.
+     *
+     * @param payloadSize The committed dwMaxPayloadTransferSize in bytes.
+     *
+     * @return The alternate setting number, or -1 if no alternate setting is large enough.
+     */
+    public int findAlternateSetting(int payloadSize) {
+        int bestSetting = -1;
+        int bestBandwidth = Integer.MAX_VALUE;
+        for (int i = 0; i < endpoints.size(); ++i) {
+            final IsochronousEndpoint endpoint = getIsochronousEndpoint(endpoints.valueAt(i));
+            if (endpoint == null) {
+                continue;
+            }
+            final int bandwidth = endpoint.getBytesPerInterval();
+            if (bandwidth >= payloadSize && bandwidth < bestBandwidth) {
+                bestSetting = endpoints.keyAt(i);
+                bestBandwidth = bandwidth;
+            }
+        }
+        return bestSetting;
+    }
+
+    /**
+     * The isochronous bandwidth which streaming a payload size would reserve on the bus, being that of the alternate
+     * setting {@link #findAlternateSetting(int)} selects. High speed service intervals are assumed.
+     *
+     * @param payloadSize The dwMaxPayloadTransferSize in bytes.
+     *
+     * @return The reserved bandwidth in bytes per second, or -1 if no alternate setting is large enough.
+     */
+    public long getReservedBandwidth(int payloadSize) {
+        final int setting = findAlternateSetting(payloadSize);
+        if (setting < 0) {
+            return -1;
+        }
+        final IsochronousEndpoint endpoint = getIsochronousEndpoint(endpoints.get(setting));
+        final int exponent = Math.max(1, Math.min(endpoint.getInterval(), 16)) - 1;
+        return endpoint.getBytesPerInterval() * 8000L >> exponent;
+    }
+
+    /**
+     * The periodic bandwidth an alternate setting reserves in each high speed microframe, being the bytes per service
+     * interval of its isochronous endpoint spread over the microframes of the interval, rounded up.
+     *
+     * @param alternateSetting The alternate setting number.
+     *
+     * @return The reservation in bytes per microframe, or -1 if the setting has no isochronous endpoint.
+     */
+    public int getBytesPerMicroframe(int alternateSetting) {
+        final IsochronousEndpoint endpoint = getIsochronousEndpoint(endpoints.get(alternateSetting));
+        if (endpoint == null) {
+            return -1;
+        }
+        final int exponent = Math.max(1, Math.min(endpoint.getInterval(), 16)) - 1;
+        return (endpoint.getBytesPerInterval() + (1 << exponent) - 1) >> exponent;
+    }
+
+    /**
+     * Retrieves the bulk video data endpoint, if this interface streams over bulk. Bulk streaming interfaces only
+     * have alternate setting 0.
+     *
+     * @return The {@link BulkEndpoint} of alternate setting 0, or {@code null} if this interface is isochronous.
+     */
+    @Nullable
+    public BulkEndpoint getBulkEndpoint() {
+        final Endpoint[] settingEndpoints = endpoints.get(0);
+        if (settingEndpoints == null) {
+            return null;
+        }
+        for (Endpoint endpoint : settingEndpoints) {
+            if (endpoint instanceof BulkEndpoint) {
+                return (BulkEndpoint) endpoint;
+            }
+        }
+        return null;
+    }
+
+    @Nullable
+    private static IsochronousEndpoint getIsochronousEndpoint(@Nullable Endpoint[] settingEndpoints) {
+        if (settingEndpoints == null) {
+            return null;
+        }
+        for (Endpoint endpoint : settingEndpoints) {
+            if (endpoint instanceof IsochronousEndpoint) {
+                return (IsochronousEndpoint) endpoint;
+            }
+        }
+        return null;
+    }
+
     @Override
     public void parseClassDescriptor(byte[] descriptor) {
         final VS_INTERFACE_SUBTYPE subtype = VS_INTERFACE_SUBTYPE.fromByte(descriptor[bDescriptorSubtype]);
@@ -94,26 +186,23 @@ public class VideoStreamingInterface extends VideoClassInterface {
                 }
                 break;
             case VS_STILL_IMAGE_FRAME:
-                Timber.d("VideoStream Still Image Frame Descriptor");
-                Timber.d("%s", Hexdump.dumpHexString(descriptor));
+                Logger.d("VideoStream Still Image Frame Descriptor");
+                Logger.d("%s", Hexdump.dumpHexString(descriptor));
                 //TODO: Handle STILL IMAGE FRAME descriptor section 3.9.2.5 Pg. 81
                 break;
             case VS_COLORFORMAT:
                 colorMatchingDescriptor = new VideoColorMatchingDescriptor(descriptor);
                 lastFormat.setColorMatchingDescriptor(colorMatchingDescriptor);
-                Timber.d("%s", colorMatchingDescriptor);
+                Logger.d("%s", colorMatchingDescriptor);
                 break;
             default:
-                Timber.d("Unknown streaming interface descriptor: %s", Hexdump.dumpHexString(descriptor));
+                Logger.d("Unknown streaming interface descriptor: %s", Hexdump.dumpHexString(descriptor));
         }
     }
 
     @Override
-    public void parseAlternateFunction(@NonNull UsbDeviceConnection connection, byte[] descriptor) {
-        currentSetting = 0xFF & descriptor[bAlternateSetting];
-        usbInterfaces.put(currentSetting, getUsbInterface(connection, descriptor));
-        final int endpointCount = (0xFF & descriptor[bNumEndpoints]);
-        endpoints.put(currentSetting, new Endpoint[endpointCount]);
+    public void parseAlternateFunction(byte[] descriptor) {
+        addAlternateSetting(descriptor);
     }
 
     @Override
@@ -123,8 +212,8 @@ public class VideoStreamingInterface extends VideoClassInterface {
                "\n\toutputHeader=" + outputHeader +
                "\n\tvideoFormats=" + videoFormats +
                "\n\tcolorMatchingDescriptor=" + colorMatchingDescriptor +
-               "\n\tUsb Interface=" + getUsbInterfaceList() +
-               "\n\tNumber Alternate Functions=" + usbInterfaces.size() +
+               "\n\tInterface Number=" + getInterfaceNumber() +
+               "\n\tNumber Alternate Functions=" + getAlternateSettingCount() +
                '}';
     }
 
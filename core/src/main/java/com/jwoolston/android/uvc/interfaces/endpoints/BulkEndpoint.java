@@ -0,0 +1,11 @@
+package com.jwoolston.android.uvc.interfaces.endpoints;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class BulkEndpoint extends Endpoint {
+
+    protected BulkEndpoint(byte[] descriptor) throws IllegalArgumentException {
+        super(descriptor);
+    }
+}
@@ -1,8 +1,6 @@
 package com.jwoolston.android.uvc.interfaces.endpoints;
 
-import com.jwoolston.android.libusb.UsbEndpoint;
-import com.jwoolston.android.libusb.UsbInterface;
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -19,56 +17,54 @@ public abstract class Endpoint {
     private static final int wMaxPacketSize = 4;
     private static final int bInterval = 6; // Interval is 2^(value-1) ms
 
-    private UsbEndpoint endpoint; // Often this will be null after initial parsing, the endpoint wont enumerate until
-    // we activate the alternate setting.
+    private static final int MASK_MAX_PACKET_SIZE       = 0x07FF; // D10..0
+    private static final int MASK_ADDITIONAL_TRANSFERS  = 0x1800; // D12..11, high speed high bandwidth endpoints only
+    private static final int SHIFT_ADDITIONAL_TRANSFERS = 11;
 
     private final VideoEndpoint type;
     private final byte rawAttributes;
     private final int endpointAddress;
     private final int interval; // USB Frames
 
-    private int maxPacketSize;
+    private final int maxPacketSize;
+    private final int transactionsPerMicroframe;
 
-    public static Endpoint parseDescriptor(UsbInterface usbInterface, byte[] descriptor) throws IllegalArgumentException {
+    public static Endpoint parseDescriptor(byte[] descriptor) throws IllegalArgumentException {
         if (descriptor.length < LENGTH_STANDARD_DESCRIPTOR) {
             throw new IllegalArgumentException("Descriptor is not long enough to be a standard endpoint descriptor.");
         }
         VideoEndpoint type = VideoEndpoint.fromAttributes(descriptor[bmAttributes]);
         switch (type) {
             case EP_ISOCHRONOUS:
-                return new IsochronousEndpoint(usbInterface, descriptor);
+                return new IsochronousEndpoint(descriptor);
             case EP_BULK:
-                return new BulkEndpoint(usbInterface, descriptor);
+                return new BulkEndpoint(descriptor);
             case EP_INTERRUPT:
-                return new InterruptEndpoint(usbInterface, descriptor);
+                return new InterruptEndpoint(descriptor);
             default:
                 throw new IllegalArgumentException("Descriptor is not for a recognized endpoint type.");
         }
     }
 
-    protected Endpoint(UsbInterface usbInterface, byte[] descriptor) throws IllegalArgumentException {
+    protected Endpoint(byte[] descriptor) throws IllegalArgumentException {
         if (descriptor.length < LENGTH_STANDARD_DESCRIPTOR) {
             throw new IllegalArgumentException("The provided descriptor is not a valid standard endpoint descriptor.");
         }
 
         endpointAddress = 0xFF & descriptor[bEndpointAddress]; // Masking to deal with Java's signed bytes
-        final int count = usbInterface.getEndpointCount();
-        for (int i = 0; i < count; ++i) {
-            final UsbEndpoint endpoint = usbInterface.getEndpoint(i);
-            if (endpoint.getAddress() == endpointAddress) {
-                this.endpoint = endpoint;
-                break;
-            }
-        }
 
         rawAttributes = descriptor[bmAttributes];
         interval = descriptor[bInterval];
-        maxPacketSize = ((0xFF & descriptor[wMaxPacketSize]) << 8) | (0xFF & descriptor[wMaxPacketSize + 1]);
+        // wMaxPacketSize is little endian like every other multi-byte descriptor field
+        final int rawMaxPacketSize = ((0xFF & descriptor[wMaxPacketSize + 1]) << 8)
+                                     | (0xFF & descriptor[wMaxPacketSize]);
+        maxPacketSize = rawMaxPacketSize & MASK_MAX_PACKET_SIZE;
+        transactionsPerMicroframe = 1 + ((rawMaxPacketSize & MASK_ADDITIONAL_TRANSFERS) >> SHIFT_ADDITIONAL_TRANSFERS);
         type = VideoEndpoint.fromAttributes(rawAttributes);
     }
 
     public void parseClassDescriptor(byte[] descriptor) throws IllegalArgumentException {
-        Timber.d("Parsing Class Specific Endpoint Descriptor.");
+        Logger.d("Parsing Class Specific Endpoint Descriptor.");
         if (descriptor.length < LENGTH_CLASS_DESCRIPTOR) {
             throw new IllegalArgumentException("The provided descriptor is not a valid class endpoint descriptor.");
         }
@@ -78,8 +74,45 @@ public abstract class Endpoint {
         return interval;
     }
 
-    public UsbEndpoint getEndpoint() {
-        return endpoint;
+    /**
+     * The maximum size of a single transaction on this endpoint, with the high bandwidth multiplier bits removed.
+     *
+     * @return The maximum packet size in bytes.
+     */
+    public int getMaxPacketSize() {
+        return maxPacketSize;
+    }
+
+    /**
+     * The number of transactions this endpoint may perform in a single (micro)frame. This is always 1 except for high
+     * speed, high bandwidth isochronous and interrupt endpoints, which may perform up to 3.
+     *
+     * @return The number of transactions per (micro)frame.
+     */
+    public int getTransactionsPerMicroframe() {
+        return transactionsPerMicroframe;
+    }
+
+    /**
+     * The number of bytes this endpoint can move in a single service interval.
+     *
+     * @return {@link #getMaxPacketSize()} multiplied by {@link #getTransactionsPerMicroframe()}.
+     */
+    public int getBytesPerInterval() {
+        return maxPacketSize * transactionsPerMicroframe;
+    }
+
+    public VideoEndpoint getType() {
+        return type;
+    }
+
+    /**
+     * The bEndpointAddress of this endpoint, including the direction bit.
+     *
+     * @return The endpoint address.
+     */
+    public int getAddress() {
+        return endpointAddress;
     }
 
     protected byte getRawAttributes() {
@@ -89,12 +122,12 @@ public abstract class Endpoint {
     @Override
     public String toString() {
         return "Endpoint{" +
-            "endpoint=" + endpoint +
-            ", type=" + type +
+            "type=" + type +
             ", rawAttributes=" + rawAttributes +
             ", endpointAddress=" + endpointAddress +
             ", interval=" + interval +
             ", maxPacketSize=" + maxPacketSize +
+            ", transactionsPerMicroframe=" + transactionsPerMicroframe +
             '}';
     }
 
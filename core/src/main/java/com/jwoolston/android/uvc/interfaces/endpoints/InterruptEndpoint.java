@@ -0,0 +1,11 @@
+package com.jwoolston.android.uvc.interfaces.endpoints;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class InterruptEndpoint extends Endpoint {
+
+    protected InterruptEndpoint(byte[] descriptor) throws IllegalArgumentException {
+        super(descriptor);
+    }
+}
@@ -1,7 +1,5 @@
 package com.jwoolston.android.uvc.interfaces.endpoints;
 
-import com.jwoolston.android.libusb.UsbInterface;
-
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
@@ -9,8 +7,8 @@ public class IsochronousEndpoint extends Endpoint {
 
     private final SynchronizationType synchronizationType;
 
-    protected IsochronousEndpoint(UsbInterface usbInterface, byte[] descriptor) throws IllegalArgumentException {
-        super(usbInterface, descriptor);
+    protected IsochronousEndpoint(byte[] descriptor) throws IllegalArgumentException {
+        super(descriptor);
         synchronizationType = SynchronizationType.fromAttributes(getRawAttributes());
     }
 
@@ -2,8 +2,7 @@ package com.jwoolston.android.uvc.interfaces.streaming;
 
 import android.support.annotation.NonNull;
 import com.jwoolston.android.uvc.util.Hexdump;
-
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -39,7 +38,7 @@ public class MJPEGVideoFormat extends VideoFormat<MJPEGVideoFrame> {
     }
 
     public void addMJPEGVideoFrame(@NonNull MJPEGVideoFrame frame) {
-        Timber.d("Adding video frame: %s", frame);
+        Logger.d("Adding video frame: %s", frame);
         videoFrames.add(frame);
     }
 
@@ -3,8 +3,7 @@ package com.jwoolston.android.uvc.interfaces.streaming;
 import android.support.annotation.NonNull;
 
 import com.jwoolston.android.uvc.util.Hexdump;
-
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * The Uncompressed Video Format descriptor defines the characteristics of a specific video stream. It is used for
@@ -56,7 +55,7 @@ public class UncompressedVideoFormat extends VideoFormat<UncompressedVideoFrame>
     private final int     bitsPerPixel;
 
     public void addUncompressedVideoFrame(@NonNull UncompressedVideoFrame frame) {
-        Timber.d("Adding video frame: %s", frame);
+        Logger.d("Adding video frame: %s", frame);
         videoFrames.add(frame);
     }
 
@@ -82,7 +82,7 @@ public class VideoFrame {
             maxFrameInterval = 0;
             frameIntervalStep = 0;
             for (int i = 0; i < frameIntervalType; ++i) {
-                final int index = dwFrameInterval + 4 * i - 4;
+                final int index = dwFrameInterval + 4 * i;
                 frameIntervals[i] = ArrayTools.extractInteger(descriptor, index);
             }
         }
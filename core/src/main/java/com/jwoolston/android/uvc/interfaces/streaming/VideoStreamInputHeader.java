@@ -1,9 +1,8 @@
 package com.jwoolston.android.uvc.interfaces.streaming;
 
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.Arrays;
 
-import timber.log.Timber;
-
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  * @see UVC 1.5 Class Specification Table 3-14
@@ -29,7 +28,7 @@ public class VideoStreamInputHeader extends AVideoStreamHeader {
 
     public VideoStreamInputHeader(byte[] descriptor) throws IllegalArgumentException {
         super(descriptor);
-        Timber.d("Parsing VideoStreamInputHeader");
+        Logger.d("Parsing VideoStreamInputHeader");
         if (descriptor.length < MIN_HEADER_LENGTH) throw new IllegalArgumentException("The provided descriptor is not long enough to be a valid VideoStreamInputHeader.");
         infoMask = descriptor[bmInfo];
         terminalLink = (0xFF & descriptor[bTerminalLink]);
@@ -1,6 +1,6 @@
 package com.jwoolston.android.uvc.interfaces.streaming;
 
-import timber.log.Timber;
+import com.jwoolston.android.uvc.util.Logger;
 
 /**
  * @author Jared Woolston (Jared.Woolston@gmail.com)
@@ -19,7 +19,7 @@ public class VideoStreamOutputHeader extends AVideoStreamHeader {
 
     public VideoStreamOutputHeader(byte[] descriptor) throws IllegalArgumentException {
         super(descriptor);
-        Timber.d("Parsing VideoStreamOutputHeader");
+        Logger.d("Parsing VideoStreamOutputHeader");
         if (descriptor.length < MIN_HEADER_LENGTH) throw new IllegalArgumentException("The provided descriptor is not long enough to be a valid VideoStreamOutputHeader.");
         terminalLink = (0xFF & descriptor[bTerminalLink]);
         final int sizeControls = (0xFF & descriptor[bControlSize]);
@@ -1,10 +1,10 @@
 package com.jwoolston.android.uvc.interfaces.units;
 
 import com.jwoolston.android.uvc.interfaces.VideoClassInterface;
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Set;
-import timber.log.Timber;
 
 /**
  * The Encoding Unit controls attributes of the encoder that encodes the video being streamed through it. It has a
@@ -64,7 +64,7 @@ public class VideoEncodingUnit extends VideoUnit {
 
     public VideoEncodingUnit(byte[] descriptor) throws IllegalArgumentException {
         super(descriptor);
-        Timber.d("Parsing video processing unit.");
+        Logger.d("Parsing video processing unit.");
         if (!isVideoEncodingUnit(descriptor)) {
             throw new IllegalArgumentException(
                     "The provided descriptor is not a valid Video Encoding Unit descriptor.");
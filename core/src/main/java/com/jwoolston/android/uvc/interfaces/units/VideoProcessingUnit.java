@@ -1,8 +1,8 @@
 package com.jwoolston.android.uvc.interfaces.units;
 
 import com.jwoolston.android.uvc.interfaces.VideoClassInterface;
+import com.jwoolston.android.uvc.util.Logger;
 import java.util.Set;
-import timber.log.Timber;
 
 /**
  * The Processing Unit (PU) controls image attributes of the video being streamed through it. It has a single input
@@ -67,7 +67,7 @@ public class VideoProcessingUnit extends VideoUnit {
 
     public VideoProcessingUnit(byte[] descriptor) throws IllegalArgumentException {
         super(descriptor);
-        Timber.d("Parsing video processing unit.");
+        Logger.d("Parsing video processing unit.");
         if (!isVideoProcessingUnit(descriptor)) {
             throw new IllegalArgumentException(
                     "The provided descriptor is not a valid Video Processing Unit descriptor.");
@@ -0,0 +1,231 @@
+package com.jwoolston.android.uvc.payload;
+
+import android.support.annotation.IntRange;
+
+/**
+ * Recovers the relationship between the device clock and the host monotonic clock from the Source Clock Reference in
+ * payload headers, so that device timestamps can be expressed as host {@link System#nanoTime()} values.
+ * <p>
+ * At most every {@link #SAMPLE_INTERVAL}, on the first payload of a new USB frame, the SCR's source time clock is
+ * paired with the host time at which the carrying packet was on the bus, and the pair is added to a sliding window. A
+ * least squares line through the window gives both the actual device clock rate, which drifts from the nominal
+ * dwClockFrequency, and the offset between the clocks. Fitting over many samples averages out the jitter of individual
+ * host times, which are only known to within a service interval or so.
+ * <p>
+ * The PTS of a frame, sampled when the device started capturing it, can then be mapped to the host clock with
+ * {@link #toHostTime(long)}. Until the window holds {@link #MIN_SAMPLES} samples the nominal clock rate is used,
+ * anchored at the most recent sample.
+ * <p>
+ * Samples are expected from a single thread. The derived figures may be read from any thread.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §2.4.3.3</a>
+ */
+public class ClockRecovery {
+
+    public static final int DEFAULT_WINDOW = 256;
+    public static final int MIN_SAMPLES    = 16;
+
+    /**
+     * Minimum host time between samples in nanoseconds. Spreading the window over a few seconds keeps host time jitter
+     * from dominating the fitted clock rate.
+     */
+    public static final long SAMPLE_INTERVAL = 10000000L;
+
+    private static final long WRAP = 1L << 32;
+
+    private final double nominalFrequency; // Ticks per second
+    private final long[] deviceTimes;      // Unwrapped source time clock
+    private final long[] hostTimes;        // Nanoseconds
+
+    private int  count;
+    private int  next;
+    private int  lastSof = -1;
+    private long lastStc;
+    private long lastDeviceTime;
+    private long lastHostTime;
+
+    // Fit relative to the most recent sample: host = lastHostTime + intercept + slope * (device - lastDeviceTime)
+    private double  slope;
+    private double  intercept;
+    private boolean fitStale;
+
+    private volatile double  measuredFrequency;
+    private volatile double  residual;
+    private volatile boolean locked;
+
+    /**
+     * Constructor.
+     *
+     * @param clockFrequency The nominal device clock frequency in Hz, dwClockFrequency from the committed probe.
+     * @param window         The number of samples to fit over.
+     */
+    public ClockRecovery(@IntRange(from = 1) long clockFrequency, @IntRange(from = 2) int window) {
+        if (clockFrequency < 1 || window < 2) {
+            throw new IllegalArgumentException("Invalid clock recovery configuration: frequency=" + clockFrequency
+                                               + ", window=" + window);
+        }
+        nominalFrequency = clockFrequency;
+        deviceTimes = new long[window];
+        hostTimes = new long[window];
+        reset();
+    }
+
+    /**
+     * Discards every sample, for instance after the stream restarted and the device clock may have been reset.
+     */
+    public void reset() {
+        count = 0;
+        next = 0;
+        lastSof = -1;
+        lastDeviceTime = 0;
+        slope = 1e9 / nominalFrequency;
+        intercept = 0;
+        fitStale = false;
+        measuredFrequency = nominalFrequency;
+        residual = 0;
+        locked = false;
+    }
+
+    /**
+     * Offers the SCR of a payload. Only the first payload of a USB frame is sampled, and only once
+     * {@link #SAMPLE_INTERVAL} has passed since the previous sample.
+     *
+     * @param sourceTimeClock The unsigned 32 bit source time clock.
+     * @param sofCounter      The 11 bit USB SOF counter.
+     * @param hostTime        The host {@link System#nanoTime()} at which the payload was on the bus.
+     */
+    public void addSample(long sourceTimeClock, int sofCounter, long hostTime) {
+        if (sofCounter == lastSof || (count > 0 && hostTime >= lastHostTime
+                                      && hostTime - lastHostTime < SAMPLE_INTERVAL)) {
+            return;
+        }
+        long deviceTime = sourceTimeClock;
+        if (count > 0) {
+            final long delta = (sourceTimeClock - lastStc) & (WRAP - 1);
+            if (delta >= WRAP / 2 || hostTime <= lastHostTime) {
+                // The device clock went backwards, or the host time did, so the window no longer describes the clocks
+                reset();
+            } else {
+                deviceTime = lastDeviceTime + delta;
+            }
+        }
+        lastSof = sofCounter;
+        lastStc = sourceTimeClock;
+        lastDeviceTime = deviceTime;
+        lastHostTime = hostTime;
+        deviceTimes[next] = deviceTime;
+        hostTimes[next] = hostTime;
+        next = (next + 1) % deviceTimes.length;
+        if (count < deviceTimes.length) {
+            ++count;
+        }
+        fitStale = true;
+    }
+
+    /**
+     * Maps a device clock value, such as a PTS, to the host clock. The value must be within half the 32 bit clock
+     * range of the most recent sample, which at typical clock rates is tens of seconds.
+     *
+     * @param deviceTime The unsigned 32 bit device clock value.
+     *
+     * @return The corresponding host {@link System#nanoTime()}, or 0 if no sample has been taken yet.
+     */
+    public long toHostTime(long deviceTime) {
+        if (count == 0) {
+            return 0;
+        }
+        if (fitStale) {
+            fit();
+        }
+        final long ticks = (int) (deviceTime - lastStc); // Signed distance from the latest sample, wrap safe
+        return lastHostTime + Math.round(intercept + slope * ticks);
+    }
+
+    /**
+     * Whether enough samples have been collected for the fitted clock rate to be used.
+     *
+     * @return {@code true} once {@link #MIN_SAMPLES} samples are in the window.
+     */
+    public boolean isLocked() {
+        return locked;
+    }
+
+    /**
+     * The device clock frequency as measured against the host clock.
+     *
+     * @return The frequency in Hz, or the nominal frequency until locked.
+     */
+    public double getMeasuredFrequency() {
+        return measuredFrequency;
+    }
+
+    /**
+     * The drift of the device clock from its nominal frequency.
+     *
+     * @return The drift in parts per million, positive if the device clock runs fast.
+     */
+    public double getDriftPpm() {
+        return (measuredFrequency / nominalFrequency - 1) * 1e6;
+    }
+
+    /**
+     * The root mean square distance of the samples from the fitted line, an indication of how much the host sample
+     * times jitter.
+     *
+     * @return The residual in nanoseconds.
+     */
+    public double getResidualNanos() {
+        return residual;
+    }
+
+    private void fit() {
+        fitStale = false;
+        if (count < MIN_SAMPLES) {
+            locked = false;
+            return;
+        }
+        // Work relative to the latest sample so the sums stay small enough for doubles to hold exactly
+        double sumX = 0;
+        double sumY = 0;
+        for (int i = 0; i < count; ++i) {
+            sumX += deviceTimes[i] - lastDeviceTime;
+            sumY += hostTimes[i] - lastHostTime;
+        }
+        final double meanX = sumX / count;
+        final double meanY = sumY / count;
+        double covariance = 0;
+        double variance = 0;
+        for (int i = 0; i < count; ++i) {
+            final double dx = deviceTimes[i] - lastDeviceTime - meanX;
+            final double dy = hostTimes[i] - lastHostTime - meanY;
+            covariance += dx * dy;
+            variance += dx * dx;
+        }
+        if (variance <= 0 || covariance <= 0) {
+            return;
+        }
+        slope = covariance / variance;
+        intercept = meanY - slope * meanX;
+        double squares = 0;
+        for (int i = 0; i < count; ++i) {
+            final double x = deviceTimes[i] - lastDeviceTime;
+            final double error = hostTimes[i] - lastHostTime - (intercept + slope * x);
+            squares += error * error;
+        }
+        residual = Math.sqrt(squares / count);
+        measuredFrequency = 1e9 / slope;
+        locked = true;
+    }
+
+    @Override
+    public String toString() {
+        return "ClockRecovery{" +
+               "nominalFrequency=" + nominalFrequency +
+               ", measuredFrequency=" + measuredFrequency +
+               ", residual=" + residual +
+               ", locked=" + locked +
+               '}';
+    }
+}
@@ -0,0 +1,225 @@
+package com.jwoolston.android.uvc.payload;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.util.Hexdump;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Bounded in-memory trace of the most recent packets seen by a {@link PayloadParser}. Every packet is recorded in
+ * binary form: a timestamp, its transfer and packet index, its length, how it parsed and the first bytes of its
+ * payload header. Optionally the leading bytes of every Nth packet are kept as well. Once the trace is full the oldest
+ * records are overwritten.
+ * <p>
+ * Recording only copies primitives into preallocated arrays, so it is cheap enough to leave on while streaming.
+ * Nothing is formatted until {@link #dump()} is called, either on demand or by the stream when a transfer fails, and
+ * the dump works from a copy so the recording thread is held up only for the copy.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class PacketTrace {
+
+    public static final int STATUS_PAYLOAD        = 0;
+    public static final int STATUS_EMPTY          = 1;
+    public static final int STATUS_MALFORMED      = 2;
+    public static final int STATUS_TRANSFER_ERROR = 3;
+    public static final int STATUS_PACKET_ERROR   = 4;
+
+    /**
+     * The number of header bytes kept for every packet, enough for the longest standard header: bHeaderLength,
+     * bmHeaderInfo, PTS and SCR.
+     */
+    public static final int HEADER_BYTES = 12;
+
+    private static final String[] STATUS_NAMES = { "payload", "empty", "malformed", "transfer error",
+                                                    "packet error" };
+
+    private final int capacity;
+    private final int sampleInterval;
+    private final int sampleLength;
+
+    private final long[] timestamps;
+    private final long[] transfers;
+    private final int[]  packets;
+    private final int[]  lengths;
+    private final byte[] statuses;
+    private final byte[] headers;
+    private final byte[] headerLengths;
+    private final byte[] samples;
+    private final int[]  sampleLengths;
+
+    private long recordCount;
+
+    /**
+     * Constructor for a trace which keeps headers only.
+     *
+     * @param capacity The number of packets to keep.
+     */
+    public PacketTrace(@IntRange(from = 1) int capacity) {
+        this(capacity, 0, 0);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param capacity       The number of packets to keep.
+     * @param sampleInterval Keep the leading bytes of every this many packets, or 0 to keep headers only.
+     * @param sampleLength   The number of leading bytes to keep from each sampled packet, header included.
+     */
+    public PacketTrace(@IntRange(from = 1) int capacity, @IntRange(from = 0) int sampleInterval,
+                       @IntRange(from = 0) int sampleLength) {
+        if (capacity < 1 || sampleInterval < 0 || sampleLength < 0) {
+            throw new IllegalArgumentException("Invalid trace configuration: capacity=" + capacity
+                                               + ", sampleInterval=" + sampleInterval + ", sampleLength="
+                                               + sampleLength);
+        }
+        this.capacity = capacity;
+        this.sampleInterval = sampleLength > 0 ? sampleInterval : 0;
+        this.sampleLength = this.sampleInterval > 0 ? sampleLength : 0;
+        timestamps = new long[capacity];
+        transfers = new long[capacity];
+        packets = new int[capacity];
+        lengths = new int[capacity];
+        statuses = new byte[capacity];
+        headers = new byte[capacity * HEADER_BYTES];
+        headerLengths = new byte[capacity];
+        samples = new byte[capacity * this.sampleLength];
+        sampleLengths = new int[capacity];
+    }
+
+    /**
+     * Records one packet of a completed transfer.
+     *
+     * @param transfer The index of the transfer the packet arrived in.
+     * @param packet   The index of the packet within its transfer.
+     * @param data     The transfer buffer.
+     * @param offset   The offset of the packet within the buffer.
+     * @param length   The number of bytes received for the packet.
+     * @param status   One of the {@code STATUS_*} constants.
+     */
+    public synchronized void record(long transfer, int packet, @NonNull ByteBuffer data, int offset,
+                                    int length, int status) {
+        final int index = (int) (recordCount % capacity);
+        timestamps[index] = System.nanoTime();
+        transfers[index] = transfer;
+        packets[index] = packet;
+        lengths[index] = length;
+        statuses[index] = (byte) status;
+        final int headerLength = Math.min(length, HEADER_BYTES);
+        for (int i = 0; i < headerLength; ++i) {
+            headers[index * HEADER_BYTES + i] = data.get(offset + i);
+        }
+        headerLengths[index] = (byte) headerLength;
+        if (sampleInterval > 0 && length > 0 && recordCount % sampleInterval == 0) {
+            final int count = Math.min(length, sampleLength);
+            for (int i = 0; i < count; ++i) {
+                samples[index * sampleLength + i] = data.get(offset + i);
+            }
+            sampleLengths[index] = count;
+        } else {
+            sampleLengths[index] = 0;
+        }
+        ++recordCount;
+    }
+
+    /**
+     * Records a transfer which failed as a whole.
+     *
+     * @param transfer The index of the failed transfer.
+     * @param result   The libusb error code.
+     */
+    public synchronized void recordTransferError(long transfer, int result) {
+        final int index = (int) (recordCount % capacity);
+        timestamps[index] = System.nanoTime();
+        transfers[index] = transfer;
+        packets[index] = -1;
+        lengths[index] = result;
+        statuses[index] = STATUS_TRANSFER_ERROR;
+        headerLengths[index] = 0;
+        sampleLengths[index] = 0;
+        ++recordCount;
+    }
+
+    /**
+     * The total number of records written, including those which have since been overwritten.
+     *
+     * @return The record count.
+     */
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized void clear() {
+        recordCount = 0;
+    }
+
+    /**
+     * Formats the records currently held, oldest first. Timestamps are shown in microseconds relative to the oldest
+     * record, headers and samples as hex.
+     *
+     * @return The formatted trace.
+     */
+    @NonNull
+    public String dump() {
+        final PacketTrace copy = new PacketTrace(capacity, sampleInterval, sampleLength);
+        final long first;
+        final int count;
+        synchronized (this) {
+            count = (int) Math.min(recordCount, capacity);
+            first = recordCount - count;
+            System.arraycopy(timestamps, 0, copy.timestamps, 0, capacity);
+            System.arraycopy(transfers, 0, copy.transfers, 0, capacity);
+            System.arraycopy(packets, 0, copy.packets, 0, capacity);
+            System.arraycopy(lengths, 0, copy.lengths, 0, capacity);
+            System.arraycopy(statuses, 0, copy.statuses, 0, capacity);
+            System.arraycopy(headers, 0, copy.headers, 0, headers.length);
+            System.arraycopy(headerLengths, 0, copy.headerLengths, 0, capacity);
+            System.arraycopy(samples, 0, copy.samples, 0, samples.length);
+            System.arraycopy(sampleLengths, 0, copy.sampleLengths, 0, capacity);
+        }
+        return copy.format(first, count);
+    }
+
+    @NonNull
+    private String format(long first, int count) {
+        final StringBuilder builder = new StringBuilder("PacketTrace{records=").append(count).append('}');
+        final long start = count > 0 ? timestamps[(int) (first % capacity)] : 0;
+        for (long record = first; record < first + count; ++record) {
+            final int index = (int) (record % capacity);
+            builder.append('\n').append('+').append((timestamps[index] - start) / 1000).append("us transfer ")
+                .append(transfers[index]);
+            if (statuses[index] == STATUS_TRANSFER_ERROR) {
+                builder.append(' ').append(STATUS_NAMES[STATUS_TRANSFER_ERROR]).append(": ").append(lengths[index]);
+                continue;
+            }
+            builder.append(" packet ").append(packets[index]).append(" length ").append(lengths[index]).append(' ')
+                .append(STATUS_NAMES[statuses[index]]);
+            if (headerLengths[index] > 0) {
+                builder.append(" header ").append(Hexdump.toHexString(headers, index * HEADER_BYTES,
+                                                                      headerLengths[index]));
+            }
+            if (sampleLengths[index] > 0) {
+                // Copied out so the dump's offsets are relative to the packet rather than the trace
+                final int sampleStart = index * sampleLength;
+                builder.append(Hexdump.dumpHexString(Arrays.copyOfRange(samples, sampleStart,
+                                                                        sampleStart + sampleLengths[index])));
+            }
+        }
+        return builder.toString();
+    }
+
+    @Override
+    public String toString() {
+        return "PacketTrace{" +
+               "capacity=" + capacity +
+               ", sampleInterval=" + sampleInterval +
+               ", sampleLength=" + sampleLength +
+               ", records=" + getRecordCount() +
+               '}';
+    }
+}
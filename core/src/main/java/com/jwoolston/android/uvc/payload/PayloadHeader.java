@@ -0,0 +1,211 @@
+package com.jwoolston.android.uvc.payload;
+
+import android.support.annotation.NonNull;
+import java.nio.ByteBuffer;
+
+/**
+ * Flyweight view of a single video payload: its header and the payload data which follows it. An instance is pointed
+ * at a region of a transfer buffer with {@link #wrap(ByteBuffer, int, int)} and reads every field directly from that
+ * buffer, so the same instance can be reused for every payload of a stream without copying or allocating. The view is
+ * only valid until it is wrapped around another region or the underlying buffer is resubmitted.
+ * <p>
+ * Header layout:<br>
+ * - <b>bHeaderLength</b> (1 byte)<br>
+ * - <b>bmHeaderInfo</b> (1 byte)<br>
+ * - <b>dwPresentationTime</b> (4 bytes, present if PTS is set)<br>
+ * - <b>scrSourceClock</b> (6 bytes, present if SCR is set): 32 bit source time clock followed by an 11 bit SOF
+ * token counter.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §2.4.3.3</a>
+ */
+public final class PayloadHeader {
+
+    public static final int FLAG_FRAME_ID          = 0x01; // FID
+    public static final int FLAG_END_OF_FRAME      = 0x02; // EOF
+    public static final int FLAG_PRESENTATION_TIME = 0x04; // PTS
+    public static final int FLAG_SOURCE_CLOCK      = 0x08; // SCR
+    public static final int FLAG_RESERVED          = 0x10; // RES
+    public static final int FLAG_STILL_IMAGE       = 0x20; // STI
+    public static final int FLAG_ERROR             = 0x40; // ERR
+    public static final int FLAG_END_OF_HEADER     = 0x80; // EOH
+
+    private static final int MIN_HEADER_LENGTH = 2;
+
+    private static final int LENGTH_PRESENTATION_TIME = 4;
+    private static final int LENGTH_SOURCE_CLOCK      = 6;
+
+    private static final int bHeaderLength      = 0;
+    private static final int bmHeaderInfo       = 1;
+    private static final int dwPresentationTime = 2;
+
+    private static final int MASK_SOF_COUNTER = 0x07FF;
+
+    private ByteBuffer buffer;
+    private int        offset;
+    private int        length;
+    private int        headerLength;
+    private int        headerInfo;
+
+    /**
+     * Points this view at a payload.
+     *
+     * @param buffer The buffer holding the payload.
+     * @param offset The absolute offset of the first header byte in the buffer.
+     * @param length The number of bytes received for this payload, header included.
+     *
+     * @return {@code true} if the region holds a well formed header, {@code false} otherwise. The view must not be read
+     * if this returns {@code false}.
+     */
+    public boolean wrap(@NonNull ByteBuffer buffer, int offset, int length) {
+        this.buffer = buffer;
+        this.offset = offset;
+        this.length = length;
+        if (length < MIN_HEADER_LENGTH) {
+            headerLength = 0;
+            headerInfo = 0;
+            return false;
+        }
+        headerLength = 0xFF & buffer.get(offset + bHeaderLength);
+        headerInfo = 0xFF & buffer.get(offset + bmHeaderInfo);
+        int required = MIN_HEADER_LENGTH;
+        if ((headerInfo & FLAG_PRESENTATION_TIME) != 0) {
+            required += LENGTH_PRESENTATION_TIME;
+        }
+        if ((headerInfo & FLAG_SOURCE_CLOCK) != 0) {
+            required += LENGTH_SOURCE_CLOCK;
+        }
+        return headerLength >= required && headerLength <= length;
+    }
+
+    public int getHeaderLength() {
+        return headerLength;
+    }
+
+    /**
+     * The raw bmHeaderInfo bit field. Individual bits can be tested against the {@code FLAG_*} constants.
+     *
+     * @return The header info bit field.
+     */
+    public int getHeaderInfo() {
+        return headerInfo;
+    }
+
+    /**
+     * The Frame ID bit, which toggles at each frame start boundary.
+     *
+     * @return 0 or 1.
+     */
+    public int getFrameId() {
+        return headerInfo & FLAG_FRAME_ID;
+    }
+
+    public boolean isEndOfFrame() {
+        return (headerInfo & FLAG_END_OF_FRAME) != 0;
+    }
+
+    public boolean hasPresentationTime() {
+        return (headerInfo & FLAG_PRESENTATION_TIME) != 0;
+    }
+
+    public boolean hasSourceClock() {
+        return (headerInfo & FLAG_SOURCE_CLOCK) != 0;
+    }
+
+    public boolean isStillImage() {
+        return (headerInfo & FLAG_STILL_IMAGE) != 0;
+    }
+
+    public boolean isError() {
+        return (headerInfo & FLAG_ERROR) != 0;
+    }
+
+    /**
+     * The presentation time stamp in native device clock units. Only valid if {@link #hasPresentationTime()}.
+     *
+     * @return The unsigned 32 bit PTS.
+     */
+    public long getPresentationTime() {
+        return readUnsignedInt(offset + dwPresentationTime);
+    }
+
+    /**
+     * The source time clock in native device clock units, sampled when the first video data of the payload was
+     * placed on the bus. Only valid if {@link #hasSourceClock()}.
+     *
+     * @return The unsigned 32 bit source time clock.
+     */
+    public long getSourceTimeClock() {
+        return readUnsignedInt(getSourceClockOffset());
+    }
+
+    /**
+     * The 11 bit USB SOF token counter sampled together with {@link #getSourceTimeClock()}. Only valid if
+     * {@link #hasSourceClock()}.
+     *
+     * @return The SOF counter.
+     */
+    public int getSofCounter() {
+        final int index = getSourceClockOffset() + 4;
+        return (((0xFF & buffer.get(index + 1)) << 8) | (0xFF & buffer.get(index))) & MASK_SOF_COUNTER;
+    }
+
+    /**
+     * The absolute offset of the payload data in the wrapped buffer.
+     *
+     * @return The offset of the first byte following the header.
+     */
+    public int getPayloadOffset() {
+        return offset + headerLength;
+    }
+
+    public int getPayloadLength() {
+        return length - headerLength;
+    }
+
+    /**
+     * Copies the payload data, without the header, into the destination at its current position. The wrapped
+     * buffer's position and limit are restored afterwards.
+     *
+     * @param destination {@link ByteBuffer} with at least {@link #getPayloadLength()} bytes remaining.
+     */
+    public void copyPayloadTo(@NonNull ByteBuffer destination) {
+        final int position = buffer.position();
+        final int limit = buffer.limit();
+        buffer.limit(offset + length);
+        buffer.position(offset + headerLength);
+        destination.put(buffer);
+        buffer.limit(limit);
+        buffer.position(position);
+    }
+
+    /**
+     * The buffer this view is currently wrapping.
+     *
+     * @return The wrapped {@link ByteBuffer}.
+     */
+    public ByteBuffer getBuffer() {
+        return buffer;
+    }
+
+    private int getSourceClockOffset() {
+        return offset + dwPresentationTime + (hasPresentationTime() ? LENGTH_PRESENTATION_TIME : 0);
+    }
+
+    private long readUnsignedInt(int index) {
+        return (0xFFL & buffer.get(index))
+               | ((0xFFL & buffer.get(index + 1)) << 8)
+               | ((0xFFL & buffer.get(index + 2)) << 16)
+               | ((0xFFL & buffer.get(index + 3)) << 24);
+    }
+
+    @Override
+    public String toString() {
+        return "PayloadHeader{" +
+               "headerLength=" + headerLength +
+               ", headerInfo=0x" + Integer.toHexString(headerInfo) +
+               ", payloadLength=" + getPayloadLength() +
+               '}';
+    }
+}
@@ -0,0 +1,206 @@
+package com.jwoolston.android.uvc.payload;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import java.nio.ByteBuffer;
+
+/**
+ * Walks the packets of a completed transfer and hands each well formed video payload to a {@link PayloadListener}.
+ * Packets are expected at a fixed stride in the transfer buffer, as libusb lays out isochronous transfers, with the
+ * number of bytes actually received for each packet supplied separately. A bulk transfer is handled as a single packet
+ * holding a single payload.
+ * <p>
+ * A packet the host controller did not complete, because it was dropped or received in error, holds no data but
+ * means a payload was lost, so the {@link PayloadListener} is told of a discontinuity. It is counted apart from empty
+ * packets, which the device sends on purpose.
+ * <p>
+ * A single {@link PayloadHeader} flyweight is reused for every payload, so parsing allocates nothing. Listeners must
+ * consume the payload before returning and must not keep a reference to the header. When a {@link PacketTrace} is
+ * attached every packet, well formed or not, is recorded to it.
+ * <p>
+ * Parsing is expected from a single thread. The counters are only written by that thread and may be read from any.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class PayloadParser {
+
+    private final PayloadHeader header = new PayloadHeader();
+
+    private volatile PacketTrace trace;
+
+    private volatile long transferCount;
+    private volatile long packetCount;
+    private volatile long payloadCount;
+    private volatile long errorPayloadCount;
+    private volatile long payloadByteCount;
+    private volatile long emptyPacketCount;
+    private volatile long malformedPacketCount;
+    private volatile long erroredPacketCount;
+
+    /**
+     * Parses every packet of a completed transfer.
+     *
+     * @param data           The transfer buffer.
+     * @param packetStride   The distance in bytes between the start of consecutive packets.
+     * @param packetLengths  The number of bytes received for each packet.
+     * @param packetStatuses The {@code LIBUSB_TRANSFER_*} status of each packet, or {@code null} if every packet
+     *                       completed.
+     * @param packetCount    The number of packets in the transfer.
+     * @param listener       {@link PayloadListener} to notify for each payload.
+     *
+     * @return The number of payloads found.
+     */
+    public int parse(@NonNull ByteBuffer data, int packetStride, @NonNull int[] packetLengths,
+                     @Nullable int[] packetStatuses, int packetCount, @NonNull PayloadListener listener) {
+        final PacketTrace trace = this.trace;
+        final long transfer = transferCount++;
+        int found = 0;
+        int empty = 0;
+        int malformed = 0;
+        int errors = 0;
+        int errored = 0;
+        long bytes = 0;
+        for (int i = 0; i < packetCount; ++i) {
+            final int offset = i * packetStride;
+            if (packetStatuses != null && packetStatuses[i] != AsyncTransfer.LIBUSB_TRANSFER_COMPLETED) {
+                ++errored;
+                if (trace != null) {
+                    trace.record(transfer, i, data, offset, 0, PacketTrace.STATUS_PACKET_ERROR);
+                }
+                listener.onDiscontinuity();
+                continue;
+            }
+            final int length = packetLengths[i];
+            if (length == 0) {
+                ++empty;
+                if (trace != null) {
+                    trace.record(transfer, i, data, offset, 0, PacketTrace.STATUS_EMPTY);
+                }
+                continue;
+            }
+            if (!header.wrap(data, offset, length)) {
+                ++malformed;
+                if (trace != null) {
+                    trace.record(transfer, i, data, offset, length, PacketTrace.STATUS_MALFORMED);
+                }
+                continue;
+            }
+            if (trace != null) {
+                trace.record(transfer, i, data, offset, length, PacketTrace.STATUS_PAYLOAD);
+            }
+            ++found;
+            if (header.isError()) {
+                ++errors;
+            }
+            bytes += header.getPayloadLength();
+            listener.onPayload(header);
+        }
+        // Published once per transfer, the fields are volatile so they can be read while streaming
+        this.packetCount += packetCount;
+        emptyPacketCount += empty;
+        malformedPacketCount += malformed;
+        erroredPacketCount += errored;
+        payloadCount += found;
+        errorPayloadCount += errors;
+        payloadByteCount += bytes;
+        return found;
+    }
+
+    /**
+     * Notes a transfer which failed as a whole. It is counted as a transfer and recorded to the trace, if any.
+     *
+     * @param result The libusb error code.
+     */
+    public void onTransferError(int result) {
+        final PacketTrace trace = this.trace;
+        final long transfer = transferCount++;
+        if (trace != null) {
+            trace.recordTransferError(transfer, result);
+        }
+    }
+
+    /**
+     * Attaches a trace to record every packet to. May be called while streaming.
+     *
+     * @param trace The {@link PacketTrace} to record to, or {@code null} to stop tracing.
+     */
+    public void setPacketTrace(@Nullable PacketTrace trace) {
+        this.trace = trace;
+    }
+
+    @Nullable
+    public PacketTrace getPacketTrace() {
+        return trace;
+    }
+
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * The number of packets parsed, including empty and malformed ones.
+     *
+     * @return The packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public long getPayloadCount() {
+        return payloadCount;
+    }
+
+    /**
+     * The number of payloads whose header had the ERR bit set.
+     *
+     * @return The error payload count.
+     */
+    public long getErrorPayloadCount() {
+        return errorPayloadCount;
+    }
+
+    /**
+     * The number of payload data bytes received, headers excluded.
+     *
+     * @return The byte count.
+     */
+    public long getPayloadByteCount() {
+        return payloadByteCount;
+    }
+
+    public long getEmptyPacketCount() {
+        return emptyPacketCount;
+    }
+
+    public long getMalformedPacketCount() {
+        return malformedPacketCount;
+    }
+
+    /**
+     * The number of packets the host controller did not complete.
+     *
+     * @return The errored packet count.
+     */
+    public long getErroredPacketCount() {
+        return erroredPacketCount;
+    }
+
+    /**
+     * Receiver of parsed payloads.
+     */
+    public interface PayloadListener {
+
+        /**
+         * Called for each well formed payload, in bus order.
+         *
+         * @param header {@link PayloadHeader} view of the payload. Only valid for the duration of the call.
+         */
+        void onPayload(@NonNull PayloadHeader header);
+
+        /**
+         * Called in place of a payload which was lost to a packet the host controller did not complete.
+         */
+        void onDiscontinuity();
+    }
+}
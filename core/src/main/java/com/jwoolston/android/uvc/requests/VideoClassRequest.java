@@ -27,7 +27,7 @@ public abstract class VideoClassRequest {
     private byte[] data;
 
     protected static short getIndex(VideoTerminal terminal, VideoClassInterface classInterface) {
-        return (short) (((0xFF & terminal.getTerminalID()) << 8) | (0xFF & classInterface.getUsbInterface().getId()));
+        return (short) (((0xFF & terminal.getTerminalID()) << 8) | (0xFF & classInterface.getInterfaceNumber()));
     }
 
     protected VideoClassRequest(byte requestType, @NonNull Request request, short value, short index,
@@ -38,7 +38,12 @@ public final class Hint {
         }
     }
 
-    short getRaw() {
+    /**
+     * The bmHint field as sent with the probe.
+     *
+     * @return The raw bitmap.
+     */
+    public short getRaw() {
         short value = 0;
         for (int i = 0; i < 5; ++i) {
             value |= ((bitSet.get(i) ? 0x1 : 0x0) << i);
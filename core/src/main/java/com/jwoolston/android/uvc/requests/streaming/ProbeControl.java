@@ -21,7 +21,7 @@ import java.nio.ByteOrder;
  */
 public class ProbeControl extends VSInterfaceControlRequest {
 
-    private static final int LENGTH_PROBE_DATA = 48;
+    public static final int LENGTH_PROBE_DATA = 48;
 
     private static final int Index_bmHint                     = 0; // 2 bytes
     private static final int Index_bFormatIndex               = 2; // 1 byte
@@ -100,6 +100,26 @@ public class ProbeControl extends VSInterfaceControlRequest {
     }
 
 
+    /**
+     * Builds a Commit from a previously committed probe block, such as one held by the Android library's probe cache,
+     * so a stream can be started without negotiating again.
+     *
+     * @param streamingInterface The {@link VideoStreamingInterface} to commit on.
+     * @param data               The committed probe block.
+     *
+     * @return A new {@link ProbeControl} with the control selector specified as
+     * {@link ControlSelector#VS_COMMIT_CONTROL} and the request type being {@link Request#SET_CUR}.
+     */
+    @NonNull
+    public static ProbeControl setCurrentCommit(@NonNull VideoStreamingInterface streamingInterface,
+                                                @NonNull @Size(value = LENGTH_PROBE_DATA) byte[] data) {
+        if (data.length != LENGTH_PROBE_DATA) {
+            throw new IllegalArgumentException("Probe data must be " + LENGTH_PROBE_DATA + " bytes: " + data.length);
+        }
+        return new ProbeControl(Request.SET_CUR, (short) (0xFF & streamingInterface.getInterfaceNumber()), true,
+                                data.clone());
+    }
+
     private ProbeControl(@NonNull Request request, short index, boolean commit,
                          @NonNull @Size(value = LENGTH_PROBE_DATA) byte[] data) {
         super(request, commit ? VS_COMMIT_CONTROL : VS_PROBE_CONTROL, index, data);
@@ -0,0 +1,385 @@
+package com.jwoolston.android.uvc.simulator;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes a simulated UVC camera and generates the raw descriptors it reports, in the layout
+ * {@link com.jwoolston.android.uvc.interfaces.Descriptor#parseDescriptors} expects from a real device:
+ * <br>
+ * - The device and configuration descriptors.<br>
+ * - An interface association descriptor grouping the video function.<br>
+ * - The VideoControl interface, {@link #CONTROL_INTERFACE}, with its header, a camera input terminal and a streaming
+ * output terminal.<br>
+ * - Alternate setting 0 of the VideoStreaming interface, {@link #STREAMING_INTERFACE}, with its input header and the
+ * format, frame and color matching descriptors of every {@link SimulatedFormat}.<br>
+ * - One further alternate setting per {@link #addAlternateSetting(int, int) isochronous bandwidth}, each with a single
+ * isochronous endpoint, {@link #ENDPOINT_ADDRESS}.
+ * <p>
+ * All multi byte fields are little endian, as on the bus.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §3</a>
+ */
+public class DescriptorBuilder {
+
+    public static final int CONTROL_INTERFACE   = 0;
+    public static final int STREAMING_INTERFACE = 1;
+    public static final int ENDPOINT_ADDRESS    = 0x81;
+
+    public static final int DEFAULT_VENDOR_ID       = 0x1209;
+    public static final int DEFAULT_PRODUCT_ID      = 0x5556;
+    public static final int DEFAULT_UVC_VERSION     = 0x0150;
+    public static final int DEFAULT_CLOCK_FREQUENCY = 48000000;
+
+    // Frame intervals in 100 ns units
+    public static final int INTERVAL_60_FPS = 166666;
+    public static final int INTERVAL_30_FPS = 333333;
+    public static final int INTERVAL_15_FPS = 666666;
+
+    private static final int TYPE_DEVICE                = 0x01;
+    private static final int TYPE_CONFIGURATION         = 0x02;
+    private static final int TYPE_INTERFACE             = 0x04;
+    private static final int TYPE_ENDPOINT              = 0x05;
+    private static final int TYPE_INTERFACE_ASSOCIATION = 0x0B;
+    private static final int TYPE_CS_INTERFACE          = 0x24;
+
+    private static final int CC_VIDEO                      = 0x0E;
+    private static final int SC_VIDEOCONTROL               = 0x01;
+    private static final int SC_VIDEOSTREAMING             = 0x02;
+    private static final int SC_VIDEO_INTERFACE_COLLECTION = 0x03;
+
+    private static final int VC_HEADER          = 0x01;
+    private static final int VC_INPUT_TERMINAL  = 0x02;
+    private static final int VC_OUTPUT_TERMINAL = 0x03;
+
+    private static final int VS_INPUT_HEADER        = 0x01;
+    private static final int VS_FORMAT_UNCOMPRESSED = 0x04;
+    private static final int VS_FRAME_UNCOMPRESSED  = 0x05;
+    private static final int VS_FORMAT_MJPEG        = 0x06;
+    private static final int VS_FRAME_MJPEG         = 0x07;
+    private static final int VS_COLORFORMAT         = 0x0D;
+
+    private static final int ITT_CAMERA   = 0x0201;
+    private static final int TT_STREAMING = 0x0101;
+
+    private static final int CAMERA_TERMINAL_ID = 1;
+    private static final int OUTPUT_TERMINAL_ID = 2;
+
+    private static final int ISOCHRONOUS_ASYNCHRONOUS = 0x05;
+
+    private static final int MAX_PACKET_SIZE  = 1024; // High speed isochronous
+    private static final int MAX_TRANSACTIONS = 3;
+
+    // YUY2 32595559-0000-0010-8000-00AA00389B71 with its first three fields little endian
+    private static final byte[] GUID_YUY2 = {
+            0x59, 0x55, 0x59, 0x32, 0x00, 0x00, 0x10, 0x00, (byte) 0x80, 0x00, 0x00, (byte) 0xAA, 0x00, 0x38,
+            (byte) 0x9B, 0x71
+    };
+
+    private final List<SimulatedFormat> formats           = new ArrayList<>();
+    private final List<int[]>           alternateSettings = new ArrayList<>();
+
+    private int vendorId       = DEFAULT_VENDOR_ID;
+    private int productId      = DEFAULT_PRODUCT_ID;
+    private int uvcVersion     = DEFAULT_UVC_VERSION;
+    private int clockFrequency = DEFAULT_CLOCK_FREQUENCY;
+
+    /**
+     * A high speed camera streaming 4K MJPEG at 60 and 30 frames per second, along with 1080p, 720p and VGA MJPEG and
+     * VGA YUY2, over the alternate settings typical of such cameras. The MJPEG compression ratio is chosen so that 4K
+     * at 60 frames per second fits the largest high speed isochronous bandwidth.
+     *
+     * @return The {@link DescriptorBuilder}.
+     */
+    @NonNull
+    public static DescriptorBuilder uhd60() {
+        return new DescriptorBuilder()
+                .addFormat(SimulatedFormat.mjpeg()
+                                   .addFrame(3840, 2160, INTERVAL_60_FPS, INTERVAL_30_FPS)
+                                   .addFrame(1920, 1080, INTERVAL_60_FPS, INTERVAL_30_FPS)
+                                   .addFrame(1280, 720, INTERVAL_60_FPS, INTERVAL_30_FPS)
+                                   .addFrame(640, 480, INTERVAL_60_FPS, INTERVAL_30_FPS)
+                                   .setCompressionRatio(48))
+                .addFormat(SimulatedFormat.yuy2()
+                                   .addFrame(640, 480, INTERVAL_30_FPS, INTERVAL_15_FPS))
+                .addAlternateSetting(128, 1)
+                .addAlternateSetting(512, 1)
+                .addAlternateSetting(1024, 1)
+                .addAlternateSetting(1024, 2)
+                .addAlternateSetting(1024, 3);
+    }
+
+    @NonNull
+    public DescriptorBuilder setVendorId(@IntRange(from = 0, to = 0xFFFF) int vendorId) {
+        this.vendorId = vendorId;
+        return this;
+    }
+
+    @NonNull
+    public DescriptorBuilder setProductId(@IntRange(from = 0, to = 0xFFFF) int productId) {
+        this.productId = productId;
+        return this;
+    }
+
+    /**
+     * Sets the UVC version the camera reports, which also decides the length of its probe and commit controls.
+     *
+     * @param bcdUVC The version in binary coded decimal, 0x0100, 0x0110 or 0x0150.
+     *
+     * @return This {@link DescriptorBuilder}.
+     */
+    @NonNull
+    public DescriptorBuilder setUvcVersion(int bcdUVC) {
+        if (bcdUVC != 0x0100 && bcdUVC != 0x0110 && bcdUVC != 0x0150) {
+            throw new IllegalArgumentException("Unsupported UVC version: 0x" + Integer.toHexString(bcdUVC));
+        }
+        uvcVersion = bcdUVC;
+        return this;
+    }
+
+    /**
+     * Sets the frequency of the camera's source time clock, which its presentation and source clock timestamps count.
+     *
+     * @param frequency The clock frequency in Hz.
+     *
+     * @return This {@link DescriptorBuilder}.
+     */
+    @NonNull
+    public DescriptorBuilder setClockFrequency(@IntRange(from = 1) int frequency) {
+        if (frequency < 1) {
+            throw new IllegalArgumentException("Invalid clock frequency: " + frequency);
+        }
+        clockFrequency = frequency;
+        return this;
+    }
+
+    /**
+     * Adds a format. Its format index is the number of formats added before it, plus 1.
+     *
+     * @param format The {@link SimulatedFormat}, with at least one frame size.
+     *
+     * @return This {@link DescriptorBuilder}.
+     */
+    @NonNull
+    public DescriptorBuilder addFormat(@NonNull SimulatedFormat format) {
+        if (format.getResolutions().isEmpty()) {
+            throw new IllegalArgumentException("A format needs at least one frame size: " + format);
+        }
+        formats.add(format);
+        return this;
+    }
+
+    /**
+     * Adds a streaming alternate setting whose isochronous endpoint has a 125 us service interval. Its alternate
+     * setting number is the number of alternate settings added before it, plus 1.
+     *
+     * @param maxPacketSize The bytes per transaction.
+     * @param transactions  The transactions per microframe.
+     *
+     * @return This {@link DescriptorBuilder}.
+     */
+    @NonNull
+    public DescriptorBuilder addAlternateSetting(@IntRange(from = 1, to = MAX_PACKET_SIZE) int maxPacketSize,
+                                                 @IntRange(from = 1, to = MAX_TRANSACTIONS) int transactions) {
+        if (maxPacketSize < 1 || maxPacketSize > MAX_PACKET_SIZE || transactions < 1
+            || transactions > MAX_TRANSACTIONS) {
+            throw new IllegalArgumentException("Invalid isochronous bandwidth: " + transactions + "x" + maxPacketSize);
+        }
+        alternateSettings.add(new int[]{ maxPacketSize, transactions });
+        return this;
+    }
+
+    @NonNull
+    public List<SimulatedFormat> getFormats() {
+        return Collections.unmodifiableList(formats);
+    }
+
+    public int getAlternateSettingCount() {
+        return alternateSettings.size();
+    }
+
+    /**
+     * The isochronous bandwidth of an alternate setting.
+     *
+     * @param alternateSetting The alternate setting number, from 1.
+     *
+     * @return The bytes per 125 us service interval.
+     */
+    public int getBytesPerInterval(@IntRange(from = 1) int alternateSetting) {
+        final int[] setting = alternateSettings.get(alternateSetting - 1);
+        return setting[0] * setting[1];
+    }
+
+    public int getVendorId() {
+        return vendorId;
+    }
+
+    public int getProductId() {
+        return productId;
+    }
+
+    public int getUvcVersion() {
+        return uvcVersion;
+    }
+
+    public int getClockFrequency() {
+        return clockFrequency;
+    }
+
+    /**
+     * Generates the descriptors, as {@link com.jwoolston.android.uvc.transport.UsbTransport#getRawDescriptors()}
+     * would return them.
+     *
+     * @return The raw descriptors.
+     */
+    @NonNull
+    public byte[] build() {
+        if (formats.isEmpty() || alternateSettings.isEmpty()) {
+            throw new IllegalStateException("A camera needs at least one format and one streaming alternate setting.");
+        }
+        final Writer function = new Writer();
+        writeInterfaceAssociation(function);
+        writeControlInterface(function);
+        writeStreamingInterface(function);
+
+        final Writer device = new Writer();
+        device.put(18).put(TYPE_DEVICE).putShort(0x0200)
+                .put(0xEF).put(0x02).put(0x01) // Miscellaneous device using interface association descriptors
+                .put(64).putShort(vendorId).putShort(productId).putShort(0x0100)
+                .put(1).put(2).put(0).put(1);
+        device.put(9).put(TYPE_CONFIGURATION).putShort(9 + function.size()).put(2).put(1).put(0).put(0x80).put(250);
+        device.append(function);
+        return device.toByteArray();
+    }
+
+    private void writeInterfaceAssociation(@NonNull Writer out) {
+        out.put(8).put(TYPE_INTERFACE_ASSOCIATION).put(CONTROL_INTERFACE).put(2)
+                .put(CC_VIDEO).put(SC_VIDEO_INTERFACE_COLLECTION).put(0).put(2);
+    }
+
+    private void writeControlInterface(@NonNull Writer out) {
+        out.put(9).put(TYPE_INTERFACE).put(CONTROL_INTERFACE).put(0).put(0)
+                .put(CC_VIDEO).put(SC_VIDEOCONTROL).put(0).put(2);
+
+        final Writer terminals = new Writer();
+        terminals.put(18).put(TYPE_CS_INTERFACE).put(VC_INPUT_TERMINAL).put(CAMERA_TERMINAL_ID).putShort(ITT_CAMERA)
+                .put(0).put(0).putShort(0).putShort(0).putShort(0)
+                .put(3).put(0).put(0).put(0); // No camera controls
+        terminals.put(9).put(TYPE_CS_INTERFACE).put(VC_OUTPUT_TERMINAL).put(OUTPUT_TERMINAL_ID).putShort(TT_STREAMING)
+                .put(0).put(CAMERA_TERMINAL_ID).put(0);
+
+        out.put(13).put(TYPE_CS_INTERFACE).put(VC_HEADER).putShort(uvcVersion).putShort(13 + terminals.size())
+                .putInt(clockFrequency).put(1).put(STREAMING_INTERFACE);
+        out.append(terminals);
+    }
+
+    private void writeStreamingInterface(@NonNull Writer out) {
+        out.put(9).put(TYPE_INTERFACE).put(STREAMING_INTERFACE).put(0).put(0)
+                .put(CC_VIDEO).put(SC_VIDEOSTREAMING).put(0).put(0);
+
+        final Writer classDescriptors = new Writer();
+        for (int i = 0; i < formats.size(); ++i) {
+            writeFormat(classDescriptors, i + 1, formats.get(i));
+        }
+        final int headerLength = 13 + formats.size();
+        out.put(headerLength).put(TYPE_CS_INTERFACE).put(VS_INPUT_HEADER).put(formats.size())
+                .putShort(headerLength + classDescriptors.size()).put(ENDPOINT_ADDRESS)
+                .put(0).put(OUTPUT_TERMINAL_ID).put(0).put(0).put(0).put(1);
+        for (int i = 0; i < formats.size(); ++i) {
+            out.put(0);
+        }
+        out.append(classDescriptors);
+
+        for (int i = 0; i < alternateSettings.size(); ++i) {
+            final int[] setting = alternateSettings.get(i);
+            out.put(9).put(TYPE_INTERFACE).put(STREAMING_INTERFACE).put(i + 1).put(1)
+                    .put(CC_VIDEO).put(SC_VIDEOSTREAMING).put(0).put(0);
+            out.put(7).put(TYPE_ENDPOINT).put(ENDPOINT_ADDRESS).put(ISOCHRONOUS_ASYNCHRONOUS)
+                    .putShort(((setting[1] - 1) << 11) | setting[0]).put(1);
+        }
+    }
+
+    private void writeFormat(@NonNull Writer out, int formatIndex, @NonNull SimulatedFormat format) {
+        final List<SimulatedFormat.Resolution> resolutions = format.getResolutions();
+        if (format.isCompressed()) {
+            out.put(11).put(TYPE_CS_INTERFACE).put(VS_FORMAT_MJPEG).put(formatIndex).put(resolutions.size())
+                    .put(0).put(format.getDefaultFrameIndex()).put(0).put(0).put(0).put(0);
+        } else {
+            out.put(27).put(TYPE_CS_INTERFACE).put(VS_FORMAT_UNCOMPRESSED).put(formatIndex).put(resolutions.size())
+                    .put(GUID_YUY2).put(8 * SimulatedFormat.BYTES_PER_PIXEL).put(format.getDefaultFrameIndex())
+                    .put(0).put(0).put(0).put(0);
+        }
+        for (SimulatedFormat.Resolution resolution : resolutions) {
+            final int[] intervals = resolution.getIntervals();
+            final long bits = 8L * format.getStreamedFrameSize(resolution) * 10000000L;
+            out.put(26 + 4 * intervals.length).put(TYPE_CS_INTERFACE)
+                    .put(format.isCompressed() ? VS_FRAME_MJPEG : VS_FRAME_UNCOMPRESSED)
+                    .put(resolution.getFrameIndex()).put(0)
+                    .putShort(resolution.getWidth()).putShort(resolution.getHeight())
+                    .putInt((int) Math.min(Integer.MAX_VALUE, bits / resolution.getMaxInterval()))
+                    .putInt((int) Math.min(Integer.MAX_VALUE, bits / resolution.getMinInterval()))
+                    .putInt(resolution.getMaxVideoFrameBufferSize()).putInt(resolution.getDefaultInterval())
+                    .put(intervals.length);
+            for (int interval : intervals) {
+                out.putInt(interval);
+            }
+        }
+        // BT.709 primaries and transfer characteristics, SMPTE 170M matrix
+        out.put(6).put(TYPE_CS_INTERFACE).put(VS_COLORFORMAT).put(1).put(1).put(4);
+    }
+
+    @Override
+    public String toString() {
+        return "DescriptorBuilder{" +
+               "vendorId=0x" + Integer.toHexString(vendorId) +
+               ", productId=0x" + Integer.toHexString(productId) +
+               ", uvc=0x" + Integer.toHexString(uvcVersion) +
+               ", formats=" + formats +
+               ", alternateSettings=" + alternateSettings.size() +
+               '}';
+    }
+
+    /**
+     * Little endian descriptor writer.
+     */
+    private static final class Writer {
+
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Writer put(int value) {
+            out.write(value);
+            return this;
+        }
+
+        Writer put(@NonNull byte[] values) {
+            out.write(values, 0, values.length);
+            return this;
+        }
+
+        Writer putShort(int value) {
+            return put(value & 0xFF).put((value >> 8) & 0xFF);
+        }
+
+        Writer putInt(int value) {
+            return putShort(value & 0xFFFF).putShort((value >>> 16) & 0xFFFF);
+        }
+
+        void append(@NonNull Writer other) {
+            put(other.toByteArray());
+        }
+
+        int size() {
+            return out.size();
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+    }
+}
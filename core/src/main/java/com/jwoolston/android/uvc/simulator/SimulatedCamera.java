@@ -0,0 +1,899 @@
+package com.jwoolston.android.uvc.simulator;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * A software UVC camera, for exercising the stack without hardware. It reports the raw descriptors of a
+ * {@link DescriptorBuilder}, answers control transfers the way a device does, and produces the isochronous payloads
+ * of whatever stream was committed, with errors injected at configurable rates.
+ * <p>
+ * {@link #controlTransfer(int, int, int, int, byte[], int, int)} takes the same arguments and returns the same results
+ * as {@link com.jwoolston.android.uvc.transport.UsbTransport#controlTransfer}. Supported are the VideoStreaming probe
+ * and commit controls, with GET_CUR, GET_MIN, GET_MAX, GET_RES, GET_DEF, GET_LEN, GET_INFO and SET_CUR, the
+ * VideoControl request error code control, and the standard SET_INTERFACE and CLEAR_FEATURE requests. As on a device,
+ * a request which cannot be fulfilled stalls, returning {@link #LIBUSB_ERROR_PIPE}, and leaves its cause in the
+ * request error code control, which any successful request resets. A probe or commit SET_CUR must carry exactly the
+ * control length of the camera's UVC version. The camera adjusts a probed frame interval to the nearest one it
+ * supports, fills in dwMaxVideoFrameSize, dwMaxPayloadTransferSize and dwClockFrequency, and refuses unknown format or
+ * frame indices as out of range. A commit is refused as being in the wrong state while an alternate setting other
+ * than 0 is selected.
+ * <p>
+ * Once an alternate setting other than 0 is selected the committed stream is produced by
+ * {@link #fillTransfer(ByteBuffer, int, int[], int)}, one packet per 125 us service interval of simulated bus time. A
+ * frame is begun every frame interval, and sent as payloads as large as the alternate setting and the committed
+ * dwMaxPayloadTransferSize allow, each with a 12 byte header carrying FID, EOF, PTS and SCR. Service intervals with no
+ * frame data pending carry an empty packet. Should the bandwidth be too low to send a frame within its frame interval,
+ * the frames the sensor captured in the meantime are skipped, as a camera would. MJPEG frames vary in size around the
+ * format's compression ratio and start and end with the JPEG SOI and EOI markers.
+ * <p>
+ * Faults, each drawn from a seeded random source so runs are reproducible:
+ * <br>
+ * - <b>Payload errors</b>: every payload of a frame carries the ERR bit.<br>
+ * - <b>Packet loss</b>: a payload is generated but its packet arrives empty.<br>
+ * - <b>Malformed headers</b>: a payload's bHeaderLength is corrupted.<br>
+ * - <b>Transfer errors</b>: a whole transfer fails with {@link #LIBUSB_ERROR_IO}.<br>
+ * - <b>Disconnection</b>: every request fails with {@link #LIBUSB_ERROR_NO_DEVICE}.
+ * <p>
+ * All methods are safe to call from any thread.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §4.3.1.1</a>
+ */
+public class SimulatedCamera {
+
+    // libusb error codes, as a UsbDeviceConnection returns them
+    public static final int LIBUSB_ERROR_IO        = -1;
+    public static final int LIBUSB_ERROR_NO_DEVICE = -4;
+    public static final int LIBUSB_ERROR_PIPE      = -9;
+
+    public static final int PAYLOAD_HEADER_LENGTH = 12;
+
+    public static final long DEFAULT_SEED = 0x5556L;
+
+    // Request error codes, UVC 1.5 §4.2.1.2
+    public static final int ERROR_NONE            = 0x00;
+    public static final int ERROR_WRONG_STATE     = 0x02;
+    public static final int ERROR_OUT_OF_RANGE    = 0x04;
+    public static final int ERROR_INVALID_UNIT    = 0x05;
+    public static final int ERROR_INVALID_CONTROL = 0x06;
+    public static final int ERROR_INVALID_REQUEST = 0x07;
+
+    private static final long SERVICE_INTERVAL = 125000; // Nanoseconds
+    private static final long INTERVAL_UNIT    = 100; // Nanoseconds per frame interval unit
+
+    private static final int REQUEST_TYPE_STANDARD_INTERFACE = 0x01;
+    private static final int REQUEST_TYPE_STANDARD_ENDPOINT  = 0x02;
+    private static final int REQUEST_TYPE_CLASS_SET          = 0x21;
+    private static final int REQUEST_TYPE_CLASS_GET          = 0xA1;
+
+    private static final int REQUEST_CLEAR_FEATURE = 0x01;
+    private static final int REQUEST_SET_INTERFACE = 0x0B;
+
+    private static final int SET_CUR  = 0x01;
+    private static final int GET_CUR  = 0x81;
+    private static final int GET_MIN  = 0x82;
+    private static final int GET_MAX  = 0x83;
+    private static final int GET_RES  = 0x84;
+    private static final int GET_LEN  = 0x85;
+    private static final int GET_INFO = 0x86;
+    private static final int GET_DEF  = 0x87;
+
+    private static final int VC_REQUEST_ERROR_CODE_CONTROL = 0x02;
+    private static final int VS_PROBE_CONTROL              = 0x01;
+    private static final int VS_COMMIT_CONTROL             = 0x02;
+
+    private static final int INFO_GET     = 0x01;
+    private static final int INFO_GET_SET = 0x03;
+
+    // Terminals of the DescriptorBuilder topology
+    private static final int CAMERA_TERMINAL_ID = 1;
+    private static final int OUTPUT_TERMINAL_ID = 2;
+
+    // Probe and commit layout, UVC 1.5 §4.3.1.1
+    private static final int bmHint                   = 0;
+    private static final int bFormatIndex             = 2;
+    private static final int bFrameIndex              = 3;
+    private static final int dwFrameInterval          = 4;
+    private static final int wCompQuality             = 12;
+    private static final int dwMaxVideoFrameSize      = 18;
+    private static final int dwMaxPayloadTransferSize = 22;
+    private static final int dwClockFrequency         = 26;
+    private static final int bmFramingInfo            = 30;
+    private static final int bPreferedVersion         = 31;
+    private static final int bMinVersion              = 32;
+    private static final int bMaxVersion              = 33;
+    private static final int bUsage                   = 34;
+
+    private static final int LENGTH_PROBE_UVC_10 = 26;
+    private static final int LENGTH_PROBE_UVC_11 = 34;
+    private static final int LENGTH_PROBE_UVC_15 = 48;
+
+    private static final int MIN_COMP_QUALITY     = 1;
+    private static final int MAX_COMP_QUALITY     = 10000;
+    private static final int DEFAULT_COMP_QUALITY = 5000;
+
+    private static final int FRAMING_FID_EOF = 0x03;
+
+    private static final int HEADER_FRAME_ID          = 0x01;
+    private static final int HEADER_END_OF_FRAME      = 0x02;
+    private static final int HEADER_PRESENTATION_TIME = 0x04;
+    private static final int HEADER_SOURCE_CLOCK      = 0x08;
+    private static final int HEADER_ERROR             = 0x40;
+    private static final int HEADER_END_OF_HEADER     = 0x80;
+
+    private static final int MASK_SOF_COUNTER = 0x07FF;
+
+    private static final byte FILL = (byte) 0x80;
+
+    private final byte[]                descriptors;
+    private final List<SimulatedFormat> formats;
+    private final int[]                 bandwidths;
+    private final int                   clockFrequency;
+    private final int                   probeLength;
+    private final byte[]                pattern;
+
+    private final Random random = new Random(DEFAULT_SEED);
+
+    private byte[]  probe;
+    private byte[]  committed;
+    private int     alternateSetting;
+    private int     requestErrorCode;
+    private boolean disconnected;
+
+    private double payloadErrorRate;
+    private double packetLossRate;
+    private double malformedHeaderRate;
+    private double transferErrorRate;
+
+    // The committed stream
+    private SimulatedFormat            streamFormat;
+    private SimulatedFormat.Resolution streamResolution;
+    private long                       streamInterval;
+    private int                        streamPayloadSize;
+
+    // Generator state, in simulated bus time since the alternate setting was selected
+    private long    busTime;
+    private long    nextFrameTime;
+    private boolean inFrame;
+    private boolean errorFrame;
+    private int     frameId;
+    private int     frameSize;
+    private int     frameOffset;
+    private int     presentationTime;
+
+    private long frameCount;
+    private long skippedFrameCount;
+    private long errorFrameCount;
+    private long payloadCount;
+    private long lostPacketCount;
+    private long malformedPacketCount;
+    private long failedTransferCount;
+    private long stallCount;
+
+    /**
+     * Constructor.
+     *
+     * @param builder The {@link DescriptorBuilder} describing the camera. Later changes to it do not affect the camera.
+     */
+    public SimulatedCamera(@NonNull DescriptorBuilder builder) {
+        descriptors = builder.build();
+        formats = new ArrayList<>(builder.getFormats());
+        bandwidths = new int[builder.getAlternateSettingCount() + 1];
+        int maxBandwidth = 0;
+        for (int i = 1; i < bandwidths.length; ++i) {
+            bandwidths[i] = builder.getBytesPerInterval(i);
+            maxBandwidth = Math.max(maxBandwidth, bandwidths[i]);
+        }
+        clockFrequency = builder.getClockFrequency();
+        switch (builder.getUvcVersion()) {
+            case 0x0100:
+                probeLength = LENGTH_PROBE_UVC_10;
+                break;
+            case 0x0110:
+                probeLength = LENGTH_PROBE_UVC_11;
+                break;
+            default:
+                probeLength = LENGTH_PROBE_UVC_15;
+        }
+        pattern = new byte[maxBandwidth];
+        Arrays.fill(pattern, FILL);
+        probe = getDefaultProbe();
+        committed = probe.clone();
+        applyCommit(committed);
+    }
+
+    /**
+     * The raw descriptors of the camera, as
+     * {@link com.jwoolston.android.uvc.transport.UsbTransport#getRawDescriptors()} returns them.
+     *
+     * @return A copy of the descriptors.
+     */
+    @NonNull
+    public byte[] getRawDescriptors() {
+        return descriptors.clone();
+    }
+
+    /**
+     * Performs a control transfer.
+     *
+     * @param requestType The bmRequestType.
+     * @param request     The bRequest.
+     * @param value       The wValue.
+     * @param index       The wIndex.
+     * @param buffer      The data stage buffer, which may be {@code null} if the length is 0.
+     * @param length      The wLength.
+     * @param timeout     Ignored, the camera answers immediately.
+     *
+     * @return The number of bytes transferred, or a negative libusb error code.
+     */
+    public synchronized int controlTransfer(int requestType, int request, int value, int index,
+                                            @Nullable byte[] buffer, int length, int timeout) {
+        if (disconnected) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        if (length > 0 && (buffer == null || buffer.length < length)) {
+            return LIBUSB_ERROR_IO;
+        }
+        // Requests are often built from signed bytes; only the low byte goes on the wire
+        request &= 0xFF;
+        switch (0xFF & requestType) {
+            case REQUEST_TYPE_STANDARD_INTERFACE:
+                return request == REQUEST_SET_INTERFACE ? setInterface(index, value) : LIBUSB_ERROR_PIPE;
+            case REQUEST_TYPE_STANDARD_ENDPOINT:
+                // Clearing a halt is all the standard endpoint handling there is
+                return request == REQUEST_CLEAR_FEATURE ? clearHalt(0xFF & index) : LIBUSB_ERROR_PIPE;
+            case REQUEST_TYPE_CLASS_SET:
+                if (request != SET_CUR) {
+                    return stall(ERROR_INVALID_REQUEST);
+                }
+                break;
+            case REQUEST_TYPE_CLASS_GET:
+                if (request == SET_CUR) {
+                    return stall(ERROR_INVALID_REQUEST);
+                }
+                break;
+            default:
+                return LIBUSB_ERROR_PIPE;
+        }
+        final int interfaceNumber = 0xFF & index;
+        final int entity = 0xFF & (index >> 8);
+        final int selector = 0xFF & (value >> 8);
+        if (entity != 0) {
+            // Neither terminal has any controls, and there are no units
+            return stall(entity == CAMERA_TERMINAL_ID || entity == OUTPUT_TERMINAL_ID ? ERROR_INVALID_CONTROL
+                                                                                      : ERROR_INVALID_UNIT);
+        }
+        if (interfaceNumber == DescriptorBuilder.CONTROL_INTERFACE) {
+            return controlInterfaceRequest(request, selector, buffer, length);
+        }
+        if (interfaceNumber == DescriptorBuilder.STREAMING_INTERFACE) {
+            return streamingInterfaceRequest(request, selector, buffer, length);
+        }
+        return LIBUSB_ERROR_PIPE;
+    }
+
+    private int controlInterfaceRequest(int request, int selector, byte[] buffer, int length) {
+        if (selector != VC_REQUEST_ERROR_CODE_CONTROL) {
+            return stall(ERROR_INVALID_CONTROL);
+        }
+        switch (request) {
+            case GET_CUR:
+                return reply(new byte[]{ (byte) requestErrorCode }, buffer, length);
+            case GET_INFO:
+                return reply(new byte[]{ INFO_GET }, buffer, length);
+            default:
+                return stall(ERROR_INVALID_REQUEST);
+        }
+    }
+
+    private int streamingInterfaceRequest(int request, int selector, byte[] buffer, int length) {
+        if (selector != VS_PROBE_CONTROL && selector != VS_COMMIT_CONTROL) {
+            return stall(ERROR_INVALID_CONTROL);
+        }
+        final boolean commit = selector == VS_COMMIT_CONTROL;
+        switch (request) {
+            case GET_INFO:
+                return reply(new byte[]{ INFO_GET_SET }, buffer, length);
+            case GET_LEN:
+                return reply(new byte[]{ (byte) probeLength, (byte) (probeLength >> 8) }, buffer, length);
+            case GET_CUR:
+                return reply(commit ? committed : probe, buffer, length);
+            case GET_MIN:
+            case GET_MAX:
+            case GET_RES:
+            case GET_DEF:
+                if (commit) {
+                    return stall(ERROR_INVALID_REQUEST);
+                }
+                return reply(getProbeLimit(request), buffer, length);
+            case SET_CUR:
+                if (length != probeLength) {
+                    return stall(ERROR_INVALID_REQUEST);
+                }
+                if (commit && alternateSetting != 0) {
+                    return stall(ERROR_WRONG_STATE);
+                }
+                final byte[] negotiated = negotiate(buffer);
+                if (negotiated == null) {
+                    return stall(ERROR_OUT_OF_RANGE);
+                }
+                probe = negotiated;
+                if (commit) {
+                    committed = negotiated.clone();
+                    applyCommit(committed);
+                }
+                return complete(length);
+            default:
+                return stall(ERROR_INVALID_REQUEST);
+        }
+    }
+
+    private int reply(@NonNull byte[] data, byte[] buffer, int length) {
+        final int count = Math.min(length, data.length);
+        System.arraycopy(data, 0, buffer, 0, count);
+        return complete(count);
+    }
+
+    private int complete(int count) {
+        requestErrorCode = ERROR_NONE;
+        return count;
+    }
+
+    private int stall(int errorCode) {
+        requestErrorCode = errorCode;
+        ++stallCount;
+        return LIBUSB_ERROR_PIPE;
+    }
+
+    /**
+     * Clears a halt, as the standard CLEAR_FEATURE(ENDPOINT_HALT) request does. The streaming endpoint never halts, so
+     * there is nothing to clear beyond checking the address.
+     *
+     * @param endpointAddress The bEndpointAddress.
+     *
+     * @return 0, or a negative libusb error code.
+     */
+    public synchronized int clearHalt(int endpointAddress) {
+        if (disconnected) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        return endpointAddress == DescriptorBuilder.ENDPOINT_ADDRESS ? 0 : LIBUSB_ERROR_PIPE;
+    }
+
+    /**
+     * Selects an alternate setting, as the standard SET_INTERFACE request does. Selecting an alternate setting other
+     * than 0 of the streaming interface starts the committed stream from the beginning; selecting 0 stops it.
+     *
+     * @param interfaceNumber  The interface number.
+     * @param alternateSetting The alternate setting number.
+     *
+     * @return 0, or a negative libusb error code.
+     */
+    public synchronized int setInterface(int interfaceNumber, int alternateSetting) {
+        if (disconnected) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        if (interfaceNumber == DescriptorBuilder.CONTROL_INTERFACE && alternateSetting == 0) {
+            return 0;
+        }
+        if (interfaceNumber != DescriptorBuilder.STREAMING_INTERFACE || alternateSetting < 0
+            || alternateSetting >= bandwidths.length) {
+            return LIBUSB_ERROR_PIPE;
+        }
+        this.alternateSetting = alternateSetting;
+        busTime = 0;
+        nextFrameTime = 0;
+        inFrame = false;
+        frameId = 0;
+        return 0;
+    }
+
+    /**
+     * Negotiates and starts a stream through the camera's own control requests, as a host would: probe, read back the
+     * probe, commit it and select the alternate setting with the least bandwidth which carries the committed payload
+     * size, or the largest if none does.
+     *
+     * @param formatIndex   The 1 based format index.
+     * @param frameIndex    The 1 based frame index.
+     * @param frameInterval The requested frame interval in 100 ns units, or 0 for the default.
+     *
+     * @return The selected alternate setting, or a negative libusb error code.
+     */
+    public synchronized int startStreaming(@IntRange(from = 1) int formatIndex, @IntRange(from = 1) int frameIndex,
+                                           @IntRange(from = 0) int frameInterval) {
+        final byte[] data = new byte[probeLength];
+        data[bFormatIndex] = (byte) formatIndex;
+        data[bFrameIndex] = (byte) frameIndex;
+        putInt(data, dwFrameInterval, frameInterval);
+        final int probeValue = VS_PROBE_CONTROL << 8;
+        final int commitValue = VS_COMMIT_CONTROL << 8;
+        final int index = DescriptorBuilder.STREAMING_INTERFACE;
+        int result = controlTransfer(REQUEST_TYPE_CLASS_SET, SET_CUR, probeValue, index, data, probeLength, 0);
+        if (result >= 0) {
+            result = controlTransfer(REQUEST_TYPE_CLASS_GET, GET_CUR, probeValue, index, data, probeLength, 0);
+        }
+        if (result >= 0) {
+            result = controlTransfer(REQUEST_TYPE_CLASS_SET, SET_CUR, commitValue, index, data, probeLength, 0);
+        }
+        if (result < 0) {
+            return result;
+        }
+        int setting = bandwidths.length - 1;
+        for (int i = 1; i < bandwidths.length; ++i) {
+            if (bandwidths[i] >= streamPayloadSize && bandwidths[i] < bandwidths[setting]) {
+                setting = i;
+            }
+        }
+        result = controlTransfer(REQUEST_TYPE_STANDARD_INTERFACE, REQUEST_SET_INTERFACE, setting, index, null, 0, 0);
+        return result < 0 ? result : setting;
+    }
+
+    /**
+     * Stops the stream by selecting alternate setting 0.
+     *
+     * @return 0, or a negative libusb error code.
+     */
+    public int stopStreaming() {
+        return setInterface(DescriptorBuilder.STREAMING_INTERFACE, 0);
+    }
+
+    /**
+     * Fills an isochronous transfer with the next packets of the stream, advancing simulated bus time by one service
+     * interval per packet. Packets are written at multiples of the stride, each at most as large as the stride. A lost
+     * packet has a length of 0 and a status of {@link AsyncTransfer#LIBUSB_TRANSFER_ERROR}, as the host controller
+     * would report it.
+     *
+     * @param data           {@link ByteBuffer} to write the packets to. Its position and limit are not preserved.
+     * @param packetStride   The offset between consecutive packets.
+     * @param packetLengths  Receives the number of bytes of each packet.
+     * @param packetStatuses Receives the {@code LIBUSB_TRANSFER_*} status of each packet.
+     * @param packetCount    The number of packets in the transfer.
+     *
+     * @return 0, or a negative libusb error code if the transfer failed as a whole.
+     */
+    public synchronized int fillTransfer(@NonNull ByteBuffer data, @IntRange(from = 1) int packetStride,
+                                         @NonNull int[] packetLengths, @NonNull int[] packetStatuses,
+                                         @IntRange(from = 1) int packetCount) {
+        if (disconnected) {
+            return LIBUSB_ERROR_NO_DEVICE;
+        }
+        final int capacity = Math.min(packetStride, Math.min(bandwidths[alternateSetting], streamPayloadSize));
+        data.clear();
+        for (int i = 0; i < packetCount; ++i) {
+            busTime += SERVICE_INTERVAL;
+            final int length = alternateSetting == 0 ? 0 : nextPacket(data, i * packetStride, capacity);
+            packetLengths[i] = Math.max(length, 0);
+            packetStatuses[i] = length < 0 ? AsyncTransfer.LIBUSB_TRANSFER_ERROR
+                                           : AsyncTransfer.LIBUSB_TRANSFER_COMPLETED;
+        }
+        if (transferErrorRate > 0 && random.nextDouble() < transferErrorRate) {
+            // The packets were sent by the camera, but are lost to the host
+            ++failedTransferCount;
+            return LIBUSB_ERROR_IO;
+        }
+        return 0;
+    }
+
+    /**
+     * Writes the next packet of the stream.
+     *
+     * @return The packet length, or -1 if the packet is lost to the host.
+     */
+    private int nextPacket(@NonNull ByteBuffer data, int offset, int capacity) {
+        if (!inFrame) {
+            if (busTime < nextFrameTime) {
+                return 0;
+            }
+            beginFrame();
+        }
+        final int chunk = Math.min(frameSize - frameOffset, capacity - PAYLOAD_HEADER_LENGTH);
+        if (chunk <= 0) {
+            return 0;
+        }
+        final boolean end = frameOffset + chunk == frameSize;
+        int info = HEADER_END_OF_HEADER | HEADER_PRESENTATION_TIME | HEADER_SOURCE_CLOCK | frameId;
+        if (end) {
+            info |= HEADER_END_OF_FRAME;
+        }
+        if (errorFrame) {
+            info |= HEADER_ERROR;
+        }
+        data.put(offset, (byte) PAYLOAD_HEADER_LENGTH);
+        data.put(offset + 1, (byte) info);
+        putInt(data, offset + 2, presentationTime);
+        putInt(data, offset + 6, getSourceTime(busTime));
+        final int sof = (int) (busTime / 1000000L) & MASK_SOF_COUNTER;
+        data.put(offset + 10, (byte) sof);
+        data.put(offset + 11, (byte) (sof >> 8));
+
+        final int start = offset + PAYLOAD_HEADER_LENGTH;
+        data.position(start);
+        data.put(pattern, 0, chunk);
+        if (streamFormat.isCompressed()) {
+            if (frameOffset == 0 && chunk >= 2) {
+                data.put(start, (byte) 0xFF);
+                data.put(start + 1, (byte) 0xD8);
+            }
+            if (end && chunk >= 2) {
+                data.put(start + chunk - 2, (byte) 0xFF);
+                data.put(start + chunk - 1, (byte) 0xD9);
+            }
+        }
+        frameOffset += chunk;
+        ++payloadCount;
+        if (end) {
+            inFrame = false;
+            frameId ^= HEADER_FRAME_ID;
+            ++frameCount;
+        }
+        if (malformedHeaderRate > 0 && random.nextDouble() < malformedHeaderRate) {
+            ++malformedPacketCount;
+            data.put(offset, (byte) 1);
+        }
+        if (packetLossRate > 0 && random.nextDouble() < packetLossRate) {
+            ++lostPacketCount;
+            return -1;
+        }
+        return PAYLOAD_HEADER_LENGTH + chunk;
+    }
+
+    private void beginFrame() {
+        final long intervalNanos = streamInterval * INTERVAL_UNIT;
+        presentationTime = getSourceTime(nextFrameTime);
+        nextFrameTime += intervalNanos;
+        // Frames captured while the previous one was still being sent are lost
+        while (nextFrameTime <= busTime) {
+            nextFrameTime += intervalNanos;
+            ++skippedFrameCount;
+        }
+        final int size = streamFormat.getStreamedFrameSize(streamResolution);
+        frameSize = streamFormat.isCompressed() ? size - size / 8 + random.nextInt(size / 4 + 1) : size;
+        frameOffset = 0;
+        errorFrame = payloadErrorRate > 0 && random.nextDouble() < payloadErrorRate;
+        if (errorFrame) {
+            ++errorFrameCount;
+        }
+        inFrame = true;
+    }
+
+    private int getSourceTime(long nanos) {
+        return (int) (nanos / 1000L * clockFrequency / 1000000L);
+    }
+
+    /**
+     * Adjusts a probe to what the camera supports.
+     *
+     * @return The negotiated probe, or {@code null} if the format or frame index is unknown.
+     */
+    @Nullable
+    private byte[] negotiate(@NonNull byte[] request) {
+        final int formatIndex = 0xFF & request[bFormatIndex];
+        final int frameIndex = 0xFF & request[bFrameIndex];
+        final SimulatedFormat format = getFormat(formatIndex);
+        if (format == null || format.getResolution(frameIndex) == null) {
+            return null;
+        }
+        final SimulatedFormat.Resolution resolution = format.getResolution(frameIndex);
+        final int interval = resolution.getNearestInterval(0xFFFFFFFFL & getInt(request, dwFrameInterval));
+        int quality = getShort(request, wCompQuality);
+        quality = quality == 0 ? DEFAULT_COMP_QUALITY : Math.max(MIN_COMP_QUALITY, Math.min(quality, MAX_COMP_QUALITY));
+        return buildProbe(getShort(request, bmHint), formatIndex, frameIndex, interval, quality);
+    }
+
+    @NonNull
+    private byte[] getDefaultProbe() {
+        final SimulatedFormat format = formats.get(0);
+        SimulatedFormat.Resolution resolution = format.getResolution(format.getDefaultFrameIndex());
+        if (resolution == null) {
+            resolution = format.getResolutions().get(0);
+        }
+        return buildProbe(0, 1, resolution.getFrameIndex(), resolution.getDefaultInterval(), DEFAULT_COMP_QUALITY);
+    }
+
+    @NonNull
+    private byte[] getProbeLimit(int request) {
+        if (request == GET_DEF) {
+            return getDefaultProbe();
+        }
+        final int formatIndex = 0xFF & probe[bFormatIndex];
+        final int frameIndex = 0xFF & probe[bFrameIndex];
+        final SimulatedFormat.Resolution resolution = getFormat(formatIndex).getResolution(frameIndex);
+        switch (request) {
+            case GET_MIN:
+                return buildProbe(0, formatIndex, frameIndex, resolution.getMinInterval(), MIN_COMP_QUALITY);
+            case GET_MAX:
+                return buildProbe(0, formatIndex, frameIndex, resolution.getMaxInterval(), MAX_COMP_QUALITY);
+            default:
+                // Only the negotiable fields have a resolution
+                final byte[] data = new byte[probeLength];
+                data[bFormatIndex] = (byte) formatIndex;
+                data[bFrameIndex] = (byte) frameIndex;
+                putInt(data, dwFrameInterval, 1);
+                putShort(data, wCompQuality, 1);
+                return data;
+        }
+    }
+
+    @NonNull
+    private byte[] buildProbe(int hint, int formatIndex, int frameIndex, int interval, int quality) {
+        final SimulatedFormat format = getFormat(formatIndex);
+        final SimulatedFormat.Resolution resolution = format.getResolution(frameIndex);
+        final byte[] data = new byte[probeLength];
+        putShort(data, bmHint, hint);
+        data[bFormatIndex] = (byte) formatIndex;
+        data[bFrameIndex] = (byte) frameIndex;
+        putInt(data, dwFrameInterval, interval);
+        putShort(data, wCompQuality, format.isCompressed() ? quality : 0);
+        putInt(data, dwMaxVideoFrameSize, resolution.getMaxVideoFrameBufferSize());
+        putInt(data, dwMaxPayloadTransferSize, getPayloadSize(format, resolution, interval));
+        if (probeLength >= LENGTH_PROBE_UVC_11) {
+            putInt(data, dwClockFrequency, clockFrequency);
+            data[bmFramingInfo] = FRAMING_FID_EOF;
+            data[bPreferedVersion] = 1;
+            data[bMinVersion] = 1;
+            data[bMaxVersion] = 1;
+        }
+        if (probeLength >= LENGTH_PROBE_UVC_15) {
+            data[bUsage] = 1; // Real time
+        }
+        return data;
+    }
+
+    /**
+     * The smallest bandwidth which sends the largest frames of a stream within their frame interval, or the largest
+     * bandwidth if none does.
+     */
+    private int getPayloadSize(@NonNull SimulatedFormat format, @NonNull SimulatedFormat.Resolution resolution,
+                               int interval) {
+        final int size = format.getStreamedFrameSize(resolution);
+        final long largest = format.isCompressed() ? size + size / 8 : size;
+        final long intervals = Math.max(1, interval * INTERVAL_UNIT / SERVICE_INTERVAL);
+        final long required = (largest + intervals - 1) / intervals + PAYLOAD_HEADER_LENGTH;
+        int best = 0;
+        int largestBandwidth = 0;
+        for (int i = 1; i < bandwidths.length; ++i) {
+            largestBandwidth = Math.max(largestBandwidth, bandwidths[i]);
+            if (bandwidths[i] >= required && (best == 0 || bandwidths[i] < best)) {
+                best = bandwidths[i];
+            }
+        }
+        return best == 0 ? largestBandwidth : best;
+    }
+
+    private void applyCommit(@NonNull byte[] data) {
+        streamFormat = getFormat(0xFF & data[bFormatIndex]);
+        streamResolution = streamFormat.getResolution(0xFF & data[bFrameIndex]);
+        streamInterval = 0xFFFFFFFFL & getInt(data, dwFrameInterval);
+        streamPayloadSize = getInt(data, dwMaxPayloadTransferSize);
+    }
+
+    @Nullable
+    private SimulatedFormat getFormat(int formatIndex) {
+        return (formatIndex < 1 || formatIndex > formats.size()) ? null : formats.get(formatIndex - 1);
+    }
+
+    /**
+     * Sets the fraction of frames whose payloads all carry the ERR bit.
+     *
+     * @param rate The probability per frame, from 0 to 1.
+     */
+    public synchronized void setPayloadErrorRate(double rate) {
+        payloadErrorRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of payloads lost on the bus, arriving as empty packets.
+     *
+     * @param rate The probability per payload, from 0 to 1.
+     */
+    public synchronized void setPacketLossRate(double rate) {
+        packetLossRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of payloads whose header length is corrupted.
+     *
+     * @param rate The probability per payload, from 0 to 1.
+     */
+    public synchronized void setMalformedHeaderRate(double rate) {
+        malformedHeaderRate = checkRate(rate);
+    }
+
+    /**
+     * Sets the fraction of transfers which fail as a whole with {@link #LIBUSB_ERROR_IO}.
+     *
+     * @param rate The probability per transfer, from 0 to 1.
+     */
+    public synchronized void setTransferErrorRate(double rate) {
+        transferErrorRate = checkRate(rate);
+    }
+
+    /**
+     * Reseeds the random source of fault injection and MJPEG frame sizes.
+     *
+     * @param seed The seed. Defaults to {@link #DEFAULT_SEED}.
+     */
+    public synchronized void setSeed(long seed) {
+        random.setSeed(seed);
+    }
+
+    /**
+     * Simulates unplugging or replugging the camera. While disconnected every request fails with
+     * {@link #LIBUSB_ERROR_NO_DEVICE}; reconnecting returns the streaming interface to alternate setting 0.
+     *
+     * @param connected Whether the camera is connected.
+     */
+    public synchronized void setConnected(boolean connected) {
+        disconnected = !connected;
+        if (connected) {
+            alternateSetting = 0;
+        }
+    }
+
+    private static double checkRate(double rate) {
+        if (!(rate >= 0 && rate <= 1)) {
+            throw new IllegalArgumentException("Rate must be between 0 and 1: " + rate);
+        }
+        return rate;
+    }
+
+    public synchronized boolean isConnected() {
+        return !disconnected;
+    }
+
+    public synchronized boolean isStreaming() {
+        return !disconnected && alternateSetting != 0;
+    }
+
+    public synchronized int getAlternateSetting() {
+        return alternateSetting;
+    }
+
+    /**
+     * The isochronous bandwidth of the selected alternate setting, the stride a host should give each packet.
+     *
+     * @return The bytes per 125 us service interval, or 0 for alternate setting 0.
+     */
+    public synchronized int getBytesPerInterval() {
+        return bandwidths[alternateSetting];
+    }
+
+    /**
+     * The length of the probe and commit controls, set by the camera's UVC version.
+     *
+     * @return The control length in bytes.
+     */
+    public int getProbeLength() {
+        return probeLength;
+    }
+
+    @NonNull
+    public synchronized byte[] getCommittedProbe() {
+        return committed.clone();
+    }
+
+    public synchronized int getMaxVideoFrameSize() {
+        return getInt(committed, dwMaxVideoFrameSize);
+    }
+
+    public synchronized int getMaxPayloadTransferSize() {
+        return streamPayloadSize;
+    }
+
+    /**
+     * The committed frame interval.
+     *
+     * @return The frame interval in 100 ns units.
+     */
+    public synchronized long getFrameInterval() {
+        return streamInterval;
+    }
+
+    /**
+     * How much bus time has been simulated since the alternate setting was last selected.
+     *
+     * @return The bus time in nanoseconds.
+     */
+    public synchronized long getBusTime() {
+        return busTime;
+    }
+
+    /**
+     * The last request error code, as the VideoControl request error code control reports it.
+     *
+     * @return One of the ERROR_ constants.
+     */
+    public synchronized int getRequestErrorCode() {
+        return requestErrorCode;
+    }
+
+    /**
+     * The number of frames sent completely, including those whose packets were lost.
+     *
+     * @return The frame count.
+     */
+    public synchronized long getFrameCount() {
+        return frameCount;
+    }
+
+    /**
+     * The number of frames not sent because the bandwidth could not keep up with the frame rate.
+     *
+     * @return The skipped frame count.
+     */
+    public synchronized long getSkippedFrameCount() {
+        return skippedFrameCount;
+    }
+
+    public synchronized long getErrorFrameCount() {
+        return errorFrameCount;
+    }
+
+    public synchronized long getPayloadCount() {
+        return payloadCount;
+    }
+
+    public synchronized long getLostPacketCount() {
+        return lostPacketCount;
+    }
+
+    public synchronized long getMalformedPacketCount() {
+        return malformedPacketCount;
+    }
+
+    public synchronized long getFailedTransferCount() {
+        return failedTransferCount;
+    }
+
+    public synchronized long getStallCount() {
+        return stallCount;
+    }
+
+    private static int getShort(@NonNull byte[] data, int index) {
+        return (0xFF & data[index]) | ((0xFF & data[index + 1]) << 8);
+    }
+
+    private static int getInt(@NonNull byte[] data, int index) {
+        return getShort(data, index) | (getShort(data, index + 2) << 16);
+    }
+
+    private static void putShort(@NonNull byte[] data, int index, int value) {
+        data[index] = (byte) value;
+        data[index + 1] = (byte) (value >> 8);
+    }
+
+    private static void putInt(@NonNull byte[] data, int index, int value) {
+        putShort(data, index, value);
+        putShort(data, index + 2, value >>> 16);
+    }
+
+    private static void putInt(@NonNull ByteBuffer data, int index, int value) {
+        data.put(index, (byte) value);
+        data.put(index + 1, (byte) (value >> 8));
+        data.put(index + 2, (byte) (value >> 16));
+        data.put(index + 3, (byte) (value >> 24));
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "SimulatedCamera{" +
+               "alternateSetting=" + alternateSetting +
+               ", format=" + (0xFF & committed[bFormatIndex]) +
+               ", frame=" + (0xFF & committed[bFrameIndex]) +
+               ", interval=" + streamInterval +
+               ", payloadSize=" + streamPayloadSize +
+               ", frames=" + frameCount +
+               ", skipped=" + skippedFrameCount +
+               ", connected=" + !disconnected +
+               '}';
+    }
+}
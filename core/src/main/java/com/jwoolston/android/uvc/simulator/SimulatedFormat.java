@@ -0,0 +1,262 @@
+package com.jwoolston.android.uvc.simulator;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A video format offered by a {@link SimulatedCamera}, with the frame sizes and frame intervals it can be streamed
+ * at. Both MJPEG and uncompressed YUY2 are supported; every frame size reports a dwMaxVideoFrameBufferSize of two
+ * bytes per pixel, and MJPEG frames are streamed at that size divided by the
+ * {@link #setCompressionRatio(int) compression ratio}.
+ * <p>
+ * Format and frame indices are assigned in the order formats are added to a {@link DescriptorBuilder} and frame sizes
+ * are added to their format, starting from 1.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §3.9.2</a>
+ */
+public class SimulatedFormat {
+
+    public static final int DEFAULT_COMPRESSION_RATIO = 10;
+
+    static final int BYTES_PER_PIXEL = 2;
+
+    private final Type             type;
+    private final List<Resolution> resolutions = new ArrayList<>();
+
+    private int compressionRatio  = DEFAULT_COMPRESSION_RATIO;
+    private int defaultFrameIndex = 1;
+
+    @NonNull
+    public static SimulatedFormat mjpeg() {
+        return new SimulatedFormat(Type.MJPEG);
+    }
+
+    @NonNull
+    public static SimulatedFormat yuy2() {
+        return new SimulatedFormat(Type.YUY2);
+    }
+
+    private SimulatedFormat(@NonNull Type type) {
+        this.type = type;
+    }
+
+    /**
+     * Adds a frame size with a discrete set of frame intervals. The first interval is the default.
+     *
+     * @param width     The width in pixels.
+     * @param height    The height in pixels.
+     * @param intervals The supported frame intervals in 100 ns units, at least one.
+     *
+     * @return This {@link SimulatedFormat}.
+     */
+    @NonNull
+    public SimulatedFormat addFrame(@IntRange(from = 1, to = 0xFFFF) int width,
+                                    @IntRange(from = 1, to = 0xFFFF) int height, @NonNull int... intervals) {
+        if (width < 1 || width > 0xFFFF || height < 1 || height > 0xFFFF) {
+            throw new IllegalArgumentException("Invalid frame size: " + width + "x" + height);
+        }
+        if (intervals.length == 0 || intervals.length > 0xFF) {
+            throw new IllegalArgumentException("Between 1 and 255 frame intervals are required: " + intervals.length);
+        }
+        for (int interval : intervals) {
+            if (interval <= 0) {
+                throw new IllegalArgumentException("Invalid frame interval: " + interval);
+            }
+        }
+        resolutions.add(new Resolution(resolutions.size() + 1, width, height, intervals.clone()));
+        return this;
+    }
+
+    /**
+     * Sets how much smaller than its buffer size each MJPEG frame is streamed. Ignored for uncompressed formats.
+     *
+     * @param ratio The compression ratio. Defaults to {@link #DEFAULT_COMPRESSION_RATIO}.
+     *
+     * @return This {@link SimulatedFormat}.
+     */
+    @NonNull
+    public SimulatedFormat setCompressionRatio(@IntRange(from = 1) int ratio) {
+        if (ratio < 1) {
+            throw new IllegalArgumentException("Invalid compression ratio: " + ratio);
+        }
+        compressionRatio = ratio;
+        return this;
+    }
+
+    /**
+     * Sets the frame size the format defaults to.
+     *
+     * @param index The 1 based frame index.
+     *
+     * @return This {@link SimulatedFormat}.
+     */
+    @NonNull
+    public SimulatedFormat setDefaultFrameIndex(@IntRange(from = 1) int index) {
+        defaultFrameIndex = index;
+        return this;
+    }
+
+    @NonNull
+    public Type getType() {
+        return type;
+    }
+
+    public boolean isCompressed() {
+        return type == Type.MJPEG;
+    }
+
+    public int getCompressionRatio() {
+        return compressionRatio;
+    }
+
+    public int getDefaultFrameIndex() {
+        return defaultFrameIndex;
+    }
+
+    @NonNull
+    public List<Resolution> getResolutions() {
+        return Collections.unmodifiableList(resolutions);
+    }
+
+    /**
+     * Looks up a frame size by its frame index.
+     *
+     * @param frameIndex The 1 based frame index.
+     *
+     * @return The {@link Resolution}, or {@code null} if there is no such frame index.
+     */
+    Resolution getResolution(int frameIndex) {
+        return (frameIndex < 1 || frameIndex > resolutions.size()) ? null : resolutions.get(frameIndex - 1);
+    }
+
+    /**
+     * The average number of bytes each frame of a frame size is streamed with.
+     *
+     * @param resolution The {@link Resolution}.
+     *
+     * @return The streamed frame size in bytes.
+     */
+    int getStreamedFrameSize(@NonNull Resolution resolution) {
+        final int size = resolution.getMaxVideoFrameBufferSize();
+        return isCompressed() ? Math.max(1, size / compressionRatio) : size;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedFormat{" +
+               "type=" + type +
+               ", resolutions=" + resolutions +
+               ", compressionRatio=" + compressionRatio +
+               '}';
+    }
+
+    /**
+     * The encodings a {@link SimulatedFormat} can have.
+     */
+    public enum Type {
+
+        /**
+         * Motion JPEG, described by VS_FORMAT_MJPEG and VS_FRAME_MJPEG descriptors.
+         */
+        MJPEG,
+
+        /**
+         * Uncompressed 4:2:2 YUY2, described by VS_FORMAT_UNCOMPRESSED and VS_FRAME_UNCOMPRESSED descriptors.
+         */
+        YUY2
+    }
+
+    /**
+     * One frame size of a {@link SimulatedFormat} and its discrete frame intervals.
+     */
+    public static final class Resolution {
+
+        private final int   frameIndex;
+        private final int   width;
+        private final int   height;
+        private final int[] intervals;
+
+        Resolution(int frameIndex, int width, int height, @NonNull int[] intervals) {
+            this.frameIndex = frameIndex;
+            this.width = width;
+            this.height = height;
+            this.intervals = intervals;
+        }
+
+        public int getFrameIndex() {
+            return frameIndex;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+
+        @NonNull
+        public int[] getIntervals() {
+            return intervals.clone();
+        }
+
+        public int getDefaultInterval() {
+            return intervals[0];
+        }
+
+        public int getMinInterval() {
+            int min = Integer.MAX_VALUE;
+            for (int interval : intervals) {
+                min = Math.min(min, interval);
+            }
+            return min;
+        }
+
+        public int getMaxInterval() {
+            int max = 0;
+            for (int interval : intervals) {
+                max = Math.max(max, interval);
+            }
+            return max;
+        }
+
+        /**
+         * Finds the supported frame interval closest to a requested one.
+         *
+         * @param requested The requested frame interval in 100 ns units, or 0 for the default.
+         *
+         * @return The supported frame interval in 100 ns units.
+         */
+        public int getNearestInterval(long requested) {
+            if (requested <= 0) {
+                return getDefaultInterval();
+            }
+            int nearest = intervals[0];
+            for (int interval : intervals) {
+                if (Math.abs(interval - requested) < Math.abs(nearest - requested)) {
+                    nearest = interval;
+                }
+            }
+            return nearest;
+        }
+
+        public int getMaxVideoFrameBufferSize() {
+            return width * height * BYTES_PER_PIXEL;
+        }
+
+        @Override
+        public String toString() {
+            return "Resolution{" +
+                   "index=" + frameIndex +
+                   ", " + width + "x" + height +
+                   ", intervals=" + Arrays.toString(intervals) +
+                   '}';
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.jwoolston.android.uvc.simulator;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.transport.EmulatedTransport;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * In-memory {@link UsbTransport} to a {@link SimulatedCamera}. Descriptors, control transfers and alternate settings
+ * are answered by the camera, and isochronous transfers on {@link DescriptorBuilder#ENDPOINT_ADDRESS} are filled with
+ * its payloads, so the whole host side of streaming, negotiation included, runs without hardware.
+ * <p>
+ * By default each transfer completes when its last packet would have been on the bus, measured from the first
+ * transfer submitted. Without pacing transfers complete as soon as they are submitted, which measures the cost of the
+ * host side alone. The camera has no bulk endpoint, so bulk transfers fail with {@link #LIBUSB_ERROR_NOT_SUPPORTED}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class SimulatedTransport extends EmulatedTransport {
+
+    private static final long SERVICE_INTERVAL = 125000L; // Nanoseconds, one packet per high speed microframe
+    private static final long RESYNC_THRESHOLD = 100000000L; // Nanoseconds
+
+    private final SimulatedCamera camera;
+
+    private volatile boolean paced = true;
+
+    // Event thread only
+    private long wallStart;
+    private long busStart;
+
+    /**
+     * Constructor.
+     *
+     * @param camera The {@link SimulatedCamera} to connect to.
+     */
+    public SimulatedTransport(@NonNull SimulatedCamera camera) {
+        super("UVC-Simulated-Events");
+        this.camera = camera;
+    }
+
+    /**
+     * Sets whether transfers complete in bus time or as soon as they are submitted.
+     *
+     * @param paced {@code true} to complete each transfer when its last packet would have been on the bus. Defaults
+     *              to {@code true}.
+     */
+    public void setPaced(boolean paced) {
+        this.paced = paced;
+    }
+
+    public boolean isPaced() {
+        return paced;
+    }
+
+    @NonNull
+    public SimulatedCamera getCamera() {
+        return camera;
+    }
+
+    @NonNull
+    @Override
+    public byte[] getRawDescriptors() {
+        return camera.getRawDescriptors();
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, @Nullable byte[] buffer,
+                               @IntRange(from = 0, to = 0xFFFF) int length, @IntRange(from = 0) int timeout) {
+        return camera.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+    }
+
+    @Override
+    public boolean selectAlternateSetting(int interfaceNumber, int alternateSetting) {
+        return camera.setInterface(interfaceNumber, alternateSetting) >= 0;
+    }
+
+    @Override
+    public int clearHalt(int endpointAddress) {
+        return camera.clearHalt(endpointAddress);
+    }
+
+    @Override
+    protected int fillIsochronousTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int packetStride,
+                                          @NonNull int[] packetLengths, @NonNull int[] packetStatuses, int packetCount)
+            throws InterruptedException {
+        if (endpointAddress != DescriptorBuilder.ENDPOINT_ADDRESS) {
+            return LIBUSB_ERROR_NOT_SUPPORTED;
+        }
+        if (paced) {
+            final long busTime = camera.getBusTime();
+            final long now = System.nanoTime();
+            if (wallStart == 0 || now - wallStart > busTime - busStart + RESYNC_THRESHOLD) {
+                // First transfer, or nothing was submitted for a while: restart the bus clock from here
+                wallStart = now;
+                busStart = busTime;
+            }
+            awaitTime(wallStart + busTime - busStart + packetCount * SERVICE_INTERVAL);
+        }
+        return camera.fillTransfer(buffer, packetStride, packetLengths, packetStatuses, packetCount);
+    }
+
+    @Override
+    protected int fillBulkTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int timeout) {
+        return LIBUSB_ERROR_NOT_SUPPORTED;
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        camera.stopStreaming();
+    }
+
+    private static void awaitTime(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatedTransport{" +
+               "camera=" + camera +
+               ", paced=" + paced +
+               '}';
+    }
+}
@@ -0,0 +1,76 @@
+package com.jwoolston.android.uvc.transport;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * A transfer on one endpoint, created once by a {@link UsbTransport} and submitted over and over. At most one
+ * submission may be outstanding at a time; the {@link TransferCallback} is told when it completes and may submit the
+ * transfer again from the callback, with the same or another buffer. Several transfers may be submitted on the same
+ * endpoint; their completions are delivered in submission order, one at a time.
+ * <p>
+ * Isochronous transfers receive one packet per service interval, laid out in the buffer at a fixed stride of its
+ * capacity divided by the packet count, each with its own length and status. Bulk transfers receive up to the
+ * buffer's remaining bytes from its position, ending early on a short packet.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface AsyncTransfer {
+
+    // libusb_transfer_status values, as reported for each isochronous packet
+    int LIBUSB_TRANSFER_COMPLETED = 0;
+    int LIBUSB_TRANSFER_ERROR     = 1;
+    int LIBUSB_TRANSFER_TIMED_OUT = 2;
+    int LIBUSB_TRANSFER_CANCELLED = 3;
+    int LIBUSB_TRANSFER_STALL     = 4;
+    int LIBUSB_TRANSFER_NO_DEVICE = 5;
+    int LIBUSB_TRANSFER_OVERFLOW  = 6;
+
+    /**
+     * The bEndpointAddress this transfer reads from.
+     *
+     * @return The endpoint address.
+     */
+    int getEndpointAddress();
+
+    /**
+     * The number of packets of an isochronous transfer.
+     *
+     * @return The packet count, or 0 for a bulk transfer.
+     */
+    int getPacketCount();
+
+    /**
+     * Submits the transfer.
+     *
+     * @param buffer  The {@link ByteBuffer} to receive into, which must be direct for isochronous transfers. It
+     *                belongs to the transport until the transfer completes.
+     * @param timeout The timeout in milliseconds, or 0 to wait indefinitely.
+     *
+     * @throws IOException Thrown if the transfer could not be submitted.
+     */
+    void submit(@NonNull ByteBuffer buffer, @IntRange(from = 0) int timeout) throws IOException;
+
+    /**
+     * The number of bytes received for one packet of the most recently completed isochronous transfer. Only valid
+     * from within the completion callback.
+     *
+     * @param packet The packet index.
+     *
+     * @return The received packet length in bytes.
+     */
+    int getPacketActualLength(int packet);
+
+    /**
+     * The status of one packet of the most recently completed isochronous transfer. A packet which the host controller
+     * dropped or received in error has a length of 0 like an empty packet, only its status tells them apart. Only
+     * valid from within the completion callback.
+     *
+     * @param packet The packet index.
+     *
+     * @return One of the {@code LIBUSB_TRANSFER_*} constants.
+     */
+    int getPacketStatus(int packet);
+}
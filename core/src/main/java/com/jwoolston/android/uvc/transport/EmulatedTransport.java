@@ -0,0 +1,217 @@
+package com.jwoolston.android.uvc.transport;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.util.Logger;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+/**
+ * Base of the {@link UsbTransport}s which produce video data in software rather than read it from a device.
+ * Submitted transfers are completed in submission order on a single event thread, in the role of the USB event thread,
+ * by whichever subclass fills them. The thread is started by the first submission and exits once nothing is left to
+ * complete, so a transport which is no longer streaming holds no thread.
+ * <p>
+ * Subclasses may block in their fill methods to pace the stream; completions of all transfers of the transport wait
+ * for them, as they would for the bus. Once {@link #close() closed} every pending and later submission completes with
+ * {@link #LIBUSB_ERROR_NO_DEVICE}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public abstract class EmulatedTransport implements UsbTransport {
+
+    private final String               threadName;
+    private final ArrayDeque<Transfer> pending = new ArrayDeque<>();
+
+    private boolean dispatching; // Guarded by pending
+
+    private volatile boolean closed;
+
+    /**
+     * Constructor.
+     *
+     * @param threadName The name of the event thread completions are delivered on.
+     */
+    protected EmulatedTransport(@NonNull String threadName) {
+        this.threadName = threadName;
+    }
+
+    /**
+     * Fills a submitted isochronous transfer. Called on the event thread.
+     *
+     * @param endpointAddress The bEndpointAddress the transfer was created for.
+     * @param buffer          The submitted buffer, cleared.
+     * @param packetStride    The offset between consecutive packets.
+     * @param packetLengths   Receives the number of bytes of each packet.
+     * @param packetStatuses  Receives the status of each packet, {@link AsyncTransfer#LIBUSB_TRANSFER_COMPLETED}
+     *                        on entry.
+     * @param packetCount     The number of packets in the transfer.
+     *
+     * @return 0, or a negative libusb error code if the transfer failed as a whole.
+     *
+     * @throws InterruptedException Thrown if the event thread is interrupted while pacing the transfer.
+     */
+    protected abstract int fillIsochronousTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int packetStride,
+                                                   @NonNull int[] packetLengths, @NonNull int[] packetStatuses,
+                                                   int packetCount) throws InterruptedException;
+
+    /**
+     * Fills a submitted bulk transfer from its position up to its limit. Called on the event thread.
+     *
+     * @param endpointAddress The bEndpointAddress the transfer was created for.
+     * @param buffer          The submitted buffer.
+     * @param timeout         The timeout of the submission in milliseconds, or 0 for none.
+     *
+     * @return The number of bytes written, or a negative libusb error code.
+     *
+     * @throws InterruptedException Thrown if the event thread is interrupted while pacing the transfer.
+     */
+    protected abstract int fillBulkTransfer(int endpointAddress, @NonNull ByteBuffer buffer, int timeout)
+            throws InterruptedException;
+
+    @NonNull
+    @Override
+    public AsyncTransfer createIsochronousTransfer(int endpointAddress, @IntRange(from = 1) int packetCount,
+                                                   @NonNull TransferCallback callback) throws IOException {
+        if (packetCount < 1) {
+            throw new IllegalArgumentException("At least one packet is required: " + packetCount);
+        }
+        return new Transfer(endpointAddress, packetCount, callback);
+    }
+
+    @NonNull
+    @Override
+    public AsyncTransfer createBulkTransfer(int endpointAddress, @NonNull TransferCallback callback)
+            throws IOException {
+        return new Transfer(endpointAddress, 0, callback);
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    private void enqueue(@NonNull Transfer transfer) {
+        synchronized (pending) {
+            pending.addLast(transfer);
+            if (dispatching) {
+                return;
+            }
+            dispatching = true;
+        }
+        final Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, threadName);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void dispatch() {
+        while (true) {
+            final Transfer transfer;
+            synchronized (pending) {
+                transfer = pending.pollFirst();
+                if (transfer == null) {
+                    dispatching = false;
+                    return;
+                }
+            }
+            transfer.complete();
+        }
+    }
+
+    private final class Transfer implements AsyncTransfer {
+
+        private final int              endpointAddress;
+        private final int              packetCount;
+        private final int[]            packetLengths;
+        private final int[]            packetStatuses;
+        private final TransferCallback callback;
+
+        private volatile ByteBuffer buffer;
+        private int                 timeout;
+
+        Transfer(int endpointAddress, int packetCount, @NonNull TransferCallback callback) {
+            this.endpointAddress = endpointAddress;
+            this.packetCount = packetCount;
+            this.callback = callback;
+            packetLengths = new int[packetCount];
+            packetStatuses = new int[packetCount];
+        }
+
+        @Override
+        public int getEndpointAddress() {
+            return endpointAddress;
+        }
+
+        @Override
+        public int getPacketCount() {
+            return packetCount;
+        }
+
+        @Override
+        public void submit(@NonNull ByteBuffer buffer, @IntRange(from = 0) int timeout) throws IOException {
+            if (this.buffer != null) {
+                throw new IllegalStateException("Transfer on endpoint " + endpointAddress + " is already submitted.");
+            }
+            if (packetCount > 0 && buffer.capacity() < packetCount) {
+                throw new IllegalArgumentException("Buffer of " + buffer.capacity() + " bytes cannot hold "
+                                                   + packetCount + " packets.");
+            }
+            this.timeout = timeout;
+            this.buffer = buffer;
+            enqueue(this);
+        }
+
+        @Override
+        public int getPacketActualLength(int packet) {
+            return packetLengths[packet];
+        }
+
+        @Override
+        public int getPacketStatus(int packet) {
+            return packetStatuses[packet];
+        }
+
+        void complete() {
+            final ByteBuffer data = buffer;
+            int result;
+            try {
+                if (closed) {
+                    result = LIBUSB_ERROR_NO_DEVICE;
+                } else if (packetCount > 0) {
+                    data.clear();
+                    Arrays.fill(packetStatuses, LIBUSB_TRANSFER_COMPLETED);
+                    result = fillIsochronousTransfer(endpointAddress, data, data.capacity() / packetCount,
+                                                     packetLengths, packetStatuses, packetCount);
+                } else {
+                    result = fillBulkTransfer(endpointAddress, data, timeout);
+                }
+            } catch (InterruptedException e) {
+                result = LIBUSB_ERROR_INTERRUPTED;
+            }
+            if (result < 0) {
+                Arrays.fill(packetLengths, 0);
+                Arrays.fill(packetStatuses, LIBUSB_TRANSFER_ERROR);
+            }
+            // Released before the callback, which may submit again
+            buffer = null;
+            try {
+                callback.onTransferComplete(this, data, result);
+            } catch (IOException e) {
+                Logger.d("Transfer callback on endpoint %d failed: %s", endpointAddress, e.getMessage());
+            } catch (RuntimeException e) {
+                Logger.e(e, "Transfer callback on endpoint %d threw.", endpointAddress);
+            }
+        }
+    }
+}
@@ -0,0 +1,28 @@
+package com.jwoolston.android.uvc.transport;
+
+import android.support.annotation.NonNull;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of completed {@link AsyncTransfer}s. Completions are delivered one at a time, on a thread owned by the
+ * {@link UsbTransport}, which for libusb is the USB event thread. Implementations should return quickly, since no
+ * other transfer of the transport completes until they do.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface TransferCallback {
+
+    /**
+     * Called when a submission of a transfer completes.
+     *
+     * @param transfer The completed {@link AsyncTransfer}.
+     * @param buffer   The buffer the transfer was submitted with.
+     * @param result   The number of bytes received for a bulk transfer, 0 for a completed isochronous transfer, or a
+     *                 negative libusb error code.
+     *
+     * @throws IOException Thrown to report a fatal failure. The transport logs it and carries on.
+     */
+    void onTransferComplete(@NonNull AsyncTransfer transfer, @NonNull ByteBuffer buffer, int result)
+            throws IOException;
+}
@@ -0,0 +1,110 @@
+package com.jwoolston.android.uvc.transport;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * The device operations the descriptor model and requests need from the USB stack underneath them, so that they can
+ * run against something other than a libusb connection, such as a simulated camera or a recording. Results follow
+ * libusb: a non-negative value on success and a negative libusb error code on failure.
+ * <p>
+ * Video data is read with {@link AsyncTransfer}s, which are created for an endpoint of the currently selected
+ * alternate setting and complete to a {@link TransferCallback}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface UsbTransport extends Closeable {
+
+    // libusb error codes
+    int LIBUSB_SUCCESS             = 0;
+    int LIBUSB_ERROR_IO            = -1;
+    int LIBUSB_ERROR_NO_DEVICE     = -4;
+    int LIBUSB_ERROR_NOT_FOUND     = -5;
+    int LIBUSB_ERROR_TIMEOUT       = -7;
+    int LIBUSB_ERROR_PIPE          = -9;
+    int LIBUSB_ERROR_INTERRUPTED   = -10;
+    int LIBUSB_ERROR_NOT_SUPPORTED = -12;
+
+    /**
+     * The device, configuration, interface, endpoint and class specific descriptors of the device, concatenated in the
+     * order the device reported them.
+     *
+     * @return The raw descriptors.
+     */
+    @NonNull
+    byte[] getRawDescriptors();
+
+    /**
+     * Performs a control transfer on the default endpoint.
+     *
+     * @param requestType The bmRequestType, including the transfer direction.
+     * @param request     The bRequest.
+     * @param value       The wValue.
+     * @param index       The wIndex.
+     * @param buffer      The data to send, or the buffer to receive into. May be {@code null} when {@code length} is 0.
+     * @param length      The wLength.
+     * @param timeout     The timeout in milliseconds, or 0 to wait indefinitely.
+     *
+     * @return The number of bytes transferred, or a negative libusb error code.
+     */
+    int controlTransfer(int requestType, int request, int value, int index, @Nullable byte[] buffer,
+                        @IntRange(from = 0, to = 0xFFFF) int length, @IntRange(from = 0) int timeout);
+
+    /**
+     * Claims an interface, detaching any kernel driver, and selects one of its alternate settings.
+     *
+     * @param interfaceNumber  The bInterfaceNumber.
+     * @param alternateSetting The bAlternateSetting.
+     *
+     * @return {@code true} if the alternate setting was selected.
+     */
+    boolean selectAlternateSetting(@IntRange(from = 0, to = 0xFF) int interfaceNumber,
+                                   @IntRange(from = 0, to = 0xFF) int alternateSetting);
+
+    /**
+     * Clears a halt or stall condition on an endpoint of a selected alternate setting and resets its data toggle, as
+     * the standard CLEAR_FEATURE(ENDPOINT_HALT) request does.
+     *
+     * @param endpointAddress The bEndpointAddress.
+     *
+     * @return 0, or a negative libusb error code.
+     */
+    int clearHalt(int endpointAddress);
+
+    /**
+     * Creates an isochronous transfer on an endpoint of a selected alternate setting.
+     *
+     * @param endpointAddress The bEndpointAddress of the isochronous IN endpoint.
+     * @param packetCount     The number of packets in each submission.
+     * @param callback        {@link TransferCallback} to notify of every completion.
+     *
+     * @return The {@link AsyncTransfer}.
+     *
+     * @throws IOException Thrown if no selected alternate setting has the endpoint.
+     */
+    @NonNull
+    AsyncTransfer createIsochronousTransfer(int endpointAddress, @IntRange(from = 1) int packetCount,
+                                            @NonNull TransferCallback callback) throws IOException;
+
+    /**
+     * Creates a bulk transfer on an endpoint of a selected alternate setting.
+     *
+     * @param endpointAddress The bEndpointAddress of the bulk IN endpoint.
+     * @param callback        {@link TransferCallback} to notify of every completion.
+     *
+     * @return The {@link AsyncTransfer}.
+     *
+     * @throws IOException Thrown if no selected alternate setting has the endpoint.
+     */
+    @NonNull
+    AsyncTransfer createBulkTransfer(int endpointAddress, @NonNull TransferCallback callback) throws IOException;
+
+    /**
+     * Releases the device. Pending transfers are cancelled.
+     */
+    @Override
+    void close();
+}
@@ -0,0 +1,173 @@
+package com.jwoolston.android.uvc.util;
+
+import android.support.annotation.NonNull;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A fixed bucket histogram of non negative values, recorded by a single thread without locks and read from any thread.
+ * <p>
+ * Buckets are log-linear: values below 8 have a bucket each, and every power of two above that is split into 8 equal
+ * buckets, so any value is placed within 12.5% of itself. The full range of {@code long} fits in {@link #BUCKET_COUNT}
+ * buckets, so nothing is ever clamped and a {@link #snapshot()} costs the same regardless of how much was recorded.
+ * <p>
+ * Recording only does ordered stores of values the writer itself last wrote, which is safe with a single writer. A
+ * snapshot taken while recording is in progress may be off by the values recorded during the copy, but never tears.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS  = 3;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    public static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS) * SUB_BUCKET_COUNT;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKET_COUNT);
+
+    private volatile long count;
+    private volatile long sum;
+    private volatile long max;
+
+    /**
+     * Records a value. Must only be called from one thread at a time.
+     *
+     * @param value The value to record. Negative values are recorded as 0.
+     */
+    public void record(long value) {
+        if (value < 0) {
+            value = 0;
+        }
+        final int index = bucketIndex(value);
+        counts.lazySet(index, counts.get(index) + 1);
+        sum += value;
+        if (value > max) {
+            max = value;
+        }
+        // Published last so a reader never sees more values counted than placed in buckets
+        count = count + 1;
+    }
+
+    /**
+     * Copies the current bucket counts.
+     *
+     * @return A new {@link Snapshot}.
+     */
+    @NonNull
+    public Snapshot snapshot() {
+        final long total = count;
+        final long[] buckets = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; ++i) {
+            buckets[i] = counts.get(i);
+        }
+        return new Snapshot(buckets, total, sum, max);
+    }
+
+    static int bucketIndex(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return (shift + 1) * SUB_BUCKET_COUNT + (int) ((value >>> shift) & (SUB_BUCKET_COUNT - 1));
+    }
+
+    static long bucketUpperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / SUB_BUCKET_COUNT - 1;
+        final long lower = (long) (SUB_BUCKET_COUNT + index % SUB_BUCKET_COUNT) << shift;
+        final long upper = lower + (1L << shift) - 1;
+        return upper < 0 ? Long.MAX_VALUE : upper;
+    }
+
+    /**
+     * An immutable copy of a {@link Histogram}.
+     */
+    public static final class Snapshot {
+
+        private final long[] buckets;
+        private final long   count;
+        private final long   sum;
+        private final long   max;
+
+        Snapshot(@NonNull long[] buckets, long count, long sum, long max) {
+            this.buckets = buckets;
+            this.count = count;
+            this.sum = sum;
+            this.max = max;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMax() {
+            return max;
+        }
+
+        public double getMean() {
+            return count > 0 ? (double) sum / count : 0;
+        }
+
+        /**
+         * The value below which the given fraction of recorded values fall, to within the bucket resolution.
+         *
+         * @param fraction The percentile as a fraction, between 0 and 1.
+         *
+         * @return The upper bound of the bucket holding the percentile, capped at the maximum, or 0 if nothing was
+         * recorded.
+         */
+        public long getPercentile(double fraction) {
+            long total = 0;
+            for (long bucket : buckets) {
+                total += bucket;
+            }
+            if (total == 0) {
+                return 0;
+            }
+            final long rank = Math.max(1, (long) Math.ceil(Math.max(0, Math.min(fraction, 1)) * total));
+            long seen = 0;
+            for (int i = 0; i < buckets.length; ++i) {
+                seen += buckets[i];
+                if (seen >= rank) {
+                    return Math.min(bucketUpperBound(i), max);
+                }
+            }
+            return max;
+        }
+
+        /**
+         * The recorded count of a single bucket, for exporting the full distribution.
+         *
+         * @param index The bucket index, below {@link #BUCKET_COUNT}.
+         *
+         * @return The number of values recorded in the bucket.
+         */
+        public long getBucketCount(int index) {
+            return buckets[index];
+        }
+
+        /**
+         * The largest value which is placed in a bucket.
+         *
+         * @param index The bucket index, below {@link #BUCKET_COUNT}.
+         *
+         * @return The inclusive upper bound of the bucket.
+         */
+        public long getBucketUpperBound(int index) {
+            return bucketUpperBound(index);
+        }
+
+        @Override
+        public String toString() {
+            return "Histogram{" +
+                   "count=" + count +
+                   ", mean=" + getMean() +
+                   ", p50=" + getPercentile(0.5) +
+                   ", p95=" + getPercentile(0.95) +
+                   ", p99=" + getPercentile(0.99) +
+                   ", max=" + max +
+                   '}';
+        }
+    }
+}
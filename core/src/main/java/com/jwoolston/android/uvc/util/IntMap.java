@@ -0,0 +1,150 @@
+package com.jwoolston.android.uvc.util;
+
+import android.support.annotation.Nullable;
+import java.util.Arrays;
+
+/**
+ * A map from {@code int} keys to objects, kept as parallel arrays sorted by key. It has the subset of the
+ * {@code android.util.SparseArray} API the descriptor model uses, so the same code runs on a plain JVM. Lookups are a
+ * binary search, and entries are visited in ascending key order by index with {@link #keyAt(int)} and
+ * {@link #valueAt(int)}.
+ * <p>
+ * Not thread safe.
+ *
+ * @param <E> The value type.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class IntMap<E> {
+
+    private static final int DEFAULT_CAPACITY = 4;
+
+    private int[]    keys;
+    private Object[] values;
+    private int      size;
+
+    public IntMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public IntMap(int initialCapacity) {
+        keys = new int[Math.max(1, initialCapacity)];
+        values = new Object[keys.length];
+    }
+
+    /**
+     * Looks up the value mapped to a key.
+     *
+     * @param key The key.
+     *
+     * @return The value, or {@code null} if the key is not mapped.
+     */
+    @Nullable
+    public E get(int key) {
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+        return index < 0 ? null : valueAt(index);
+    }
+
+    /**
+     * Maps a key to a value, replacing any previous value of the key.
+     *
+     * @param key   The key.
+     * @param value The value.
+     */
+    public void put(int key, @Nullable E value) {
+        int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            values[index] = value;
+            return;
+        }
+        index = ~index;
+        if (size == keys.length) {
+            keys = Arrays.copyOf(keys, 2 * size);
+            values = Arrays.copyOf(values, 2 * size);
+        }
+        System.arraycopy(keys, index, keys, index + 1, size - index);
+        System.arraycopy(values, index, values, index + 1, size - index);
+        keys[index] = key;
+        values[index] = value;
+        ++size;
+    }
+
+    public void remove(int key) {
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+        if (index >= 0) {
+            removeAt(index);
+        }
+    }
+
+    public void removeAt(int index) {
+        checkIndex(index);
+        System.arraycopy(keys, index + 1, keys, index, size - index - 1);
+        System.arraycopy(values, index + 1, values, index, size - index - 1);
+        values[--size] = null;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Finds the index of a key.
+     *
+     * @param key The key.
+     *
+     * @return The index, or a negative value if the key is not mapped.
+     */
+    public int indexOfKey(int key) {
+        final int index = Arrays.binarySearch(keys, 0, size, key);
+        return index < 0 ? -1 : index;
+    }
+
+    /**
+     * The key at an index, in ascending key order.
+     *
+     * @param index The index, from 0 to {@link #size()} exclusive.
+     *
+     * @return The key.
+     */
+    public int keyAt(int index) {
+        checkIndex(index);
+        return keys[index];
+    }
+
+    /**
+     * The value at an index, in ascending key order.
+     *
+     * @param index The index, from 0 to {@link #size()} exclusive.
+     *
+     * @return The value.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public E valueAt(int index) {
+        checkIndex(index);
+        return (E) values[index];
+    }
+
+    public void clear() {
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+    }
+
+    private void checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new ArrayIndexOutOfBoundsException("Index " + index + " out of " + size + " entries.");
+        }
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("{");
+        for (int i = 0; i < size; ++i) {
+            if (i > 0) {
+                builder.append(", ");
+            }
+            builder.append(keys[i]).append('=').append(values[i]);
+        }
+        return builder.append('}').toString();
+    }
+}
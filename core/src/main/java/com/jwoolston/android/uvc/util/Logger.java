@@ -0,0 +1,92 @@
+package com.jwoolston.android.uvc.util;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+
+/**
+ * The logging facade of the core module, which cannot depend on an Android logging library. Messages are handed to a
+ * single {@link Sink} along with their format arguments, so nothing is formatted unless a sink is installed; until
+ * then every message is dropped. The Android library installs a sink which forwards to its own logging.
+ * <p>
+ * Priorities use the values of {@code android.util.Log}, so a sink on Android can pass them through unchanged.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class Logger {
+
+    public static final int VERBOSE = 2;
+    public static final int DEBUG   = 3;
+    public static final int INFO    = 4;
+    public static final int WARN    = 5;
+    public static final int ERROR   = 6;
+
+    private static volatile Sink sink;
+
+    private Logger() {
+    }
+
+    /**
+     * Installs the sink all messages are handed to, replacing any previous one.
+     *
+     * @param sink The {@link Sink}, or {@code null} to drop all messages.
+     */
+    public static void setSink(@Nullable Sink sink) {
+        Logger.sink = sink;
+    }
+
+    @Nullable
+    public static Sink getSink() {
+        return sink;
+    }
+
+    public static void v(@NonNull String format, Object... args) {
+        log(VERBOSE, null, format, args);
+    }
+
+    public static void d(@NonNull String format, Object... args) {
+        log(DEBUG, null, format, args);
+    }
+
+    public static void i(@NonNull String format, Object... args) {
+        log(INFO, null, format, args);
+    }
+
+    public static void w(@NonNull String format, Object... args) {
+        log(WARN, null, format, args);
+    }
+
+    public static void w(@Nullable Throwable t, @NonNull String format, Object... args) {
+        log(WARN, t, format, args);
+    }
+
+    public static void e(@NonNull String format, Object... args) {
+        log(ERROR, null, format, args);
+    }
+
+    public static void e(@Nullable Throwable t, @NonNull String format, Object... args) {
+        log(ERROR, t, format, args);
+    }
+
+    private static void log(int priority, @Nullable Throwable t, @NonNull String format, Object... args) {
+        final Sink current = sink;
+        if (current != null) {
+            current.log(priority, t, format, args);
+        }
+    }
+
+    /**
+     * Receives the messages of the core module.
+     */
+    public interface Sink {
+
+        /**
+         * Logs a message. May be called from any thread.
+         *
+         * @param priority One of {@link Logger#VERBOSE} through {@link Logger#ERROR}.
+         * @param t        The {@link Throwable} to log with the message, or {@code null}.
+         * @param format   The message, as a {@link String#format(String, Object...)} format string.
+         * @param args     The format arguments.
+         */
+        void log(int priority, @Nullable Throwable t, @NonNull String format, Object... args);
+    }
+}
@@ -0,0 +1,124 @@
+package com.jwoolston.android.uvc.util;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded, lock-free queue for exactly one producer thread and one consumer thread. Neither side ever blocks or
+ * allocates: {@link #offer(Object)} fails when the ring is full and {@link #poll()} returns {@code null} when it is
+ * empty. Each side keeps a cached copy of the other side's index and only re-reads it when the cache says the ring is
+ * full or empty, so in steady state the two threads do not contend on the same cache line.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class SpscRing<E> {
+
+    private final Object[] elements;
+    private final int      mask;
+
+    private final AtomicLong head = new AtomicLong(); // Next index to consume, written by the consumer only
+    private final AtomicLong tail = new AtomicLong(); // Next index to produce, written by the producer only
+
+    private long headCache; // Producer thread only
+    private long tailCache; // Consumer thread only
+
+    private volatile int highWaterMark;
+
+    /**
+     * Constructor.
+     *
+     * @param capacity The minimum capacity. The actual capacity is rounded up to a power of two.
+     */
+    public SpscRing(@IntRange(from = 1) int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid ring capacity: " + capacity);
+        }
+        int size = 1;
+        while (size < capacity) {
+            size <<= 1;
+        }
+        elements = new Object[size];
+        mask = size - 1;
+    }
+
+    /**
+     * Adds an element. Producer thread only.
+     *
+     * @param element The element to add.
+     *
+     * @return {@code true} if the element was added, {@code false} if the ring is full.
+     */
+    public boolean offer(@NonNull E element) {
+        final long currentTail = tail.get();
+        if (currentTail - headCache >= elements.length) {
+            headCache = head.get();
+            if (currentTail - headCache >= elements.length) {
+                return false;
+            }
+        }
+        elements[(int) currentTail & mask] = element;
+        tail.lazySet(currentTail + 1);
+        final int depth = (int) (currentTail + 1 - headCache);
+        if (depth > highWaterMark) {
+            highWaterMark = depth;
+        }
+        return true;
+    }
+
+    /**
+     * Removes the oldest element. Consumer thread only.
+     *
+     * @return The oldest element, or {@code null} if the ring is empty.
+     */
+    @SuppressWarnings("unchecked")
+    @Nullable
+    public E poll() {
+        final long currentHead = head.get();
+        if (currentHead >= tailCache) {
+            tailCache = tail.get();
+            if (currentHead >= tailCache) {
+                return null;
+            }
+        }
+        final int index = (int) currentHead & mask;
+        final E element = (E) elements[index];
+        elements[index] = null;
+        head.lazySet(currentHead + 1);
+        return element;
+    }
+
+    /**
+     * The number of elements currently in the ring. Safe to call from any thread, the result is a snapshot.
+     *
+     * @return The current depth.
+     */
+    public int size() {
+        final long currentHead = head.get();
+        return (int) (tail.get() - currentHead);
+    }
+
+    public boolean isEmpty() {
+        return size() == 0;
+    }
+
+    public int capacity() {
+        return elements.length;
+    }
+
+    /**
+     * The deepest the ring has been since it was created or {@link #resetHighWaterMark()} was last called. The
+     * producer measures depth against its cached view of the consumer, so this may overstate the true peak by the
+     * number of elements consumed since the producer last looked.
+     *
+     * @return The high-water mark.
+     */
+    public int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void resetHighWaterMark() {
+        highWaterMark = 0;
+    }
+}
@@ -0,0 +1,197 @@
+package com.jwoolston.android.uvc.capture;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.payload.PayloadHeader;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.simulator.DescriptorBuilder;
+import com.jwoolston.android.uvc.simulator.SimulatedCamera;
+import com.jwoolston.android.uvc.simulator.SimulatedTransport;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import com.jwoolston.android.uvc.transport.TransferCallback;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Records payloads with a {@link CaptureWriter} and replays them through {@link CaptureReader} and
+ * {@link CaptureTransport} into the payload parser and frame assembler.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class CaptureReplayTest {
+
+    private static final int FRAMES             = 4;
+    private static final int PAYLOADS_PER_FRAME = 3;
+    private static final int PAYLOAD_DATA       = 10;
+    private static final int PAYLOAD_LENGTH     = 2 + PAYLOAD_DATA;
+
+    private static final long PAYLOAD_INTERVAL = 2000000L; // 2 ms
+
+    // Room for three records per segment, so the recording spans several
+    private static final long SEGMENT_SIZE = CaptureWriter.SEGMENT_HEADER_SIZE + CaptureWriter.RECORD_HEADER_SIZE
+                                             + 3 * (CaptureWriter.RECORD_HEADER_SIZE + PAYLOAD_LENGTH);
+
+    private static final int PACKET_STRIDE = 32;
+    private static final int PACKET_COUNT  = 4;
+    private static final int TIMEOUT       = 5000;
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = File.createTempFile("capture", "");
+        assertTrue(directory.delete());
+        record();
+    }
+
+    @After
+    public void tearDown() {
+        final File[] files = directory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        directory.delete();
+    }
+
+    @Test
+    public void readsBackEveryRecord() throws IOException {
+        final CaptureReader reader = new CaptureReader(directory);
+        final ByteBuffer data = ByteBuffer.allocate(PAYLOAD_LENGTH);
+        final PayloadHeader header = new PayloadHeader();
+        for (int i = 0; i < FRAMES * PAYLOADS_PER_FRAME; ++i) {
+            assertTrue(reader.next());
+            assertEquals(CaptureWriter.KIND_PAYLOAD, reader.getKind());
+            assertEquals(i * PAYLOAD_INTERVAL, reader.getTimestamp());
+            assertEquals(PAYLOAD_LENGTH, reader.getLength());
+            assertEquals(i / 3, reader.getSegmentIndex());
+            assertFalse(reader.isDiscontinuity());
+            data.clear();
+            reader.copyDataTo(data);
+            assertTrue(header.wrap(data, 0, data.position()));
+            assertEquals((i / PAYLOADS_PER_FRAME) & 1, header.getFrameId());
+            assertEquals(i % PAYLOADS_PER_FRAME == PAYLOADS_PER_FRAME - 1, header.isEndOfFrame());
+            assertEquals(i, data.get(header.getPayloadOffset()));
+        }
+        assertFalse(reader.next());
+        reader.rewind();
+        assertTrue(reader.next());
+        assertEquals(0, reader.getTimestamp());
+        reader.close();
+    }
+
+    @Test
+    public void replaysAsFastAsPossible() throws Exception {
+        final List<byte[]> frames = replay(false);
+        // The first frame is partial, as the stream may have been joined part way through it
+        assertEquals(FRAMES - 1, frames.size());
+        for (int i = 0; i < frames.size(); ++i) {
+            final byte[] frame = frames.get(i);
+            assertEquals(PAYLOADS_PER_FRAME * PAYLOAD_DATA, frame.length);
+            for (int j = 0; j < PAYLOADS_PER_FRAME; ++j) {
+                assertEquals((i + 1) * PAYLOADS_PER_FRAME + j, frame[j * PAYLOAD_DATA]);
+            }
+        }
+    }
+
+    @Test
+    public void replaysAtRecordedTiming() throws Exception {
+        final long start = System.nanoTime();
+        assertEquals(FRAMES - 1, replay(true).size());
+        final long span = (FRAMES * PAYLOADS_PER_FRAME - 1) * PAYLOAD_INTERVAL;
+        assertTrue(System.nanoTime() - start >= span);
+    }
+
+    /**
+     * Writes {@link #FRAMES} frames of {@link #PAYLOADS_PER_FRAME} payloads, each holding its own index as data.
+     */
+    private void record() throws IOException {
+        final CaptureWriter writer = new CaptureWriter(directory, SEGMENT_SIZE);
+        final ByteBuffer buffer = ByteBuffer.allocate(PAYLOAD_LENGTH);
+        final PayloadHeader header = new PayloadHeader();
+        for (int i = 0; i < FRAMES * PAYLOADS_PER_FRAME; ++i) {
+            int info = PayloadHeader.FLAG_END_OF_HEADER | ((i / PAYLOADS_PER_FRAME) & PayloadHeader.FLAG_FRAME_ID);
+            if (i % PAYLOADS_PER_FRAME == PAYLOADS_PER_FRAME - 1) {
+                info |= PayloadHeader.FLAG_END_OF_FRAME;
+            }
+            buffer.put(0, (byte) 2).put(1, (byte) info);
+            for (int j = 2; j < PAYLOAD_LENGTH; ++j) {
+                buffer.put(j, (byte) i);
+            }
+            assertTrue(header.wrap(buffer, 0, PAYLOAD_LENGTH));
+            assertTrue(writer.appendPayload(header, i * PAYLOAD_INTERVAL, false));
+        }
+        writer.close();
+        assertEquals(FRAMES * PAYLOADS_PER_FRAME, writer.getRecordCount());
+        assertEquals(0, writer.getDroppedRecordCount());
+        assertTrue(writer.getSegmentCount() > 1);
+    }
+
+    /**
+     * Streams the recording through an isochronous transfer until it is exhausted.
+     *
+     * @return The data of every assembled frame.
+     */
+    @NonNull
+    private List<byte[]> replay(boolean paced) throws Exception {
+        final List<byte[]> frames = new ArrayList<>();
+        final FrameAssembler assembler = new FrameAssembler(new FrameBufferPool(PAYLOADS_PER_FRAME * PAYLOAD_DATA,
+                                                                                FrameBufferPool.DEFAULT_MAX_FRAMES));
+        assembler.setFrameListener(new FrameAssembler.FrameListener() {
+            @Override
+            public void onFrameAssembled(@NonNull Frame frame) {
+                final byte[] data = new byte[frame.getSize()];
+                frame.getBuffer().get(data);
+                frames.add(data);
+                frame.release();
+            }
+        });
+        final PayloadParser parser = new PayloadParser();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final CaptureTransport transport = new CaptureTransport(
+                new SimulatedTransport(new SimulatedCamera(DescriptorBuilder.uhd60())), directory);
+        transport.setPaced(paced);
+        final AsyncTransfer transfer = transport.createIsochronousTransfer(DescriptorBuilder.ENDPOINT_ADDRESS,
+                                                                           PACKET_COUNT, new TransferCallback() {
+            private final int[] lengths  = new int[PACKET_COUNT];
+            private final int[] statuses = new int[PACKET_COUNT];
+
+            @Override
+            public void onTransferComplete(@NonNull AsyncTransfer transfer, @NonNull ByteBuffer buffer, int result)
+                    throws IOException {
+                if (result == UsbTransport.LIBUSB_ERROR_NO_DEVICE) {
+                    finished.countDown();
+                    return;
+                }
+                for (int i = 0; i < PACKET_COUNT; ++i) {
+                    lengths[i] = transfer.getPacketActualLength(i);
+                    statuses[i] = transfer.getPacketStatus(i);
+                }
+                parser.parse(buffer, PACKET_STRIDE, lengths, statuses, PACKET_COUNT, assembler);
+                transfer.submit(buffer, 0);
+            }
+        });
+        transfer.submit(ByteBuffer.allocateDirect(PACKET_STRIDE * PACKET_COUNT), 0);
+        assertTrue("Timed out replaying", finished.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        transport.close();
+        assertEquals(FRAMES * PAYLOADS_PER_FRAME, transport.getReplayedCount());
+        assertEquals(FRAMES * PAYLOADS_PER_FRAME, parser.getPayloadCount());
+        return frames;
+    }
+}
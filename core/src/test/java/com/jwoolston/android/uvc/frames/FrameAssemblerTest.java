@@ -0,0 +1,212 @@
+package com.jwoolston.android.uvc.frames;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.payload.PayloadHeader;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FrameAssemblerTest {
+
+    private static final int FRAME_SIZE = 64;
+
+    private final PayloadHeader header = new PayloadHeader();
+    private final List<byte[]>  frames = new ArrayList<>();
+
+    private FrameBufferPool pool;
+    private FrameAssembler  assembler;
+
+    @Before
+    public void setUp() {
+        pool = new FrameBufferPool(FRAME_SIZE, FrameBufferPool.DEFAULT_MAX_FRAMES);
+        assembler = new FrameAssembler(pool);
+        assembler.setFrameListener(new FrameAssembler.FrameListener() {
+            @Override
+            public void onFrameAssembled(@NonNull Frame frame) {
+                final byte[] data = new byte[frame.getSize()];
+                frame.getBuffer().get(data);
+                frames.add(data);
+                frame.release();
+            }
+        });
+    }
+
+    @Test
+    public void firstFrameIsPartial() {
+        // Its start may have been sent before the stream was joined
+        payload(0, true, 1, 2);
+        payload(1, false, 3, 4);
+        payload(1, true, 5);
+        assertEquals(1, assembler.getPartialFrameCount());
+        assertEquals(1, assembler.getCompleteFrameCount());
+        assertEquals(1, frames.size());
+        assertBytes(frames.get(0), 3, 4, 5);
+    }
+
+    @Test
+    public void frameIdToggleEndsFrame() {
+        payload(0, true);
+        payload(1, false, 1);
+        payload(1, false, 2);
+        // No EOF was seen, the toggle alone ends the frame
+        payload(0, false, 3);
+        payload(0, true, 4);
+        assertEquals(2, assembler.getCompleteFrameCount());
+        assertBytes(frames.get(0), 1, 2);
+        assertBytes(frames.get(1), 3, 4);
+    }
+
+    @Test
+    public void trailingPayloadsAfterEndOfFrameAreIgnored() {
+        payload(0, true);
+        payload(1, true, 1);
+        payload(1, false, 2);
+        payload(0, true, 3);
+        assertEquals(2, assembler.getCompleteFrameCount());
+        assertBytes(frames.get(0), 1);
+        assertBytes(frames.get(1), 3);
+    }
+
+    @Test
+    public void errorPayloadFailsFrame() {
+        payload(0, true);
+        payload(1, false, 1);
+        payload(PayloadHeader.FLAG_FRAME_ID | PayloadHeader.FLAG_ERROR | PayloadHeader.FLAG_END_OF_FRAME, 2);
+        payload(0, true, 3);
+        assertEquals(1, assembler.getErrorFrameCount());
+        assertEquals(1, assembler.getCompleteFrameCount());
+        assertEquals(1, frames.size());
+        assertBytes(frames.get(0), 3);
+    }
+
+    @Test
+    public void discontinuityWithinFrame() {
+        payload(0, true);
+        payload(1, false, 1);
+        assembler.markDiscontinuity();
+        payload(1, true, 2);
+        payload(0, true, 3);
+        assertEquals(2, assembler.getPartialFrameCount());
+        assertEquals(1, frames.size());
+        assertBytes(frames.get(0), 3);
+    }
+
+    @Test
+    public void discontinuityBetweenFrames() {
+        // The lost payloads may have been the start of the next frame
+        payload(0, true);
+        payload(1, true, 1);
+        assembler.markDiscontinuity();
+        payload(0, true, 2);
+        payload(1, true, 3);
+        assertEquals(2, assembler.getCompleteFrameCount());
+        assertEquals(2, assembler.getPartialFrameCount());
+        assertBytes(frames.get(0), 1);
+        assertBytes(frames.get(1), 3);
+    }
+
+    @Test
+    public void erroredPacketMarksDiscontinuity() {
+        final PayloadParser parser = new PayloadParser();
+        final int stride = 8;
+        final ByteBuffer data = ByteBuffer.allocate(4 * stride);
+        final int[] lengths = new int[4];
+        final int[] statuses = new int[4];
+        lengths[0] = put(data, 0, PayloadHeader.FLAG_END_OF_FRAME);
+        lengths[1] = put(data, stride, PayloadHeader.FLAG_FRAME_ID, 1);
+        // A dropped packet reads as empty, only its status says it was lost
+        statuses[2] = AsyncTransfer.LIBUSB_TRANSFER_ERROR;
+        lengths[3] = put(data, 3 * stride, PayloadHeader.FLAG_FRAME_ID | PayloadHeader.FLAG_END_OF_FRAME, 2);
+        assertEquals(3, parser.parse(data, stride, lengths, statuses, 4, assembler));
+        assertEquals(1, parser.getErroredPacketCount());
+        assertEquals(0, assembler.getCompleteFrameCount());
+        assertEquals(2, assembler.getPartialFrameCount());
+        assertTrue(frames.isEmpty());
+    }
+
+    @Test
+    public void presentationTimeOfFirstPayload() {
+        payload(0, true);
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            6, (byte) (PayloadHeader.FLAG_END_OF_HEADER | PayloadHeader.FLAG_PRESENTATION_TIME
+                       | PayloadHeader.FLAG_FRAME_ID), 0x10, 0, 0, 0, 1
+        });
+        assertTrue(header.wrap(buffer, 0, buffer.capacity()));
+        assembler.onPayload(header);
+        buffer.put(2, (byte) 0x20);
+        buffer.put(1, (byte) (buffer.get(1) | PayloadHeader.FLAG_END_OF_FRAME));
+        assertTrue(header.wrap(buffer, 0, buffer.capacity()));
+        final List<Frame> delivered = new ArrayList<>();
+        assembler.setFrameListener(new FrameAssembler.FrameListener() {
+            @Override
+            public void onFrameAssembled(@NonNull Frame frame) {
+                delivered.add(frame);
+            }
+        });
+        assembler.onPayload(header);
+        assertEquals(1, delivered.size());
+        assertTrue(delivered.get(0).hasPresentationTime());
+        assertEquals(0x10, delivered.get(0).getPresentationTime());
+        assertFalse(delivered.get(0).isStillImage());
+        delivered.get(0).release();
+    }
+
+    @Test
+    public void oversizedFrameIsPartial() {
+        payload(0, true);
+        payload(1, false, new int[FRAME_SIZE + 1]);
+        payload(1, true, 1);
+        assertEquals(0, assembler.getCompleteFrameCount());
+        assertEquals(2, assembler.getPartialFrameCount());
+    }
+
+    @Test
+    public void resetDiscardsFrameInProgress() {
+        payload(0, true);
+        payload(1, false, 1);
+        assembler.reset();
+        payload(1, true, 2);
+        payload(0, true, 3);
+        assertEquals(1, frames.size());
+        assertBytes(frames.get(0), 3);
+        assembler.release();
+        assertEquals(pool.getAllocatedCount(), pool.getFreeCount());
+    }
+
+    private void payload(int frameId, boolean endOfFrame, int... data) {
+        payload(frameId | (endOfFrame ? PayloadHeader.FLAG_END_OF_FRAME : 0), data);
+    }
+
+    private void payload(int headerInfo, int... data) {
+        final ByteBuffer buffer = ByteBuffer.allocate(2 + data.length);
+        assertTrue(header.wrap(buffer, 0, put(buffer, 0, headerInfo, data)));
+        assembler.onPayload(header);
+    }
+
+    private static int put(@NonNull ByteBuffer buffer, int offset, int headerInfo, int... data) {
+        buffer.put(offset, (byte) 2);
+        buffer.put(offset + 1, (byte) (PayloadHeader.FLAG_END_OF_HEADER | headerInfo));
+        for (int i = 0; i < data.length; ++i) {
+            buffer.put(offset + 2 + i, (byte) data[i]);
+        }
+        return 2 + data.length;
+    }
+
+    private static void assertBytes(@NonNull byte[] actual, int... expected) {
+        assertEquals(expected.length, actual.length);
+        for (int i = 0; i < expected.length; ++i) {
+            assertEquals(expected[i], actual[i]);
+        }
+    }
+}
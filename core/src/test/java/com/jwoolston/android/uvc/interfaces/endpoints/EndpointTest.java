@@ -0,0 +1,59 @@
+package com.jwoolston.android.uvc.interfaces.endpoints;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class EndpointTest {
+
+    @Test
+    public void fullSpeedIsochronous() {
+        final Endpoint endpoint = Endpoint.parseDescriptor(descriptor(0x81, 0x05, 0x03FF, 1));
+        assertTrue(endpoint instanceof IsochronousEndpoint);
+        assertEquals(0x81, endpoint.getAddress());
+        assertEquals(1, endpoint.getInterval());
+        assertEquals(1023, endpoint.getMaxPacketSize());
+        assertEquals(1, endpoint.getTransactionsPerMicroframe());
+        assertEquals(1023, endpoint.getBytesPerInterval());
+        assertEquals(IsochronousEndpoint.SynchronizationType.ASYNCRONOUS,
+                     ((IsochronousEndpoint) endpoint).getSynchronizationType());
+    }
+
+    @Test
+    public void highBandwidthMultiplier() {
+        // 3 x 1024 bytes per microframe, the largest high speed isochronous endpoint
+        Endpoint endpoint = Endpoint.parseDescriptor(descriptor(0x81, 0x05, 0x1400, 1));
+        assertEquals(1024, endpoint.getMaxPacketSize());
+        assertEquals(3, endpoint.getTransactionsPerMicroframe());
+        assertEquals(3072, endpoint.getBytesPerInterval());
+
+        endpoint = Endpoint.parseDescriptor(descriptor(0x81, 0x05, 0x0B20, 1));
+        assertEquals(0x0320, endpoint.getMaxPacketSize());
+        assertEquals(2, endpoint.getTransactionsPerMicroframe());
+        assertEquals(2 * 0x0320, endpoint.getBytesPerInterval());
+    }
+
+    @Test
+    public void bulk() {
+        final Endpoint endpoint = Endpoint.parseDescriptor(descriptor(0x82, 0x02, 0x0200, 0));
+        assertTrue(endpoint instanceof BulkEndpoint);
+        assertEquals(0x82, endpoint.getAddress());
+        assertEquals(512, endpoint.getBytesPerInterval());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shortDescriptor() {
+        Endpoint.parseDescriptor(new byte[]{6, 0x05, (byte) 0x81, 0x05, 0, 0});
+    }
+
+    private static byte[] descriptor(int address, int attributes, int maxPacketSize, int interval) {
+        return new byte[]{
+            7, 0x05, (byte) address, (byte) attributes, (byte) maxPacketSize, (byte) (maxPacketSize >> 8),
+            (byte) interval
+        };
+    }
+}
@@ -0,0 +1,106 @@
+package com.jwoolston.android.uvc.payload;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.nio.ByteBuffer;
+import org.junit.Test;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class PayloadHeaderTest {
+
+    private final PayloadHeader header = new PayloadHeader();
+
+    @Test
+    public void headerInfoBits() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            2, (byte) (PayloadHeader.FLAG_END_OF_HEADER | PayloadHeader.FLAG_ERROR | PayloadHeader.FLAG_STILL_IMAGE
+                       | PayloadHeader.FLAG_END_OF_FRAME | PayloadHeader.FLAG_FRAME_ID)
+        });
+        assertTrue(header.wrap(buffer, 0, 2));
+        assertEquals(2, header.getHeaderLength());
+        assertEquals(1, header.getFrameId());
+        assertTrue(header.isEndOfFrame());
+        assertTrue(header.isStillImage());
+        assertTrue(header.isError());
+        assertFalse(header.hasPresentationTime());
+        assertFalse(header.hasSourceClock());
+        assertEquals(0, header.getPayloadLength());
+
+        buffer.put(1, (byte) PayloadHeader.FLAG_END_OF_HEADER);
+        assertTrue(header.wrap(buffer, 0, 2));
+        assertEquals(0, header.getFrameId());
+        assertFalse(header.isEndOfFrame());
+        assertFalse(header.isStillImage());
+        assertFalse(header.isError());
+    }
+
+    @Test
+    public void presentationTimeAndSourceClock() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            (byte) 0xEE, (byte) 0xEE, // Data of a preceding packet
+            12, (byte) (PayloadHeader.FLAG_END_OF_HEADER | PayloadHeader.FLAG_SOURCE_CLOCK
+                        | PayloadHeader.FLAG_PRESENTATION_TIME),
+            (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, // PTS
+            0x78, 0x56, 0x34, 0x12, // SCR source time clock
+            (byte) 0xFF, (byte) 0xFF, // SCR SOF counter, with the reserved bits set
+            1, 2, 3
+        });
+        assertTrue(header.wrap(buffer, 2, 15));
+        assertTrue(header.hasPresentationTime());
+        assertTrue(header.hasSourceClock());
+        assertEquals(0xFFFFFFFFL, header.getPresentationTime());
+        assertEquals(0x12345678L, header.getSourceTimeClock());
+        assertEquals(0x07FF, header.getSofCounter());
+        assertEquals(14, header.getPayloadOffset());
+        assertEquals(3, header.getPayloadLength());
+    }
+
+    @Test
+    public void sourceClockWithoutPresentationTime() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            8, (byte) (PayloadHeader.FLAG_END_OF_HEADER | PayloadHeader.FLAG_SOURCE_CLOCK),
+            0x04, 0x03, 0x02, 0x01, // SCR source time clock
+            0x23, 0x01 // SCR SOF counter
+        });
+        assertTrue(header.wrap(buffer, 0, 8));
+        assertFalse(header.hasPresentationTime());
+        assertEquals(0x01020304L, header.getSourceTimeClock());
+        assertEquals(0x0123, header.getSofCounter());
+    }
+
+    @Test
+    public void malformedHeaders() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            6, (byte) (PayloadHeader.FLAG_END_OF_HEADER | PayloadHeader.FLAG_SOURCE_CLOCK), 0, 0, 0, 0, 0, 0
+        });
+        // Too short for a header at all
+        assertFalse(header.wrap(buffer, 0, 1));
+        // Too short for the SCR its flags announce
+        assertFalse(header.wrap(buffer, 0, 8));
+        // Longer than the packet which carried it
+        buffer.put(0, (byte) 9);
+        assertFalse(header.wrap(buffer, 0, 8));
+        buffer.put(0, (byte) 8);
+        assertTrue(header.wrap(buffer, 0, 8));
+    }
+
+    @Test
+    public void copyPayloadRestoresBuffer() {
+        final ByteBuffer buffer = ByteBuffer.wrap(new byte[]{
+            2, (byte) PayloadHeader.FLAG_END_OF_HEADER, 10, 20, 30, 99
+        });
+        buffer.position(1).limit(4);
+        assertTrue(header.wrap(buffer, 0, 5));
+        final ByteBuffer destination = ByteBuffer.allocate(8);
+        header.copyPayloadTo(destination);
+        assertEquals(3, destination.position());
+        assertEquals(10, destination.get(0));
+        assertEquals(30, destination.get(2));
+        assertEquals(1, buffer.position());
+        assertEquals(4, buffer.limit());
+    }
+}
@@ -0,0 +1,89 @@
+package com.jwoolston.android.uvc.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class SpscRingTest {
+
+    @Test
+    public void capacityRoundsUpToPowerOfTwo() {
+        assertEquals(1, new SpscRing<Integer>(1).capacity());
+        assertEquals(8, new SpscRing<Integer>(5).capacity());
+        assertEquals(16, new SpscRing<Integer>(16).capacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new SpscRing<Integer>(0);
+    }
+
+    @Test
+    public void fullAndEmpty() {
+        final SpscRing<Integer> ring = new SpscRing<>(4);
+        assertTrue(ring.isEmpty());
+        assertNull(ring.poll());
+        for (int i = 0; i < 4; ++i) {
+            assertTrue(ring.offer(i));
+        }
+        assertFalse(ring.offer(4));
+        assertEquals(4, ring.size());
+        assertEquals(0, (int) ring.poll());
+        assertTrue(ring.offer(4));
+        assertFalse(ring.offer(5));
+    }
+
+    @Test
+    public void wrapsAround() {
+        final SpscRing<Integer> ring = new SpscRing<>(4);
+        int produced = 0;
+        int consumed = 0;
+        // Many times around the ring, at every depth
+        for (int round = 0; round < 100; ++round) {
+            final int depth = 1 + round % ring.capacity();
+            for (int i = 0; i < depth; ++i) {
+                assertTrue(ring.offer(produced++));
+            }
+            assertEquals(depth, ring.size());
+            for (int i = 0; i < depth; ++i) {
+                assertEquals(consumed++, (int) ring.poll());
+            }
+            assertNull(ring.poll());
+        }
+        assertEquals(ring.capacity(), ring.getHighWaterMark());
+        ring.resetHighWaterMark();
+        assertEquals(0, ring.getHighWaterMark());
+    }
+
+    @Test
+    public void preservesOrderAcrossThreads() throws InterruptedException {
+        final int count = 1000000;
+        final SpscRing<Integer> ring = new SpscRing<>(64);
+        final Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; ++i) {
+                    while (!ring.offer(i)) {
+                        Thread.yield();
+                    }
+                }
+            }
+        });
+        producer.start();
+        for (int expected = 0; expected < count; ++expected) {
+            Integer value;
+            while ((value = ring.poll()) == null) {
+                Thread.yield();
+            }
+            assertEquals(expected, (int) value);
+        }
+        producer.join();
+        assertTrue(ring.isEmpty());
+    }
+}
@@ -0,0 +1,218 @@
+package com.jwoolston.android.uvc;
+
+import android.hardware.usb.UsbDevice;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import java.util.HashMap;
+import java.util.Map;
+import timber.log.Timber;
+
+/**
+ * Admission control for isochronous streams sharing a USB bus. The host controller refuses an alternate setting whose
+ * periodic reservation does not fit in what is left of the microframe, which surfaces as a failed
+ * SET_INTERFACE long after the stream was negotiated. This class keeps the bytes per microframe every open stream has
+ * reserved, per bus, so a stream which will not fit is turned away, or negotiated down to something which does, before
+ * its alternate setting is selected.
+ * <p>
+ * A stream's reservation is the bytes per service interval of its alternate setting's endpoint, spread over the
+ * microframes of the service interval. Bulk streams reserve nothing. Cameras behind the same root port share a bus;
+ * each bus has its own budget of {@link #getCapacity()} bytes per microframe.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/usb20_docs/>USB 2.0 Specification §5.6.4</a>
+ */
+public class BandwidthManager {
+
+    /**
+     * Periodic bytes per high speed microframe: 80% of the 7500 bytes a microframe carries, which USB 2.0 reserves
+     * for periodic transfers. Protocol overhead is not counted, so this is an upper bound.
+     */
+    public static final int HIGH_SPEED_PERIODIC_LIMIT = 6000;
+
+    private final Map<String, Map<Object, Integer>> reservations = new HashMap<>();
+
+    private int    capacity = HIGH_SPEED_PERIODIC_LIMIT;
+    private Policy policy   = Policy.DOWNGRADE;
+
+    /**
+     * Identifies the bus a device is attached to, from its device node.
+     *
+     * @param device The {@link UsbDevice}.
+     *
+     * @return The bus number, or the device name if it does not follow the usual /dev/bus/usb/BBB/DDD form.
+     */
+    @NonNull
+    public static String getBusId(@NonNull UsbDevice device) {
+        final String name = device.getDeviceName();
+        if (name == null) {
+            return "";
+        }
+        final int end = name.lastIndexOf('/');
+        final int start = end > 0 ? name.lastIndexOf('/', end - 1) : -1;
+        return start >= 0 ? name.substring(start + 1, end) : name;
+    }
+
+    /**
+     * Sets the periodic bytes per microframe each bus may have reserved. Reservations already held are kept even if
+     * they no longer fit.
+     *
+     * @param bytesPerMicroframe The per bus budget. Defaults to {@link #HIGH_SPEED_PERIODIC_LIMIT}.
+     */
+    public synchronized void setCapacity(@IntRange(from = 0) int bytesPerMicroframe) {
+        if (bytesPerMicroframe < 0) {
+            throw new IllegalArgumentException("Invalid capacity: " + bytesPerMicroframe);
+        }
+        capacity = bytesPerMicroframe;
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Sets what happens to a stream which does not fit. Takes effect the next time a stream is established.
+     *
+     * @param policy The {@link Policy}. Defaults to {@link Policy#DOWNGRADE}.
+     */
+    public synchronized void setPolicy(@NonNull Policy policy) {
+        this.policy = policy;
+    }
+
+    @NonNull
+    public synchronized Policy getPolicy() {
+        return policy;
+    }
+
+    /**
+     * The bytes per microframe reserved by open streams on a bus.
+     *
+     * @param bus The bus identifier from {@link #getBusId(UsbDevice)}.
+     *
+     * @return The reserved bytes per microframe.
+     */
+    public synchronized int getReserved(@NonNull String bus) {
+        return sum(bus, null);
+    }
+
+    /**
+     * The bytes per microframe still free on a bus.
+     *
+     * @param bus The bus identifier from {@link #getBusId(UsbDevice)}.
+     *
+     * @return The headroom in bytes per microframe, 0 if the bus is fully reserved.
+     */
+    public synchronized int getHeadroom(@NonNull String bus) {
+        return Math.max(0, capacity - sum(bus, null));
+    }
+
+    /**
+     * The bytes per microframe still free on the bus a device is attached to.
+     *
+     * @param device The {@link UsbDevice}.
+     *
+     * @return The headroom in bytes per microframe, 0 if the bus is fully reserved.
+     */
+    public int getHeadroom(@NonNull UsbDevice device) {
+        return getHeadroom(getBusId(device));
+    }
+
+    /**
+     * The number of streams holding a reservation on a bus.
+     *
+     * @param bus The bus identifier from {@link #getBusId(UsbDevice)}.
+     *
+     * @return The stream count.
+     */
+    public synchronized int getStreamCount(@NonNull String bus) {
+        final Map<Object, Integer> streams = reservations.get(bus);
+        return streams != null ? streams.size() : 0;
+    }
+
+    /**
+     * The headroom a stream could use, counting its own reservation as free since a new one replaces it.
+     */
+    synchronized int getHeadroom(@NonNull String bus, @NonNull Object owner) {
+        return Math.max(0, capacity - sum(bus, owner));
+    }
+
+    /**
+     * Reserves bandwidth for a stream, replacing any reservation it already holds.
+     *
+     * @param bus                The bus identifier.
+     * @param owner              The stream making the reservation.
+     * @param bytesPerMicroframe The bytes per microframe to reserve.
+     *
+     * @return {@code true} if the reservation was made, {@code false} if it does not fit, in which case the previous
+     * reservation is kept.
+     */
+    synchronized boolean reserve(@NonNull String bus, @NonNull Object owner, int bytesPerMicroframe) {
+        final int others = sum(bus, owner);
+        if (others + bytesPerMicroframe > capacity) {
+            Timber.w("Refusing %d bytes per microframe on bus %s: %d of %d reserved.", bytesPerMicroframe, bus,
+                     others, capacity);
+            return false;
+        }
+        Map<Object, Integer> streams = reservations.get(bus);
+        if (streams == null) {
+            streams = new HashMap<>();
+            reservations.put(bus, streams);
+        }
+        streams.put(owner, bytesPerMicroframe);
+        Timber.d("Reserved %d bytes per microframe on bus %s, %d of %d now reserved.", bytesPerMicroframe, bus,
+                 others + bytesPerMicroframe, capacity);
+        return true;
+    }
+
+    /**
+     * Releases a stream's reservation, if it holds one.
+     *
+     * @param bus   The bus identifier.
+     * @param owner The stream which made the reservation.
+     */
+    synchronized void release(@NonNull String bus, @NonNull Object owner) {
+        final Map<Object, Integer> streams = reservations.get(bus);
+        if (streams != null && streams.remove(owner) != null && streams.isEmpty()) {
+            reservations.remove(bus);
+        }
+    }
+
+    private int sum(@NonNull String bus, Object exclude) {
+        final Map<Object, Integer> streams = reservations.get(bus);
+        if (streams == null) {
+            return 0;
+        }
+        int total = 0;
+        for (Map.Entry<Object, Integer> entry : streams.entrySet()) {
+            if (entry.getKey() != exclude) {
+                total += entry.getValue();
+            }
+        }
+        return total;
+    }
+
+    @Override
+    public synchronized String toString() {
+        final StringBuilder builder = new StringBuilder("BandwidthManager{capacity=").append(capacity);
+        for (String bus : reservations.keySet()) {
+            builder.append(", bus ").append(bus).append('=').append(sum(bus, null));
+        }
+        return builder.append('}').toString();
+    }
+
+    /**
+     * What to do with a stream whose reservation does not fit.
+     */
+    public enum Policy {
+
+        /**
+         * Fail the stream with a {@link StreamCreationException}.
+         */
+        REFUSE,
+
+        /**
+         * Negotiate the lowest bandwidth parameters which fit the headroom, at the requested resolution if possible
+         * and otherwise at the largest smaller one the device offers.
+         */
+        DOWNGRADE
+    }
+}
@@ -0,0 +1,232 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.libusb.LibusbError;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import com.jwoolston.android.uvc.transport.TransferCallback;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import com.jwoolston.android.uvc.util.Histogram;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import timber.log.Timber;
+
+/**
+ * Streams video payloads from a bulk endpoint with a ring of {@link AsyncTransfer}s which are kept submitted for the
+ * lifetime of the stream. Each transfer has its own buffer, allocated once when the reader is created, and is
+ * resubmitted from its own completion as soon as the listener has consumed it. With several reads queued on the
+ * endpoint the device always has a read to send into while a completed one is being processed.
+ * <p>
+ * Each read requests several whole payloads of dwMaxPayloadTransferSize bytes at once. A payload shorter than
+ * dwMaxPayloadTransferSize ends with a short packet, which also ends the read, so every read holds zero or more full
+ * payloads optionally followed by one short one. The read is therefore handed to the {@link TransferListener} as
+ * "packets" at a stride of dwMaxPayloadTransferSize, and flows through the same payload parser and frame assembler as
+ * isochronous transfers. Completions on one endpoint are delivered in submission order, one at a time.
+ * <p>
+ * A failed read stops the reader and is reported to the {@link TransferFailureListener}, if any. Once drained the
+ * reader may be {@link #start() started} again with the same transfers and buffers.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §2.4.3.1</a>
+ */
+class BulkTransferReader {
+
+    static final int DEFAULT_PAYLOADS_PER_TRANSFER = 4;
+    static final int DEFAULT_TRANSFER_COUNT        = 4;
+
+    private static final int TRANSFER_TIMEOUT = 500;
+
+    private final TransferListener listener;
+    private final UsbTransport     transport;
+    private final int              endpointAddress;
+    private final int              payloadSize;
+    private final Slot[]           slots;
+    private final AtomicInteger    inFlight        = new AtomicInteger();
+    private final Histogram        transferLatency = new Histogram();
+
+    private volatile boolean        running;
+    private volatile CountDownLatch drained;
+
+    private boolean                 created;
+    private TransferFailureListener failureListener;
+
+    /**
+     * Constructor. The transfer buffers are allocated here and reused for every read.
+     *
+     * @param listener            {@link TransferListener} which is handed every read.
+     * @param transport           {@link UsbTransport} to read from.
+     * @param endpointAddress     The bEndpointAddress of the bulk IN endpoint.
+     * @param payloadSize         The committed dwMaxPayloadTransferSize in bytes.
+     * @param payloadsPerTransfer The number of whole payloads requested in each read.
+     * @param transferCount       The number of reads kept submitted.
+     */
+    BulkTransferReader(@NonNull TransferListener listener, @NonNull UsbTransport transport, int endpointAddress,
+                       int payloadSize, int payloadsPerTransfer, int transferCount) throws IllegalArgumentException {
+        if (payloadSize < 1 || payloadsPerTransfer < 1 || transferCount < 1) {
+            throw new IllegalArgumentException("Invalid bulk transfer shape: " + transferCount + " x "
+                                               + payloadsPerTransfer + " x " + payloadSize);
+        }
+        this.listener = listener;
+        this.transport = transport;
+        this.endpointAddress = endpointAddress;
+        this.payloadSize = payloadSize;
+        slots = new Slot[transferCount];
+        for (int i = 0; i < transferCount; ++i) {
+            slots[i] = new Slot(payloadsPerTransfer);
+        }
+    }
+
+    /**
+     * Submits every read. The transfers are created on the first start and reused after.
+     *
+     * @throws IOException Thrown if a transfer could not be created or submitted, in which case the reader is
+     *                     stopped.
+     */
+    void start() throws IOException {
+        if (!created) {
+            for (Slot slot : slots) {
+                slot.transfer = transport.createBulkTransfer(endpointAddress, slot);
+            }
+            created = true;
+        }
+        drained = new CountDownLatch(1);
+        running = true;
+        try {
+            for (Slot slot : slots) {
+                slot.submit();
+            }
+        } catch (IOException e) {
+            // Whatever was submitted drains normally; if nothing was, the listener must still be told
+            running = false;
+            if (inFlight.get() == 0) {
+                onDrained();
+            }
+            throw e;
+        }
+    }
+
+    /**
+     * Stops resubmitting reads. Reads already submitted complete or time out, after which
+     * {@link TransferListener#onTransfersDrained()} is called on the thread which completed the last of them.
+     */
+    void stop() {
+        running = false;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets the receiver of read failures. Must be called before the reader is started.
+     *
+     * @param listener {@link TransferFailureListener} to notify, or {@code null}.
+     */
+    void setFailureListener(@Nullable TransferFailureListener listener) {
+        failureListener = listener;
+    }
+
+    /**
+     * Waits for the last read to complete after the reader has been stopped or has failed.
+     *
+     * @param millis The longest time to wait.
+     *
+     * @return {@code true} if the reader has drained.
+     *
+     * @throws InterruptedException Thrown if the calling thread is interrupted.
+     */
+    boolean awaitTermination(long millis) throws InterruptedException {
+        final CountDownLatch latch = drained;
+        return latch == null || latch.await(millis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * The time each read which returned data spent submitted, in nanoseconds. Reads which time out on an idle device
+     * are not recorded.
+     *
+     * @return The transfer latency {@link Histogram}.
+     */
+    @NonNull
+    Histogram getTransferLatency() {
+        return transferLatency;
+    }
+
+    private void onDrained() {
+        listener.onTransfersDrained();
+        drained.countDown();
+    }
+
+    private final class Slot implements TransferCallback {
+
+        private final ByteBuffer buffer;
+        private final int[]      payloadLengths;
+
+        private AsyncTransfer transfer;
+        private long          submitted;
+
+        Slot(int payloadsPerTransfer) {
+            buffer = ByteBuffer.allocate(payloadSize * payloadsPerTransfer);
+            payloadLengths = new int[payloadsPerTransfer];
+        }
+
+        void submit() throws IOException {
+            inFlight.incrementAndGet();
+            try {
+                resubmit();
+            } catch (IOException e) {
+                inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private void resubmit() throws IOException {
+            buffer.clear();
+            submitted = System.nanoTime();
+            transfer.submit(buffer, TRANSFER_TIMEOUT);
+        }
+
+        @Override
+        public void onTransferComplete(@NonNull AsyncTransfer transfer, @NonNull ByteBuffer data, int result) {
+            try {
+                if (result == UsbTransport.LIBUSB_ERROR_TIMEOUT) {
+                    // An idle device is not an error for bulk streaming
+                    if (running) {
+                        resubmit();
+                        return;
+                    }
+                } else if (result >= 0 || running) {
+                    // Errors of reads still queued when the reader was stopped are not reported again
+                    transferLatency.record(System.nanoTime() - submitted);
+                    int count = 0;
+                    if (result > 0) {
+                        for (int remaining = result; remaining > 0; remaining -= payloadSize) {
+                            payloadLengths[count++] = Math.min(remaining, payloadSize);
+                        }
+                    }
+                    buffer.clear();
+                    buffer.limit(Math.max(result, 0));
+                    listener.onTransferComplete(buffer, payloadSize, payloadLengths, null, count, result);
+                    if (running) {
+                        resubmit();
+                        return;
+                    }
+                }
+            } catch (IOException e) {
+                running = false;
+                Timber.e(e, "Bulk streaming stopped.");
+                if (failureListener != null) {
+                    failureListener.onTransferFailure(result < 0 ? LibusbError.fromNative(result)
+                                                                 : LibusbError.LIBUSB_ERROR_OTHER);
+                }
+            }
+            if (inFlight.decrementAndGet() == 0) {
+                running = false;
+                onDrained();
+            }
+        }
+    }
+}
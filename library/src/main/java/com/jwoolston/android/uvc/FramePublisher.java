@@ -0,0 +1,336 @@
+package com.jwoolston.android.uvc;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import timber.log.Timber;
+
+/**
+ * A cold, demand driven source of frames from one {@link WebcamStream}. Nothing happens until a {@link Subscriber}
+ * arrives: the first one starts the stream, and when the last one cancels the transfers are stopped and the interface
+ * returns to its zero bandwidth alternate setting, so an idle camera costs neither bus bandwidth nor CPU.
+ * <p>
+ * Each subscriber is only handed as many frames as it has {@link Subscription#request(long) requested}. Since the
+ * camera cannot be slowed down, frames which arrive while a subscriber has no outstanding demand are held for it
+ * according to the publisher's backpressure strategy: {@link #conflate()} keeps only the latest, while
+ * {@link #buffer(int, DropPolicy)} keeps a bounded number and applies a {@link DropPolicy} once full. Every subscriber
+ * shares the same frames without copying them; each {@link Frame} delivered must be {@link Frame#release()}d.
+ * <p>
+ * The publisher owns the stream's lifecycle while it has subscribers, and installs itself through
+ * {@link WebcamStream#subscribe(int, DropPolicy) the stream's subscribers}, so it coexists with other subscribers but
+ * is cut off by {@link WebcamStream#setFrameListener(FrameAssembler.FrameListener)} or
+ * {@link WebcamStream#openFrameQueue(int, DropPolicy)}.
+ * <p>
+ * Frames are delivered on the stream processing thread, or on the thread calling {@link Subscription#request(long)}
+ * when frames are already waiting; calls to one subscriber never overlap.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class FramePublisher {
+
+    private static final int        DEFAULT_CAPACITY = 1;
+    private static final DropPolicy DEFAULT_POLICY   = DropPolicy.DROP_OLDEST;
+
+    private final Upstream   upstream;
+    private final int        capacity;
+    private final DropPolicy policy;
+
+    FramePublisher(@NonNull WebcamStreamImpl stream, @NonNull Context context, @Nullable VideoFormat format,
+                   @Nullable NegotiationTarget target) {
+        this(new Upstream(stream, context, format, target), DEFAULT_CAPACITY, DEFAULT_POLICY);
+    }
+
+    private FramePublisher(@NonNull Upstream upstream, int capacity, @NonNull DropPolicy policy) {
+        this.upstream = upstream;
+        this.capacity = capacity;
+        this.policy = policy;
+    }
+
+    /**
+     * A publisher of the same stream which keeps only the latest frame for a subscriber with no outstanding demand.
+     * This is the default.
+     *
+     * @return The conflating {@link FramePublisher}.
+     */
+    @NonNull
+    public FramePublisher conflate() {
+        return new FramePublisher(upstream, 1, DropPolicy.DROP_OLDEST);
+    }
+
+    /**
+     * A publisher of the same stream which holds up to a number of frames for a subscriber with no outstanding demand.
+     * With {@link DropPolicy#BLOCK} the stream processing thread waits for the subscriber to request more, holding
+     * back every other consumer of the stream.
+     *
+     * @param capacity The maximum number of frames held per subscriber.
+     * @param policy   The {@link DropPolicy} to apply when a subscriber's buffer is full.
+     *
+     * @return The buffering {@link FramePublisher}.
+     */
+    @NonNull
+    public FramePublisher buffer(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Buffer capacity must be at least 1: " + capacity);
+        }
+        return new FramePublisher(upstream, capacity, policy);
+    }
+
+    /**
+     * Adds a subscriber. {@link Subscriber#onSubscribe(Subscription)} is called first, and may request frames. If
+     * this is the first subscriber of the stream, the stream is started before this returns; should that fail, the
+     * subscriber receives {@link Subscriber#onError(Throwable)} and is dropped.
+     *
+     * @param subscriber The {@link Subscriber} to deliver frames to.
+     */
+    @WorkerThread
+    public void subscribe(@NonNull Subscriber subscriber) {
+        final FrameSubscription subscription = new FrameSubscription(upstream, subscriber, capacity, policy);
+        subscriber.onSubscribe(subscription);
+        if (subscription.cancelled) {
+            return;
+        }
+        try {
+            upstream.attach(subscription);
+        } catch (StreamCreationException e) {
+            subscription.fail(e);
+        }
+    }
+
+    /**
+     * The number of subscribers of the stream, across all publishers derived from the same one.
+     *
+     * @return The subscriber count.
+     */
+    public int getSubscriberCount() {
+        return upstream.getSubscriberCount();
+    }
+
+    @Override
+    public String toString() {
+        return "FramePublisher{" +
+               "interface=" + upstream.stream.getInterfaceNumber() +
+               ", capacity=" + capacity +
+               ", policy=" + policy +
+               ", subscribers=" + getSubscriberCount() +
+               '}';
+    }
+
+    /**
+     * Receiver of frames from a {@link FramePublisher}.
+     */
+    public interface Subscriber {
+
+        /**
+         * Called once, before any other call, with the subscription to request frames through.
+         *
+         * @param subscription The {@link Subscription}.
+         */
+        void onSubscribe(@NonNull Subscription subscription);
+
+        /**
+         * Called with each frame, never more often than frames have been requested. The subscriber takes ownership of
+         * the frame and must {@link Frame#release()} it.
+         *
+         * @param frame The {@link Frame}.
+         */
+        void onNext(@NonNull Frame frame);
+
+        /**
+         * Called if the stream could not be started. No further calls are made.
+         *
+         * @param error The cause.
+         */
+        void onError(@NonNull Throwable error);
+    }
+
+    /**
+     * A subscriber's link to its {@link FramePublisher}.
+     */
+    public interface Subscription {
+
+        /**
+         * Adds to the number of frames the subscriber is ready for. {@link Long#MAX_VALUE} requests frames without
+         * limit.
+         *
+         * @param count The number of additional frames, at least 1.
+         */
+        void request(@IntRange(from = 1) long count);
+
+        /**
+         * Stops delivery to the subscriber and releases any frames held for it. Stopping the stream, if this was its
+         * last subscriber, happens in the background so it is safe to cancel from {@link Subscriber#onNext(Frame)}.
+         */
+        void cancel();
+    }
+
+    /**
+     * The stream shared by every publisher derived from the same one, started and stopped by subscriber count.
+     */
+    private static final class Upstream {
+
+        private final WebcamStreamImpl  stream;
+        private final Context           context;
+        private final VideoFormat       format;
+        private final NegotiationTarget target;
+
+        // Held while starting or suspending the stream, which can take a while; the count is guarded by this object
+        private final Object lifecycle = new Object();
+
+        private int     subscriberCount;
+        private boolean streaming;
+
+        Upstream(@NonNull WebcamStreamImpl stream, @NonNull Context context, @Nullable VideoFormat format,
+                 @Nullable NegotiationTarget target) {
+            this.stream = stream;
+            this.context = context;
+            this.format = format;
+            this.target = target;
+        }
+
+        void attach(@NonNull FrameSubscription subscription) throws StreamCreationException {
+            synchronized (lifecycle) {
+                synchronized (this) {
+                    stream.getFrameFanout().addListener(subscription);
+                    ++subscriberCount;
+                }
+                if (streaming) {
+                    return;
+                }
+                Timber.d("First subscriber of interface %d, starting stream.", stream.getInterfaceNumber());
+                try {
+                    if (target != null) {
+                        stream.beginStreaming(context, target);
+                    } else {
+                        stream.beginStreaming(context, format);
+                    }
+                    streaming = true;
+                } catch (StreamCreationException e) {
+                    detach(subscription);
+                    throw e;
+                }
+            }
+        }
+
+        void detach(@NonNull FrameSubscription subscription) {
+            synchronized (this) {
+                if (!stream.getFrameFanout().removeListener(subscription) || --subscriberCount > 0) {
+                    return;
+                }
+            }
+            // Suspending waits for the processing thread, which may be the one cancelling
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    suspendIfIdle();
+                }
+            }, "UVC-Suspend-" + stream.getInterfaceNumber()).start();
+        }
+
+        @WorkerThread
+        void suspendIfIdle() {
+            synchronized (lifecycle) {
+                synchronized (this) {
+                    if (subscriberCount > 0 || !streaming) {
+                        return;
+                    }
+                }
+                Timber.d("Last subscriber of interface %d gone, suspending stream.", stream.getInterfaceNumber());
+                stream.suspendStreaming();
+                streaming = false;
+            }
+        }
+
+        synchronized int getSubscriberCount() {
+            return subscriberCount;
+        }
+    }
+
+    /**
+     * One subscriber's demand and held frames. Delivery is serialized through a work counter, so that frames arriving
+     * on the processing thread and requests from the subscriber's thread never call the subscriber concurrently.
+     */
+    private static final class FrameSubscription implements Subscription, FrameAssembler.FrameListener {
+
+        private final Upstream   upstream;
+        private final Subscriber subscriber;
+        private final FrameQueue held;
+
+        private final AtomicLong    demand = new AtomicLong();
+        private final AtomicInteger work   = new AtomicInteger();
+
+        private volatile boolean cancelled;
+
+        FrameSubscription(@NonNull Upstream upstream, @NonNull Subscriber subscriber, int capacity,
+                          @NonNull DropPolicy policy) {
+            this.upstream = upstream;
+            this.subscriber = subscriber;
+            held = new FrameQueue(capacity, policy);
+            held.setProducerMayBlock(true);
+        }
+
+        @Override
+        public void onFrameAssembled(@NonNull Frame frame) {
+            held.onFrameAssembled(frame);
+            drain();
+        }
+
+        @Override
+        public void request(long count) {
+            if (count < 1) {
+                throw new IllegalArgumentException("Must request at least 1 frame: " + count);
+            }
+            long current;
+            long next;
+            do {
+                current = demand.get();
+                next = current + count < 0 ? Long.MAX_VALUE : current + count;
+            } while (!demand.compareAndSet(current, next));
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (cancelled) {
+                return;
+            }
+            cancelled = true;
+            upstream.detach(this);
+            held.close();
+        }
+
+        void fail(@NonNull Throwable error) {
+            cancelled = true;
+            held.close();
+            subscriber.onError(error);
+        }
+
+        private void drain() {
+            if (work.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                while (!cancelled && demand.get() > 0) {
+                    final Frame frame = held.poll();
+                    if (frame == null) {
+                        break;
+                    }
+                    if (demand.get() != Long.MAX_VALUE) {
+                        demand.decrementAndGet();
+                    }
+                    subscriber.onNext(frame);
+                }
+                missed = work.addAndGet(-missed);
+            } while (missed != 0);
+        }
+    }
+}
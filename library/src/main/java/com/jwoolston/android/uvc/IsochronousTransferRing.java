@@ -0,0 +1,232 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.libusb.LibusbError;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import com.jwoolston.android.uvc.transport.TransferCallback;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import com.jwoolston.android.uvc.util.Histogram;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Ring of isochronous transfers which are kept in flight for the lifetime of a stream. Each transfer starts with its
+ * own direct buffer, allocated once when the ring is created, and is resubmitted from its own completion callback as
+ * soon as the listener returns, with whichever buffer the listener hands back. With more than one transfer queued the
+ * host controller always has work scheduled for the endpoint, so no microframes are lost while a completed transfer is
+ * being processed. The {@link TransferTuner} is told about every completion and may deepen the ring while streaming.
+ * <p>
+ * Packets are laid out in each buffer at a fixed stride of one service interval. The number of bytes actually
+ * received for each packet is read back from the completed transfer and handed to the listener along with the buffer.
+ * The time each transfer spent between submission and completion is recorded to a {@link Histogram}.
+ * <p>
+ * A failed transfer stops the ring and is reported to the {@link TransferFailureListener}, if any. Once drained the
+ * ring may be {@link #start() started} again with the same transfers and buffers.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class IsochronousTransferRing {
+
+    private static final int SUBMIT_TIMEOUT = 500;
+
+    private final TransferListener listener;
+    private final TransferTuner    tuner;
+    private final Slot[]           slots;
+    private final int              packetSize;
+    private final AtomicInteger    inFlight = new AtomicInteger();
+    private final Histogram        transferLatency = new Histogram();
+
+    private volatile boolean running;
+    private volatile boolean starting; // Only start() submits new slots while set
+    private volatile int     activeCount;
+
+    private TransferFailureListener failureListener;
+
+    private long lastCompletion; // USB event thread only
+
+    /**
+     * Constructor. Transfers and buffers are allocated here for the largest depth the {@link TransferTuner} may ask
+     * for, nothing is allocated once the ring is started.
+     *
+     * @param listener        {@link TransferListener} which is handed every completed transfer.
+     * @param transport       {@link UsbTransport} to create the transfers on.
+     * @param endpointAddress The bEndpointAddress of the isochronous IN endpoint to read from.
+     * @param tuner           {@link TransferTuner} configured for this endpoint, which sizes the ring and is told
+     *                        about every completed transfer.
+     * @param packetSize      The size in bytes reserved for each packet, normally the endpoint's bytes per interval.
+     *
+     * @throws IOException Thrown if the transport cannot create transfers for the endpoint.
+     */
+    IsochronousTransferRing(@NonNull TransferListener listener, @NonNull UsbTransport transport, int endpointAddress,
+                            @NonNull TransferTuner tuner, int packetSize) throws IllegalArgumentException, IOException {
+        final int transferCount = tuner.getMaxTransferCount();
+        if (transferCount < 1 || tuner.getTransferCount() < 1) {
+            throw new IllegalArgumentException("At least one transfer is required: " + tuner);
+        }
+        this.listener = listener;
+        this.tuner = tuner;
+        this.packetSize = packetSize;
+        slots = new Slot[transferCount];
+        for (int i = 0; i < transferCount; ++i) {
+            slots[i] = new Slot(transport, endpointAddress, tuner.getPacketsPerTransfer());
+        }
+    }
+
+    /**
+     * Submits as many transfers as the {@link TransferTuner} currently asks for.
+     *
+     * @throws IOException Thrown if any of the transfers could not be submitted, in which case the ring is stopped.
+     */
+    void start() throws IOException {
+        starting = true;
+        running = true;
+        lastCompletion = 0;
+        activeCount = 0;
+        final int count = Math.min(tuner.getTransferCount(), slots.length);
+        try {
+            while (activeCount < count) {
+                slots[activeCount].submit();
+                ++activeCount;
+            }
+        } catch (IOException e) {
+            // Whatever was submitted drains normally; if nothing was, the listener must still be told
+            running = false;
+            if (inFlight.get() == 0) {
+                listener.onTransfersDrained();
+            }
+            throw e;
+        } finally {
+            starting = false;
+        }
+    }
+
+    /**
+     * Stops resubmitting transfers. Transfers already in flight will complete normally and are still handed to the
+     * listener, after which {@link TransferListener#onTransfersDrained()} is called.
+     */
+    void stop() {
+        running = false;
+    }
+
+    boolean isRunning() {
+        return running;
+    }
+
+    /**
+     * Sets the receiver of transfer failures. Must be called before the ring is started.
+     *
+     * @param listener {@link TransferFailureListener} to notify, or {@code null}.
+     */
+    void setFailureListener(@Nullable TransferFailureListener listener) {
+        failureListener = listener;
+    }
+
+    /**
+     * The number of transfers currently cycling through the ring.
+     *
+     * @return The in-flight depth.
+     */
+    int getTransferCount() {
+        return activeCount;
+    }
+
+    /**
+     * The time transfers spent in flight, from submission to the completion callback, in nanoseconds. In steady state
+     * this is roughly the in-flight depth times the transfer duration.
+     *
+     * @return The transfer latency {@link Histogram}.
+     */
+    @NonNull
+    Histogram getTransferLatency() {
+        return transferLatency;
+    }
+
+    private void onResubmitted(long completion) {
+        final long gap = lastCompletion != 0 ? completion - lastCompletion : 0;
+        lastCompletion = completion;
+        final int wanted = Math.min(tuner.onTransferComplete(gap, System.nanoTime() - completion), slots.length);
+        // Completions can arrive while start() is still submitting the first slots; only it may touch activeCount
+        // then, or both threads could submit the same slot
+        while (!starting && activeCount < wanted && running) {
+            // Deepening the ring only submits transfers which were allocated up front
+            try {
+                slots[activeCount].submit();
+            } catch (IOException e) {
+                break;
+            }
+            ++activeCount;
+        }
+    }
+
+    private final class Slot implements TransferCallback {
+
+        private final AsyncTransfer transfer;
+        private final int[]         packetLengths;
+        private final int[]         packetStatuses;
+
+        private ByteBuffer buffer;
+        private long       submitted;
+
+        Slot(@NonNull UsbTransport transport, int endpointAddress, int packetsPerTransfer) throws IOException {
+            buffer = ByteBuffer.allocateDirect(packetsPerTransfer * packetSize);
+            transfer = transport.createIsochronousTransfer(endpointAddress, packetsPerTransfer, this);
+            packetLengths = new int[packetsPerTransfer];
+            packetStatuses = new int[packetsPerTransfer];
+        }
+
+        void submit() throws IOException {
+            inFlight.incrementAndGet();
+            try {
+                resubmit();
+            } catch (IOException e) {
+                inFlight.decrementAndGet();
+                throw e;
+            }
+        }
+
+        private void resubmit() throws IOException {
+            buffer.clear();
+            submitted = System.nanoTime();
+            transfer.submit(buffer, SUBMIT_TIMEOUT);
+        }
+
+        @Override
+        public void onTransferComplete(@NonNull AsyncTransfer transfer, @NonNull ByteBuffer data, int result)
+                throws IOException {
+            final long completion = System.nanoTime();
+            transferLatency.record(completion - submitted);
+            if (result >= 0) {
+                for (int i = 0; i < packetLengths.length; ++i) {
+                    packetLengths[i] = transfer.getPacketActualLength(i);
+                    packetStatuses[i] = transfer.getPacketStatus(i);
+                }
+            }
+            try {
+                buffer = listener.onTransferComplete(buffer, packetSize, packetLengths, packetStatuses,
+                                                     packetLengths.length, result);
+                if (running) {
+                    resubmit();
+                    onResubmitted(completion);
+                    return;
+                }
+            } catch (IOException e) {
+                running = false;
+                if (failureListener != null) {
+                    failureListener.onTransferFailure(result < 0 ? LibusbError.fromNative(result)
+                                                                 : LibusbError.LIBUSB_ERROR_OTHER);
+                }
+                retire();
+                throw e;
+            }
+            retire();
+        }
+
+        private void retire() {
+            if (inFlight.decrementAndGet() == 0) {
+                listener.onTransfersDrained();
+            }
+        }
+    }
+}
@@ -0,0 +1,378 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.SparseArray;
+import com.jwoolston.android.libusb.LibusbError;
+import com.jwoolston.android.libusb.UsbDevice;
+import com.jwoolston.android.libusb.UsbDeviceConnection;
+import com.jwoolston.android.libusb.UsbEndpoint;
+import com.jwoolston.android.libusb.UsbInterface;
+import com.jwoolston.android.libusb.async.IsochronousAsyncTransfer;
+import com.jwoolston.android.libusb.async.IsochronousTransferCallback;
+import com.jwoolston.android.uvc.transport.AsyncTransfer;
+import com.jwoolston.android.uvc.transport.TransferCallback;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import timber.log.Timber;
+
+/**
+ * {@link UsbTransport} over a libusb {@link UsbDeviceConnection}. Every alternate setting of every interface is
+ * enumerated by libusb as a separate {@link UsbInterface}, so they are looked up by interface number and alternate
+ * setting together.
+ * <p>
+ * Isochronous transfers are libusb {@link IsochronousAsyncTransfer}s, completed on the USB event thread. The libusb
+ * wrapper has no asynchronous bulk transfer, so the bulk transfers of an endpoint are queued and served by synchronous
+ * reads in submission order, with completions delivered in the same order on a separate thread. Several transfers
+ * submitted at once therefore keep the endpoint busy while a completed one is being processed.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class LibusbTransport implements UsbTransport {
+
+    private final UsbDeviceConnection       connection;
+    private final SparseArray<UsbInterface> selected   = new SparseArray<>(); // Guarded by selected
+    private final SparseArray<BulkQueue>    bulkQueues = new SparseArray<>(); // Guarded by bulkQueues
+
+    public LibusbTransport(@NonNull UsbDeviceConnection connection) {
+        this.connection = connection;
+    }
+
+    @NonNull
+    public UsbDeviceConnection getConnection() {
+        return connection;
+    }
+
+    @NonNull
+    @Override
+    public byte[] getRawDescriptors() {
+        return connection.getRawDescriptors();
+    }
+
+    @Override
+    public int controlTransfer(int requestType, int request, int value, int index, @Nullable byte[] buffer,
+                               int length, int timeout) {
+        return connection.controlTransfer(requestType, request, value, index, buffer, length, timeout);
+    }
+
+    @Override
+    public boolean selectAlternateSetting(int interfaceNumber, int alternateSetting) {
+        final UsbInterface usbInterface = getUsbInterface(interfaceNumber, alternateSetting);
+        if (usbInterface == null) {
+            Timber.w("Interface %d has no alternate setting %d.", interfaceNumber, alternateSetting);
+            return false;
+        }
+        connection.claimInterface(usbInterface, true);
+        final LibusbError result = connection.setInterface(usbInterface);
+        if (result != LibusbError.LIBUSB_SUCCESS) {
+            Timber.w("Selecting alternate setting %d of interface %d failed with %s.", alternateSetting,
+                     interfaceNumber, result);
+            return false;
+        }
+        synchronized (selected) {
+            selected.put(interfaceNumber, usbInterface);
+        }
+        return true;
+    }
+
+    @Override
+    public int clearHalt(int endpointAddress) {
+        final UsbEndpoint endpoint;
+        try {
+            endpoint = getEndpoint(endpointAddress);
+        } catch (IOException e) {
+            Timber.w("Cannot clear halt: %s", e.getMessage());
+            return LIBUSB_ERROR_NOT_FOUND;
+        }
+        return connection.clearHalt(endpoint).getCode();
+    }
+
+    @NonNull
+    @Override
+    public AsyncTransfer createIsochronousTransfer(int endpointAddress, @IntRange(from = 1) int packetCount,
+                                                   @NonNull TransferCallback callback) throws IOException {
+        return new IsochronousTransfer(getEndpoint(endpointAddress), packetCount, callback);
+    }
+
+    @NonNull
+    @Override
+    public AsyncTransfer createBulkTransfer(int endpointAddress, @NonNull TransferCallback callback)
+            throws IOException {
+        final UsbEndpoint endpoint = getEndpoint(endpointAddress);
+        BulkQueue queue;
+        synchronized (bulkQueues) {
+            queue = bulkQueues.get(endpointAddress);
+            if (queue == null || queue.endpoint != endpoint) {
+                queue = new BulkQueue(endpoint);
+                bulkQueues.put(endpointAddress, queue);
+            }
+        }
+        return new BulkTransfer(queue, callback);
+    }
+
+    /**
+     * Looks up the libusb endpoint of a selected alternate setting, which transfers are submitted to.
+     *
+     * @param address The bEndpointAddress.
+     *
+     * @return The {@link UsbEndpoint}.
+     *
+     * @throws IOException Thrown if no selected alternate setting has the endpoint.
+     */
+    @NonNull
+    private UsbEndpoint getEndpoint(int address) throws IOException {
+        synchronized (selected) {
+            for (int i = 0; i < selected.size(); ++i) {
+                final UsbInterface usbInterface = selected.valueAt(i);
+                final int count = usbInterface.getEndpointCount();
+                for (int j = 0; j < count; ++j) {
+                    final UsbEndpoint endpoint = usbInterface.getEndpoint(j);
+                    if (endpoint.getAddress() == address) {
+                        return endpoint;
+                    }
+                }
+            }
+        }
+        throw new IOException("No selected alternate setting has endpoint " + address + '.');
+    }
+
+    @Nullable
+    private UsbInterface getUsbInterface(int interfaceNumber, int alternateSetting) {
+        final UsbDevice device = connection.getDevice();
+        final int count = device.getInterfaceCount();
+        for (int i = 0; i < count; ++i) {
+            final UsbInterface usbInterface = device.getInterface(i);
+            if (usbInterface.getId() == interfaceNumber && usbInterface.getAlternateSetting() == alternateSetting) {
+                return usbInterface;
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+        connection.close();
+    }
+
+    private final class IsochronousTransfer implements AsyncTransfer, IsochronousTransferCallback {
+
+        private final UsbEndpoint              endpoint;
+        private final int                      packetCount;
+        private final TransferCallback         callback;
+        private final IsochronousAsyncTransfer transfer;
+
+        private volatile ByteBuffer buffer;
+
+        IsochronousTransfer(@NonNull UsbEndpoint endpoint, int packetCount, @NonNull TransferCallback callback) {
+            if (packetCount < 1) {
+                throw new IllegalArgumentException("At least one packet is required: " + packetCount);
+            }
+            this.endpoint = endpoint;
+            this.packetCount = packetCount;
+            this.callback = callback;
+            transfer = new IsochronousAsyncTransfer(this, endpoint, connection, packetCount);
+        }
+
+        @Override
+        public int getEndpointAddress() {
+            return endpoint.getAddress();
+        }
+
+        @Override
+        public int getPacketCount() {
+            return packetCount;
+        }
+
+        @Override
+        public void submit(@NonNull ByteBuffer buffer, @IntRange(from = 0) int timeout) throws IOException {
+            this.buffer = buffer;
+            transfer.submit(buffer, timeout);
+        }
+
+        @Override
+        public int getPacketActualLength(int packet) {
+            return transfer.getPacketActualLength(packet);
+        }
+
+        @Override
+        public int getPacketStatus(int packet) {
+            return transfer.getPacketStatus(packet);
+        }
+
+        @Override
+        public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) throws IOException {
+            callback.onTransferComplete(this, data != null ? data : buffer, result);
+        }
+    }
+
+    /**
+     * The bulk transfers submitted on one endpoint. They are read one after another on a reader thread and their
+     * completions delivered in order on a second thread, so the next submitted transfer is already being read while
+     * the callback of the last one runs. Each thread is started when it gets work and exits once it has none.
+     */
+    private final class BulkQueue {
+
+        private final UsbEndpoint              endpoint;
+        private final ArrayDeque<BulkTransfer> submitted = new ArrayDeque<>();
+        private final ArrayDeque<BulkTransfer> completed = new ArrayDeque<>();
+
+        private boolean reading;    // Guarded by submitted
+        private boolean delivering; // Guarded by completed
+
+        private byte[] scratch; // Reader thread only
+
+        BulkQueue(@NonNull UsbEndpoint endpoint) {
+            this.endpoint = endpoint;
+        }
+
+        void submit(@NonNull BulkTransfer transfer) {
+            synchronized (submitted) {
+                submitted.addLast(transfer);
+                if (reading) {
+                    return;
+                }
+                reading = true;
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    read();
+                }
+            }, "UVC-Bulk-Read-" + endpoint.getAddress()).start();
+        }
+
+        private void read() {
+            while (true) {
+                final BulkTransfer transfer;
+                synchronized (submitted) {
+                    transfer = submitted.pollFirst();
+                    if (transfer == null) {
+                        reading = false;
+                        return;
+                    }
+                }
+                transfer.result = read(transfer.buffer, transfer.timeout);
+                complete(transfer);
+            }
+        }
+
+        private void complete(@NonNull BulkTransfer transfer) {
+            synchronized (completed) {
+                completed.addLast(transfer);
+                if (delivering) {
+                    return;
+                }
+                delivering = true;
+            }
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    deliver();
+                }
+            }, "UVC-Bulk-" + endpoint.getAddress()).start();
+        }
+
+        private void deliver() {
+            while (true) {
+                final BulkTransfer transfer;
+                synchronized (completed) {
+                    transfer = completed.pollFirst();
+                    if (transfer == null) {
+                        delivering = false;
+                        return;
+                    }
+                }
+                transfer.complete();
+            }
+        }
+
+        private int read(@NonNull ByteBuffer buffer, int timeout) {
+            final int position = buffer.position();
+            final int length = buffer.remaining();
+            final int result;
+            if (buffer.hasArray() && buffer.arrayOffset() + position == 0) {
+                result = connection.bulkTransfer(endpoint, buffer.array(), length, timeout);
+            } else {
+                if (scratch == null || scratch.length < length) {
+                    scratch = new byte[length];
+                }
+                result = connection.bulkTransfer(endpoint, scratch, length, timeout);
+                if (result > 0) {
+                    buffer.put(scratch, 0, result);
+                    buffer.position(position);
+                }
+            }
+            if (result > 0) {
+                buffer.position(position + result);
+            }
+            return result;
+        }
+    }
+
+    private static final class BulkTransfer implements AsyncTransfer {
+
+        private final BulkQueue        queue;
+        private final TransferCallback callback;
+
+        private volatile ByteBuffer buffer;
+        private volatile int        timeout;
+        private volatile int        result;
+
+        BulkTransfer(@NonNull BulkQueue queue, @NonNull TransferCallback callback) {
+            this.queue = queue;
+            this.callback = callback;
+        }
+
+        @Override
+        public int getEndpointAddress() {
+            return queue.endpoint.getAddress();
+        }
+
+        @Override
+        public int getPacketCount() {
+            return 0;
+        }
+
+        @Override
+        public void submit(@NonNull ByteBuffer buffer, @IntRange(from = 0) int timeout) throws IOException {
+            if (this.buffer != null) {
+                throw new IllegalStateException("Transfer on endpoint " + getEndpointAddress()
+                                                + " is already submitted.");
+            }
+            this.timeout = timeout;
+            this.buffer = buffer;
+            queue.submit(this);
+        }
+
+        @Override
+        public int getPacketActualLength(int packet) {
+            return 0;
+        }
+
+        @Override
+        public int getPacketStatus(int packet) {
+            return LIBUSB_TRANSFER_COMPLETED;
+        }
+
+        void complete() {
+            final ByteBuffer data = buffer;
+            // Released before the callback, which may submit again
+            buffer = null;
+            try {
+                callback.onTransferComplete(this, data, result);
+            } catch (IOException e) {
+                Timber.d("Bulk transfer callback on endpoint %d failed: %s", getEndpointAddress(), e.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LibusbTransport{" +
+               "connection=" + connection +
+               '}';
+    }
+}
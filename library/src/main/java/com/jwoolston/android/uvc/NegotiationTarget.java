@@ -0,0 +1,139 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.requests.streaming.Hint;
+import java.util.Locale;
+
+/**
+ * What a stream must deliver, as opposed to which descriptor to stream: a resolution, a minimum frame rate and a
+ * maximum bandwidth, plus whether spare bandwidth should go to frame rate or to compression quality. The
+ * {@link StreamManager} negotiates the lowest bandwidth stream parameters which meet it, in any format the device
+ * offers at that resolution.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class NegotiationTarget {
+
+    private static final long INTERVAL_UNITS = 10000000L; // dwFrameInterval units per second
+
+    private final int width;
+    private final int height;
+
+    private double     minFrameRate = 0;
+    private long       maxBandwidth = 0;
+    private Preference preference   = Preference.FRAME_RATE;
+
+    /**
+     * Constructor.
+     *
+     * @param width  The frame width in pixels.
+     * @param height The frame height in pixels.
+     */
+    public NegotiationTarget(@IntRange(from = 1) int width, @IntRange(from = 1) int height) {
+        if (width < 1 || height < 1) {
+            throw new IllegalArgumentException("Invalid resolution: " + width + "x" + height);
+        }
+        this.width = width;
+        this.height = height;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * Sets the lowest acceptable frame rate.
+     *
+     * @param fps The minimum frame rate in frames per second, or 0 to accept any frame rate the device offers.
+     */
+    public void setMinFrameRate(double fps) {
+        if (fps < 0 || Double.isNaN(fps) || Double.isInfinite(fps)) {
+            throw new IllegalArgumentException("Invalid frame rate: " + fps);
+        }
+        minFrameRate = fps;
+    }
+
+    public double getMinFrameRate() {
+        return minFrameRate;
+    }
+
+    /**
+     * The longest dwFrameInterval which still meets the minimum frame rate.
+     *
+     * @return The frame interval in 100 ns units.
+     */
+    public long getMaxFrameInterval() {
+        return minFrameRate > 0 ? (long) (INTERVAL_UNITS / minFrameRate) : Long.MAX_VALUE;
+    }
+
+    /**
+     * Sets the most bandwidth the stream may take. For an isochronous interface this is the bandwidth the chosen
+     * alternate setting reserves on the bus; for a bulk interface, which reserves nothing, it is the peak data rate.
+     *
+     * @param bytesPerSecond The bandwidth limit in bytes per second, or 0 for no limit.
+     */
+    public void setMaxBandwidth(@IntRange(from = 0) long bytesPerSecond) {
+        if (bytesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid bandwidth: " + bytesPerSecond);
+        }
+        maxBandwidth = bytesPerSecond;
+    }
+
+    public long getMaxBandwidth() {
+        return maxBandwidth;
+    }
+
+    /**
+     * Sets which parameter spare bandwidth is spent on, and which one the device is asked to hold fixed while it
+     * adjusts the others. Defaults to {@link Preference#FRAME_RATE}.
+     *
+     * @param preference The {@link Preference}.
+     */
+    public void setPreference(@NonNull Preference preference) {
+        this.preference = preference;
+    }
+
+    @NonNull
+    public Preference getPreference() {
+        return preference;
+    }
+
+    /**
+     * Builds the bmHint for the preference.
+     *
+     * @return A new {@link Hint} holding either dwFrameInterval or wCompQuality fixed.
+     */
+    @NonNull
+    Hint getHint() {
+        final Hint hint = new Hint();
+        hint.setFrameInterval(preference == Preference.FRAME_RATE);
+        hint.setCompQuality(preference == Preference.QUALITY);
+        return hint;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "%dx%d@%.3f<=%d:%s", width, height, minFrameRate, maxBandwidth, preference);
+    }
+
+    /**
+     * What to favour once the target is met.
+     */
+    public enum Preference {
+
+        /**
+         * Spend spare bandwidth on a shorter frame interval first, then on compression quality.
+         */
+        FRAME_RATE,
+
+        /**
+         * Spend spare bandwidth on compression quality first, then on a shorter frame interval.
+         */
+        QUALITY
+    }
+}
@@ -0,0 +1,293 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import com.jwoolston.android.uvc.payload.PayloadHeader;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.util.SpscRing;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Moves frame assembly off the USB event thread. The isochronous completion callback only walks the payload headers of
+ * the finished transfer and publishes a reference to each payload on a lock-free single producer, single consumer ring;
+ * a dedicated processing thread drains the ring into the {@link FrameAssembler}. Nothing on the callback side blocks,
+ * allocates or logs, so resubmission is never held up by frame processing or by a slow frame consumer.
+ * <p>
+ * Payload references point into the transfer buffer itself, so a buffer which has payloads on the ring cannot be
+ * resubmitted. Instead the transfer is resubmitted with a spare buffer and the completed one is returned to the spares
+ * once its last payload has been processed. When the processing thread falls so far behind that there is no spare
+ * buffer, or no room on the ring, the affected payloads are dropped, counted, and the assembler is told about the gap
+ * so the frame they belonged to is discarded rather than delivered with data missing.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class PayloadHandoff implements TransferListener, PayloadParser.PayloadListener, Runnable {
+
+    static final int DEFAULT_RING_CAPACITY = 1024;
+
+    // Bounds the wake up latency should the producer's unpark race the consumer going idle
+    private static final long IDLE_PARK_NANOS = 1000000L;
+
+    private final FrameAssembler       assembler;
+    private final PayloadParser        parser = new PayloadParser();
+    private final PayloadHeader        header = new PayloadHeader();
+    private final SpscRing<PayloadRef> payloads;     // USB event thread -> processing thread
+    private final SpscRing<PayloadRef> freeRefs;     // Processing thread -> USB event thread
+    private final SpscRing<ByteBuffer> freeBuffers;  // Processing thread -> USB event thread
+    private final long                 packetInterval; // Nanoseconds
+
+    private volatile boolean drained;
+    private volatile boolean consumerIdle;
+    private volatile long    droppedPayloadCount;
+
+    private Thread thread;
+
+    // USB event thread only
+    private ByteBuffer completed;
+    private long       completedTime;
+    private int        completedStride;
+    private int        completedPackets;
+    private ByteBuffer spare;
+    private PayloadRef pending;
+    private boolean    discontinuity;
+
+    /**
+     * Constructor. Every spare buffer and payload reference is allocated here, nothing is allocated while streaming.
+     *
+     * @param assembler     {@link FrameAssembler} to feed on the processing thread.
+     * @param transferCount The number of transfers the ring keeps in flight.
+     * @param spareCount    The number of spare transfer buffers, which bounds how many completed transfers may be
+     *                      waiting for the processing thread.
+     * @param bufferSize    The capacity in bytes of each transfer buffer.
+     * @param ringCapacity  The minimum number of payload references the ring can hold.
+     * @param interval      The endpoint service interval in microseconds, used to work out when each packet of a
+     *                      transfer was on the bus.
+     */
+    PayloadHandoff(@NonNull FrameAssembler assembler, int transferCount, int spareCount, int bufferSize,
+                   int ringCapacity, int interval) throws IllegalArgumentException {
+        if (spareCount < 1) {
+            throw new IllegalArgumentException("At least one spare buffer is required: " + spareCount);
+        }
+        this.assembler = assembler;
+        packetInterval = interval * 1000L;
+        payloads = new SpscRing<>(ringCapacity);
+        freeRefs = new SpscRing<>(payloads.capacity());
+        for (int i = 0; i < payloads.capacity(); ++i) {
+            freeRefs.offer(new PayloadRef());
+        }
+        freeBuffers = new SpscRing<>(transferCount + spareCount);
+        for (int i = 0; i < spareCount; ++i) {
+            freeBuffers.offer(ByteBuffer.allocateDirect(bufferSize));
+        }
+    }
+
+    /**
+     * Starts the processing thread. Must be called before any transfer is submitted.
+     *
+     * @param name The name to give the processing thread.
+     */
+    void start(@NonNull String name) {
+        drained = false;
+        thread = new Thread(this, name);
+        thread.start();
+    }
+
+    /**
+     * Waits for the processing thread to finish after the transfers have drained.
+     *
+     * @param millis The longest time to wait.
+     *
+     * @return {@code true} if the thread has finished and the handoff may be {@link #start(String) started} again.
+     *
+     * @throws InterruptedException Thrown if the calling thread is interrupted.
+     */
+    boolean awaitTermination(long millis) throws InterruptedException {
+        final Thread processing = thread;
+        if (processing != null) {
+            processing.join(millis);
+            return !processing.isAlive();
+        }
+        return true;
+    }
+
+    void setPacketTrace(@Nullable PacketTrace trace) {
+        parser.setPacketTrace(trace);
+    }
+
+    @NonNull
+    PayloadParser getParser() {
+        return parser;
+    }
+
+    /**
+     * The number of payloads waiting for the processing thread.
+     *
+     * @return The current ring depth.
+     */
+    int getDepth() {
+        return payloads.size();
+    }
+
+    int getHighWaterMark() {
+        return payloads.getHighWaterMark();
+    }
+
+    int getCapacity() {
+        return payloads.capacity();
+    }
+
+    /**
+     * The number of payloads dropped on the USB event thread because the processing thread had fallen behind.
+     *
+     * @return The dropped payload count.
+     */
+    long getDroppedPayloadCount() {
+        return droppedPayloadCount;
+    }
+
+    /**
+     * Notes that payloads were lost before the next transfer, exactly as if they had been dropped here. Called on the
+     * thread delivering transfers.
+     */
+    void markDiscontinuity() {
+        discontinuity = true;
+    }
+
+    /**
+     * Whether a transfer of some number of payloads delivered now would have payloads dropped because the processing
+     * thread has fallen behind. Called on the thread delivering transfers, for producers which can wait.
+     *
+     * @param payloadCount The number of payloads in the next transfer.
+     *
+     * @return {@code true} if there is no spare buffer or too few payload references.
+     */
+    boolean isBackedUp(int payloadCount) {
+        return (spare == null && freeBuffers.isEmpty()) || freeRefs.size() < payloadCount;
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer onTransferComplete(@NonNull ByteBuffer data, int packetStride, @NonNull int[] packetLengths,
+                                         @Nullable int[] packetStatuses, int packetCount, int result)
+            throws IOException {
+        if (result < 0) {
+            throw StreamManager.transferFailure(parser, result);
+        }
+        completed = data;
+        completedTime = System.nanoTime();
+        completedStride = packetStride;
+        completedPackets = packetCount;
+        parser.parse(data, packetStride, packetLengths, packetStatuses, packetCount, this);
+        completed = null;
+        if (pending == null) {
+            // Nothing from this transfer was handed off, it can be reused as is
+            return data;
+        }
+        pending.releasesBuffer = true;
+        publish();
+        if (consumerIdle) {
+            LockSupport.unpark(thread);
+        }
+        final ByteBuffer next = spare;
+        spare = null;
+        return next;
+    }
+
+    @Override
+    public void onPayload(@NonNull PayloadHeader header) {
+        if (spare == null) {
+            // Taken before the first reference so a buffer with payloads on the ring is never resubmitted. A spare
+            // which ends up unused is kept for the next transfer.
+            spare = freeBuffers.poll();
+        }
+        final PayloadRef ref = spare != null ? freeRefs.poll() : null;
+        if (ref == null) {
+            discontinuity = true;
+            ++droppedPayloadCount;
+            return;
+        }
+        if (pending != null) {
+            publish();
+        }
+        ref.buffer = completed;
+        ref.time = completedTime;
+        // Packets complete one service interval apart, the last one just before the transfer is handed back
+        final int packet = header.getPayloadOffset() / completedStride;
+        ref.packetTime = completedTime - (completedPackets - 1 - packet) * packetInterval;
+        ref.offset = header.getPayloadOffset() - header.getHeaderLength();
+        ref.length = header.getHeaderLength() + header.getPayloadLength();
+        ref.discontinuity = discontinuity;
+        ref.releasesBuffer = false;
+        discontinuity = false;
+        pending = ref;
+    }
+
+    @Override
+    public void onDiscontinuity() {
+        markDiscontinuity();
+    }
+
+    @Override
+    public void onTransfersDrained() {
+        drained = true;
+        LockSupport.unpark(thread);
+    }
+
+    @Override
+    public void run() {
+        while (true) {
+            // Read the flag before polling so that once it is seen set, every payload published before it is visible
+            final boolean finished = drained;
+            final PayloadRef ref = payloads.poll();
+            if (ref == null) {
+                if (finished) {
+                    break;
+                }
+                consumerIdle = true;
+                if (payloads.isEmpty() && !drained) {
+                    LockSupport.parkNanos(this, IDLE_PARK_NANOS);
+                }
+                consumerIdle = false;
+                continue;
+            }
+            assembler.setTransferTime(ref.time);
+            assembler.setPacketTime(ref.packetTime);
+            if (ref.discontinuity) {
+                assembler.markDiscontinuity();
+            }
+            if (header.wrap(ref.buffer, ref.offset, ref.length)) {
+                assembler.onPayload(header);
+            }
+            if (ref.releasesBuffer) {
+                freeBuffers.offer(ref.buffer);
+            }
+            ref.buffer = null;
+            freeRefs.offer(ref);
+        }
+        assembler.release();
+    }
+
+    private void publish() {
+        // The ring holds as many slots as there are references, so this cannot fail
+        payloads.offer(pending);
+        pending = null;
+    }
+
+    /**
+     * Location of one payload, header included, inside a transfer buffer.
+     */
+    private static final class PayloadRef {
+
+        ByteBuffer buffer;
+        long       time;
+        long       packetTime;
+        int        offset;
+        int        length;
+        boolean    discontinuity;
+        boolean    releasesBuffer;
+    }
+}
@@ -0,0 +1,121 @@
+package com.jwoolston.android.uvc;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.requests.streaming.Hint;
+import com.jwoolston.android.uvc.requests.streaming.ProbeControl;
+import com.jwoolston.android.uvc.util.Hexdump;
+import java.util.Locale;
+
+/**
+ * Persistent store of committed probe blocks. Probe and Commit negotiation takes three or four control transfers, so a
+ * stream which was negotiated before can instead commit the block the device agreed to last time and start streaming
+ * after a single control transfer. Should the device refuse the cached block, for instance after a firmware update
+ * which did not change bcdDevice, the entry is dropped and the stream is negotiated in full.
+ * <p>
+ * Entries are keyed by everything which feeds into the negotiation: the device's VID, PID and bcdDevice, the streaming
+ * interface, and either the format and frame indexes, the requested frame interval and the bmHint, or the target a
+ * negotiation searched for. They are kept in the application's {@link SharedPreferences}, so they survive the device
+ * being replugged and the process restarting.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §4.3.1.1.1</a>
+ */
+public class ProbeCache {
+
+    private static final String PREFERENCES = "com.jwoolston.android.uvc.ProbeCache";
+
+    private final SharedPreferences preferences;
+
+    public ProbeCache(@NonNull Context context) {
+        preferences = context.getApplicationContext().getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Identifies a device model and firmware revision.
+     *
+     * @param vendorId  The idVendor from the device descriptor.
+     * @param productId The idProduct from the device descriptor.
+     * @param bcdDevice The bcdDevice from the device descriptor.
+     *
+     * @return The device identifier to build keys from.
+     */
+    @NonNull
+    public static String deviceId(int vendorId, int productId, int bcdDevice) {
+        return String.format(Locale.US, "%04x:%04x:%04x", 0xFFFF & vendorId, 0xFFFF & productId, 0xFFFF & bcdDevice);
+    }
+
+    /**
+     * Builds the key of a negotiation.
+     *
+     * @param deviceId      The identifier from {@link #deviceId(int, int, int)}.
+     * @param interfaceId   The streaming interface number.
+     * @param formatIndex   The requested bFormatIndex.
+     * @param frameIndex    The requested bFrameIndex.
+     * @param frameInterval The requested dwFrameInterval.
+     * @param hint          The bmHint sent with the probe, if any.
+     *
+     * @return The cache key.
+     */
+    @NonNull
+    public static String key(@NonNull String deviceId, int interfaceId, int formatIndex, int frameIndex,
+                             int frameInterval, @Nullable Hint hint) {
+        return String.format(Locale.US, "%s:%d:%d:%d:%d:%04x", deviceId, interfaceId, formatIndex, frameIndex,
+                             frameInterval, hint != null ? 0xFFFF & hint.getRaw() : 0);
+    }
+
+    /**
+     * Builds the key of a negotiation towards a target rather than a fixed format and frame.
+     *
+     * @param deviceId    The identifier from {@link #deviceId(int, int, int)}.
+     * @param interfaceId The streaming interface number.
+     * @param target      A description of everything the negotiation was given.
+     *
+     * @return The cache key.
+     */
+    @NonNull
+    public static String key(@NonNull String deviceId, int interfaceId, @NonNull String target) {
+        return String.format(Locale.US, "%s:%d:%s", deviceId, interfaceId, target);
+    }
+
+    /**
+     * Looks up a committed probe block.
+     *
+     * @param key The key from {@link #key(String, int, int, int, int, Hint)}.
+     *
+     * @return A copy of the probe block, or {@code null} if there is no valid entry.
+     */
+    @Nullable
+    public byte[] get(@NonNull String key) {
+        final String value = preferences.getString(key, null);
+        if (value == null || value.length() != 2 * ProbeControl.LENGTH_PROBE_DATA) {
+            return null;
+        }
+        try {
+            return Hexdump.hexStringToByteArray(value);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Stores the probe block a device committed to. The write happens in the background.
+     *
+     * @param key    The key from {@link #key(String, int, int, int, int, Hint)}.
+     * @param commit The {@link ProbeControl} which was successfully committed.
+     */
+    public void put(@NonNull String key, @NonNull ProbeControl commit) {
+        preferences.edit().putString(key, Hexdump.toHexString(commit.getData())).apply();
+    }
+
+    public void remove(@NonNull String key) {
+        preferences.edit().remove(key).apply();
+    }
+
+    public void clear() {
+        preferences.edit().clear().apply();
+    }
+}
@@ -0,0 +1,336 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.libusb.LibusbError;
+import com.jwoolston.android.uvc.interfaces.VideoStreamingInterface;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFrame;
+import com.jwoolston.android.uvc.requests.streaming.FramingInfo;
+import com.jwoolston.android.uvc.requests.streaming.Hint;
+import com.jwoolston.android.uvc.requests.streaming.ProbeControl;
+import com.jwoolston.android.uvc.transport.UsbTransport;
+import java.util.Arrays;
+import java.util.Set;
+import timber.log.Timber;
+
+/**
+ * Searches the Probe control for the lowest bandwidth stream parameters which meet a {@link NegotiationTarget}.
+ * <p>
+ * Every frame descriptor of the target resolution, in any format, is a candidate. Each is probed at its lowest data
+ * rate: the longest frame interval which still meets the minimum frame rate and, where GET_MIN, GET_MAX and GET_RES
+ * report an adjustable wCompQuality range, the lowest compression quality. The device answers with the
+ * dwMaxPayloadTransferSize it needs, which decides the alternate setting and so the bandwidth reserved on the bus, and
+ * the candidate reserving the least within the target's limit is chosen.
+ * <p>
+ * Reservations come in alternate setting sized steps, so the chosen candidate usually has room left within its own.
+ * That room is spent according to the {@link NegotiationTarget.Preference}, walking the frame interval down and the
+ * compression quality up for as long as the device's answer still fits the same reservation.
+ * <p>
+ * Negotiation loops are avoided from both sides. The device only ever answers with decreasing data rates, and this
+ * search never feeds an answer back as a request: every probe is built from the descriptors and the reported ranges,
+ * and an answer which does not meet the target is rejected rather than chased. The walks are binary searches over
+ * ranges which rise monotonically in data rate, and the number of probes is capped at {@link #MAX_PROBES} whatever the
+ * device answers.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §4.3.1.1.1</a>
+ */
+class ProbeNegotiator {
+
+    /**
+     * The most Probe SET_CUR requests a single negotiation may issue.
+     */
+    static final int MAX_PROBES = 48;
+
+    private static final int TIMEOUT = 500; // Milliseconds
+
+    private final UsbTransport            transport;
+    private final VideoStreamingInterface streamingInterface;
+    private final boolean                 bulk;
+
+    private NegotiationTarget target;
+    private Hint              hint;
+    private ProbeControl      lastProbe;
+    private int               probeCount;
+
+    ProbeNegotiator(@NonNull UsbTransport transport, @NonNull VideoStreamingInterface streamingInterface) {
+        this.transport = transport;
+        this.streamingInterface = streamingInterface;
+        bulk = streamingInterface.getBulkEndpoint() != null;
+    }
+
+    /**
+     * Negotiates towards a target. The device is left holding the returned probe, ready to be committed.
+     *
+     * @param target The {@link NegotiationTarget} to meet.
+     *
+     * @return The Probe GET_CUR answer for the chosen parameters.
+     *
+     * @throws StreamCreationException Thrown if a request fails or no parameters meet the target.
+     */
+    @NonNull
+    ProbeControl negotiate(@NonNull NegotiationTarget target) throws StreamCreationException {
+        this.target = target;
+        hint = target.getHint();
+        lastProbe = null;
+        probeCount = 0;
+
+        Candidate best = null;
+        for (VideoFormat format : streamingInterface.getAvailableFormats()) {
+            @SuppressWarnings("unchecked")
+            final Set<? extends VideoFrame> frames = format.getVideoFrames();
+            for (VideoFrame frame : frames) {
+                if (frame.getWidth() != target.getWidth() || frame.getHeight() != target.getHeight()) {
+                    continue;
+                }
+                final Candidate candidate = new Candidate(format.getFormatIndex(), frame, target.getMaxFrameInterval());
+                if (candidate.intervalCount == 0) {
+                    Timber.v("Frame %d of format %d cannot meet %s.", frame.getFrameIndex(), format.getFormatIndex(),
+                             target);
+                    continue;
+                }
+                probeLowest(candidate);
+                if (candidate.current != null && (best == null || candidate.bandwidth < best.bandwidth)) {
+                    best = candidate;
+                }
+            }
+        }
+        if (best == null) {
+            throw new StreamCreationException("No stream parameters meet " + target + " after " + probeCount
+                                              + " probes.");
+        }
+
+        final long reservation = best.bandwidth;
+        if (target.getPreference() == NegotiationTarget.Preference.FRAME_RATE) {
+            raiseFrameRate(best, reservation);
+            raiseQuality(best, reservation);
+        } else {
+            raiseQuality(best, reservation);
+            raiseFrameRate(best, reservation);
+        }
+        if (best.current != lastProbe) {
+            // A rejected probe was the last one set, so the device must be returned to the chosen parameters
+            final ProbeControl current = probe(best, best.intervalIndex, best.qualityIndex);
+            if (bandwidth(best, current) < 0) {
+                throw new StreamCreationException("Device changed its answer for " + target + ".");
+            }
+            best.current = current;
+        }
+        Timber.d("Negotiated %s in %d probes: format %d, frame %d, interval %d, quality %d, %d B/s.", target,
+                 probeCount, best.current.getFormatIndex(), best.current.getFrameIndex(),
+                 best.current.getFrameInterval(), best.current.getCompQuality(), bandwidth(best, best.current));
+        return best.current;
+    }
+
+    /**
+     * Probes a candidate at its lowest data rate, after querying its compression quality range.
+     *
+     * @param candidate The {@link Candidate} to probe. Its answer and bandwidth are set if the target is met.
+     *
+     * @throws StreamCreationException Thrown if a request fails.
+     */
+    private void probeLowest(@NonNull Candidate candidate) throws StreamCreationException {
+        final int longest = candidate.intervalCount - 1;
+        ProbeControl current = probe(candidate, longest, 0);
+        // The ranges apply to the format and frame just set
+        final ProbeControl min = query(ProbeControl.getMinProbe(streamingInterface), "Probe min");
+        final ProbeControl max = query(ProbeControl.getMaxProbe(streamingInterface), "Probe max");
+        final ProbeControl res = query(ProbeControl.getResolutionProbe(streamingInterface), "Probe resolution");
+        final int step = Math.max(1, res.getCompQuality());
+        if (max.getCompQuality() > min.getCompQuality() && min.getCompQuality() > 0) {
+            candidate.minQuality = min.getCompQuality();
+            candidate.qualityStep = step;
+            candidate.qualityCount = (max.getCompQuality() - min.getCompQuality()) / step + 1;
+            current = probe(candidate, longest, 0);
+        }
+        final long bandwidth = bandwidth(candidate, current);
+        if (bandwidth >= 0) {
+            candidate.intervalIndex = longest;
+            candidate.qualityIndex = 0;
+            candidate.current = current;
+            candidate.bandwidth = bandwidth;
+        }
+        Timber.v("Frame %d of format %d at its lowest rate: %s B/s.", candidate.frame.getFrameIndex(),
+                 candidate.formatIndex, bandwidth >= 0 ? bandwidth : "rejected");
+    }
+
+    /**
+     * Finds the shortest frame interval whose answer fits a reservation. Shorter intervals only ever need more
+     * bandwidth, so this is a binary search between the shortest interval and the current one, which is known to fit.
+     */
+    private void raiseFrameRate(@NonNull Candidate candidate, long reservation) throws StreamCreationException {
+        int low = 0;
+        int high = candidate.intervalIndex;
+        while (low < high && hasProbesLeft()) {
+            final int middle = (low + high) >>> 1;
+            final ProbeControl current = probe(candidate, middle, candidate.qualityIndex);
+            final long bandwidth = bandwidth(candidate, current);
+            if (bandwidth >= 0 && bandwidth <= reservation) {
+                high = middle;
+                candidate.current = current;
+            } else {
+                low = middle + 1;
+            }
+        }
+        candidate.intervalIndex = high;
+    }
+
+    /**
+     * Finds the highest compression quality whose answer fits a reservation, by binary search between the current
+     * quality, which is known to fit, and the highest.
+     */
+    private void raiseQuality(@NonNull Candidate candidate, long reservation) throws StreamCreationException {
+        int low = candidate.qualityIndex;
+        int high = candidate.qualityCount - 1;
+        while (low < high && hasProbesLeft()) {
+            final int middle = (low + high + 1) >>> 1;
+            final ProbeControl current = probe(candidate, candidate.intervalIndex, middle);
+            final long bandwidth = bandwidth(candidate, current);
+            if (bandwidth >= 0 && bandwidth <= reservation) {
+                low = middle;
+                candidate.current = current;
+            } else {
+                high = middle - 1;
+            }
+        }
+        candidate.qualityIndex = low;
+    }
+
+    private boolean hasProbesLeft() {
+        // One probe is held back to return the device to the chosen parameters
+        return probeCount < MAX_PROBES - 1;
+    }
+
+    /**
+     * Sets a probe built from scratch and reads back the device's answer.
+     *
+     * @param candidate     The {@link Candidate} to probe.
+     * @param intervalIndex The index of the frame interval to request.
+     * @param qualityIndex  The index of the compression quality to request, ignored if the quality is not adjustable.
+     *
+     * @return The Probe GET_CUR answer.
+     *
+     * @throws StreamCreationException Thrown if a request fails or the probe limit is reached.
+     */
+    @NonNull
+    private ProbeControl probe(@NonNull Candidate candidate, int intervalIndex, int qualityIndex)
+            throws StreamCreationException {
+        if (probeCount >= MAX_PROBES) {
+            throw new StreamCreationException("Negotiation did not settle within " + MAX_PROBES + " probes.");
+        }
+        ++probeCount;
+        final ProbeControl request = ProbeControl.setCurrentProbe(streamingInterface);
+        request.setHint(hint);
+        request.setFormatIndex(candidate.formatIndex);
+        request.setFrameIndex(candidate.frame.getFrameIndex());
+        request.setFrameInterval(candidate.getInterval(intervalIndex));
+        request.setCompQuality(candidate.getQuality(qualityIndex));
+        final FramingInfo info = new FramingInfo();
+        info.setFrameIdRequired(true);
+        info.setEndOfFrameAllowed(true);
+        request.setFramingInfo(info);
+        query(request, "Probe set");
+        lastProbe = query(ProbeControl.getCurrentProbe(streamingInterface), "Probe get");
+        return lastProbe;
+    }
+
+    @NonNull
+    private ProbeControl query(@NonNull ProbeControl control, @NonNull String name) throws StreamCreationException {
+        final int retval = transport.controlTransfer(control.getRequestType(), control.getRequest(),
+                                                     control.getValue(), control.getIndex(), control.getData(),
+                                                     control.getLength(), TIMEOUT);
+        if (retval < 0) {
+            throw new StreamCreationException(name + " request failed: " + LibusbError.fromNative(retval));
+        }
+        return control;
+    }
+
+    /**
+     * Checks a device answer against the target and works out the bandwidth it takes.
+     *
+     * @param candidate The {@link Candidate} which was probed.
+     * @param current   The Probe GET_CUR answer.
+     *
+     * @return The bandwidth in bytes per second, or -1 if the answer does not meet the target.
+     */
+    private long bandwidth(@NonNull Candidate candidate, @NonNull ProbeControl current) {
+        final long interval = 0xFFFFFFFFL & current.getFrameInterval();
+        if (current.getFormatIndex() != candidate.formatIndex
+            || current.getFrameIndex() != candidate.frame.getFrameIndex()
+            || interval == 0 || interval > target.getMaxFrameInterval()) {
+            return -1;
+        }
+        final long bandwidth;
+        if (bulk) {
+            bandwidth = (0xFFFFFFFFL & current.getMaxVideoFrameSize()) * 10000000L / interval;
+        } else {
+            bandwidth = streamingInterface.getReservedBandwidth(current.getMaxPayloadTransferSize());
+        }
+        if (bandwidth < 0 || (target.getMaxBandwidth() > 0 && bandwidth > target.getMaxBandwidth())) {
+            return -1;
+        }
+        return bandwidth;
+    }
+
+    /**
+     * A frame descriptor under consideration, with the frame intervals meeting the target in ascending order and the
+     * compression quality range as grids which can be indexed.
+     */
+    private static final class Candidate {
+
+        final int        formatIndex;
+        final VideoFrame frame;
+        final int[]      discreteIntervals; // Ascending, or null for a continuous range
+        final int        intervalCount;
+
+        int minQuality   = 0;
+        int qualityStep  = 0;
+        int qualityCount = 1;
+
+        int          intervalIndex;
+        int          qualityIndex;
+        ProbeControl current;
+        long         bandwidth = -1;
+
+        Candidate(int formatIndex, @NonNull VideoFrame frame, long maxInterval) {
+            this.formatIndex = formatIndex;
+            this.frame = frame;
+            if (frame.getFrameIntervalType() == 0) {
+                discreteIntervals = null;
+                final long min = 0xFFFFFFFFL & frame.getMinFrameInterval();
+                final long max = Math.min(0xFFFFFFFFL & frame.getMaxFrameInterval(), maxInterval);
+                final long step = 0xFFFFFFFFL & frame.getFrameIntervalStep();
+                if (min == 0 || max < min) {
+                    intervalCount = 0;
+                } else {
+                    intervalCount = step > 0 ? (int) Math.min((max - min) / step + 1, Integer.MAX_VALUE) : 1;
+                }
+            } else {
+                final int[] intervals = new int[frame.getFrameIntervalType()];
+                int count = 0;
+                for (int i = 0; i < intervals.length; ++i) {
+                    final long interval = 0xFFFFFFFFL & frame.getFrameInterval(i);
+                    if (interval > 0 && interval <= maxInterval) {
+                        intervals[count++] = frame.getFrameInterval(i);
+                    }
+                }
+                discreteIntervals = Arrays.copyOf(intervals, count);
+                Arrays.sort(discreteIntervals);
+                intervalCount = count;
+            }
+        }
+
+        long getInterval(int index) {
+            if (discreteIntervals != null) {
+                return 0xFFFFFFFFL & discreteIntervals[index];
+            }
+            return (0xFFFFFFFFL & frame.getMinFrameInterval()) + index * (0xFFFFFFFFL & frame.getFrameIntervalStep());
+        }
+
+        int getQuality(int index) {
+            // Zero leaves the quality to the device
+            return qualityCount > 1 ? minQuality + index * qualityStep : 0;
+        }
+    }
+}
@@ -0,0 +1,218 @@
+package com.jwoolston.android.uvc;
+
+import android.content.Context;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.WorkerThread;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import timber.log.Timber;
+
+/**
+ * Measures what each {@link StreamingProfile} delivers on a real device. The benchmark streams with the profile for a
+ * fixed time, consuming frames as fast as they arrive and releasing them immediately, and reports:
+ * <br>
+ * - <b>Throughput</b>, in frames and megabytes per second over the time between the first and last frame.<br>
+ * - <b>Latency</b>, from the USB stack handing over the transfer which completed a frame to the consumer holding that
+ * frame, as a median, 95th percentile and maximum. This covers assembly, handoff and queueing; the frame's last
+ * payload was on the bus up to one transfer duration earlier still.<br>
+ * - <b>End to end latency</b>, from the device starting to capture a frame to the consumer holding it, for devices
+ * whose frames carry a {@link Frame#getCaptureTime() capture time}.<br>
+ * - <b>Dropped frames</b>, lost to the delivery queue or to an exhausted frame pool.
+ * <p>
+ * Both figures depend on the host controller and camera, so the benchmark should be run on the hardware in question.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class ProfileBenchmark {
+
+    public static final long DEFAULT_DURATION = 10000; // Milliseconds
+
+    private static final int MAX_SAMPLES = 8192;
+
+    private ProfileBenchmark() {
+    }
+
+    /**
+     * Streams with every profile in turn for {@link #DEFAULT_DURATION} each.
+     *
+     * @param webcam  The {@link Webcam} to benchmark. It must not be streaming.
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     *
+     * @return A {@link Result} per {@link StreamingProfile}, in declaration order.
+     *
+     * @throws StreamCreationException Thrown if a stream could not be started.
+     * @throws InterruptedException    Thrown if the calling thread is interrupted.
+     */
+    @WorkerThread
+    @NonNull
+    public static Result[] runAll(@NonNull Webcam webcam, @NonNull Context context, @NonNull VideoFormat format)
+            throws StreamCreationException, InterruptedException {
+        final StreamingProfile[] profiles = StreamingProfile.values();
+        final Result[] results = new Result[profiles.length];
+        for (int i = 0; i < profiles.length; ++i) {
+            results[i] = run(webcam, context, format, profiles[i], DEFAULT_DURATION);
+        }
+        return results;
+    }
+
+    /**
+     * Streams with a profile for the given time and measures the result. Streaming is terminated before returning.
+     *
+     * @param webcam   The {@link Webcam} to benchmark. It must not be streaming.
+     * @param context  {@link Context} The application context.
+     * @param format   The {@link VideoFormat} to stream in.
+     * @param profile  The {@link StreamingProfile} to measure.
+     * @param duration How long to stream for, in milliseconds.
+     *
+     * @return The measured {@link Result}.
+     *
+     * @throws StreamCreationException Thrown if the stream could not be started.
+     * @throws InterruptedException    Thrown if the calling thread is interrupted.
+     */
+    @WorkerThread
+    @NonNull
+    public static Result run(@NonNull Webcam webcam, @NonNull Context context, @NonNull VideoFormat format,
+                             @NonNull StreamingProfile profile, @IntRange(from = 1) long duration)
+            throws StreamCreationException, InterruptedException {
+        final long[] latencies = new long[MAX_SAMPLES];
+        final long[] captureLatencies = new long[MAX_SAMPLES];
+        int samples = 0;
+        int captureSamples = 0;
+        long frames = 0;
+        long bytes = 0;
+        long first = 0;
+        long last = 0;
+
+        webcam.beginStreaming(context, format, profile);
+        final FrameQueue queue = webcam.getFrameQueue();
+        final long end = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(duration);
+        try {
+            long remaining;
+            while (queue != null && (remaining = end - System.nanoTime()) > 0) {
+                final Frame frame = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                if (frame == null) {
+                    continue;
+                }
+                final long taken = System.nanoTime();
+                if (first == 0) {
+                    first = taken;
+                }
+                last = taken;
+                // Keeps the most recent samples should the run outlast the sample buffer
+                latencies[samples++ % MAX_SAMPLES] = taken - frame.getReceivedTime();
+                if (frame.getCaptureTime() != 0) {
+                    captureLatencies[captureSamples++ % MAX_SAMPLES] = taken - frame.getCaptureTime();
+                }
+                ++frames;
+                bytes += frame.getSize();
+                frame.release();
+            }
+        } finally {
+            webcam.terminateStreaming(context);
+        }
+
+        // Each stream has its own assembler, so its counters cover this run alone. The pool's exhausted count would
+        // not do: a frame lost to an empty pool tries the pool again on the next FID toggle and is counted twice
+        final StreamStats stats = webcam.getStreamStats();
+        final long dropped = stats != null ? stats.getDroppedFrameCount()
+                                           : queue != null ? queue.getDroppedFrameCount() : 0;
+        final Result result = new Result(profile, frames, bytes, last - first, dropped,
+                                         Arrays.copyOf(latencies, Math.min(samples, MAX_SAMPLES)),
+                                         Arrays.copyOf(captureLatencies, Math.min(captureSamples, MAX_SAMPLES)));
+        Timber.i("Benchmark: %s", result);
+        return result;
+    }
+
+    /**
+     * Measurements for one {@link StreamingProfile}.
+     */
+    public static final class Result {
+
+        private final StreamingProfile profile;
+        private final long             frames;
+        private final long             bytes;
+        private final long             elapsed;
+        private final long             dropped;
+        private final long[]           latencies;
+        private final long[]           captureLatencies;
+
+        Result(@NonNull StreamingProfile profile, long frames, long bytes, long elapsed, long dropped,
+               @NonNull long[] latencies, @NonNull long[] captureLatencies) {
+            this.profile = profile;
+            this.frames = frames;
+            this.bytes = bytes;
+            this.elapsed = elapsed;
+            this.dropped = dropped;
+            this.latencies = latencies;
+            this.captureLatencies = captureLatencies;
+            Arrays.sort(this.latencies);
+            Arrays.sort(this.captureLatencies);
+        }
+
+        @NonNull
+        public StreamingProfile getProfile() {
+            return profile;
+        }
+
+        public long getFrameCount() {
+            return frames;
+        }
+
+        public long getDroppedFrameCount() {
+            return dropped;
+        }
+
+        public double getFramesPerSecond() {
+            return elapsed > 0 ? (frames - 1) * 1e9 / elapsed : 0;
+        }
+
+        public double getMegabytesPerSecond() {
+            return elapsed > 0 ? bytes * 1e9 / elapsed / (1024 * 1024) : 0;
+        }
+
+        /**
+         * The latency below which the given fraction of frames were delivered.
+         *
+         * @param fraction The percentile as a fraction, between 0 and 1.
+         *
+         * @return The latency in microseconds, or 0 if no frames were delivered.
+         */
+        public long getLatencyPercentile(double fraction) {
+            return percentile(latencies, fraction);
+        }
+
+        /**
+         * The end to end latency, from capture to delivery, below which the given fraction of frames were delivered.
+         *
+         * @param fraction The percentile as a fraction, between 0 and 1.
+         *
+         * @return The latency in microseconds, or 0 if no frame carried a capture time.
+         */
+        public long getCaptureLatencyPercentile(double fraction) {
+            return percentile(captureLatencies, fraction);
+        }
+
+        private static long percentile(@NonNull long[] sorted, double fraction) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(fraction * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(rank, sorted.length - 1))] / 1000;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "%s: %.1f fps, %.2f MB/s, latency p50 %d us, p95 %d us, max %d us, "
+                                            + "end to end p50 %d us, p95 %d us, %d of %d frames dropped", profile,
+                                 getFramesPerSecond(), getMegabytesPerSecond(), getLatencyPercentile(0.5),
+                                 getLatencyPercentile(0.95), getLatencyPercentile(1), getCaptureLatencyPercentile(0.5),
+                                 getCaptureLatencyPercentile(0.95), dropped, frames + dropped);
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.jwoolston.android.uvc.capture.CaptureReader;
+import com.jwoolston.android.uvc.capture.CaptureWriter;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import timber.log.Timber;
+
+/**
+ * Feeds a payload recording made with {@link com.jwoolston.android.uvc.capture.CaptureMode#PAYLOADS} back through the
+ * isochronous streaming pipeline, without a camera. The recorded payloads are packed one per packet into transfers,
+ * which are completed on the calling thread in the role of the USB event thread, into the same payload handoff,
+ * processing thread and {@link FrameAssembler} a live stream uses. Payloads recorded after a discontinuity are
+ * replayed after one.
+ * <p>
+ * With {@link Pacing#ORIGINAL} each transfer completes when its last payload was recorded, relative to the start of the
+ * replay, so timing dependent behaviour such as handoff drops under a slow consumer reproduces. With
+ * {@link Pacing#AS_FAST_AS_POSSIBLE} transfers are completed back to back, waiting only when the processing thread has
+ * fallen behind so that no payload is dropped, which makes the outcome deterministic and measures the throughput of
+ * parsing and frame assembly.
+ * <p>
+ * Frame records are skipped and counted. The parser, assembler and handoff counters describe the most recent replay
+ * once {@link #replay(int, FrameAssembler.FrameListener)} returns.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class ReplaySource {
+
+    public static final int DEFAULT_PACKETS_PER_TRANSFER = 32;
+    public static final int DEFAULT_SPARE_BUFFERS        = 8;
+
+    // High speed microframes, used to estimate when each packet of a transfer was on the bus
+    private static final int SERVICE_INTERVAL = 125;
+
+    private static final long BACKPRESSURE_PARK_NANOS = 10000L;
+
+    private final File recording;
+
+    private Pacing      pacing             = Pacing.ORIGINAL;
+    private int         packetsPerTransfer = DEFAULT_PACKETS_PER_TRANSFER;
+    private PacketTrace packetTrace;
+
+    private FrameAssembler frameAssembler;
+    private PayloadParser  payloadParser;
+    private long           transferCount;
+    private long           skippedRecordCount;
+    private long           droppedPayloadCount;
+    private long           elapsed;
+
+    /**
+     * Constructor.
+     *
+     * @param recording The recording directory, as returned by {@link WebcamStream#beginStreaming}.
+     */
+    public ReplaySource(@NonNull File recording) {
+        this.recording = recording;
+    }
+
+    public void setPacing(@NonNull Pacing pacing) {
+        this.pacing = pacing;
+    }
+
+    @NonNull
+    public Pacing getPacing() {
+        return pacing;
+    }
+
+    /**
+     * Sets how many payloads are packed into each replayed transfer.
+     *
+     * @param count The packets per transfer. Defaults to {@link #DEFAULT_PACKETS_PER_TRANSFER}.
+     */
+    public void setPacketsPerTransfer(@IntRange(from = 1) int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one packet per transfer is required: " + count);
+        }
+        packetsPerTransfer = count;
+    }
+
+    /**
+     * Attaches a trace which records every replayed packet.
+     *
+     * @param trace The {@link PacketTrace} to record to, or {@code null}.
+     */
+    public void setPacketTrace(@Nullable PacketTrace trace) {
+        packetTrace = trace;
+    }
+
+    /**
+     * Replays the whole recording and waits for the processing thread to assemble the last frame.
+     *
+     * @param maxVideoFrameSize The dwMaxVideoFrameSize the stream was recorded with, which sizes the frame buffers.
+     * @param listener          {@link FrameAssembler.FrameListener} to receive the assembled frames, or {@code null}
+     *                          to discard them.
+     *
+     * @throws IOException          Thrown if the recording cannot be read.
+     * @throws InterruptedException Thrown if the calling thread is interrupted, in which case the replay is abandoned.
+     */
+    @WorkerThread
+    public void replay(@IntRange(from = 1) int maxVideoFrameSize, @Nullable FrameAssembler.FrameListener listener)
+            throws IOException, InterruptedException {
+        final CaptureReader reader = new CaptureReader(recording);
+        try {
+            int packetSize = 0;
+            while (reader.next()) {
+                if (reader.getKind() == CaptureWriter.KIND_PAYLOAD) {
+                    packetSize = Math.max(packetSize, reader.getLength());
+                }
+            }
+            reader.rewind();
+            if (packetSize == 0) {
+                throw new IOException("No payload records in " + recording);
+            }
+            replay(reader, packetSize, maxVideoFrameSize, listener);
+        } finally {
+            reader.close();
+        }
+    }
+
+    private void replay(@NonNull CaptureReader reader, int packetSize, int maxVideoFrameSize,
+                        @Nullable FrameAssembler.FrameListener listener) throws IOException, InterruptedException {
+        final int packets = packetsPerTransfer;
+        final FrameAssembler assembler = new FrameAssembler(new FrameBufferPool(maxVideoFrameSize,
+                                                                               FrameBufferPool.DEFAULT_MAX_FRAMES));
+        assembler.setFrameListener(listener);
+        final PayloadHandoff handoff = new PayloadHandoff(assembler, 1, DEFAULT_SPARE_BUFFERS, packets * packetSize,
+                                                          Math.max(PayloadHandoff.DEFAULT_RING_CAPACITY, 2 * packets),
+                                                          SERVICE_INTERVAL);
+        handoff.setPacketTrace(packetTrace);
+        frameAssembler = assembler;
+        payloadParser = handoff.getParser();
+        transferCount = 0;
+        skippedRecordCount = 0;
+
+        final boolean paced = pacing == Pacing.ORIGINAL;
+        final int[] lengths = new int[packets];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(packets * packetSize);
+        int count = 0;
+        long firstTimestamp = 0;
+        long lastTimestamp = 0;
+        boolean discontinuity = false;
+        final long start = System.nanoTime();
+        handoff.start("UVC-Replay-Processing");
+        try {
+            boolean more = true;
+            while (more) {
+                more = reader.next();
+                if (more && reader.getKind() != CaptureWriter.KIND_PAYLOAD) {
+                    ++skippedRecordCount;
+                    continue;
+                }
+                // A transfer is completed when full, at the end of the recording, or before a gap
+                if (count > 0 && (!more || count == packets || reader.isDiscontinuity())) {
+                    if (paced) {
+                        awaitTime(start + lastTimestamp - firstTimestamp);
+                    } else {
+                        while (handoff.isBackedUp(count)) {
+                            LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+                        }
+                    }
+                    if (Thread.interrupted()) {
+                        throw new InterruptedException();
+                    }
+                    if (discontinuity) {
+                        handoff.markDiscontinuity();
+                        discontinuity = false;
+                    }
+                    buffer = handoff.onTransferComplete(buffer, packetSize, lengths, null, count, 0);
+                    ++transferCount;
+                    count = 0;
+                }
+                if (!more) {
+                    break;
+                }
+                if (transferCount == 0 && count == 0) {
+                    firstTimestamp = reader.getTimestamp();
+                }
+                if (count == 0) {
+                    discontinuity = reader.isDiscontinuity();
+                }
+                buffer.clear();
+                buffer.position(count * packetSize);
+                reader.copyDataTo(buffer);
+                lengths[count++] = reader.getLength();
+                lastTimestamp = reader.getTimestamp();
+            }
+        } finally {
+            handoff.onTransfersDrained();
+            handoff.awaitTermination(0);
+            elapsed = System.nanoTime() - start;
+            droppedPayloadCount = handoff.getDroppedPayloadCount();
+        }
+        Timber.d("Replayed %d transfers in %d us: %d frames, %d payloads dropped, %d records skipped.",
+                 transferCount, elapsed / 1000, assembler.getCompleteFrameCount(), droppedPayloadCount,
+                 skippedRecordCount);
+    }
+
+    private static void awaitTime(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * The assembler of the most recent replay, for its frame counters and timing histograms.
+     *
+     * @return The {@link FrameAssembler}, or {@code null} if nothing has been replayed.
+     */
+    @Nullable
+    public FrameAssembler getFrameAssembler() {
+        return frameAssembler;
+    }
+
+    /**
+     * The parser of the most recent replay, for its packet and payload counters.
+     *
+     * @return The {@link PayloadParser}, or {@code null} if nothing has been replayed.
+     */
+    @Nullable
+    public PayloadParser getPayloadParser() {
+        return payloadParser;
+    }
+
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * The number of frame records in the recording, which cannot be replayed through frame assembly.
+     *
+     * @return The skipped record count.
+     */
+    public long getSkippedRecordCount() {
+        return skippedRecordCount;
+    }
+
+    /**
+     * The number of payloads the handoff dropped because the processing thread fell behind. Always 0 with
+     * {@link Pacing#AS_FAST_AS_POSSIBLE}.
+     *
+     * @return The dropped payload count.
+     */
+    public long getDroppedPayloadCount() {
+        return droppedPayloadCount;
+    }
+
+    /**
+     * How long the most recent replay took, until the last frame was assembled.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "ReplaySource{" +
+               "recording=" + recording +
+               ", pacing=" + pacing +
+               ", packetsPerTransfer=" + packetsPerTransfer +
+               ", transfers=" + transferCount +
+               ", dropped=" + droppedPayloadCount +
+               '}';
+    }
+
+    /**
+     * How quickly the recording is replayed.
+     */
+    public enum Pacing {
+
+        /**
+         * Each transfer completes at the time its last payload was recorded.
+         */
+        ORIGINAL,
+
+        /**
+         * Transfers complete as quickly as the processing thread keeps up with.
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+}
@@ -0,0 +1,262 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.simulator.SimulatedCamera;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.LockSupport;
+import timber.log.Timber;
+
+/**
+ * Streams a {@link SimulatedCamera} through the isochronous streaming pipeline, without hardware. Transfers filled by
+ * the camera are completed on the calling thread in the role of the USB event thread, into the same payload handoff,
+ * processing thread and {@link FrameAssembler} a live stream uses, so the whole receive path can be loaded at frame
+ * sizes and rates no camera at hand supports.
+ * <p>
+ * With {@link Pacing#REAL_TIME} each transfer completes when its last packet would have been on the bus, so the
+ * pipeline sees the same timing as with a real camera and drops payloads if it cannot keep up. With
+ * {@link Pacing#AS_FAST_AS_POSSIBLE} transfers are completed back to back, waiting only when the processing thread has
+ * fallen behind, which measures the throughput of parsing and frame assembly.
+ * <p>
+ * A transfer failed by the camera's fault injection is counted and followed by a discontinuity, as a recovered stream
+ * would be, while a disconnected camera ends the run with an {@link IOException}. The parser, assembler and handoff
+ * counters describe the most recent run once {@link #run(long, FrameAssembler.FrameListener)} returns.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class SimulatorSource {
+
+    public static final int DEFAULT_PACKETS_PER_TRANSFER = 32;
+    public static final int DEFAULT_SPARE_BUFFERS        = 8;
+
+    // High speed microframes, one packet each
+    private static final int  SERVICE_INTERVAL       = 125;
+    private static final long SERVICE_INTERVAL_NANOS = 125000L;
+
+    private static final long BACKPRESSURE_PARK_NANOS = 10000L;
+
+    private final SimulatedCamera camera;
+
+    private Pacing      pacing             = Pacing.REAL_TIME;
+    private int         packetsPerTransfer = DEFAULT_PACKETS_PER_TRANSFER;
+    private PacketTrace packetTrace;
+
+    private FrameAssembler frameAssembler;
+    private PayloadParser  payloadParser;
+    private long           transferCount;
+    private long           failedTransferCount;
+    private long           droppedPayloadCount;
+    private long           elapsed;
+
+    /**
+     * Constructor.
+     *
+     * @param camera The {@link SimulatedCamera} to stream from.
+     */
+    public SimulatorSource(@NonNull SimulatedCamera camera) {
+        this.camera = camera;
+    }
+
+    public void setPacing(@NonNull Pacing pacing) {
+        this.pacing = pacing;
+    }
+
+    @NonNull
+    public Pacing getPacing() {
+        return pacing;
+    }
+
+    /**
+     * Sets how many packets each transfer carries.
+     *
+     * @param count The packets per transfer. Defaults to {@link #DEFAULT_PACKETS_PER_TRANSFER}.
+     */
+    public void setPacketsPerTransfer(@IntRange(from = 1) int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("At least one packet per transfer is required: " + count);
+        }
+        packetsPerTransfer = count;
+    }
+
+    /**
+     * Attaches a trace which records every packet.
+     *
+     * @param trace The {@link PacketTrace} to record to, or {@code null}.
+     */
+    public void setPacketTrace(@Nullable PacketTrace trace) {
+        packetTrace = trace;
+    }
+
+    /**
+     * Streams until the camera has sent a number of frames and waits for the processing thread to assemble the last
+     * of them. The camera must already be streaming, see {@link SimulatedCamera#startStreaming(int, int, int)}.
+     *
+     * @param frames   The number of frames for the camera to send.
+     * @param listener {@link FrameAssembler.FrameListener} to receive the assembled frames, or {@code null} to discard
+     *                 them.
+     *
+     * @throws IOException          Thrown if the camera is disconnected while streaming.
+     * @throws InterruptedException Thrown if the calling thread is interrupted, in which case the run is abandoned.
+     */
+    @WorkerThread
+    public void run(@IntRange(from = 1) long frames, @Nullable FrameAssembler.FrameListener listener)
+            throws IOException, InterruptedException {
+        final int packetSize = camera.getBytesPerInterval();
+        if (packetSize == 0) {
+            throw new IllegalStateException("The simulated camera is not streaming: " + camera);
+        }
+        final int packets = packetsPerTransfer;
+        final FrameAssembler assembler = new FrameAssembler(new FrameBufferPool(camera.getMaxVideoFrameSize(),
+                                                                               FrameBufferPool.DEFAULT_MAX_FRAMES));
+        assembler.setFrameListener(listener);
+        final PayloadHandoff handoff = new PayloadHandoff(assembler, 1, DEFAULT_SPARE_BUFFERS, packets * packetSize,
+                                                          Math.max(PayloadHandoff.DEFAULT_RING_CAPACITY, 2 * packets),
+                                                          SERVICE_INTERVAL);
+        handoff.setPacketTrace(packetTrace);
+        frameAssembler = assembler;
+        payloadParser = handoff.getParser();
+        transferCount = 0;
+        failedTransferCount = 0;
+
+        final boolean paced = pacing == Pacing.REAL_TIME;
+        final int[] lengths = new int[packets];
+        final int[] statuses = new int[packets];
+        ByteBuffer buffer = ByteBuffer.allocateDirect(packets * packetSize);
+        final long target = camera.getFrameCount() + frames;
+        final long busStart = camera.getBusTime();
+        final long start = System.nanoTime();
+        handoff.start("UVC-Simulator-Processing");
+        try {
+            while (camera.getFrameCount() < target) {
+                if (paced) {
+                    awaitTime(start + camera.getBusTime() - busStart + packets * SERVICE_INTERVAL_NANOS);
+                } else {
+                    while (handoff.isBackedUp(packets)) {
+                        LockSupport.parkNanos(BACKPRESSURE_PARK_NANOS);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+                final int result = camera.fillTransfer(buffer, packetSize, lengths, statuses, packets);
+                if (result == SimulatedCamera.LIBUSB_ERROR_IO) {
+                    payloadParser.onTransferError(result);
+                    handoff.markDiscontinuity();
+                    ++failedTransferCount;
+                    continue;
+                }
+                buffer = handoff.onTransferComplete(buffer, packetSize, lengths, statuses, packets, result);
+                ++transferCount;
+            }
+        } finally {
+            handoff.onTransfersDrained();
+            handoff.awaitTermination(0);
+            elapsed = System.nanoTime() - start;
+            droppedPayloadCount = handoff.getDroppedPayloadCount();
+        }
+        Timber.d("Simulated %d transfers in %d us: %d frames, %d payloads dropped, %d transfers failed.",
+                 transferCount, elapsed / 1000, assembler.getCompleteFrameCount(), droppedPayloadCount,
+                 failedTransferCount);
+    }
+
+    private static void awaitTime(long deadline) throws InterruptedException {
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    @NonNull
+    public SimulatedCamera getCamera() {
+        return camera;
+    }
+
+    /**
+     * The assembler of the most recent run, for its frame counters and timing histograms.
+     *
+     * @return The {@link FrameAssembler}, or {@code null} if nothing has been run.
+     */
+    @Nullable
+    public FrameAssembler getFrameAssembler() {
+        return frameAssembler;
+    }
+
+    /**
+     * The parser of the most recent run, for its packet and payload counters.
+     *
+     * @return The {@link PayloadParser}, or {@code null} if nothing has been run.
+     */
+    @Nullable
+    public PayloadParser getPayloadParser() {
+        return payloadParser;
+    }
+
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * The number of transfers the camera failed as a whole, which were skipped.
+     *
+     * @return The failed transfer count.
+     */
+    public long getFailedTransferCount() {
+        return failedTransferCount;
+    }
+
+    /**
+     * The number of payloads the handoff dropped because the processing thread fell behind. Always 0 with
+     * {@link Pacing#AS_FAST_AS_POSSIBLE}.
+     *
+     * @return The dropped payload count.
+     */
+    public long getDroppedPayloadCount() {
+        return droppedPayloadCount;
+    }
+
+    /**
+     * How long the most recent run took, until the last frame was assembled.
+     *
+     * @return The elapsed time in nanoseconds.
+     */
+    public long getElapsed() {
+        return elapsed;
+    }
+
+    @Override
+    public String toString() {
+        return "SimulatorSource{" +
+               "camera=" + camera +
+               ", pacing=" + pacing +
+               ", packetsPerTransfer=" + packetsPerTransfer +
+               ", transfers=" + transferCount +
+               ", dropped=" + droppedPayloadCount +
+               '}';
+    }
+
+    /**
+     * How quickly the simulated camera's transfers are completed.
+     */
+    public enum Pacing {
+
+        /**
+         * Each transfer completes when its last packet would have been on the bus.
+         */
+        REAL_TIME,
+
+        /**
+         * Transfers complete as quickly as the processing thread keeps up with.
+         */
+        AS_FAST_AS_POSSIBLE
+    }
+}
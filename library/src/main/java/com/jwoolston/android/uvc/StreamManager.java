@@ -1,22 +1,40 @@
 package com.jwoolston.android.uvc;
 
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
 import com.jwoolston.android.libusb.LibusbError;
-import com.jwoolston.android.libusb.UsbDeviceConnection;
-import com.jwoolston.android.libusb.async.IsochronousAsyncTransfer;
-import com.jwoolston.android.libusb.async.IsochronousTransferCallback;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.capture.CaptureWriter;
 import com.jwoolston.android.uvc.interfaces.VideoControlInterface;
 import com.jwoolston.android.uvc.interfaces.VideoStreamingInterface;
+import com.jwoolston.android.uvc.interfaces.endpoints.BulkEndpoint;
 import com.jwoolston.android.uvc.interfaces.endpoints.Endpoint;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFrame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.frames.FrameFanout;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.payload.ClockRecovery;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import com.jwoolston.android.uvc.payload.PayloadParser;
 import com.jwoolston.android.uvc.requests.control.RequestErrorCode;
 import com.jwoolston.android.uvc.requests.streaming.FramingInfo;
+import com.jwoolston.android.uvc.requests.streaming.Hint;
 import com.jwoolston.android.uvc.requests.streaming.ProbeControl;
+import com.jwoolston.android.uvc.transport.UsbTransport;
 import com.jwoolston.android.uvc.util.Hexdump;
+import com.jwoolston.android.uvc.util.Histogram;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
 import timber.log.Timber;
 
 /**
@@ -46,29 +64,108 @@ import timber.log.Timber;
  * Descriptor multiplied times the number of simulcast streams as defined in the bmLayoutPerStream field. The interface
  * descriptor for the video function should have multiple alternate settings that support the required bandwidths
  * calculated in the manner above.
+ * <p>
+ * Stream Recovery
+ * <p>
+ * A transfer failure or endpoint stall does not end the stream. The failed transfer source stops and drains, then on
+ * a recovery thread the endpoint halt is cleared, the interface is returned to alternate setting 0, the last committed
+ * probe is committed again and the streaming alternate setting reselected, and the same transfers are resubmitted. Only
+ * if the commit is refused is the stream renegotiated from scratch. Recovery time, from the failure being seen to
+ * transfers being resubmitted, is logged and recorded to the {@link StreamStats}. A device which keeps failing,
+ * {@link #MAX_RECOVERIES} times within {@link #RECOVERY_WINDOW}, or which has been unplugged, is given up on.
  *
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
  * Specification §4.3.1.1.1</a>
  */
-public class StreamManager implements IsochronousTransferCallback {
+public class StreamManager implements TransferListener, TransferFailureListener {
+
+    /**
+     * Recoveries allowed within {@link #RECOVERY_WINDOW} before the stream is given up on.
+     */
+    public static final int MAX_RECOVERIES = 3;
 
-    private final UsbDeviceConnection     connection;
+    /**
+     * Window over which recoveries are counted, in milliseconds.
+     */
+    public static final long RECOVERY_WINDOW = 10000;
+
+    private static final long DRAIN_TIMEOUT = 2000; // Milliseconds
+
+    private final UsbTransport            transport;
     private final VideoControlInterface   controlInterface;
     private final VideoStreamingInterface streamingInterface;
 
-    public StreamManager(@NonNull UsbDeviceConnection connection, @NonNull VideoControlInterface controlInterface,
+    private TransferTuner transferTuner = new TransferTuner();
+
+    private PayloadParser payloadParser = new PayloadParser();
+
+    private IsochronousTransferRing      transferRing;
+    private PayloadHandoff               payloadHandoff;
+    private PacketTrace                  packetTrace;
+    private Hint                         hint;
+    private ProbeCache                   probeCache;
+    private String                       deviceId;
+    private BandwidthManager             bandwidthManager;
+    private String                       bus;
+    private BulkTransferReader           bulkReader;
+    private FrameAssembler               frameAssembler;
+    private FrameAssembler.FrameListener frameListener;
+    private FrameBufferPool.Provider     framePoolProvider;
+    private ClockRecovery                clockRecovery;
+    private CaptureWriter                captureWriter;
+    private CaptureMode                  captureMode = CaptureMode.NONE;
+    private long                         clockFrequency;
+    private PayloadParser                streamParser;
+    private Histogram                    transferLatency;
+    private long                         streamStart;
+    private StreamStats                  lastStats;
+
+    private final AtomicReference<State> state        = new AtomicReference<>(State.IDLE);
+    private final Histogram              recoveryTime = new Histogram();
+    private final long[]                 recoveries   = new long[MAX_RECOVERIES];
+
+    private volatile long recoveryCount;
+    private volatile long failedRecoveryCount;
+
+    // Recovery thread only, other than being set while streaming is established
+    private ProbeControl      lastCommit;
+    private NegotiationTarget lastTarget;
+    private VideoFormat       lastFormat;
+    private VideoFrame        lastFrame;
+    private int               alternateSetting;
+    private int               endpointAddress;
+    private int               recoveryIndex;
+
+    private volatile long        failureTime;
+    private volatile LibusbError failure;
+
+    public StreamManager(@NonNull UsbTransport transport, @NonNull VideoControlInterface controlInterface,
                          @NonNull VideoStreamingInterface streamingInterface) {
-        this.connection = connection;
+        this.transport = transport;
         this.controlInterface = controlInterface;
         this.streamingInterface = streamingInterface;
     }
 
     public void establishStreaming(@Nullable VideoFormat format, @Nullable VideoFrame frame) throws
                                                                                              StreamCreationException {
+        final long start = System.nanoTime();
         final ProbeControl request = ProbeControl.setCurrentProbe(streamingInterface);
         final VideoFormat requestedFormat = format != null ? format : streamingInterface.getAvailableFormats().get(0);
         final VideoFrame requestedFrame = frame != null ? frame : requestedFormat.getDefaultFrame();
+        lastTarget = null;
+        lastFormat = requestedFormat;
+        lastFrame = requestedFrame;
+
+        final ProbeCache cache = probeCache;
+        final String cacheKey = cache != null ? ProbeCache.key(deviceId, streamingInterface.getInterfaceNumber(),
+                                                               requestedFormat.getFormatIndex(),
+                                                               requestedFrame.getFrameIndex(),
+                                                               requestedFrame.getDefaultFrameInterval(), hint) : null;
+        if (cache != null && commitCachedProbe(cache, cacheKey)) {
+            Timber.i("Committed cached probe in %d us.", (System.nanoTime() - start) / 1000);
+            return;
+        }
 
         Timber.v("Using video format: %s", format);
         Timber.v("Using video frame: %s", frame);
@@ -79,74 +176,890 @@ public class StreamManager implements IsochronousTransferCallback {
         info.setFrameIdRequired(true);
         info.setEndOfFrameAllowed(true);
         request.setFramingInfo(info);
+        if (hint != null) {
+            request.setHint(hint);
+        }
 
-        int retval = connection.controlTransfer(request.getRequestType(), request.getRequest(), request.getValue(),
-                                                request.getIndex(), request.getData(), request.getLength(), 500);
+        int retval = transport.controlTransfer(request.getRequestType(), request.getRequest(), request.getValue(),
+                                               request.getIndex(), request.getData(), request.getLength(), 500);
 
         if (retval < 0) {
             throw new StreamCreationException("Probe set request failed: " + LibusbError.fromNative(retval));
         }
 
         final ProbeControl current = ProbeControl.getCurrentProbe(streamingInterface);
-        retval = connection.controlTransfer(current.getRequestType(), current.getRequest(), current.getValue(),
-                                            current.getIndex(), current.getData(), current.getLength(), 500);
+        retval = transport.controlTransfer(current.getRequestType(), current.getRequest(), current.getValue(),
+                                           current.getIndex(), current.getData(), current.getLength(), 500);
         if (retval < 0) {
             throw new StreamCreationException("Probe get request failed: " + LibusbError.fromNative(retval));
         }
 
+        if (!admits(current.getMaxPayloadTransferSize())) {
+            // The downgraded parameters only suit the bus as it is now, so they are not cached
+            commitNegotiated(downgrade(requestedFrame.getWidth(), requestedFrame.getHeight(), null), null, null,
+                             start);
+            return;
+        }
+        commitNegotiated(current, cache, cacheKey, start);
+    }
+
+    /**
+     * Negotiates the lowest bandwidth stream which meets a target and starts it. Every format offering the target
+     * resolution is considered; see {@link ProbeNegotiator} for how the device's ranges are searched. The bmHint is
+     * derived from the target's preference, so any set with {@link #setHint(Hint)} is not used.
+     *
+     * @param target The {@link NegotiationTarget} to meet.
+     *
+     * @throws StreamCreationException Thrown if no parameters meet the target or streaming could not be initiated.
+     */
+    public void establishStreaming(@NonNull NegotiationTarget target) throws StreamCreationException {
+        final long start = System.nanoTime();
+        lastTarget = target;
+
+        final ProbeCache cache = probeCache;
+        final String cacheKey = cache != null ? ProbeCache.key(deviceId, streamingInterface.getInterfaceNumber(),
+                                                               target.toString()) : null;
+        if (cache != null && commitCachedProbe(cache, cacheKey)) {
+            Timber.i("Committed cached probe for %s in %d us.", target, (System.nanoTime() - start) / 1000);
+            return;
+        }
+
+        // Failures to negotiate at all have nothing to do with bandwidth, so only a stream which does not fit is
+        // downgraded
+        final ProbeControl current = new ProbeNegotiator(transport, streamingInterface).negotiate(target);
+        if (!admits(current.getMaxPayloadTransferSize())) {
+            commitNegotiated(downgrade(target.getWidth(), target.getHeight(), target), null, null, start);
+            return;
+        }
+        commitNegotiated(current, cache, cacheKey, start);
+    }
+
+    /**
+     * The isochronous bandwidth this stream may reserve.
+     *
+     * @return The headroom in bytes per microframe, counting any reservation this stream already holds as free, or
+     * {@link Integer#MAX_VALUE} if there is no {@link BandwidthManager} or the interface streams over bulk.
+     */
+    private int getHeadroom() {
+        final BandwidthManager manager = bandwidthManager;
+        if (manager == null || streamingInterface.getBulkEndpoint() != null) {
+            return Integer.MAX_VALUE;
+        }
+        return manager.getHeadroom(bus, this);
+    }
+
+    /**
+     * Checks, without touching the bus, whether a payload size would fit the bandwidth left.
+     *
+     * @param maxPayload The dwMaxPayloadTransferSize.
+     *
+     * @return {@code true} if the alternate setting carrying the payload fits the headroom.
+     */
+    private boolean admits(int maxPayload) {
+        final int headroom = getHeadroom();
+        if (headroom == Integer.MAX_VALUE) {
+            return true;
+        }
+        final int setting = streamingInterface.findAlternateSetting(maxPayload);
+        return setting >= 0 && streamingInterface.getBytesPerMicroframe(setting) <= headroom;
+    }
+
+    /**
+     * Applies the {@link BandwidthManager.Policy} to a stream which does not fit. Under
+     * {@link BandwidthManager.Policy#DOWNGRADE} the lowest bandwidth parameters which fit the headroom are negotiated,
+     * at the requested resolution if possible and otherwise at the largest smaller resolution which fits.
+     *
+     * @param width  The requested frame width.
+     * @param height The requested frame height.
+     * @param target The {@link NegotiationTarget} the stream was requested with, if any, whose frame rate and
+     *               preference are kept at the requested resolution.
+     *
+     * @return The Probe GET_CUR answer for the downgraded parameters.
+     *
+     * @throws StreamCreationException Thrown if the policy is to refuse, or nothing fits.
+     */
+    @NonNull
+    private ProbeControl downgrade(int width, int height, @Nullable NegotiationTarget target)
+            throws StreamCreationException {
+        final int headroom = getHeadroom();
+        if (bandwidthManager.getPolicy() == BandwidthManager.Policy.REFUSE) {
+            throw new StreamCreationException("Stream does not fit the " + headroom + " bytes per microframe free on "
+                                              + "bus " + bus + ".");
+        }
+        final List<int[]> resolutions = new ArrayList<>();
+        for (VideoFormat format : streamingInterface.getAvailableFormats()) {
+            @SuppressWarnings("unchecked")
+            final Set<? extends VideoFrame> frames = format.getVideoFrames();
+            for (VideoFrame frame : frames) {
+                final int area = frame.getWidth() * frame.getHeight();
+                if (area < width * height && !contains(resolutions, frame.getWidth(), frame.getHeight())) {
+                    resolutions.add(new int[]{frame.getWidth(), frame.getHeight()});
+                }
+            }
+        }
+        Collections.sort(resolutions, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] lhs, int[] rhs) {
+                return rhs[0] * rhs[1] - lhs[0] * lhs[1];
+            }
+        });
+        resolutions.add(0, new int[]{width, height});
+
+        final ProbeNegotiator negotiator = new ProbeNegotiator(transport, streamingInterface);
+        for (int[] resolution : resolutions) {
+            final NegotiationTarget downgraded = new NegotiationTarget(resolution[0], resolution[1]);
+            if (target != null && resolution[0] == width && resolution[1] == height) {
+                downgraded.setMinFrameRate(target.getMinFrameRate());
+                downgraded.setPreference(target.getPreference());
+            }
+            final long limit = headroom * 8000L;
+            downgraded.setMaxBandwidth(target != null && target.getMaxBandwidth() > 0
+                                       ? Math.min(target.getMaxBandwidth(), limit) : limit);
+            try {
+                final ProbeControl current = negotiator.negotiate(downgraded);
+                if (admits(current.getMaxPayloadTransferSize())) {
+                    Timber.w("Stream downgraded to %s to fit %d bytes per microframe on bus %s.", downgraded,
+                             headroom, bus);
+                    return current;
+                }
+            } catch (StreamCreationException e) {
+                Timber.v("No parameters fit at %s: %s", downgraded, e.getMessage());
+            }
+        }
+        throw new StreamCreationException("Nothing fits the " + headroom + " bytes per microframe free on bus "
+                                          + bus + ".");
+    }
+
+    private static boolean contains(@NonNull List<int[]> resolutions, int width, int height) {
+        for (int[] resolution : resolutions) {
+            if (resolution[0] == width && resolution[1] == height) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Commits the probe the device last answered with and starts streaming.
+     *
+     * @param current  The Probe GET_CUR answer to commit.
+     * @param cache    The {@link ProbeCache} to store the commit in, if any.
+     * @param cacheKey The key to store the commit under.
+     * @param start    When negotiation started, on the {@link System#nanoTime()} clock.
+     *
+     * @throws StreamCreationException Thrown if the commit fails or streaming could not be initiated.
+     */
+    private void commitNegotiated(@NonNull ProbeControl current, @Nullable ProbeCache cache, @Nullable String cacheKey,
+                                  long start) throws StreamCreationException {
         int maxPayload = current.getMaxPayloadTransferSize();
         int maxFrameSize = current.getMaxVideoFrameSize();
+        clockFrequency = 0xFFFFFFFFL & current.getClockFrequency();
 
         final ProbeControl commit = current.getCommit();
+        lastCommit = commit;
 
-        retval = connection.controlTransfer(commit.getRequestType(), commit.getRequest(),
-                                            commit.getValue(), commit.getIndex(), commit.getData(), commit.getLength(),
-                                            500);
+        int retval = transport.controlTransfer(commit.getRequestType(), commit.getRequest(), commit.getValue(),
+                                               commit.getIndex(), commit.getData(), commit.getLength(), 500);
         if (retval < 0) {
             throw new StreamCreationException("Commit request failed: " + LibusbError.fromNative(retval));
         }
 
-        final RequestErrorCode requestErrorCode = RequestErrorCode.getCurrentErrorCode(controlInterface);
-        retval = connection.controlTransfer(requestErrorCode.getRequestType(), requestErrorCode.getRequest(),
-                                            requestErrorCode.getValue(), requestErrorCode.getIndex(),
-                                            requestErrorCode.getData(), requestErrorCode.getLength(), 500);
-        if (retval < 0 || requestErrorCode.getData()[0] != 0) {
-            throw new StreamCreationException("Error state failed: " + (retval < 0 ? LibusbError.fromNative(retval)
-            : "Current error code: 0x" + Hexdump.toHexString(requestErrorCode.getData()[0])));
+        final int errorCode = readRequestErrorCode();
+        if (errorCode != 0) {
+            throw new StreamCreationException("Error state failed: "
+                                              + (errorCode < 0 ? LibusbError.fromNative(errorCode)
+                                                 : "Current error code: 0x" + Hexdump.toHexString((byte) errorCode)));
         }
 
-        Timber.d("Current error code: 0x%s", Hexdump.toHexString(requestErrorCode.getData()[0]));
+        if (cache != null && cacheKey != null) {
+            cache.put(cacheKey, commit);
+        }
+        Timber.i("Negotiated probe in %d us.", (System.nanoTime() - start) / 1000);
 
         initiateStream(maxPayload, maxFrameSize);
     }
 
-    public void initiateStream(int maxPayload, int maxFrameSize) {
-        streamingInterface.selectAlternateSetting(connection, 6);
-        ByteBuffer buffer = ByteBuffer.allocateDirect(maxPayload);
-        Endpoint endpoint = streamingInterface.getCurrentEndpoints()[0];
+    /**
+     * Starts streaming by committing a probe block the device agreed to before, skipping negotiation. The commit is
+     * checked with the request error code control, as a negotiated one is, and an entry the device refuses or rejects
+     * is removed; one which would not fit the free bandwidth is kept for when the bus is quieter.
+     *
+     * @param cache    The {@link ProbeCache} to look in.
+     * @param cacheKey The key of the negotiation.
+     *
+     * @return {@code true} if the commit was accepted and streaming was initiated, {@code false} if the stream must
+     * be negotiated.
+     *
+     * @throws StreamCreationException Thrown if streaming could not be initiated after a successful commit.
+     */
+    private boolean commitCachedProbe(@NonNull ProbeCache cache, @NonNull String cacheKey)
+            throws StreamCreationException {
+        final byte[] data = cache.get(cacheKey);
+        if (data == null) {
+            return false;
+        }
+        final ProbeControl commit = ProbeControl.setCurrentCommit(streamingInterface, data);
+        if (!admits(commit.getMaxPayloadTransferSize())) {
+            Timber.d("Cached probe does not fit the free bandwidth, negotiating.");
+            return false;
+        }
+        final int retval = transport.controlTransfer(commit.getRequestType(), commit.getRequest(), commit.getValue(),
+                                                     commit.getIndex(), commit.getData(), commit.getLength(), 500);
+        if (retval < 0) {
+            Timber.d("Cached probe was refused with %s, negotiating.", LibusbError.fromNative(retval));
+            cache.remove(cacheKey);
+            return false;
+        }
+        // A device may accept the transfer yet still reject the values, for instance after a firmware update
+        final int errorCode = readRequestErrorCode();
+        if (errorCode != 0) {
+            Timber.d("Cached probe was rejected with %s, negotiating.", errorCode < 0
+                     ? LibusbError.fromNative(errorCode) : "error code 0x" + Hexdump.toHexString((byte) errorCode));
+            cache.remove(cacheKey);
+            return false;
+        }
+        lastCommit = commit;
+        clockFrequency = 0xFFFFFFFFL & commit.getClockFrequency();
+        initiateStream(commit.getMaxPayloadTransferSize(), commit.getMaxVideoFrameSize());
+        return true;
+    }
+
+    /**
+     * Reads the request error code control, which reports whether the device accepted the previous request.
+     *
+     * @return The bRequestErrorCode, 0 if the request was accepted, or a negative libusb error code if the control
+     * could not be read.
+     */
+    private int readRequestErrorCode() {
+        final RequestErrorCode requestErrorCode = RequestErrorCode.getCurrentErrorCode(controlInterface);
+        final int retval = transport.controlTransfer(requestErrorCode.getRequestType(), requestErrorCode.getRequest(),
+                                                     requestErrorCode.getValue(), requestErrorCode.getIndex(),
+                                                     requestErrorCode.getData(), requestErrorCode.getLength(), 500);
+        if (retval < 0) {
+            return retval;
+        }
+        Timber.d("Current error code: 0x%s", Hexdump.toHexString(requestErrorCode.getData()[0]));
+        return 0xFF & requestErrorCode.getData()[0];
+    }
+
+    /**
+     * Attaches a cache of committed probes. A stream which was negotiated before is then started by committing the
+     * cached probe block directly, and is only negotiated if the device refuses it.
+     *
+     * @param cache    The {@link ProbeCache} to use, or {@code null} to always negotiate.
+     * @param deviceId The device identifier from {@link ProbeCache#deviceId(int, int, int)}.
+     */
+    public void setProbeCache(@Nullable ProbeCache cache, @NonNull String deviceId) {
+        probeCache = cache;
+        this.deviceId = deviceId;
+    }
+
+    /**
+     * Attaches the bandwidth budget of the bus the device is on. Streams which would not fit are refused or
+     * downgraded according to its {@link BandwidthManager.Policy} before an alternate setting is selected.
+     *
+     * @param manager The {@link BandwidthManager} to reserve with, or {@code null} for no admission control.
+     * @param bus     The bus identifier from {@link BandwidthManager#getBusId(android.hardware.usb.UsbDevice)}.
+     */
+    public void setBandwidthManager(@Nullable BandwidthManager manager, @NonNull String bus) {
+        bandwidthManager = manager;
+        this.bus = bus;
+    }
+
+    /**
+     * Sets the bmHint sent with the probe, telling the device which parameters to hold fixed during negotiation. This
+     * takes effect the next time streaming is established.
+     *
+     * @param hint The {@link Hint} to send, or {@code null} to leave every bit clear.
+     */
+    public void setHint(@Nullable Hint hint) {
+        this.hint = hint;
+    }
+
+    /**
+     * Pins the number of isochronous transfers which are kept in flight while streaming, overriding the
+     * {@link TransferTuner}. This takes effect the next time a stream is initiated.
+     *
+     * @param count The number of transfers, at least 1.
+     */
+    public void setTransferCount(@IntRange(from = 1) int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("Transfer count must be at least 1: " + count);
+        }
+        transferTuner.setFixedTransferCount(count);
+    }
+
+    /**
+     * The number of isochronous transfers in flight, or that will be for the next stream if none is running.
+     *
+     * @return The transfer count.
+     */
+    public int getTransferCount() {
+        final IsochronousTransferRing ring = transferRing;
+        return ring != null ? ring.getTransferCount() : transferTuner.getTransferCount();
+    }
+
+    /**
+     * Sets the {@link TransferTuner} which shapes isochronous transfers. Sharing one tuner between successive stream
+     * managers for the same device keeps what it has learned about the device. This takes effect the next time a stream
+     * is initiated.
+     *
+     * @param tuner The {@link TransferTuner} to use.
+     */
+    public void setTransferTuner(@NonNull TransferTuner tuner) {
+        transferTuner = tuner;
+    }
+
+    @NonNull
+    public TransferTuner getTransferTuner() {
+        return transferTuner;
+    }
+
+    /**
+     * Sets the receiver of complete frames. Frames are delivered on the stream's processing thread, never on the USB
+     * event thread, so the listener may block; while it does, payloads back up on the handoff ring and are dropped
+     * once it is full.
+     *
+     * @param listener {@link FrameAssembler.FrameListener} to receive frames, or {@code null} to discard them.
+     */
+    public void setFrameListener(@Nullable FrameAssembler.FrameListener listener) {
+        frameListener = listener;
+        if (frameAssembler != null) {
+            frameAssembler.setFrameListener(listener);
+        }
+    }
+
+    /**
+     * Sets the source of frame buffers. If none is set, each stream gets its own pool of
+     * {@link FrameBufferPool#DEFAULT_MAX_FRAMES} buffers.
+     *
+     * @param provider {@link FrameBufferPool.Provider} to draw pools from.
+     */
+    public void setFrameBufferPoolProvider(@Nullable FrameBufferPool.Provider provider) {
+        framePoolProvider = provider;
+    }
+
+    /**
+     * Attaches a recorder for the payloads or frames of this and any later stream. Must be called before the stream
+     * is initiated.
+     *
+     * @param writer The {@link CaptureWriter} to append to, or {@code null} to record nothing.
+     * @param mode   What to record.
+     */
+    public void setCaptureWriter(@Nullable CaptureWriter writer, @NonNull CaptureMode mode) {
+        captureWriter = writer;
+        captureMode = mode;
+    }
+
+    /**
+     * Attaches a trace which records every packet received, for this and any later stream. The trace is dumped to the
+     * log automatically if a transfer fails, and may be {@link PacketTrace#dump()}ed on demand at any time.
+     *
+     * @param trace The {@link PacketTrace} to record to, or {@code null} to stop tracing.
+     */
+    public void setPacketTrace(@Nullable PacketTrace trace) {
+        packetTrace = trace;
+        payloadParser.setPacketTrace(trace);
+        final PayloadHandoff handoff = payloadHandoff;
+        if (handoff != null) {
+            handoff.setPacketTrace(trace);
+        }
+    }
+
+    @Nullable
+    public PacketTrace getPacketTrace() {
+        return packetTrace;
+    }
+
+    /**
+     * The recovered device clock of the active stream, which maps PTS and SCR values to the host clock.
+     *
+     * @return The {@link ClockRecovery}, or {@code null} if no stream has been started or the device did not report
+     * its clock frequency.
+     */
+    @Nullable
+    public ClockRecovery getClockRecovery() {
+        return clockRecovery;
+    }
+
+    @Nullable
+    public FrameAssembler getFrameAssembler() {
+        return frameAssembler;
+    }
+
+    public void initiateStream(int maxPayload, int maxFrameSize) throws StreamCreationException {
+        final FrameBufferPool pool = framePoolProvider != null ? framePoolProvider.getFrameBufferPool(maxFrameSize)
+            : new FrameBufferPool(maxFrameSize, FrameBufferPool.DEFAULT_MAX_FRAMES);
+        frameAssembler = new FrameAssembler(pool);
+        frameAssembler.setFrameListener(frameListener);
+        // Without dwClockFrequency neither the PTS nor the SCR can be interpreted
+        clockRecovery = clockFrequency > 0 ? new ClockRecovery(clockFrequency, ClockRecovery.DEFAULT_WINDOW) : null;
+        frameAssembler.setClockRecovery(clockRecovery);
+        frameAssembler.setCaptureWriter(captureWriter, captureMode);
+        synchronized (this) {
+            streamStart = System.nanoTime();
+            lastStats = null;
+            state.set(State.STREAMING);
+        }
+
+        final BulkEndpoint bulkEndpoint = streamingInterface.getBulkEndpoint();
+        if (bulkEndpoint != null) {
+            initiateBulkStream(bulkEndpoint, maxPayload);
+        } else {
+            initiateIsochronousStream(maxPayload);
+        }
+    }
+
+    private void initiateIsochronousStream(int maxPayload) throws StreamCreationException {
+        final int alternateSetting = streamingInterface.findAlternateSetting(maxPayload);
+        if (alternateSetting < 0) {
+            abandonStream();
+            throw new StreamCreationException("No alternate setting can carry a payload of " + maxPayload + " bytes.");
+        }
+        final BandwidthManager manager = bandwidthManager;
+        final int reservation = streamingInterface.getBytesPerMicroframe(alternateSetting);
+        if (manager != null && !manager.reserve(bus, this, reservation)) {
+            abandonStream();
+            throw new StreamCreationException("Alternate setting " + alternateSetting + " needs " + reservation
+                                              + " bytes per microframe, only " + manager.getHeadroom(bus, this)
+                                              + " are free on bus " + bus + ".");
+        }
+        Timber.d("Selecting alternate setting %d for payload size %d.", alternateSetting, maxPayload);
+        if (!streamingInterface.selectAlternateSetting(transport, alternateSetting)) {
+            abandonStream();
+            throw new StreamCreationException("Alternate setting " + alternateSetting + " could not be selected.");
+        }
+        this.alternateSetting = alternateSetting;
+        final Endpoint endpoint = streamingInterface.getCurrentEndpoints()[0];
+        endpointAddress = endpoint.getAddress();
+        final int packetSize = endpoint.getBytesPerInterval();
+        final TransferTuner tuner = transferTuner;
+        tuner.configure(endpoint.getInterval(), packetSize);
+        Timber.d("Transfer shape: %s", tuner);
         try {
-            IsochronousAsyncTransfer transfer = new IsochronousAsyncTransfer(this, endpoint.getEndpoint(),
-                                                                             connection, 20);
-            transfer.submit(buffer, 500);
-        } catch (Exception e) {
-            e.printStackTrace();
+            payloadHandoff = new PayloadHandoff(frameAssembler, tuner.getMaxTransferCount(), tuner.getTransferCount(),
+                                                tuner.getPacketsPerTransfer() * packetSize,
+                                                PayloadHandoff.DEFAULT_RING_CAPACITY, tuner.getServiceInterval());
+            payloadHandoff.setPacketTrace(packetTrace);
+            streamParser = payloadHandoff.getParser();
+            transferRing = new IsochronousTransferRing(payloadHandoff, transport, endpointAddress, tuner, packetSize);
+        } catch (IllegalArgumentException e) {
+            abandonStream();
+            throw new StreamCreationException(e);
+        } catch (IOException e) {
+            abandonStream();
+            throw new StreamCreationException(e);
+        }
+        payloadHandoff.start("UVC-Processing-" + endpointAddress);
+        transferLatency = transferRing.getTransferLatency();
+        transferRing.setFailureListener(this);
+        try {
+            transferRing.start();
+        } catch (IOException e) {
+            // The ring tells the handoff to finish once whatever it did submit has drained
+            abandonStream();
+            throw new StreamCreationException(e);
+        }
+    }
+
+    /**
+     * Undoes a stream which failed to start: its transfers are stopped, its bandwidth reservation is released and the
+     * zero bandwidth alternate setting is selected again. The stream is left {@link State#IDLE}, so failures of
+     * transfers which are still draining are ignored.
+     */
+    private synchronized void abandonStream() {
+        Timber.w("Stream on endpoint 0x%02x could not be started, abandoning it.", endpointAddress);
+        state.set(State.IDLE);
+        releaseBandwidth();
+        if (transferRing != null) {
+            transferRing.stop();
+            transferRing = null;
+        }
+        if (bulkReader != null) {
+            bulkReader.stop();
+            bulkReader = null;
         }
+        streamingInterface.selectAlternateSetting(transport, 0);
+        alternateSetting = 0;
+    }
+
+    private void initiateBulkStream(@NonNull BulkEndpoint endpoint, int maxPayload) throws StreamCreationException {
+        Timber.d("Streaming over bulk endpoint with payload size %d.", maxPayload);
+        releaseBandwidth();
+        streamingInterface.selectAlternateSetting(transport, 0);
+        alternateSetting = 0;
+        endpointAddress = endpoint.getAddress();
+        // A fresh parser per stream so its counters describe this stream alone
+        payloadParser = new PayloadParser();
+        payloadParser.setPacketTrace(packetTrace);
+        streamParser = payloadParser;
+        bulkReader = new BulkTransferReader(this, transport, endpointAddress, maxPayload,
+                                            BulkTransferReader.DEFAULT_PAYLOADS_PER_TRANSFER,
+                                            BulkTransferReader.DEFAULT_TRANSFER_COUNT);
+        transferLatency = bulkReader.getTransferLatency();
+        bulkReader.setFailureListener(this);
+        try {
+            bulkReader.start();
+        } catch (IOException e) {
+            abandonStream();
+            throw new StreamCreationException(e);
+        }
+    }
+
+    /**
+     * Stops resubmitting transfers for the active stream, if any. A recovery in progress is abandoned.
+     */
+    public synchronized void terminateStream() {
+        state.set(State.IDLE);
+        releaseBandwidth();
+        if (transferRing != null) {
+            transferRing.stop();
+            transferRing = null;
+        }
+        if (bulkReader != null) {
+            bulkReader.stop();
+            bulkReader = null;
+        }
+    }
+
+    /**
+     * Terminates the active stream and, once its transfers have drained, selects the zero bandwidth alternate setting
+     * so the host controller gives back the stream's periodic bandwidth. The negotiated parameters are kept, so a
+     * later stream can start from them. Must not be called from the stream processing thread, which it waits for.
+     */
+    @WorkerThread
+    public void suspendStream() {
+        terminateStream();
+        try {
+            if (!awaitDrain()) {
+                Timber.w("Transfers did not drain within %d ms of suspending.", DRAIN_TIMEOUT);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            if (state.get() == State.IDLE) {
+                streamingInterface.selectAlternateSetting(transport, 0);
+            }
+        }
+    }
+
+    private void releaseBandwidth() {
+        final BandwidthManager manager = bandwidthManager;
+        if (manager != null) {
+            manager.release(bus, this);
+        }
+    }
+
+    @NonNull
+    public State getState() {
+        return state.get();
+    }
+
+    /**
+     * The number of times the stream has been recovered after a transfer failure.
+     *
+     * @return The recovery count.
+     */
+    public long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    /**
+     * The number of recoveries which failed, each leaving the stream {@link State#FAILED}.
+     *
+     * @return The failed recovery count.
+     */
+    public long getFailedRecoveryCount() {
+        return failedRecoveryCount;
+    }
+
+    /**
+     * The time each successful recovery took, from the failure being seen to transfers being resubmitted.
+     *
+     * @return The recovery time {@link Histogram}, in nanoseconds.
+     */
+    @NonNull
+    public Histogram getRecoveryTime() {
+        return recoveryTime;
     }
 
     @Override
-    public void onIsochronousTransferComplete(@Nullable ByteBuffer data, int result) throws IOException {
-        if (result < 0) {
-            throw new IOException("Failure in isochronous callback:" + LibusbError.fromNative(result));
+    public void onTransferFailure(@NonNull LibusbError error) {
+        if (!state.compareAndSet(State.STREAMING, State.RECOVERING)) {
+            // Already recovering, or the stream is being torn down
+            return;
+        }
+        failureTime = System.nanoTime();
+        failure = error;
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                recover();
+            }
+        }, "UVC-Recovery-" + endpointAddress).start();
+    }
+
+    @WorkerThread
+    private void recover() {
+        final long start = failureTime;
+        final LibusbError error = failure;
+        Timber.w("Transfer failed with %s, recovering stream.", error);
+        boolean recovered = false;
+        boolean inPlace = false;
+        try {
+            if (error == LibusbError.LIBUSB_ERROR_NO_DEVICE) {
+                Timber.e("Device is gone, not recovering.");
+            } else if (!allowRecovery(start)) {
+                Timber.e("Stream failed %d times within %d ms, giving up.", MAX_RECOVERIES, RECOVERY_WINDOW);
+            } else if (!awaitDrain()) {
+                Timber.e("Transfers did not drain within %d ms, giving up.", DRAIN_TIMEOUT);
+            } else {
+                inPlace = restartInPlace();
+                recovered = inPlace || renegotiate();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (recovered && state.get() != State.STREAMING) {
+            Timber.d("Stream terminated during recovery.");
+        } else if (recovered) {
+            final long elapsed = System.nanoTime() - start;
+            recoveryTime.record(elapsed);
+            ++recoveryCount;
+            Timber.i("Stream recovered %s in %d us after %s.", inPlace ? "in place" : "by renegotiation",
+                     elapsed / 1000, error);
+        } else if (state.compareAndSet(State.RECOVERING, State.FAILED)) {
+            releaseBandwidth();
+            ++failedRecoveryCount;
+            Timber.e("Stream recovery failed after %s.", error);
+        }
+    }
+
+    private boolean allowRecovery(long now) {
+        final long oldest = recoveries[recoveryIndex];
+        if (oldest != 0 && now - oldest < RECOVERY_WINDOW * 1000000L) {
+            return false;
+        }
+        recoveries[recoveryIndex] = now;
+        recoveryIndex = (recoveryIndex + 1) % recoveries.length;
+        return true;
+    }
+
+    private boolean awaitDrain() throws InterruptedException {
+        final PayloadHandoff handoff = payloadHandoff;
+        final BulkTransferReader reader = bulkReader;
+        if (reader != null) {
+            return reader.awaitTermination(DRAIN_TIMEOUT);
+        }
+        return handoff == null || handoff.awaitTermination(DRAIN_TIMEOUT);
+    }
+
+    /**
+     * Resumes the stream with the transfers, buffers and negotiated parameters it already had.
+     *
+     * @return {@code true} if streaming resumed, or recovery was abandoned because the stream was terminated.
+     */
+    private boolean restartInPlace() {
+        // Only bulk and interrupt endpoints halt, but clearing an isochronous endpoint is harmless and some devices
+        // want it anyway
+        final int cleared = transport.clearHalt(endpointAddress);
+        if (cleared < 0) {
+            Timber.d("Clear halt failed: %s", LibusbError.fromNative(cleared));
+        }
+        streamingInterface.selectAlternateSetting(transport, 0);
+        final ProbeControl commit = lastCommit;
+        final int retval = transport.controlTransfer(commit.getRequestType(), commit.getRequest(), commit.getValue(),
+                                                     commit.getIndex(), commit.getData(), commit.getLength(), 500);
+        if (retval < 0) {
+            Timber.w("Commit was refused with %s.", LibusbError.fromNative(retval));
+            return false;
+        }
+        if (alternateSetting != 0) {
+            streamingInterface.selectAlternateSetting(transport, alternateSetting);
+        }
+        synchronized (this) {
+            if (state.get() != State.RECOVERING) {
+                return true;
+            }
+            // Whatever was in progress when the transfers failed is incomplete
+            frameAssembler.reset();
+            try {
+                if (transferRing != null) {
+                    payloadHandoff.start("UVC-Processing-" + endpointAddress);
+                    transferRing.start();
+                } else if (bulkReader != null) {
+                    bulkReader.start();
+                } else {
+                    return false;
+                }
+            } catch (IOException e) {
+                Timber.w(e, "Transfers could not be resubmitted.");
+                if (transferRing != null) {
+                    transferRing.stop();
+                }
+                return false;
+            }
+            state.set(State.STREAMING);
+            return true;
+        }
+    }
+
+    /**
+     * The slow path: negotiates the stream again from the probe and starts it with new transfers.
+     *
+     * @return {@code true} if streaming resumed, or recovery was abandoned because the stream was terminated.
+     */
+    private synchronized boolean renegotiate() {
+        if (state.get() != State.RECOVERING) {
+            return true;
+        }
+        transferRing = null;
+        payloadHandoff = null;
+        bulkReader = null;
+        try {
+            if (lastTarget != null) {
+                establishStreaming(lastTarget);
+            } else {
+                establishStreaming(lastFormat, lastFrame);
+            }
+            return true;
+        } catch (StreamCreationException e) {
+            Timber.w(e, "Renegotiation failed.");
+            // Starting the stream left it idle, but it is this recovery which failed
+            state.set(State.RECOVERING);
+            return false;
+        }
+    }
+
+    /**
+     * The number of payloads waiting on the handoff ring between the USB event thread and the processing thread.
+     *
+     * @return The current depth, or 0 if no isochronous stream has been started.
+     */
+    public int getPayloadQueueDepth() {
+        final PayloadHandoff handoff = payloadHandoff;
+        return handoff != null ? handoff.getDepth() : 0;
+    }
+
+    /**
+     * The deepest the payload handoff ring has been during the current isochronous stream. A high-water mark close to
+     * {@link #getPayloadQueueCapacity()} means the processing thread is struggling to keep up.
+     *
+     * @return The high-water mark, or 0 if no isochronous stream has been started.
+     */
+    public int getPayloadQueueHighWaterMark() {
+        final PayloadHandoff handoff = payloadHandoff;
+        return handoff != null ? handoff.getHighWaterMark() : 0;
+    }
+
+    public int getPayloadQueueCapacity() {
+        final PayloadHandoff handoff = payloadHandoff;
+        return handoff != null ? handoff.getCapacity() : 0;
+    }
+
+    /**
+     * The number of payloads dropped during the current isochronous stream because the processing thread had fallen
+     * too far behind.
+     *
+     * @return The dropped payload count.
+     */
+    public long getDroppedPayloadCount() {
+        final PayloadHandoff handoff = payloadHandoff;
+        return handoff != null ? handoff.getDroppedPayloadCount() : 0;
+    }
+
+    /**
+     * Takes a snapshot of the health of the most recent stream. Rates are measured since the previous snapshot, so
+     * this is intended to be polled at a fixed period. The counters remain readable after the stream is terminated,
+     * until the next one starts.
+     *
+     * @return A new {@link StreamStats}, or {@code null} if no stream has been started.
+     */
+    @Nullable
+    public synchronized StreamStats getStreamStats() {
+        final PayloadParser parser = streamParser;
+        final FrameAssembler assembler = frameAssembler;
+        final Histogram latency = transferLatency;
+        if (parser == null || assembler == null || latency == null) {
+            return null;
+        }
+        final long droppedDelivery;
+        if (frameListener instanceof FrameQueue) {
+            droppedDelivery = ((FrameQueue) frameListener).getDroppedFrameCount();
+        } else if (frameListener instanceof FrameFanout) {
+            droppedDelivery = ((FrameFanout) frameListener).getDroppedFrameCount();
         } else {
-            final byte[] raw = new byte[data.limit()];
-            data.rewind();
-            data.get(raw);
-            Timber.d(" \n%s", Hexdump.dumpHexString(raw));
-            Endpoint endpoint = streamingInterface.getCurrentEndpoints()[0];
-            data.rewind();
-            IsochronousAsyncTransfer transfer = new IsochronousAsyncTransfer(this, endpoint.getEndpoint(),
-                                                                             connection, 20);
-            transfer.submit(data, 500);
+            droppedDelivery = 0;
+        }
+        lastStats = new StreamStats(lastStats, streamStart, parser, assembler, droppedDelivery,
+                                    getDroppedPayloadCount(), latency, this);
+        return lastStats;
+    }
+
+    @NonNull
+    @Override
+    public ByteBuffer onTransferComplete(@NonNull ByteBuffer data, int packetStride, @NonNull int[] packetLengths,
+                                         @Nullable int[] packetStatuses, int packetCount, int result)
+            throws IOException {
+        // Bulk reads arrive on the reader thread rather than the USB event thread, so they are assembled in place
+        if (result < 0) {
+            throw transferFailure(payloadParser, result);
+        }
+        final long now = System.nanoTime();
+        frameAssembler.setTransferTime(now);
+        frameAssembler.setPacketTime(now);
+        payloadParser.parse(data, packetStride, packetLengths, packetStatuses, packetCount, frameAssembler);
+        return data;
+    }
+
+    /**
+     * Builds the exception which stops a stream after a failed transfer, first recording the failure and dumping the
+     * packet trace, if one is attached, so the packets leading up to the failure are in the log.
+     *
+     * @param parser The {@link PayloadParser} of the failed stream.
+     * @param result The libusb error code.
+     *
+     * @return The {@link IOException} to throw.
+     */
+    @NonNull
+    static IOException transferFailure(@NonNull PayloadParser parser, int result) {
+        parser.onTransferError(result);
+        final PacketTrace trace = parser.getPacketTrace();
+        if (trace != null) {
+            Timber.e("Transfer failed with %s, packet trace: %s", LibusbError.fromNative(result), trace.dump());
         }
+        return new IOException("Failure in transfer callback:" + LibusbError.fromNative(result));
+    }
+
+    @Override
+    public void onTransfersDrained() {
+        frameAssembler.release();
+    }
+
+    /**
+     * Lifecycle of a stream.
+     */
+    public enum State {
+
+        /**
+         * No stream has been started, or it was terminated.
+         */
+        IDLE,
+
+        /**
+         * Transfers are in flight.
+         */
+        STREAMING,
+
+        /**
+         * A transfer failed and the stream is being restarted.
+         */
+        RECOVERING,
+
+        /**
+         * Recovery failed or was given up on. The stream must be established again.
+         */
+        FAILED
     }
 }
@@ -0,0 +1,298 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameFanout;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.payload.PayloadParser;
+import com.jwoolston.android.uvc.util.Histogram;
+import java.util.Locale;
+
+/**
+ * A point in time snapshot of the health of a stream. Counters are totals since the stream started; rates cover the
+ * time since the previous snapshot of the same stream, or since the stream started for the first one, so polling at a
+ * fixed period gives rates over that period.
+ * <p>
+ * The underlying counters and histograms are written by the streaming threads without locks, and a snapshot only
+ * copies them, so taking one costs a fixed {@link Histogram#BUCKET_COUNT} per histogram however long the stream has
+ * run. Values are read one at a time while streaming continues, so totals taken from different stages of the pipeline
+ * may be a transfer apart.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public final class StreamStats {
+
+    private final long timestamp;
+    private final long elapsed;
+    private final long interval;
+    private final long transferCount;
+    private final long packetCount;
+    private final long emptyPacketCount;
+    private final long malformedPacketCount;
+    private final long erroredPacketCount;
+    private final long payloadCount;
+    private final long errorPayloadCount;
+    private final long byteCount;
+    private final long completeFrameCount;
+    private final long partialFrameCount;
+    private final long errorFrameCount;
+    private final long droppedFrameCount;
+    private final long droppedPayloadCount;
+    private final long recoveryCount;
+    private final long failedRecoveryCount;
+
+    private final double bytesPerSecond;
+    private final double framesPerSecond;
+
+    private final Histogram.Snapshot transferLatency;
+    private final Histogram.Snapshot frameInterval;
+    private final Histogram.Snapshot frameJitter;
+    private final Histogram.Snapshot recoveryTime;
+
+    /**
+     * Constructor. Reads every counter of the stream.
+     *
+     * @param previous        The previous snapshot of the same stream, or {@code null} for the first one.
+     * @param start           When the stream started, on the {@link System#nanoTime()} clock.
+     * @param parser          The {@link PayloadParser} of the stream.
+     * @param assembler       The {@link FrameAssembler} of the stream.
+     * @param droppedDelivery The frames dropped by the {@link FrameQueue} or {@link FrameFanout} subscribers frames
+     *                        are delivered to.
+     * @param droppedPayloads The payloads dropped by the handoff to the processing thread.
+     * @param transferLatency The transfer latency {@link Histogram} of the stream.
+     * @param manager         The {@link StreamManager} running the stream, for its recovery history.
+     */
+    StreamStats(@Nullable StreamStats previous, long start, @NonNull PayloadParser parser,
+                @NonNull FrameAssembler assembler, long droppedDelivery, long droppedPayloads,
+                @NonNull Histogram transferLatency, @NonNull StreamManager manager) {
+        timestamp = System.nanoTime();
+        elapsed = timestamp - start;
+        transferCount = parser.getTransferCount();
+        packetCount = parser.getPacketCount();
+        emptyPacketCount = parser.getEmptyPacketCount();
+        malformedPacketCount = parser.getMalformedPacketCount();
+        erroredPacketCount = parser.getErroredPacketCount();
+        payloadCount = parser.getPayloadCount();
+        errorPayloadCount = parser.getErrorPayloadCount();
+        byteCount = parser.getPayloadByteCount();
+        completeFrameCount = assembler.getCompleteFrameCount();
+        partialFrameCount = assembler.getPartialFrameCount();
+        errorFrameCount = assembler.getErrorFrameCount();
+        droppedFrameCount = assembler.getDroppedFrameCount() + droppedDelivery;
+        droppedPayloadCount = droppedPayloads;
+        this.transferLatency = transferLatency.snapshot();
+        frameInterval = assembler.getFrameInterval().snapshot();
+        frameJitter = assembler.getFrameJitter().snapshot();
+        recoveryCount = manager.getRecoveryCount();
+        failedRecoveryCount = manager.getFailedRecoveryCount();
+        recoveryTime = manager.getRecoveryTime().snapshot();
+
+        final boolean delta = previous != null;
+        interval = delta ? timestamp - previous.timestamp : elapsed;
+        final long bytes = byteCount - (delta ? previous.byteCount : 0);
+        final long frames = completeFrameCount - (delta ? previous.completeFrameCount : 0);
+        bytesPerSecond = interval > 0 ? bytes * 1e9 / interval : 0;
+        framesPerSecond = interval > 0 ? frames * 1e9 / interval : 0;
+    }
+
+    /**
+     * When this snapshot was taken.
+     *
+     * @return The {@link System#nanoTime()} of the snapshot.
+     */
+    public long getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * How long the stream had been running when this snapshot was taken.
+     *
+     * @return The stream age in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsed;
+    }
+
+    /**
+     * The period {@link #getBytesPerSecond()} and {@link #getFramesPerSecond()} were measured over.
+     *
+     * @return The rate period in nanoseconds.
+     */
+    public long getIntervalNanos() {
+        return interval;
+    }
+
+    /**
+     * The payload data received per second, headers excluded.
+     *
+     * @return The data rate in bytes per second.
+     */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * The complete frames assembled per second.
+     *
+     * @return The frame rate in frames per second.
+     */
+    public double getFramesPerSecond() {
+        return framesPerSecond;
+    }
+
+    public long getTransferCount() {
+        return transferCount;
+    }
+
+    /**
+     * The packets received, including empty and malformed ones. A bulk read counts one packet per payload.
+     *
+     * @return The packet count.
+     */
+    public long getPacketCount() {
+        return packetCount;
+    }
+
+    public long getEmptyPacketCount() {
+        return emptyPacketCount;
+    }
+
+    public long getMalformedPacketCount() {
+        return malformedPacketCount;
+    }
+
+    /**
+     * The number of packets the host controller did not complete, each of which lost a payload.
+     *
+     * @return The errored packet count.
+     */
+    public long getErroredPacketCount() {
+        return erroredPacketCount;
+    }
+
+    public long getPayloadCount() {
+        return payloadCount;
+    }
+
+    /**
+     * The payloads whose header had the ERR bit set.
+     *
+     * @return The error payload count.
+     */
+    public long getErrorPayloadCount() {
+        return errorPayloadCount;
+    }
+
+    /**
+     * The payload data received, headers excluded.
+     *
+     * @return The byte count.
+     */
+    public long getByteCount() {
+        return byteCount;
+    }
+
+    public long getCompleteFrameCount() {
+        return completeFrameCount;
+    }
+
+    /**
+     * Frames discarded because their start was missed, they overflowed the frame buffer or payloads were lost.
+     *
+     * @return The partial frame count.
+     */
+    public long getPartialFrameCount() {
+        return partialFrameCount;
+    }
+
+    public long getErrorFrameCount() {
+        return errorFrameCount;
+    }
+
+    /**
+     * Good frames which never reached the consumer, because the frame pool was exhausted or the delivery queue
+     * dropped them. With several subscribers, a frame dropped by each of them counts once per subscriber.
+     *
+     * @return The dropped frame count.
+     */
+    public long getDroppedFrameCount() {
+        return droppedFrameCount;
+    }
+
+    /**
+     * Payloads dropped because the processing thread had fallen too far behind the USB event thread.
+     *
+     * @return The dropped payload count.
+     */
+    public long getDroppedPayloadCount() {
+        return droppedPayloadCount;
+    }
+
+    /**
+     * The times the stream was recovered after a transfer failure. Counted over the life of the {@link StreamManager},
+     * so recoveries which renegotiated the stream are included.
+     *
+     * @return The recovery count.
+     */
+    public long getRecoveryCount() {
+        return recoveryCount;
+    }
+
+    public long getFailedRecoveryCount() {
+        return failedRecoveryCount;
+    }
+
+    /**
+     * Time from a transfer failure being seen to transfers being resubmitted, for each successful recovery, in
+     * nanoseconds.
+     *
+     * @return The recovery time {@link Histogram.Snapshot}.
+     */
+    @NonNull
+    public Histogram.Snapshot getRecoveryTime() {
+        return recoveryTime;
+    }
+
+    /**
+     * Time from submitting a transfer to its completion, in nanoseconds.
+     *
+     * @return The transfer latency {@link Histogram.Snapshot}.
+     */
+    @NonNull
+    public Histogram.Snapshot getTransferLatency() {
+        return transferLatency;
+    }
+
+    /**
+     * Time between consecutive delivered frames, in nanoseconds.
+     *
+     * @return The frame interval {@link Histogram.Snapshot}.
+     */
+    @NonNull
+    public Histogram.Snapshot getFrameInterval() {
+        return frameInterval;
+    }
+
+    /**
+     * Change in frame interval from one frame to the next, in nanoseconds.
+     *
+     * @return The frame jitter {@link Histogram.Snapshot}.
+     */
+    @NonNull
+    public Histogram.Snapshot getFrameJitter() {
+        return frameJitter;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US, "StreamStats{%.1f fps, %.2f MB/s, packets=%d, errorPayloads=%d, "
+                                        + "frames=%d, partial=%d, error=%d, dropped=%d, droppedPayloads=%d, "
+                                        + "transfer p50/p99=%d/%d us, jitter p50/p99=%d/%d us, recoveries=%d}",
+                             framesPerSecond, bytesPerSecond / (1024 * 1024), packetCount, errorPayloadCount,
+                             completeFrameCount, partialFrameCount, errorFrameCount, droppedFrameCount,
+                             droppedPayloadCount, transferLatency.getPercentile(0.5) / 1000,
+                             transferLatency.getPercentile(0.99) / 1000, frameJitter.getPercentile(0.5) / 1000,
+                             frameJitter.getPercentile(0.99) / 1000, recoveryCount);
+    }
+}
@@ -0,0 +1,123 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.requests.streaming.Hint;
+
+/**
+ * Preset streaming configurations for opposite workloads. A profile sets, as one unit, everything which trades latency
+ * against throughput along the stream: the transfer latency budget, packets per transfer and transfer depth, the
+ * length and {@link DropPolicy} of the delivery queue, and the bmHint bits sent with the probe.
+ * <p>
+ * Measured figures for each profile are produced with {@link ProfileBenchmark} on the target device, since both depend
+ * heavily on the host controller and the camera.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public enum StreamingProfile {
+
+    /**
+     * Interactive preview. Transfers are kept to the 1 ms minimum and a single frame is queued, with older frames
+     * dropped in favour of new ones, so the consumer always sees the newest frame as soon as it is complete. The
+     * device is asked to hold the frame interval at the expense of quality.
+     */
+    LOW_LATENCY(2000, 0, 0, 1, DropPolicy.DROP_OLDEST, true, false),
+
+    /**
+     * The library defaults: an 8 ms latency budget, an automatically tuned transfer depth and a short queue which
+     * drops the oldest frames.
+     */
+    BALANCED(TransferTuner.DEFAULT_LATENCY_BUDGET, 0, 0, 2, DropPolicy.DROP_OLDEST, true, false),
+
+    /**
+     * Recording. Transfers are sized from a 32 ms budget, 16 ms each on a high speed endpoint, and eight are kept in
+     * flight, so callbacks are rare and there is over 100 ms of slack at the USB level. The device is asked to hold
+     * compression quality rather than frame rate.
+     * <p>
+     * Frame assembly never waits for the consumer, so a stalled consumer cannot back up into the payload handoff and
+     * cost payloads there, which would turn into partial frames. Instead up to 32 frames, around a second of video,
+     * are held for it. A consumer which falls further behind than that loses whole frames, the newest first, each
+     * counted by {@link com.jwoolston.android.uvc.frames.FrameQueue#getDroppedFrameCount()}; every frame it does
+     * receive is complete. The frame pools of the stream are grown to match the queue while the profile is in use.
+     */
+    HIGH_THROUGHPUT(32000, 0, 8, 32, DropPolicy.DROP_NEWEST, false, true);
+
+    private final int        latencyBudget;
+    private final int        packetsPerTransfer;
+    private final int        transferCount;
+    private final int        queueCapacity;
+    private final DropPolicy dropPolicy;
+    private final boolean    holdFrameInterval;
+    private final boolean    holdCompQuality;
+
+    StreamingProfile(int latencyBudget, int packetsPerTransfer, int transferCount, int queueCapacity,
+                     DropPolicy dropPolicy, boolean holdFrameInterval, boolean holdCompQuality) {
+        this.latencyBudget = latencyBudget;
+        this.packetsPerTransfer = packetsPerTransfer;
+        this.transferCount = transferCount;
+        this.queueCapacity = queueCapacity;
+        this.dropPolicy = dropPolicy;
+        this.holdFrameInterval = holdFrameInterval;
+        this.holdCompQuality = holdCompQuality;
+    }
+
+    /**
+     * The latency budget handed to the {@link TransferTuner}.
+     *
+     * @return The budget in microseconds.
+     */
+    public int getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    /**
+     * The packets in each isochronous transfer.
+     *
+     * @return The packet count, or 0 if it is tuned from the latency budget.
+     */
+    public int getPacketsPerTransfer() {
+        return packetsPerTransfer;
+    }
+
+    /**
+     * The isochronous transfers kept in flight.
+     *
+     * @return The transfer count, or 0 if it is tuned automatically.
+     */
+    public int getTransferCount() {
+        return transferCount;
+    }
+
+    public int getQueueCapacity() {
+        return queueCapacity;
+    }
+
+    @NonNull
+    public DropPolicy getDropPolicy() {
+        return dropPolicy;
+    }
+
+    /**
+     * Builds the bmHint sent with the probe. Hints are indicative only, a device is free to ignore them.
+     *
+     * @return A new {@link Hint}.
+     */
+    @NonNull
+    public Hint getHint() {
+        final Hint hint = new Hint();
+        hint.setFrameInterval(holdFrameInterval);
+        hint.setCompQuality(holdCompQuality);
+        return hint;
+    }
+
+    /**
+     * Applies the transfer settings of this profile to a {@link TransferTuner}.
+     *
+     * @param tuner The {@link TransferTuner} to configure.
+     */
+    void applyTo(@NonNull TransferTuner tuner) {
+        tuner.setLatencyBudget(latencyBudget);
+        tuner.setFixedPacketsPerTransfer(packetsPerTransfer);
+        tuner.setFixedTransferCount(transferCount);
+    }
+}
@@ -0,0 +1,31 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.util.Logger;
+import timber.log.Timber;
+
+/**
+ * Forwards the messages of the core module to {@link Timber}, under a fixed tag since the calling class cannot be
+ * inferred through {@link Logger}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class TimberSink implements Logger.Sink {
+
+    private static final String TAG = "UVC";
+
+    /**
+     * Installs a {@link TimberSink}, unless the application has already installed a sink of its own.
+     */
+    static synchronized void install() {
+        if (Logger.getSink() == null) {
+            Logger.setSink(new TimberSink());
+        }
+    }
+
+    @Override
+    public void log(int priority, @Nullable Throwable t, @NonNull String format, Object... args) {
+        Timber.tag(TAG).log(priority, t, format, args);
+    }
+}
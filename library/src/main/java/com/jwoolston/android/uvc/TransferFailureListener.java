@@ -0,0 +1,21 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.libusb.LibusbError;
+
+/**
+ * Receiver of fatal transfer failures. A transfer source which fails stops itself, drains, and reports the failure
+ * here so the stream can be recovered.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+interface TransferFailureListener {
+
+    /**
+     * Called on the delivering thread when a transfer fails or cannot be resubmitted. Transfers still in flight may
+     * fail too, so this may be called more than once for the same incident. Implementations must not block.
+     *
+     * @param error The {@link LibusbError} the transfer failed with.
+     */
+    void onTransferFailure(@NonNull LibusbError error);
+}
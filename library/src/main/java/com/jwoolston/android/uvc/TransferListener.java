@@ -0,0 +1,43 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of completed video data transfers, whether isochronous or bulk. Transfers are delivered one at a time on
+ * the thread which completed them; for isochronous streaming this is the USB event thread and the transfer is
+ * resubmitted, with whichever buffer the listener returns, as soon as the listener returns.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+interface TransferListener {
+
+    /**
+     * Called when a transfer completes.
+     *
+     * @param data           The transfer buffer.
+     * @param packetStride   The distance in bytes between the start of consecutive packets.
+     * @param packetLengths  The number of bytes received for each packet.
+     * @param packetStatuses The {@code LIBUSB_TRANSFER_*} status of each packet, or {@code null} if every packet
+     *                       completed, as for bulk reads.
+     * @param packetCount    The number of packets in the transfer.
+     * @param result         The libusb transfer result, negative on failure.
+     *
+     * @return The buffer to resubmit the transfer with. Returning {@code data} hands it straight back; returning a
+     * different buffer of the same capacity keeps {@code data} with the listener, which then owns it. Readers which
+     * reuse a single buffer ignore the return value, so only isochronous listeners may keep buffers.
+     *
+     * @throws IOException Thrown to stop streaming after a fatal transfer failure.
+     */
+    @NonNull
+    ByteBuffer onTransferComplete(@NonNull ByteBuffer data, int packetStride, @NonNull int[] packetLengths,
+                                  @Nullable int[] packetStatuses, int packetCount, int result) throws IOException;
+
+    /**
+     * Called on the delivering thread once streaming has been stopped and the last transfer in flight has completed.
+     * Nothing will be delivered after this.
+     */
+    void onTransfersDrained();
+}
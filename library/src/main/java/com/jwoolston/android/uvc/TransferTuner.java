@@ -0,0 +1,284 @@
+package com.jwoolston.android.uvc;
+
+import android.support.annotation.IntRange;
+
+/**
+ * Chooses how isochronous transfers are shaped for a stream: how many packets each transfer carries and how many
+ * transfers are kept in flight.
+ * <p>
+ * Packets per transfer trade latency against callback rate. Payload data is only handed over when the transfer that
+ * carries it completes, so a transfer adds up to its own duration (packets times the endpoint service interval) of
+ * latency; short transfers on the other hand mean a callback every few microframes. The tuner spends half of the
+ * latency budget on transfer duration, leaving the rest for processing, but never goes below
+ * {@link #MIN_TRANSFER_DURATION} so the callback rate stays bounded.
+ * <p>
+ * In-flight depth only costs memory. It has to cover the time the USB event thread may take to turn a completed
+ * transfer around, otherwise the host controller runs out of scheduled transfers and the microframes in between are
+ * lost. The initial depth covers {@link #DEFAULT_QUEUED_TIME} of transfers.
+ * <p>
+ * While streaming the tuner is told when each transfer completed and how long its callback took. A completion which
+ * arrives much later than the transfer duration means the controller ran dry and packets were lost, and a callback
+ * slower than a quarter of a transfer leaves too little slack; either raises the depth, up to
+ * {@link #getMaxTransferCount()}. Callback cost consistently above a quarter of the transfer duration also raises the
+ * packets per transfer, within the latency budget, for the next time the stream is started, since the packet count of
+ * a submitted transfer is fixed. The measured completion rate replaces the service interval derived from bInterval,
+ * which assumes a high speed device.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ * @see <a href=http://www.usb.org/developers/docs/devclass_docs/USB_Video_Class_1_5.zip>UVC 1.5 Class
+ * Specification §2.4.3</a>
+ */
+public class TransferTuner {
+
+    /**
+     * Default latency budget in microseconds.
+     */
+    public static final int DEFAULT_LATENCY_BUDGET = 8000;
+
+    /**
+     * Minimum duration of a transfer in microseconds, which bounds the callback rate at 1 kHz.
+     */
+    public static final int MIN_TRANSFER_DURATION = 1000;
+
+    /**
+     * Default time in microseconds worth of transfers to keep in flight.
+     */
+    public static final int DEFAULT_QUEUED_TIME = 8000;
+
+    /**
+     * Upper bound on the transfer buffer memory kept in flight, in bytes.
+     */
+    public static final int MAX_QUEUED_BYTES = 4 * 1024 * 1024;
+
+    public static final int MIN_TRANSFER_COUNT       = 2;
+    public static final int MAX_TRANSFER_COUNT       = 32;
+    public static final int MAX_PACKETS_PER_TRANSFER = 128;
+    public static final int HIGH_SPEED_MICROFRAME    = 125; // Microseconds
+
+    private static final int    EVALUATION_WINDOW = 64;  // Transfers between adjustments
+    private static final double LATE_COMPLETION   = 1.5; // Multiple of the transfer duration counted as an underrun
+
+    private int latencyBudget    = DEFAULT_LATENCY_BUDGET;
+    private int fixedDepth       = 0;
+    private int fixedPackets     = 0;
+    private int serviceInterval  = HIGH_SPEED_MICROFRAME;
+    private int measuredInterval = 0;
+    private int lastBInterval    = 0;
+
+    private volatile int packetsPerTransfer;
+    private volatile int transferCount;
+    private volatile int maxTransferCount;
+    private volatile int recommendedPackets;
+
+    // USB event thread only, published through the volatile counters below
+    private int  windowTransfers;
+    private int  windowUnderruns;
+    private long windowOverhead;
+    private long windowMaxOverhead;
+    private long windowGap;
+
+    private volatile long underrunCount;
+    private volatile long maxOverheadNanos;
+
+    /**
+     * Sets the latency budget. Takes effect the next time a stream is started.
+     *
+     * @param micros The latency budget in microseconds.
+     */
+    public void setLatencyBudget(@IntRange(from = 1) int micros) {
+        if (micros < 1) {
+            throw new IllegalArgumentException("Invalid latency budget: " + micros);
+        }
+        latencyBudget = micros;
+        recommendedPackets = 0;
+    }
+
+    public int getLatencyBudget() {
+        return latencyBudget;
+    }
+
+    /**
+     * Pins the number of transfers in flight, disabling depth tuning.
+     *
+     * @param count The number of transfers, or 0 to tune automatically.
+     */
+    public void setFixedTransferCount(@IntRange(from = 0) int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid transfer count: " + count);
+        }
+        fixedDepth = count;
+    }
+
+    /**
+     * Pins the number of packets in each transfer, disabling packet tuning.
+     *
+     * @param count The number of packets, or 0 to tune automatically.
+     */
+    public void setFixedPacketsPerTransfer(@IntRange(from = 0) int count) {
+        if (count < 0) {
+            throw new IllegalArgumentException("Invalid packet count: " + count);
+        }
+        fixedPackets = count;
+    }
+
+    /**
+     * Chooses the transfer shape for a new stream.
+     *
+     * @param bInterval  The bInterval of the streaming endpoint.
+     * @param packetSize The bytes per service interval of the streaming endpoint.
+     */
+    void configure(int bInterval, int packetSize) {
+        if (bInterval != lastBInterval) {
+            // A measurement only holds for the endpoint it was taken on
+            measuredInterval = 0;
+            lastBInterval = bInterval;
+        }
+        final int exponent = Math.max(1, Math.min(bInterval, 16)) - 1;
+        serviceInterval = measuredInterval > 0 ? measuredInterval : HIGH_SPEED_MICROFRAME << exponent;
+
+        int packets = fixedPackets;
+        if (packets == 0) {
+            final int minPackets = ceilDiv(MIN_TRANSFER_DURATION, serviceInterval);
+            packets = Math.max(minPackets, (latencyBudget / 2) / serviceInterval);
+            if (recommendedPackets > packets) {
+                packets = Math.min(recommendedPackets, Math.max(minPackets, latencyBudget / serviceInterval));
+            }
+        }
+        packets = Math.max(1, Math.min(packets, MAX_PACKETS_PER_TRANSFER));
+        final int duration = packets * serviceInterval;
+
+        final int depth;
+        final int maxDepth;
+        if (fixedDepth > 0) {
+            depth = fixedDepth;
+            maxDepth = fixedDepth;
+        } else {
+            final int memoryLimit = MAX_QUEUED_BYTES / Math.max(1, packets * packetSize);
+            final int limit = clamp(memoryLimit, MIN_TRANSFER_COUNT, MAX_TRANSFER_COUNT);
+            depth = clamp(ceilDiv(DEFAULT_QUEUED_TIME, duration) + 1, MIN_TRANSFER_COUNT, limit);
+            maxDepth = Math.min(limit, depth * 2);
+        }
+
+        packetsPerTransfer = packets;
+        transferCount = depth;
+        maxTransferCount = maxDepth;
+        resetWindow();
+    }
+
+    /**
+     * Reports a completed transfer. Called on the USB event thread once the transfer has been resubmitted.
+     *
+     * @param gapNanos      The time since the previous transfer completed, or 0 for the first transfer.
+     * @param overheadNanos The time from the completion callback starting to the transfer being resubmitted.
+     *
+     * @return The number of transfers which should now be in flight.
+     */
+    int onTransferComplete(long gapNanos, long overheadNanos) {
+        final long duration = packetsPerTransfer * serviceInterval * 1000L;
+        if (gapNanos > duration * LATE_COMPLETION) {
+            ++windowUnderruns;
+        }
+        if (gapNanos > 0) {
+            windowGap += gapNanos;
+        }
+        windowOverhead += overheadNanos;
+        if (overheadNanos > windowMaxOverhead) {
+            windowMaxOverhead = overheadNanos;
+        }
+        if (++windowTransfers < EVALUATION_WINDOW) {
+            return transferCount;
+        }
+
+        if (windowMaxOverhead > maxOverheadNanos) {
+            maxOverheadNanos = windowMaxOverhead;
+        }
+        underrunCount += windowUnderruns;
+        // Transfers complete one transfer duration apart, so a window without stalls gives the real service interval
+        final long meanGap = windowGap / windowTransfers;
+        if (meanGap > 0 && windowUnderruns == 0) {
+            measuredInterval = (int) Math.max(1, meanGap / 1000 / packetsPerTransfer);
+        }
+        final boolean tight = windowMaxOverhead * 4 > duration;
+        if ((windowUnderruns > 0 || tight) && transferCount < maxTransferCount) {
+            ++transferCount;
+        }
+        if (fixedPackets == 0 && (windowOverhead / windowTransfers) * 4 > duration) {
+            recommendedPackets = Math.min(MAX_PACKETS_PER_TRANSFER, packetsPerTransfer * 2);
+        }
+        resetWindow();
+        return transferCount;
+    }
+
+    public int getPacketsPerTransfer() {
+        return packetsPerTransfer;
+    }
+
+    /**
+     * The number of transfers currently wanted in flight. Only ever grows during a stream.
+     *
+     * @return The transfer count.
+     */
+    public int getTransferCount() {
+        return transferCount;
+    }
+
+    public int getMaxTransferCount() {
+        return maxTransferCount;
+    }
+
+    /**
+     * The service interval the current transfer shape is based on.
+     *
+     * @return The service interval in microseconds.
+     */
+    public int getServiceInterval() {
+        return serviceInterval;
+    }
+
+    /**
+     * The number of transfers which completed late enough that the host controller must have run out of scheduled
+     * transfers, losing packets.
+     *
+     * @return The underrun count.
+     */
+    public long getUnderrunCount() {
+        return underrunCount;
+    }
+
+    /**
+     * The slowest completion callback observed, measured up to resubmission.
+     *
+     * @return The maximum callback overhead in nanoseconds.
+     */
+    public long getMaxOverheadNanos() {
+        return maxOverheadNanos;
+    }
+
+    private void resetWindow() {
+        windowTransfers = 0;
+        windowUnderruns = 0;
+        windowOverhead = 0;
+        windowMaxOverhead = 0;
+        windowGap = 0;
+    }
+
+    private static int ceilDiv(int value, int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+
+    @Override
+    public String toString() {
+        return "TransferTuner{" +
+               "latencyBudget=" + latencyBudget +
+               ", serviceInterval=" + serviceInterval +
+               ", packetsPerTransfer=" + packetsPerTransfer +
+               ", transferCount=" + transferCount +
+               ", maxTransferCount=" + maxTransferCount +
+               ", underruns=" + underrunCount +
+               '}';
+    }
+}
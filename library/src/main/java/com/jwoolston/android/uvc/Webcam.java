@@ -3,8 +3,17 @@ package com.jwoolston.android.uvc;
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.net.Uri;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.frames.FrameQueue;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.payload.PacketTrace;
 import java.util.List;
 
 /**
@@ -28,29 +37,209 @@ public interface Webcam {
     boolean isConnected();
 
     /**
-     * Begin streaming from the device and retrieve the {@link Uri} for the data stream for this {@link Webcam}.
+     * Begin streaming from the device. If recording was enabled with {@link #setCaptureMode(CaptureMode, long)}, the
+     * stream is recorded and the {@link Uri} of the recording is returned.
      *
      * @param context {@link Context} The application context.
      * @param format  The {@link VideoFormat} to stream in.
      *
-     * @return {@link Uri} The data source {@link Uri}.
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
      *
      * @throws StreamCreationException Thrown if there is a problem establishing the stream buffer.
      */
-    @NonNull
+    @Nullable
     Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format) throws StreamCreationException;
 
     /**
-     * Terminates streaming from the device.
+     * Begin streaming from the device with a {@link StreamingProfile}. The profile configures the transfer latency
+     * budget, packets per transfer and transfer depth, the probe bmHint, and opens a {@link FrameQueue} of its length
+     * and {@link DropPolicy}, replacing any frame listener. Settings made with {@link #setLatencyBudget(int)} are
+     * replaced by the profile's.
+     *
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     * @param profile The {@link StreamingProfile} to stream with.
+     *
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
+     *
+     * @throws StreamCreationException Thrown if there is a problem establishing the stream buffer.
+     */
+    @Nullable
+    Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format, @NonNull StreamingProfile profile)
+            throws StreamCreationException;
+
+    /**
+     * Begin streaming from the device with whichever format, frame interval and compression quality meet a
+     * {@link NegotiationTarget} for the least bandwidth, so more cameras fit on the bus. Spare bandwidth within the
+     * reserved alternate setting is spent according to the target's preference.
+     *
+     * @param context {@link Context} The application context.
+     * @param target  The {@link NegotiationTarget} to meet.
+     *
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
+     *
+     * @throws StreamCreationException Thrown if no stream parameters meet the target, or there is a problem
+     *                                 establishing the stream buffer.
+     */
+    @Nullable
+    Uri beginStreaming(@NonNull Context context, @NonNull NegotiationTarget target) throws StreamCreationException;
+
+    /**
+     * Sets whether the first {@link WebcamStream} is recorded, from the next time streaming begins.
+     *
+     * @param mode        The {@link CaptureMode}.
+     * @param segmentSize The size of each recording segment file in bytes.
+     *
+     * @see WebcamStream#setCaptureMode(CaptureMode, long)
+     */
+    void setCaptureMode(@NonNull CaptureMode mode, @IntRange(from = 1) long segmentSize);
+
+    /**
+     * Terminates streaming from the device, on every {@link WebcamStream}.
      *
      * @param context {@link Context} The application context.
      */
     void terminateStreaming(@NonNull Context context);
 
     /**
-     * Retrieves the list of available {@link VideoFormat}s.
+     * Retrieves one {@link WebcamStream} per video streaming interface of the camera, such as a main stream and a
+     * preview stream, which can all stream at once. The streaming methods of this interface act on the first.
+     *
+     * @return The streams, in the order the video control interface lists them.
+     */
+    @NonNull
+    List<WebcamStream> getStreams();
+
+    /**
+     * Retrieves the list of available {@link VideoFormat}s of the first {@link WebcamStream}.
      *
      * @return The available {@link VideoFormat}s on the device.
      */
     List<VideoFormat> getAvailableFormats();
+
+    /**
+     * Sets the receiver of complete frames, replacing any queue or subscribers. Frames are delivered on the stream's
+     * processing thread with ownership and each one must be {@link Frame#release()}d once consumed so its buffer can
+     * be reused.
+     *
+     * @param listener {@link FrameAssembler.FrameListener} to receive frames, or {@code null} to discard them.
+     */
+    void setFrameListener(@Nullable FrameAssembler.FrameListener listener);
+
+    /**
+     * Creates a bounded {@link FrameQueue} and installs it as the frame receiver, replacing any listener set with
+     * {@link #setFrameListener(FrameAssembler.FrameListener)} and any subscribers. Consumers take frames from the
+     * queue on their own thread; when they fall behind, the {@link DropPolicy} decides which frames are lost and the
+     * queue counts them.
+     *
+     * @param capacity The maximum number of frames waiting for the consumer.
+     * @param policy   The {@link DropPolicy} to apply when the queue is full.
+     *
+     * @return The installed {@link FrameQueue}.
+     */
+    @NonNull
+    FrameQueue openFrameQueue(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy);
+
+    /**
+     * Retrieves the queue frames are currently delivered to.
+     *
+     * @return The {@link FrameQueue} opened by {@link #openFrameQueue(int, DropPolicy)} or by beginning a stream with
+     * a {@link StreamingProfile}, or {@code null} if frames are going to a plain listener or subscribers.
+     */
+    @Nullable
+    FrameQueue getFrameQueue();
+
+    /**
+     * Adds a subscriber to the frames of the first {@link WebcamStream}, so several consumers can share one stream.
+     * Each frame is shared read-only between all subscribers without copying, and returns to its pool once the last
+     * of them has {@link Frame#release()}d it. Every subscriber has its own queue depth and {@link DropPolicy}.
+     *
+     * @param capacity The maximum number of frames waiting for the subscriber.
+     * @param policy   The {@link DropPolicy} to apply when the subscriber falls behind.
+     *
+     * @return The subscriber's {@link FrameQueue}.
+     *
+     * @see WebcamStream#subscribe(int, DropPolicy)
+     */
+    @NonNull
+    FrameQueue subscribe(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy);
+
+    /**
+     * Removes a subscriber added with {@link #subscribe(int, DropPolicy)}, releasing the frames still queued for it.
+     *
+     * @param queue The subscriber's {@link FrameQueue}.
+     */
+    void unsubscribe(@NonNull FrameQueue queue);
+
+    /**
+     * Creates a cold, demand driven {@link FramePublisher} of the first stream's frames. It starts streaming in a
+     * format when its first subscriber arrives, and suspends the stream when the last one cancels.
+     *
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     *
+     * @return The {@link FramePublisher}.
+     */
+    @NonNull
+    FramePublisher createFramePublisher(@NonNull Context context, @NonNull VideoFormat format);
+
+    /**
+     * Creates a cold, demand driven {@link FramePublisher} of the first stream's frames. It starts streaming with the
+     * lowest bandwidth parameters meeting a {@link NegotiationTarget} when its first subscriber arrives, and suspends
+     * the stream when the last one cancels.
+     *
+     * @param context {@link Context} The application context.
+     * @param target  The {@link NegotiationTarget} to meet.
+     *
+     * @return The {@link FramePublisher}.
+     */
+    @NonNull
+    FramePublisher createFramePublisher(@NonNull Context context, @NonNull NegotiationTarget target);
+
+    /**
+     * Retrieves the pool frame buffers are drawn from for the active stream. There is one pool per committed
+     * dwMaxVideoFrameSize, so switching back to a previously used format reuses its buffers.
+     *
+     * @return The active {@link FrameBufferPool}, or {@code null} if streaming has not started.
+     */
+    @Nullable
+    FrameBufferPool getFrameBufferPool();
+
+    /**
+     * Sets the maximum number of frame buffers each pool may allocate. Once every buffer is held by consumers,
+     * further frames are dropped until one is released.
+     *
+     * @param count The maximum number of frame buffers, at least 1.
+     */
+    void setMaxPooledFrames(@IntRange(from = 1) int count);
+
+    /**
+     * Attaches a trace which records every packet received from the device. Recording is binary and cheap enough to
+     * leave on while streaming; the trace is dumped to the log if a transfer fails and can be dumped on demand with
+     * {@link PacketTrace#dump()}.
+     *
+     * @param trace The {@link PacketTrace} to record to, or {@code null} to stop tracing.
+     */
+    void setPacketTrace(@Nullable PacketTrace trace);
+
+    /**
+     * Sets how much latency isochronous transfers may add. Packets per transfer and the number of transfers in flight
+     * are chosen from the endpoint's service interval and packet size to fit the budget, then adjusted while streaming
+     * from the measured callback overhead and packet loss. Takes effect the next time streaming begins.
+     *
+     * @param micros The latency budget in microseconds. Defaults to {@link TransferTuner#DEFAULT_LATENCY_BUDGET}.
+     */
+    void setLatencyBudget(@IntRange(from = 1) int micros);
+
+    /**
+     * Takes a snapshot of stream health: data and frame rates, packet, error and drop counts, and histograms of
+     * transfer latency and frame interarrival jitter. Taking a snapshot copies lock free counters and costs the same
+     * however long the stream has run, so it is cheap enough to poll every second. Rates cover the time since the
+     * previous snapshot.
+     *
+     * @return A new {@link StreamStats} for the current or most recent stream, or {@code null} if streaming has not
+     * started.
+     */
+    @Nullable
+    StreamStats getStreamStats();
 }
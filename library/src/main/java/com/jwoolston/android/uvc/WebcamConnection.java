@@ -1,22 +1,31 @@
 package com.jwoolston.android.uvc;
 
 import android.content.Context;
-import android.net.Uri;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import com.jwoolston.android.libusb.DevicePermissionDenied;
 import com.jwoolston.android.libusb.UsbDeviceConnection;
 import com.jwoolston.android.libusb.UsbManager;
 import com.jwoolston.android.uvc.interfaces.Descriptor;
 import com.jwoolston.android.uvc.interfaces.InterfaceAssociationDescriptor;
+import com.jwoolston.android.uvc.interfaces.UvcInterface;
 import com.jwoolston.android.uvc.interfaces.VideoControlInterface;
 import com.jwoolston.android.uvc.interfaces.VideoStreamingInterface;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 import timber.log.Timber;
 
 /**
  * Helper class for abstracting communication to a camera. This implementation directly handles configuration, state,
  * and data transfer. The USB layer is constructed at instantiation and if possible, communication begins immediately.
+ * Each video streaming interface of the selected function is driven by its own {@link WebcamStreamImpl}, and all of
+ * them share this connection and its USB event thread.
  *
  * @author Jared Woolston (Jared.Woolston@gmail.com)
  */
@@ -24,7 +33,13 @@ class WebcamConnection {
 
     private static final int INTERFACE_CONTROL = 0;
 
+    // Offsets into the standard device descriptor, which leads the raw descriptors
+    private static final int DEVICE_ID_VENDOR  = 8;
+    private static final int DEVICE_ID_PRODUCT = 10;
+    private static final int DEVICE_BCD_DEVICE = 12;
+
     final UsbDeviceConnection usbDeviceConnection;
+    final LibusbTransport     transport;
     final UsbManager          usbManager;
 
 
@@ -32,9 +47,16 @@ class WebcamConnection {
 
     private InterfaceAssociationDescriptor activeIAD;
 
-    private VideoControlInterface   controlInterface;
-    private VideoStreamingInterface streamingInterface;
-    private StreamManager           streamManager;
+    private VideoControlInterface  controlInterface;
+    private List<WebcamStreamImpl> streams;
+
+    private int maxPooledFrames = FrameBufferPool.DEFAULT_MAX_FRAMES;
+
+    private PacketTrace packetTrace;
+    private ProbeCache  probeCache;
+    private String      deviceId;
+
+    private final String busId;
 
     WebcamConnection(@NonNull Context context, @NonNull android.hardware.usb.UsbDevice usbDevice)
             throws UnknownDeviceException, DevicePermissionDenied {
@@ -48,21 +70,43 @@ class WebcamConnection {
         // Claim the control interface
         Timber.d("Initializing native layer.");
         usbDeviceConnection = usbManager.registerDevice(usbDevice);
+        transport = new LibusbTransport(usbDeviceConnection);
+        busId = BandwidthManager.getBusId(usbDevice);
         parseAssiociationDescriptors();
     }
 
     private void parseAssiociationDescriptors() {
         Timber.d("Parsing raw association descriptors.");
-        final byte[] raw = usbDeviceConnection.getRawDescriptors();
-        iads = Descriptor.parseDescriptors(usbDeviceConnection, raw);
+        final byte[] raw = transport.getRawDescriptors();
+        deviceId = ProbeCache.deviceId(readShort(raw, DEVICE_ID_VENDOR), readShort(raw, DEVICE_ID_PRODUCT),
+                                       readShort(raw, DEVICE_BCD_DEVICE));
+        iads = Descriptor.parseDescriptors(raw);
         Timber.i("Determined IADs: %s", iads);
         selectIAD(0);
     }
 
-    void selectIAD(int index) {
+    private static int readShort(@NonNull byte[] raw, int offset) {
+        return ((0xFF & raw[offset + 1]) << 8) | (0xFF & raw[offset]);
+    }
+
+    synchronized void selectIAD(int index) {
         activeIAD = iads.get(index);
-        controlInterface = (VideoControlInterface) activeIAD.getInterface(0);
-        streamingInterface = (VideoStreamingInterface) activeIAD.getInterface(1);
+        controlInterface = (VideoControlInterface) activeIAD.getInterface(activeIAD.getIndexFirstInterface());
+        final int[] interfaceNumbers = controlInterface.getStreamingInterfaces();
+        final List<WebcamStreamImpl> found = new ArrayList<>(interfaceNumbers.length);
+        for (int number : interfaceNumbers) {
+            final UvcInterface uvcInterface = activeIAD.getInterface(number);
+            if (uvcInterface instanceof VideoStreamingInterface) {
+                found.add(new WebcamStreamImpl(this, (VideoStreamingInterface) uvcInterface));
+            } else {
+                Timber.w("Streaming interface %d is not part of the selected function.", number);
+            }
+        }
+        if (found.isEmpty()) {
+            throw new IllegalStateException("The selected function has no video streaming interface.");
+        }
+        streams = Collections.unmodifiableList(found);
+        Timber.i("Selected function with streaming interfaces %s.", Arrays.toString(interfaceNumbers));
     }
 
     boolean isConnected() {
@@ -71,37 +115,103 @@ class WebcamConnection {
     }
 
     /**
-     * Begins streaming from the device.
-     *
-     * @param context {@link Context} The application context.
-     * @param format  The {@link VideoFormat} to stream in.
+     * Retrieves the streams of the selected function, one per video streaming interface, in the order the video
+     * control interface header lists them.
      *
-     * @return {@link Uri} pointing to the buffered stream.
+     * @return The {@link WebcamStream}s. The first is the primary stream.
+     */
+    @NonNull
+    synchronized List<WebcamStreamImpl> getStreams() {
+        return streams;
+    }
+
+    @NonNull
+    WebcamStreamImpl getPrimaryStream() {
+        return getStreams().get(0);
+    }
+
+    @NonNull
+    synchronized VideoControlInterface getControlInterface() {
+        return controlInterface;
+    }
+
+    @NonNull
+    String getDeviceId() {
+        return deviceId;
+    }
+
+    /**
+     * Identifies the bus the device is on, for bandwidth budgeting.
      *
-     * @throws StreamCreationException Thrown if there is a problem establishing the stream buffer.
+     * @return The bus identifier from {@link BandwidthManager#getBusId(android.hardware.usb.UsbDevice)}.
      */
-    Uri beginConnectionStreaming(@NonNull Context context, @NonNull VideoFormat format) throws StreamCreationException {
-        Timber.d("Establishing streaming parameters.");
-        streamManager = new StreamManager(usbDeviceConnection, controlInterface, streamingInterface);
-        streamManager.establishStreaming(format, format.getDefaultFrame());
-        return null;
+    @NonNull
+    String getBusId() {
+        return busId;
+    }
+
+    @NonNull
+    synchronized ProbeCache getProbeCache(@NonNull Context context) {
+        if (probeCache == null) {
+            probeCache = new ProbeCache(context);
+        }
+        return probeCache;
     }
 
     /**
-     * Terminates streaming from the device.
+     * Terminates streaming from every interface of the device.
      *
      * @param context {@link Context} The application context.
      */
     void terminateConnection(Context context) {
+        for (WebcamStreamImpl stream : getStreams()) {
+            stream.terminateStreaming(context);
+        }
+    }
 
+    void setLatencyBudget(@IntRange(from = 1) int micros) {
+        for (WebcamStreamImpl stream : getStreams()) {
+            stream.setLatencyBudget(micros);
+        }
+    }
+
+    void setPacketTrace(@Nullable PacketTrace trace) {
+        synchronized (this) {
+            packetTrace = trace;
+        }
+        for (WebcamStreamImpl stream : getStreams()) {
+            stream.setPacketTrace(trace);
+        }
+    }
+
+    @Nullable
+    synchronized PacketTrace getPacketTrace() {
+        return packetTrace;
+    }
+
+    synchronized int getMaxPooledFrames() {
+        return maxPooledFrames;
+    }
+
+    void setMaxPooledFrames(@IntRange(from = 1) int count) {
+        if (count < 1) {
+            throw new IllegalArgumentException("A pool must allow at least one frame: " + count);
+        }
+        synchronized (this) {
+            maxPooledFrames = count;
+        }
+        // Streams take their own lock to size new pools, so they are updated without holding this one
+        for (WebcamStreamImpl stream : getStreams()) {
+            stream.setMaxPooledFrames(count);
+        }
     }
 
     /**
-     * Retrieves the list of available {@link VideoFormat}s.
+     * Retrieves the list of available {@link VideoFormat}s of the primary stream.
      *
      * @return The available {@link VideoFormat}s on the device.
      */
     public List<VideoFormat> getAvailableFormats() {
-        return streamingInterface.getAvailableFormats();
+        return getPrimaryStream().getAvailableFormats();
     }
 }
@@ -3,9 +3,18 @@ package com.jwoolston.android.uvc;
 import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.net.Uri;
+import android.support.annotation.IntRange;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import com.jwoolston.android.libusb.DevicePermissionDenied;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.frames.FrameQueue;
 import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import java.util.Collections;
 import java.util.List;
 
 /**
@@ -44,13 +53,105 @@ class WebcamImpl implements Webcam {
         return webcamConnection.getAvailableFormats();
     }
 
-    @NonNull
+    @Nullable
     @Override
     public Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format) throws StreamCreationException {
-        return webcamConnection.beginConnectionStreaming(context, format);
+        return webcamConnection.getPrimaryStream().beginStreaming(context, format);
+    }
+
+    @Nullable
+    @Override
+    public Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format,
+                              @NonNull StreamingProfile profile) throws StreamCreationException {
+        return webcamConnection.getPrimaryStream().beginStreaming(context, format, profile);
+    }
+
+    @Nullable
+    @Override
+    public Uri beginStreaming(@NonNull Context context, @NonNull NegotiationTarget target)
+            throws StreamCreationException {
+        return webcamConnection.getPrimaryStream().beginStreaming(context, target);
+    }
+
+    @NonNull
+    @Override
+    public List<WebcamStream> getStreams() {
+        return Collections.<WebcamStream>unmodifiableList(webcamConnection.getStreams());
     }
 
     public void terminateStreaming(@NonNull Context context) {
         webcamConnection.terminateConnection(context);
     }
+
+    @Override
+    public void setCaptureMode(@NonNull CaptureMode mode, @IntRange(from = 1) long segmentSize) {
+        webcamConnection.getPrimaryStream().setCaptureMode(mode, segmentSize);
+    }
+
+    @Override
+    public void setFrameListener(@Nullable FrameAssembler.FrameListener listener) {
+        webcamConnection.getPrimaryStream().setFrameListener(listener);
+    }
+
+    @NonNull
+    @Override
+    public FrameQueue openFrameQueue(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        return webcamConnection.getPrimaryStream().openFrameQueue(capacity, policy);
+    }
+
+    @Nullable
+    @Override
+    public FrameQueue getFrameQueue() {
+        return webcamConnection.getPrimaryStream().getFrameQueue();
+    }
+
+    @NonNull
+    @Override
+    public FrameQueue subscribe(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        return webcamConnection.getPrimaryStream().subscribe(capacity, policy);
+    }
+
+    @Override
+    public void unsubscribe(@NonNull FrameQueue queue) {
+        webcamConnection.getPrimaryStream().unsubscribe(queue);
+    }
+
+    @NonNull
+    @Override
+    public FramePublisher createFramePublisher(@NonNull Context context, @NonNull VideoFormat format) {
+        return webcamConnection.getPrimaryStream().createFramePublisher(context, format);
+    }
+
+    @NonNull
+    @Override
+    public FramePublisher createFramePublisher(@NonNull Context context, @NonNull NegotiationTarget target) {
+        return webcamConnection.getPrimaryStream().createFramePublisher(context, target);
+    }
+
+    @Nullable
+    @Override
+    public FrameBufferPool getFrameBufferPool() {
+        return webcamConnection.getPrimaryStream().getFrameBufferPool();
+    }
+
+    @Override
+    public void setMaxPooledFrames(@IntRange(from = 1) int count) {
+        webcamConnection.setMaxPooledFrames(count);
+    }
+
+    @Override
+    public void setPacketTrace(@Nullable PacketTrace trace) {
+        webcamConnection.setPacketTrace(trace);
+    }
+
+    @Override
+    public void setLatencyBudget(@IntRange(from = 1) int micros) {
+        webcamConnection.setLatencyBudget(micros);
+    }
+
+    @Nullable
+    @Override
+    public StreamStats getStreamStats() {
+        return webcamConnection.getPrimaryStream().getStreamStats();
+    }
 }
@@ -4,6 +4,7 @@ import android.content.Context;
 import android.hardware.usb.UsbDevice;
 import android.support.annotation.NonNull;
 import com.jwoolston.android.libusb.DevicePermissionDenied;
+import java.io.File;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
@@ -18,6 +19,12 @@ public class WebcamManager {
     private static final Map<UsbDevice, Webcam> CONNECTIONS =
             Collections.synchronizedMap(new HashMap<UsbDevice, Webcam>());
 
+    private static final BandwidthManager BANDWIDTH_MANAGER = new BandwidthManager();
+
+    static {
+        TimberSink.install();
+    }
+
     /**
      * Constructor.
      *
@@ -49,4 +56,27 @@ public class WebcamManager {
 
         return webcam;
     }
+
+    /**
+     * The directory stream recordings are written to, inside the application's cache directory.
+     *
+     * @param context The application {@link Context}.
+     *
+     * @return The buffer cache directory. It may not exist yet.
+     */
+    @NonNull
+    static File getBufferCacheDir(@NonNull Context context) {
+        return new File(context.getCacheDir(), BUFFER_CACHE_DIR);
+    }
+
+    /**
+     * Retrieves the isochronous bandwidth budget shared by every {@link Webcam}. Streams are admitted against it
+     * before their alternate setting is selected, and it reports the headroom left on each bus.
+     *
+     * @return The process wide {@link BandwidthManager}.
+     */
+    @NonNull
+    public static BandwidthManager getBandwidthManager() {
+        return BANDWIDTH_MANAGER;
+    }
 }
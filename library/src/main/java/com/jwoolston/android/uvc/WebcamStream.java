@@ -0,0 +1,204 @@
+package com.jwoolston.android.uvc;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.capture.CaptureWriter;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import java.util.List;
+
+/**
+ * One video streaming interface of a {@link Webcam}. A camera may expose several, for instance a high resolution main
+ * stream alongside a low resolution preview, and each may stream at the same time as the others. Every stream has its
+ * own transfers, frame assembly, frame buffer pools and transfer tuning; all of them share the device connection and
+ * its USB event thread.
+ * <p>
+ * The streaming methods of {@link Webcam} itself act on the first stream.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public interface WebcamStream {
+
+    /**
+     * The interface number of the video streaming interface, as listed in the video control interface header.
+     *
+     * @return The bInterfaceNumber.
+     */
+    int getInterfaceNumber();
+
+    /**
+     * Retrieves the list of {@link VideoFormat}s this stream offers.
+     *
+     * @return The available {@link VideoFormat}s of the interface.
+     */
+    @NonNull
+    List<VideoFormat> getAvailableFormats();
+
+    /**
+     * Begin streaming from this interface, recording it if enabled with {@link #setCaptureMode(CaptureMode, long)}.
+     * A stream already running on this interface is suspended first.
+     *
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     *
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
+     *
+     * @throws StreamCreationException Thrown if there is a problem establishing the stream buffer.
+     */
+    @Nullable
+    Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format) throws StreamCreationException;
+
+    /**
+     * Begin streaming from this interface with a {@link StreamingProfile}, which configures this stream's transfers
+     * and opens a {@link FrameQueue} of its length and {@link DropPolicy}, replacing any frame listener.
+     *
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     * @param profile The {@link StreamingProfile} to stream with.
+     *
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
+     *
+     * @throws StreamCreationException Thrown if there is a problem establishing the stream buffer.
+     */
+    @Nullable
+    Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format, @NonNull StreamingProfile profile)
+            throws StreamCreationException;
+
+    /**
+     * Begin streaming from this interface with the lowest bandwidth parameters which meet a
+     * {@link NegotiationTarget}.
+     *
+     * @param context {@link Context} The application context.
+     * @param target  The {@link NegotiationTarget} to meet.
+     *
+     * @return The {@link Uri} of the recording directory, or {@code null} if the stream is not being recorded.
+     *
+     * @throws StreamCreationException Thrown if no stream parameters meet the target, or there is a problem
+     *                                 establishing the stream buffer.
+     */
+    @Nullable
+    Uri beginStreaming(@NonNull Context context, @NonNull NegotiationTarget target) throws StreamCreationException;
+
+    /**
+     * Sets whether this stream is recorded, from the next time it begins. Each recording is a new directory of
+     * memory mapped, append-only segment files in the application's buffer cache directory, whose {@link Uri} is
+     * returned when streaming begins; a new segment is started whenever one fills up. The recording ends when
+     * streaming is terminated.
+     *
+     * @param mode        The {@link CaptureMode}, {@link CaptureMode#NONE} to stop recording.
+     * @param segmentSize The size of each segment file in bytes. A payload or frame which does not fit in an empty
+     *                    segment is not recorded.
+     *
+     * @see CaptureWriter
+     */
+    void setCaptureMode(@NonNull CaptureMode mode, @IntRange(from = 1) long segmentSize);
+
+    /**
+     * Terminates streaming from this interface. Other streams of the device are unaffected.
+     *
+     * @param context {@link Context} The application context.
+     */
+    void terminateStreaming(@NonNull Context context);
+
+    /**
+     * Sets the receiver of complete frames from this stream, replacing any queue or subscribers. Each {@link Frame}
+     * must be {@link Frame#release()}d once consumed.
+     *
+     * @param listener {@link FrameAssembler.FrameListener} to receive frames, or {@code null} to discard them.
+     */
+    void setFrameListener(@Nullable FrameAssembler.FrameListener listener);
+
+    /**
+     * Creates a bounded {@link FrameQueue} and installs it as this stream's frame receiver, replacing any listener or
+     * subscribers.
+     *
+     * @param capacity The maximum number of frames waiting for the consumer.
+     * @param policy   The {@link DropPolicy} to apply when the queue is full.
+     *
+     * @return The installed {@link FrameQueue}.
+     */
+    @NonNull
+    FrameQueue openFrameQueue(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy);
+
+    /**
+     * Retrieves the queue this stream's frames are currently delivered to.
+     *
+     * @return The {@link FrameQueue}, or {@code null} if frames are going to a plain listener or subscribers.
+     */
+    @Nullable
+    FrameQueue getFrameQueue();
+
+    /**
+     * Adds a subscriber to this stream's frames. Every subscriber sees every frame, shared without copying: each
+     * {@link Frame} taken from the returned queue is read-only and reference counted, and its buffer returns to the
+     * pool once every subscriber has {@link Frame#release()}d it. The first subscriber replaces any listener or queue.
+     * <p>
+     * Each subscriber has its own queue depth and {@link DropPolicy}, so a lagging subscriber only loses its own
+     * frames. Frames are offered to subscribers in turn, however, so a full {@link DropPolicy#BLOCK} subscriber holds
+     * back the others.
+     *
+     * @param capacity The maximum number of frames waiting for the subscriber.
+     * @param policy   The {@link DropPolicy} to apply when the subscriber falls behind.
+     *
+     * @return The subscriber's {@link FrameQueue}.
+     */
+    @NonNull
+    FrameQueue subscribe(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy);
+
+    /**
+     * Removes a subscriber, closing its queue and releasing the frames still waiting in it.
+     *
+     * @param queue The {@link FrameQueue} returned by {@link #subscribe(int, DropPolicy)}.
+     */
+    void unsubscribe(@NonNull FrameQueue queue);
+
+    /**
+     * Creates a cold, demand driven {@link FramePublisher} of this stream's frames. It starts streaming in a format
+     * when its first subscriber arrives, and suspends the stream when the last one cancels.
+     *
+     * @param context {@link Context} The application context.
+     * @param format  The {@link VideoFormat} to stream in.
+     *
+     * @return The {@link FramePublisher}.
+     */
+    @NonNull
+    FramePublisher createFramePublisher(@NonNull Context context, @NonNull VideoFormat format);
+
+    /**
+     * Creates a cold, demand driven {@link FramePublisher} of this stream's frames. It starts streaming with the
+     * lowest bandwidth parameters meeting a {@link NegotiationTarget} when its first subscriber arrives, and suspends
+     * the stream when the last one cancels.
+     *
+     * @param context {@link Context} The application context.
+     * @param target  The {@link NegotiationTarget} to meet.
+     *
+     * @return The {@link FramePublisher}.
+     */
+    @NonNull
+    FramePublisher createFramePublisher(@NonNull Context context, @NonNull NegotiationTarget target);
+
+    /**
+     * Retrieves the pool this stream's frame buffers are drawn from.
+     *
+     * @return The active {@link FrameBufferPool}, or {@code null} if streaming has not started.
+     */
+    @Nullable
+    FrameBufferPool getFrameBufferPool();
+
+    /**
+     * Takes a snapshot of this stream's health.
+     *
+     * @return A new {@link StreamStats} for the current or most recent stream, or {@code null} if streaming has not
+     * started.
+     */
+    @Nullable
+    StreamStats getStreamStats();
+}
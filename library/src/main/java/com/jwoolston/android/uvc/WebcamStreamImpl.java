@@ -0,0 +1,339 @@
+package com.jwoolston.android.uvc;
+
+import android.content.Context;
+import android.net.Uri;
+import android.support.annotation.IntRange;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.support.annotation.WorkerThread;
+import android.util.SparseArray;
+import com.jwoolston.android.uvc.capture.CaptureMode;
+import com.jwoolston.android.uvc.capture.CaptureWriter;
+import com.jwoolston.android.uvc.frames.DropPolicy;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.frames.FrameBufferPool;
+import com.jwoolston.android.uvc.frames.FrameFanout;
+import com.jwoolston.android.uvc.frames.FrameQueue;
+import com.jwoolston.android.uvc.interfaces.VideoStreamingInterface;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.payload.PacketTrace;
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Locale;
+import timber.log.Timber;
+
+/**
+ * The streaming state of one video streaming interface: its {@link StreamManager}, frame buffer pools and transfer
+ * tuning. Device wide settings and the connection itself come from the owning {@link WebcamConnection}.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+class WebcamStreamImpl implements WebcamStream, FrameBufferPool.Provider {
+
+    private final WebcamConnection        webcamConnection;
+    private final VideoStreamingInterface streamingInterface;
+
+    private final SparseArray<FrameBufferPool> framePools = new SparseArray<>();
+
+    // Outlives individual streams so that what it learns about the endpoint carries over
+    private final TransferTuner transferTuner = new TransferTuner();
+
+    private StreamManager                streamManager;
+    private FrameAssembler.FrameListener frameListener;
+    private FrameBufferPool              activeFramePool;
+    private FrameFanout                  frameFanout;
+    private CaptureWriter                captureWriter;
+    private CaptureMode                  captureMode        = CaptureMode.NONE;
+    private long                         captureSegmentSize = CaptureWriter.DEFAULT_SEGMENT_SIZE;
+    private int                          profilePooledFrames; // Raised by the streaming profile, 0 if none
+
+    private volatile FrameQueue frameQueue;
+
+    WebcamStreamImpl(@NonNull WebcamConnection webcamConnection,
+                     @NonNull VideoStreamingInterface streamingInterface) {
+        this.webcamConnection = webcamConnection;
+        this.streamingInterface = streamingInterface;
+    }
+
+    @Override
+    public int getInterfaceNumber() {
+        return streamingInterface.getInterfaceNumber();
+    }
+
+    @NonNull
+    @Override
+    public List<VideoFormat> getAvailableFormats() {
+        return streamingInterface.getAvailableFormats();
+    }
+
+    @Nullable
+    @Override
+    public Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format) throws StreamCreationException {
+        return beginStreaming(context, format, null);
+    }
+
+    @Nullable
+    @Override
+    public Uri beginStreaming(@NonNull Context context, @NonNull VideoFormat format,
+                              @Nullable StreamingProfile profile) throws StreamCreationException {
+        Timber.d("Establishing streaming parameters for interface %d.", getInterfaceNumber());
+        if (profile != null) {
+            openFrameQueue(profile.getQueueCapacity(), profile.getDropPolicy());
+        }
+        prepareStreamManager(context, profile).establishStreaming(format, format.getDefaultFrame());
+        return getCaptureUri();
+    }
+
+    @Nullable
+    @Override
+    public Uri beginStreaming(@NonNull Context context, @NonNull NegotiationTarget target)
+            throws StreamCreationException {
+        Timber.d("Negotiating streaming parameters for %s on interface %d.", target, getInterfaceNumber());
+        prepareStreamManager(context, null).establishStreaming(target);
+        return getCaptureUri();
+    }
+
+    @NonNull
+    private StreamManager prepareStreamManager(@NonNull Context context, @Nullable StreamingProfile profile)
+            throws StreamCreationException {
+        final StreamManager previous = getStreamManager();
+        if (previous != null) {
+            // Its transfers must drain and its bandwidth reservation go before the new stream claims the interface
+            previous.suspendStream();
+        }
+        final StreamManager manager = new StreamManager(webcamConnection.transport,
+                                                        webcamConnection.getControlInterface(), streamingInterface);
+        if (profile != null) {
+            Timber.d("Applying streaming profile %s.", profile);
+            profile.applyTo(transferTuner);
+            manager.setHint(profile.getHint());
+        }
+        // One frame in assembly and one with the consumer on top of a full queue
+        setProfilePooledFrames(profile != null ? profile.getQueueCapacity() + 2 : 0);
+        manager.setFrameBufferPoolProvider(this);
+        manager.setPacketTrace(webcamConnection.getPacketTrace());
+        manager.setTransferTuner(transferTuner);
+        manager.setProbeCache(webcamConnection.getProbeCache(context), webcamConnection.getDeviceId());
+        manager.setBandwidthManager(WebcamManager.getBandwidthManager(), webcamConnection.getBusId());
+        final CaptureWriter writer = openCapture(context);
+        manager.setCaptureWriter(writer, writer != null ? captureMode : CaptureMode.NONE);
+        synchronized (this) {
+            manager.setFrameListener(frameListener);
+            streamManager = manager;
+        }
+        return manager;
+    }
+
+    /**
+     * The manager of the current or most recent stream. Calls into it are made without holding this object's lock,
+     * since its recovery thread calls back into {@link #getFrameBufferPool(int)} while holding its own.
+     */
+    @Nullable
+    private synchronized StreamManager getStreamManager() {
+        return streamManager;
+    }
+
+    @Override
+    public void terminateStreaming(@NonNull Context context) {
+        final StreamManager manager = getStreamManager();
+        if (manager != null) {
+            manager.terminateStream();
+        }
+        closeCapture();
+        setProfilePooledFrames(0);
+    }
+
+    @Override
+    public synchronized void setCaptureMode(@NonNull CaptureMode mode, @IntRange(from = 1) long segmentSize) {
+        captureMode = mode;
+        captureSegmentSize = segmentSize;
+    }
+
+    /**
+     * Starts a new recording if one is enabled, ending any previous one.
+     *
+     * @return The {@link CaptureWriter} of the new recording, or {@code null} if the stream is not being recorded.
+     */
+    @Nullable
+    private synchronized CaptureWriter openCapture(@NonNull Context context) throws StreamCreationException {
+        closeCapture();
+        if (captureMode == CaptureMode.NONE) {
+            return null;
+        }
+        final String name = String.format(Locale.US, "%s-%d-%d", webcamConnection.getDeviceId().replace(':', '_'),
+                                          getInterfaceNumber(), System.currentTimeMillis());
+        final File directory = new File(WebcamManager.getBufferCacheDir(context), name);
+        try {
+            captureWriter = new CaptureWriter(directory, captureSegmentSize);
+        } catch (IOException e) {
+            throw new StreamCreationException(e);
+        }
+        Timber.d("Recording %s to %s.", captureMode, directory);
+        return captureWriter;
+    }
+
+    private synchronized void closeCapture() {
+        if (captureWriter != null) {
+            captureWriter.close();
+            captureWriter = null;
+        }
+    }
+
+    @Nullable
+    private synchronized Uri getCaptureUri() {
+        return captureWriter != null ? Uri.fromFile(captureWriter.getDirectory()) : null;
+    }
+
+    @Override
+    public void setFrameListener(@Nullable FrameAssembler.FrameListener listener) {
+        frameQueue = null;
+        installFrameListener(listener);
+    }
+
+    private void installFrameListener(@Nullable FrameAssembler.FrameListener listener) {
+        final FrameFanout replaced;
+        synchronized (this) {
+            frameListener = listener;
+            if (streamManager != null) {
+                streamManager.setFrameListener(listener);
+            }
+            replaced = frameFanout;
+            frameFanout = null;
+        }
+        if (replaced != null) {
+            replaced.unsubscribeAll();
+        }
+    }
+
+    @NonNull
+    @Override
+    public FrameQueue openFrameQueue(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        final FrameQueue queue = new FrameQueue(capacity, policy);
+        // Frames are delivered on the stream processing thread, which may wait for the consumer
+        queue.setProducerMayBlock(true);
+        installFrameListener(queue);
+        frameQueue = queue;
+        return queue;
+    }
+
+    @Nullable
+    @Override
+    public FrameQueue getFrameQueue() {
+        return frameQueue;
+    }
+
+    @NonNull
+    @Override
+    public FrameQueue subscribe(@IntRange(from = 1) int capacity, @NonNull DropPolicy policy) {
+        return getFrameFanout().subscribe(capacity, policy);
+    }
+
+    @NonNull
+    @Override
+    public FramePublisher createFramePublisher(@NonNull Context context, @NonNull VideoFormat format) {
+        return new FramePublisher(this, context, format, null);
+    }
+
+    @NonNull
+    @Override
+    public FramePublisher createFramePublisher(@NonNull Context context, @NonNull NegotiationTarget target) {
+        return new FramePublisher(this, context, null, target);
+    }
+
+    /**
+     * The fan out frames are shared through, installing one as the frame receiver if needed.
+     */
+    @NonNull
+    synchronized FrameFanout getFrameFanout() {
+        if (frameFanout == null) {
+            frameFanout = new FrameFanout();
+            frameListener = frameFanout;
+            frameQueue = null;
+            if (streamManager != null) {
+                streamManager.setFrameListener(frameFanout);
+            }
+        }
+        return frameFanout;
+    }
+
+    /**
+     * Stops the stream and returns the interface to its zero bandwidth alternate setting.
+     */
+    @WorkerThread
+    void suspendStreaming() {
+        final StreamManager manager = getStreamManager();
+        if (manager != null) {
+            manager.suspendStream();
+        }
+    }
+
+    @Override
+    public void unsubscribe(@NonNull FrameQueue queue) {
+        final FrameFanout fanout;
+        synchronized (this) {
+            fanout = frameFanout;
+        }
+        if (fanout != null) {
+            fanout.unsubscribe(queue);
+        }
+    }
+
+    @Nullable
+    @Override
+    public synchronized FrameBufferPool getFrameBufferPool() {
+        return activeFramePool;
+    }
+
+    @NonNull
+    @Override
+    public synchronized FrameBufferPool getFrameBufferPool(int frameSize) {
+        FrameBufferPool pool = framePools.get(frameSize);
+        if (pool == null) {
+            pool = new FrameBufferPool(frameSize, Math.max(webcamConnection.getMaxPooledFrames(),
+                                                           profilePooledFrames));
+            framePools.put(frameSize, pool);
+        }
+        activeFramePool = pool;
+        return pool;
+    }
+
+    @Nullable
+    @Override
+    public StreamStats getStreamStats() {
+        final StreamManager manager = getStreamManager();
+        return manager != null ? manager.getStreamStats() : null;
+    }
+
+    synchronized void setMaxPooledFrames(@IntRange(from = 1) int count) {
+        final int frames = Math.max(count, profilePooledFrames);
+        for (int i = 0; i < framePools.size(); ++i) {
+            framePools.valueAt(i).setMaxFrames(frames);
+        }
+    }
+
+    /**
+     * Raises the pools of this stream alone above the connection wide maximum, for as long as the profile which needs
+     * it is in use. The connection wide maximum is restored once it is not.
+     *
+     * @param frames The number of frame buffers the profile needs, or 0 to drop back to the connection wide maximum.
+     */
+    private synchronized void setProfilePooledFrames(int frames) {
+        if (frames == profilePooledFrames) {
+            return;
+        }
+        profilePooledFrames = frames;
+        setMaxPooledFrames(webcamConnection.getMaxPooledFrames());
+    }
+
+    void setPacketTrace(@Nullable PacketTrace trace) {
+        final StreamManager manager = getStreamManager();
+        if (manager != null) {
+            manager.setPacketTrace(trace);
+        }
+    }
+
+    void setLatencyBudget(@IntRange(from = 1) int micros) {
+        transferTuner.setLatencyBudget(micros);
+    }
+}
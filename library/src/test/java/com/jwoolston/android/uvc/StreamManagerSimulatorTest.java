@@ -0,0 +1,107 @@
+package com.jwoolston.android.uvc;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import android.support.annotation.NonNull;
+import com.jwoolston.android.uvc.frames.Frame;
+import com.jwoolston.android.uvc.frames.FrameAssembler;
+import com.jwoolston.android.uvc.interfaces.Descriptor;
+import com.jwoolston.android.uvc.interfaces.InterfaceAssociationDescriptor;
+import com.jwoolston.android.uvc.interfaces.VideoControlInterface;
+import com.jwoolston.android.uvc.interfaces.VideoStreamingInterface;
+import com.jwoolston.android.uvc.interfaces.streaming.VideoFormat;
+import com.jwoolston.android.uvc.simulator.DescriptorBuilder;
+import com.jwoolston.android.uvc.simulator.SimulatedCamera;
+import com.jwoolston.android.uvc.simulator.SimulatedTransport;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Streams from a {@link SimulatedCamera} through descriptor parsing, probe and commit, alternate setting selection,
+ * isochronous transfers and frame assembly, as fast as the simulator produces packets.
+ *
+ * @author Jared Woolston (Jared.Woolston@gmail.com)
+ */
+public class StreamManagerSimulatorTest {
+
+    private static final int FRAME_COUNT = 20;
+    private static final int YUY2_FORMAT = 1; // 640x480 YUY2, after the MJPEG format
+    private static final int YUY2_FRAME  = 640 * 480 * 2;
+    private static final int TIMEOUT     = 10000;
+
+    private final AtomicInteger  wrongSizeFrames = new AtomicInteger();
+    private final CountDownLatch frames          = new CountDownLatch(FRAME_COUNT);
+
+    private SimulatedCamera         camera;
+    private SimulatedTransport      transport;
+    private VideoStreamingInterface streamingInterface;
+    private StreamManager           manager;
+
+    @Before
+    public void setUp() {
+        camera = new SimulatedCamera(DescriptorBuilder.uhd60());
+        transport = new SimulatedTransport(camera);
+        transport.setPaced(false);
+        final List<InterfaceAssociationDescriptor> iads = Descriptor.parseDescriptors(transport.getRawDescriptors());
+        final InterfaceAssociationDescriptor iad = iads.get(0);
+        final VideoControlInterface controlInterface = (VideoControlInterface) iad
+                .getInterface(iad.getIndexFirstInterface());
+        streamingInterface = (VideoStreamingInterface) iad.getInterface(controlInterface.getStreamingInterfaces()[0]);
+        manager = new StreamManager(transport, controlInterface, streamingInterface);
+        manager.setFrameListener(new FrameAssembler.FrameListener() {
+            @Override
+            public void onFrameAssembled(@NonNull Frame frame) {
+                if (frame.getSize() != YUY2_FRAME) {
+                    wrongSizeFrames.incrementAndGet();
+                }
+                frame.release();
+                frames.countDown();
+            }
+        });
+    }
+
+    @After
+    public void tearDown() {
+        manager.suspendStream();
+        transport.close();
+    }
+
+    @Test
+    public void streamsCompleteFrames() throws Exception {
+        final VideoFormat format = streamingInterface.getAvailableFormats().get(YUY2_FORMAT);
+        manager.establishStreaming(format, format.getDefaultFrame());
+        assertEquals(StreamManager.State.STREAMING, manager.getState());
+        assertTrue(camera.isStreaming());
+        assertTrue(camera.getAlternateSetting() > 0);
+        assertTrue("Timed out waiting for frames", frames.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        assertEquals(0, wrongSizeFrames.get());
+
+        manager.suspendStream();
+        assertEquals(StreamManager.State.IDLE, manager.getState());
+        assertEquals(0, camera.getAlternateSetting());
+        final StreamStats stats = manager.getStreamStats();
+        assertTrue(stats.getCompleteFrameCount() >= FRAME_COUNT);
+        assertEquals(0, stats.getMalformedPacketCount());
+    }
+
+    @Test
+    public void lostPacketsNeverCompleteFrames() throws Exception {
+        camera.setSeed(SimulatedCamera.DEFAULT_SEED);
+        camera.setPacketLossRate(0.001);
+        final VideoFormat format = streamingInterface.getAvailableFormats().get(YUY2_FORMAT);
+        manager.establishStreaming(format, format.getDefaultFrame());
+        assertTrue("Timed out waiting for frames", frames.await(TIMEOUT, TimeUnit.MILLISECONDS));
+        manager.suspendStream();
+        // A frame missing a packet would be short; it must be counted as partial instead of delivered
+        assertEquals(0, wrongSizeFrames.get());
+        final StreamStats stats = manager.getStreamStats();
+        assertTrue(stats.getErroredPacketCount() > 0);
+        assertTrue(stats.getPartialFrameCount() > 0);
+    }
+}